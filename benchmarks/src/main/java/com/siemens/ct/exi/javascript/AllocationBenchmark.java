@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+
+package com.siemens.ct.exi.javascript;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.json.stream.JsonParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.siemens.ct.exi.core.exceptions.EXIException;
+
+/**
+ * Bytes allocated per AST node by the encoder alone, see InOrderBodyEncoder.
+ * The code is parsed once in the setup and its ESTree replayed by every
+ * operation. Run with <code>-prof gc</code>; <code>gc.alloc.rate.norm</code>
+ * divided by the number of nodes the setup prints is the figure per node.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AllocationBenchmark {
+
+	@Param({ "jquery.min.js", "react.min.js", "angular2.min.js" })
+	public String file;
+
+	@Param({ "BIT_PACKED", "BYTE_PACKED" })
+	public String codingMode;
+
+	ESTree.Events parsed;
+	JStoEXI js2exi;
+	ByteArrayOutputStream baos;
+
+	@Setup
+	public void setup() throws IOException {
+		String jsCode = Corpus.read(file);
+		parsed = (ESTree.Events) new ES2015Parser().parse(jsCode.toCharArray());
+		int nodes = 0;
+		while (parsed.hasNext()) {
+			if (parsed.next() == JsonParser.Event.START_OBJECT) {
+				nodes++;
+			}
+		}
+		System.out.println(file + ": " + nodes + " nodes");
+		js2exi = new JStoEXI(Corpus.factory(codingMode));
+		baos = new ByteArrayOutputStream(jsCode.length());
+	}
+
+	@TearDown
+	public void tearDown() {
+		parsed.close();
+	}
+
+	@Benchmark
+	public int encode() throws IOException, EXIException {
+		baos.reset();
+		js2exi.generate(new ESTree.Events(parsed.tree), baos);
+		return baos.size();
+	}
+}
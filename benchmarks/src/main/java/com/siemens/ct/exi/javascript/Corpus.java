@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+package com.siemens.ct.exi.javascript;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import com.siemens.ct.exi.core.EXIFactory;
+
+/**
+ * Test corpus (bundled from src/test/resources) and coding modes shared by
+ * the benchmarks.
+ */
+class Corpus {
+
+	static String read(String file) throws IOException {
+		InputStream is = Corpus.class.getResourceAsStream("/" + file);
+		if (is == null) {
+			throw new IOException("Not part of the corpus: " + file);
+		}
+		try {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int len;
+			while ((len = is.read(buffer)) != -1) {
+				baos.write(buffer, 0, len);
+			}
+			return new String(baos.toByteArray(), StandardCharsets.UTF_8);
+		} finally {
+			is.close();
+		}
+	}
+
+	/* coding modes as set up by JSConstants */
+	static EXIFactory factory(String codingMode) {
+		switch (codingMode) {
+		case "BIT_PACKED":
+			return JSConstants.EXI_FACTORY;
+		case "BYTE_PACKED":
+			return JSConstants.EXI_FACTORY_BYTE_PACKED;
+		case "PRE_COMPRESSION":
+			return JSConstants.EXI_FACTORY_PRE_COMPRESSION;
+		case "COMPRESSION":
+			return JSConstants.EXI_FACTORY_COMPRESSION;
+		case "DEDUP":
+			// BIT_PACKED with back-references
+			return JSConstants.EXI_FACTORY_DEDUP;
+		default:
+			throw new IllegalArgumentException("Unknown coding mode " + codingMode);
+		}
+	}
+}
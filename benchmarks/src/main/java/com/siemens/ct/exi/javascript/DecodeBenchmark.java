@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+package com.siemens.ct.exi.javascript;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.siemens.ct.exi.core.exceptions.EXIException;
+
+/**
+ * EXI4JS to JSON AST and to JavaScript, the EXI streams are encoded once in
+ * the setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeBenchmark {
+
+	@Param({ "animals.js", "browserDetection.js", "xCryptic.app.js", "jquery.js", "jquery.min.js", "react.js",
+			"react.min.js", "angular2.js", "angular2.min.js" })
+	public String file;
+
+	@Param({ "BIT_PACKED", "BYTE_PACKED", "PRE_COMPRESSION", "COMPRESSION", "DEDUP" })
+	public String codingMode;
+
+	byte[] exi;
+	EXItoAST exi2ast;
+	EXItoJS exi2js;
+	ByteArrayOutputStream baos;
+
+	@Setup
+	public void setup() throws IOException, EXIException {
+		String jsCode = Corpus.read(file);
+		ByteArrayOutputStream exiStream = new ByteArrayOutputStream();
+		new JStoEXI(Corpus.factory(codingMode)).generateFromSource(jsCode, exiStream);
+		exi = exiStream.toByteArray();
+		exi2ast = new EXItoAST(Corpus.factory(codingMode));
+		exi2js = new EXItoJS(Corpus.factory(codingMode));
+		baos = new ByteArrayOutputStream(jsCode.length() * 4);
+	}
+
+	@Benchmark
+	public int generate() throws IOException, EXIException {
+		baos.reset();
+		exi2ast.generate(new ByteArrayInputStream(exi), baos);
+		return baos.size();
+	}
+
+	@Benchmark
+	public int generateJavaScript() throws IOException, EXIException {
+		baos.reset();
+		exi2js.generate(new ByteArrayInputStream(exi), baos);
+		return baos.size();
+	}
+}
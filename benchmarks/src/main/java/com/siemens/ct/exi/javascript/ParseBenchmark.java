@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+package com.siemens.ct.exi.javascript;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.json.stream.JsonParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.siemens.ct.exi.core.exceptions.EXIException;
+
+/**
+ * JavaScript to AST, independent of any EXI coding mode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+	@Param({ "animals.js", "browserDetection.js", "xCryptic.app.js", "jquery.js", "jquery.min.js", "react.js",
+			"react.min.js", "angular2.js", "angular2.min.js" })
+	public String file;
+
+	String jsCode;
+	char[] jsChars;
+	final ES2015Parser es2015 = new ES2015Parser();
+
+	@Setup
+	public void setup() throws IOException {
+		jsCode = Corpus.read(file);
+		jsChars = jsCode.toCharArray();
+	}
+
+	/* JSON AST as used by JStoEXI.generate(String, OutputStream) */
+	@Benchmark
+	public String getAST() throws IOException, EXIException {
+		return JStoAST.getAST(jsCode);
+	}
+
+	/* parser tree as used by JStoEXI.generateFromSource with a NashornParser */
+	@Benchmark
+	public Object parse() {
+		return JStoAST.parse(jsCode);
+	}
+
+	/* ESTree as used by JStoEXI.generateFromSource by default */
+	@Benchmark
+	public int es2015() {
+		JsonParser events = es2015.parse(jsChars);
+		int n = 0;
+		while (events.hasNext()) {
+			events.next();
+			n++;
+		}
+		events.close();
+		return n;
+	}
+}
@@ -0,0 +1,542 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package com.siemens.ct.exi.javascript;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+import javax.json.stream.JsonParserFactory;
+import javax.xml.namespace.QName;
+
+import com.siemens.ct.exi.core.EXIBodyEncoder;
+import com.siemens.ct.exi.core.context.QNameContext;
+import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.core.values.BooleanValue;
+import com.siemens.ct.exi.core.values.Value;
+import com.siemens.ct.exi.javascript.NodeDescriptor.Kind;
+import com.siemens.ct.exi.javascript.NodeDescriptor.Slot;
+
+/**
+ * Encodes a JSON AST (as produced by {@link JStoAST}) while it is being read
+ * by a {@link JsonParser}. Only the path from the root to the current node is
+ * kept in memory.
+ *
+ * <p>
+ * EXI requires the properties of a node in schema order whereas JSON does not
+ * guarantee any key order (e.g. Nashorn writes <code>consequent</code> before
+ * <code>alternate</code>). Properties that arrive ahead of their turn are
+ * recorded as EXI events and replayed once all preceding properties have been
+ * encoded. The output is identical to {@link JStoEXI#generate(String, java.io.OutputStream)}.
+ * </p>
+ *
+ * <p>
+ * Properties ahead of the <code>type</code> key cannot be encoded before the
+ * node is known. In that rare case the rest of the node is buffered and
+ * encoded from memory.
+ * </p>
+ */
+class ASTStreamToEXI {
+
+	static final JsonParserFactory PARSERS = Json.createParserFactory(null);
+
+	/**
+	 * Target of EXI events, either the body encoder itself or a recording that
+	 * is replayed later.
+	 */
+	static abstract class Sink {
+		abstract void startElement(QNameContext qnc) throws EXIException, IOException;
+
+		abstract void endElement() throws EXIException, IOException;
+
+		abstract void characters(Value value) throws EXIException, IOException;
+
+		abstract void characters(String s) throws EXIException, IOException;
+	}
+
+	static class EncoderSink extends Sink {
+		final EXIBodyEncoder bodyEncoder;
+
+		EncoderSink(EXIBodyEncoder bodyEncoder) {
+			this.bodyEncoder = bodyEncoder;
+		}
+
+		void startElement(QNameContext qnc) throws EXIException, IOException {
+			QName qname = qnc.getQName();
+			bodyEncoder.encodeStartElement(qname.getNamespaceURI(), qname.getLocalPart(), null);
+		}
+
+		void endElement() throws EXIException, IOException {
+			bodyEncoder.encodeEndElement();
+		}
+
+		void characters(Value value) throws EXIException, IOException {
+			bodyEncoder.encodeCharacters(value);
+		}
+
+		void characters(String s) throws EXIException, IOException {
+			InOrderBodyEncoder.characters(bodyEncoder, s);
+		}
+	}
+
+	static class RecordingSink extends Sink {
+		static final Object END_ELEMENT = new Object();
+
+		/* QNameContext (SE), END_ELEMENT (EE), String or Value (CH) */
+		final List<Object> events = new ArrayList<Object>();
+
+		void startElement(QNameContext qnc) {
+			events.add(qnc);
+		}
+
+		void endElement() {
+			events.add(END_ELEMENT);
+		}
+
+		void characters(Value value) {
+			events.add(value);
+		}
+
+		void characters(String s) {
+			events.add(s);
+		}
+
+		void replay(Sink sink) throws EXIException, IOException {
+			for (int i = 0; i < events.size(); i++) {
+				Object event = events.get(i);
+				if (event == END_ELEMENT) {
+					sink.endElement();
+				} else if (event instanceof QNameContext) {
+					sink.startElement((QNameContext) event);
+				} else if (event instanceof String) {
+					sink.characters((String) event);
+				} else {
+					sink.characters((Value) event);
+				}
+			}
+		}
+	}
+
+	/* replaced by a parser over a buffered node while that is encoded */
+	JsonParser parser;
+
+	/* encoded nodes by NodeDescriptor#index, null unless metrics are enabled */
+	int[] nodeTypes;
+
+	ASTStreamToEXI(JsonParser parser) {
+		this.parser = parser;
+	}
+
+	void encode(EXIBodyEncoder bodyEncoder) throws EXIException, IOException {
+		bodyEncoder.encodeStartDocument();
+		encode(new EncoderSink(bodyEncoder));
+		bodyEncoder.encodeEndDocument();
+		bodyEncoder.flush();
+	}
+
+	/* the Program element only, without document events */
+	void encode(Sink sink) throws EXIException, IOException {
+		if (!parser.hasNext() || parser.next() != Event.START_OBJECT) {
+			throw new RuntimeException("Unexpected JsonArray");
+		}
+		handleNode(sink, null, "Program");
+	}
+
+	/**
+	 * Handles the members of a node object, START_OBJECT has been consumed
+	 * already.
+	 *
+	 * @return the type of the node
+	 */
+	String handleNode(Sink sink, String defaultType) throws EXIException, IOException {
+		return handleNode(sink, defaultType, null);
+	}
+
+	String handleNode(Sink sink, String defaultType, String expectedType) throws EXIException, IOException {
+		String type = null;
+		NodeDescriptor nd = null;
+		Slot[] slots = null;
+		/* created once a property arrives ahead of its turn */
+		RecordingSink[] pending = null;
+		int next = 0;
+
+		Event e;
+		while ((e = parser.next()) != Event.END_OBJECT) {
+			if (e != Event.KEY_NAME) {
+				throw new RuntimeException("Unexpected JSON event " + e + " in node");
+			}
+			String key = parser.getString();
+
+			if (slots == null) {
+				// type not known yet
+				if ("type".equals(key)) {
+					expect(Event.VALUE_STRING, key);
+					type = parser.getString();
+				} else {
+					// e.g., {"prefix":true,"type":"UnaryExpression",...}
+					return handleBufferedNode(sink, readObject(e), defaultType, expectedType);
+				}
+				if (expectedType != null && !expectedType.equals(type)) {
+					throw new RuntimeException("Unexpected type: " + type);
+				}
+				nd = NodeDescriptor.get(type);
+				slots = nd.slots;
+				if (nodeTypes != null) {
+					nodeTypes[nd.index]++;
+				}
+				sink.startElement(nd.qname);
+				if ("type".equals(key)) {
+					continue;
+				}
+			}
+
+			if ("block".equals(key) && "BlockStatement".equals(type)) {
+				// TODO Nashorn seems to have it sometimes in another "block"
+				expect(Event.START_OBJECT, key);
+				next = handleBlock(sink, slots, pending, next);
+				continue;
+			}
+
+			int index = nd.indexOf(key);
+			if (index < 0) {
+				if (!"loc".equals(key) && !"range".equals(key)) {
+					// the schema does not know it, it would get lost
+					throw new RuntimeException("Unsupported property " + key + " in " + type);
+				}
+				skipValue(parser.next());
+			} else if (index < next) {
+				throw new RuntimeException("Property " + key + " in " + type + " is duplicate or arrives too late");
+			} else if (index == next) {
+				handleSlot(sink, slots[index], parser.next());
+				next = flush(sink, slots, pending, index + 1);
+			} else {
+				// ahead of its turn, defaults for omitted ones in-between
+				while (next < index && (pending == null || pending[next] == null) && slots[next].omittable) {
+					handleMissingSlot(sink, slots[next++]);
+				}
+				if (index == next) {
+					handleSlot(sink, slots[index], parser.next());
+					next = flush(sink, slots, pending, index + 1);
+				} else {
+					RecordingSink rs = new RecordingSink();
+					handleSlot(rs, slots[index], parser.next());
+					if (pending == null) {
+						pending = new RecordingSink[slots.length];
+					}
+					pending[index] = rs;
+				}
+			}
+		}
+
+		if (slots == null) {
+			throw new RuntimeException("No key type in Node");
+		}
+
+		while (next < slots.length) {
+			if (pending == null || pending[next] == null) {
+				handleMissingSlot(sink, slots[next++]);
+			}
+			next = flush(sink, slots, pending, next);
+		}
+		sink.endElement();
+
+		return type;
+	}
+
+	/* the node with its type first */
+	String handleBufferedNode(Sink sink, JsonObject node, String defaultType, String expectedType)
+			throws EXIException, IOException {
+		JsonObjectBuilder ob = JsonTreeGenerator.BUILDERS.createObjectBuilder();
+		JsonValue type = node.get("type");
+		if (type != null) {
+			ob.add("type", type);
+		} else if (defaultType != null) {
+			// TODO not sure why Nashorn sometimes does not report type
+			// properly!
+			ob.add("type", defaultType);
+		} else {
+			throw new RuntimeException("No key type in Node");
+		}
+		for (Map.Entry<String, JsonValue> property : node.entrySet()) {
+			if (!"type".equals(property.getKey())) {
+				ob.add(property.getKey(), property.getValue());
+			}
+		}
+
+		JsonParser streaming = parser;
+		parser = PARSERS.createParser(ob.build());
+		try {
+			parser.next();
+			return handleNode(sink, null, expectedType);
+		} finally {
+			parser.close();
+			parser = streaming;
+		}
+	}
+
+	/* the rest of the current object, from its key or END_OBJECT event e */
+	JsonObject readObject(Event e) {
+		JsonObjectBuilder ob = JsonTreeGenerator.BUILDERS.createObjectBuilder();
+		for (; e != Event.END_OBJECT; e = parser.next()) {
+			String key = parser.getString();
+			switch (e = parser.next()) {
+			case START_OBJECT:
+				ob.add(key, readObject(parser.next()));
+				break;
+			case START_ARRAY:
+				ob.add(key, readArray());
+				break;
+			case VALUE_STRING:
+				ob.add(key, parser.getString());
+				break;
+			case VALUE_NUMBER:
+				ob.add(key, parser.getBigDecimal());
+				break;
+			case VALUE_TRUE:
+			case VALUE_FALSE:
+				ob.add(key, e == Event.VALUE_TRUE);
+				break;
+			default:
+				ob.addNull(key);
+			}
+		}
+		return ob.build();
+	}
+
+	JsonArray readArray() {
+		JsonArrayBuilder ab = JsonTreeGenerator.BUILDERS.createArrayBuilder();
+		Event e;
+		while ((e = parser.next()) != Event.END_ARRAY) {
+			switch (e) {
+			case START_OBJECT:
+				ab.add(readObject(parser.next()));
+				break;
+			case START_ARRAY:
+				ab.add(readArray());
+				break;
+			case VALUE_STRING:
+				ab.add(parser.getString());
+				break;
+			case VALUE_NUMBER:
+				ab.add(parser.getBigDecimal());
+				break;
+			case VALUE_TRUE:
+			case VALUE_FALSE:
+				ab.add(e == Event.VALUE_TRUE);
+				break;
+			default:
+				ab.addNull();
+			}
+		}
+		return ab.build();
+	}
+
+	/* e.g., {"type":"BlockStatement","block":{"type":"BlockStatement","body":[...]}} */
+	int handleBlock(Sink sink, Slot[] slots, RecordingSink[] pending, int next)
+			throws EXIException, IOException {
+		Event e;
+		while ((e = parser.next()) != Event.END_OBJECT) {
+			if (e != Event.KEY_NAME) {
+				throw new RuntimeException("Unexpected JSON event " + e + " in block");
+			}
+			String key = parser.getString();
+			if ("body".equals(key) && next == 0) {
+				handleSlot(sink, slots[0], parser.next());
+				next = flush(sink, slots, pending, 1);
+			} else {
+				skipValue(parser.next());
+			}
+		}
+		return next;
+	}
+
+	int flush(Sink sink, Slot[] slots, RecordingSink[] pending, int next) throws EXIException, IOException {
+		while (pending != null && next < slots.length && pending[next] != null) {
+			pending[next].replay(sink);
+			pending[next] = null;
+			next++;
+		}
+		return next;
+	}
+
+	void handleMissingSlot(Sink sink, Slot slot) throws EXIException, IOException {
+		switch (slot.kind) {
+		case NODE_OR_NULL:
+			sink.startElement(slot.qname);
+			handleNull(sink);
+			sink.endElement();
+			break;
+		case BOOLEAN:
+			sink.startElement(slot.qname);
+			sink.characters(BooleanValue.BOOLEAN_VALUE_FALSE);
+			sink.endElement();
+			break;
+		case OPTIONAL_STRING:
+			// kind seems to be optional
+			break;
+		default:
+			throw new RuntimeException("Missing property " + slot.name);
+		}
+	}
+
+	void handleSlot(Sink sink, Slot slot, Event e) throws EXIException, IOException {
+		sink.startElement(slot.qname);
+
+		switch (slot.kind) {
+		case NODE:
+		case NODE_OR_NULL:
+			if (e == Event.START_OBJECT) {
+				handleNode(sink, slot.defaultType);
+			} else if (e == Event.VALUE_STRING) {
+				// Identifier given by its name only (e.g., labels)
+				handleIdentifier(sink, parser.getString());
+			} else if (e == Event.VALUE_NULL && slot.kind == Kind.NODE_OR_NULL) {
+				handleNull(sink);
+			} else {
+				throw new RuntimeException("Unsupported ValueType " + e + " for " + slot.name);
+			}
+			break;
+		case ARRAY:
+		case ARRAY_OR_NULL:
+			if (e != Event.START_ARRAY) {
+				throw new RuntimeException("Unsupported ValueType " + e + " for " + slot.name);
+			}
+			sink.startElement(QNames.ARRAY);
+			while ((e = parser.next()) != Event.END_ARRAY) {
+				if (e == Event.START_OBJECT) {
+					handleNode(sink, slot.defaultType);
+				} else if (e == Event.VALUE_NULL && slot.kind == Kind.ARRAY_OR_NULL) {
+					handleNull(sink);
+				} else {
+					throw new RuntimeException("Unexpected ValueType in " + slot.name + " array: " + e);
+				}
+			}
+			sink.endElement();
+			break;
+		case STRING:
+		case OPTIONAL_STRING:
+			if (e != Event.VALUE_STRING) {
+				throw new RuntimeException("Unsupported ValueType " + e + " for " + slot.name);
+			}
+			sink.characters(parser.getString());
+			break;
+		case BOOLEAN:
+			if (e == Event.VALUE_TRUE) {
+				sink.characters(BooleanValue.BOOLEAN_VALUE_TRUE);
+			} else if (e == Event.VALUE_FALSE) {
+				sink.characters(BooleanValue.BOOLEAN_VALUE_FALSE);
+			} else {
+				throw new RuntimeException("Unsupported ValueType " + e + " for " + slot.name);
+			}
+			break;
+		case LITERAL:
+			handleLiteralValue(sink, e);
+			break;
+		}
+
+		sink.endElement();
+	}
+
+	void handleLiteralValue(Sink sink, Event e) throws EXIException, IOException {
+		switch (e) {
+		case VALUE_STRING:
+			sink.startElement(QNames.STRING);
+			sink.characters(parser.getString());
+			sink.endElement();
+			break;
+		case VALUE_TRUE:
+		case VALUE_FALSE:
+			sink.startElement(QNames.BOOLEAN);
+			sink.characters(e == Event.VALUE_TRUE ? BooleanValue.BOOLEAN_VALUE_TRUE
+					: BooleanValue.BOOLEAN_VALUE_FALSE);
+			sink.endElement();
+			break;
+		case VALUE_NUMBER:
+			BigDecimal bd = parser.getBigDecimal();
+			if (Numbers.isInteger(bd)) {
+				sink.startElement(QNames.INTEGER);
+				sink.characters(Numbers.integerValue(bd));
+			} else {
+				sink.startElement(QNames.NUMBER);
+				sink.characters(Numbers.floatValue(bd));
+			}
+			sink.endElement();
+			break;
+		case VALUE_NULL:
+			handleNull(sink);
+			break;
+		default:
+			// TODO RegExp
+			throw new RuntimeException("Unsupported ValueType " + e + " in Value");
+		}
+	}
+
+	void handleIdentifier(Sink sink, String name) throws EXIException, IOException {
+		if (nodeTypes != null) {
+			nodeTypes[EXI4JSMetrics.IDENTIFIER]++;
+		}
+		sink.startElement(QNames.IDENTIFIER);
+		sink.startElement(QNames.NAME);
+		sink.characters(name);
+		sink.endElement();
+		sink.endElement();
+	}
+
+	void handleNull(Sink sink) throws EXIException, IOException {
+		sink.startElement(QNames.NULL);
+		sink.endElement();
+	}
+
+	void expect(Event expected, String key) {
+		Event e = parser.next();
+		if (e != expected) {
+			throw new RuntimeException("Unexpected JSON event " + e + " for " + key);
+		}
+	}
+
+	void skipValue(Event e) {
+		if (e == Event.START_OBJECT || e == Event.START_ARRAY) {
+			int depth = 1;
+			while (depth > 0) {
+				e = parser.next();
+				if (e == Event.START_OBJECT || e == Event.START_ARRAY) {
+					depth++;
+				} else if (e == Event.END_OBJECT || e == Event.END_ARRAY) {
+					depth--;
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+
+package com.siemens.ct.exi.javascript;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import com.siemens.ct.exi.core.EXIBodyDecoder;
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.EXIStreamDecoder;
+import com.siemens.ct.exi.core.coder.AbstractEXIBodyCoder;
+import com.siemens.ct.exi.core.context.QNameContext;
+import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.core.grammars.event.EventType;
+import com.siemens.ct.exi.core.values.BooleanValue;
+import com.siemens.ct.exi.core.values.Value;
+
+/**
+ * Reading side shared by the decoders: one {@link EXIStreamDecoder} that is
+ * reset by every new header and pull-style access to the element structure
+ * of an EXI4JS body. Subtrees can be skipped into a {@link Recording} and be
+ * read from there later on, see {@link LazyNode}. References to repeated
+ * subtrees are expanded transparently, see {@link Dedup}.
+ */
+abstract class AbstractDecoderSession {
+
+	/**
+	 * Events of skipped subtrees (of all subtrees if dedup): the start elements as {@link QNameContext},
+	 * the characters as {@link Value} and {@link #END} for end elements.
+	 */
+	static final class Recording {
+		static final Object END = new Object();
+
+		Object[] events = new Object[1024];
+		int size;
+
+		void add(Object event) {
+			if (size == events.length) {
+				events = Arrays.copyOf(events, size * 2);
+			}
+			events[size++] = event;
+		}
+	}
+
+	final EXIFactory ef;
+	final EXIStreamDecoder streamDecoder;
+
+	/* references to repeated subtrees are expanded, see Dedup */
+	final boolean dedup;
+
+	EXIBodyDecoder bodyDecoder;
+
+	/* where skipped subtrees go, null if nothing is skipped */
+	Recording recording;
+	/* read from the recording rather than the stream, see LazyNode */
+	boolean replay;
+	int position;
+
+	/* records the whole document while it is read, if dedup */
+	Dedup.Expander expander;
+
+	final EXI4JSMetrics.Document document = new EXI4JSMetrics.Document();
+
+	AbstractDecoderSession(EXIFactory ef) throws EXIException {
+		this.ef = ef;
+		this.streamDecoder = ef == null ? null : ef.createEXIStreamDecoder();
+		this.dedup = ef != null && Dedup.isEnabled(ef.getGrammars());
+	}
+
+	/* reads the header and start document, returns the root element */
+	QNameContext startDocument(InputStream is) throws EXIException, IOException {
+		bodyDecoder = streamDecoder.decodeHeader(document.input(is));
+		checkSchema(((AbstractEXIBodyCoder) bodyDecoder).exiFactory);
+
+		EventType eventType = bodyDecoder.next();
+		if (eventType != EventType.START_DOCUMENT) {
+			throw new RuntimeException("Unexpected eventType " + eventType);
+		}
+		bodyDecoder.decodeStartDocument();
+		if (dedup) {
+			if (recording == null) {
+				recording = new Recording();
+			}
+			expander = new Dedup.Expander(recording);
+		}
+
+		QNameContext qnc = nextStartElement();
+		if (qnc == null || !"Program".equals(qnc.getLocalName())) {
+			throw new RuntimeException("Unexpected root: " + qnc);
+		}
+		return qnc;
+	}
+
+	/*
+	 * a header with options is read into a factory of its own, its schemaId
+	 * resolved by JSConstants; exi4js.xsd streams have none, exi4js-es2015.xsd
+	 * ones must have theirs
+	 */
+	void checkSchema(EXIFactory header) {
+		boolean es2015 = JSConstants.isES2015(ef.getGrammars());
+		if (header.getGrammars() != ef.getGrammars() || (es2015 && header == ef)) {
+			throw new RuntimeException("Unsupported EXI4JS stream, schemaId "
+					+ (header == ef ? "none" : header.getGrammars().getSchemaId()) + " where "
+					+ (es2015 ? ef.getGrammars().getSchemaId() : "none") + " is expected");
+		}
+	}
+
+	void endDocument() throws EXIException, IOException {
+		EventType eventType = bodyDecoder.next();
+		if (eventType != EventType.END_DOCUMENT) {
+			throw new RuntimeException("Unexpected eventType " + eventType);
+		}
+		bodyDecoder.decodeEndDocument();
+		expander = null;
+	}
+
+	/* next event as in a Recording */
+	Object nextEvent() throws EXIException, IOException {
+		if (replay) {
+			return recording.events[position++];
+		}
+		Object event = expander == null ? readEvent() : expander.next(this);
+		if (document.active && event instanceof QNameContext
+				&& NodeDescriptor.NODES.containsKey(((QNameContext) event).getLocalName())) {
+			document.nodes++;
+		}
+		return event;
+	}
+
+	/* next event of the stream as in a Recording */
+	Object readEvent() throws EXIException, IOException {
+		EventType eventType = bodyDecoder.next();
+		if (eventType == null) {
+			// e.g., encoded with another version of the schema
+			throw new RuntimeException("Unsupported EXI4JS stream, no event possible at this point");
+		}
+		switch (eventType) {
+		case START_ELEMENT:
+		case START_ELEMENT_NS:
+		case START_ELEMENT_GENERIC:
+		case START_ELEMENT_GENERIC_UNDECLARED:
+			return bodyDecoder.decodeStartElement();
+		case END_ELEMENT:
+		case END_ELEMENT_UNDECLARED:
+			bodyDecoder.decodeEndElement();
+			return Recording.END;
+		case CHARACTERS:
+		case CHARACTERS_GENERIC:
+		case CHARACTERS_GENERIC_UNDECLARED:
+			return bodyDecoder.decodeCharacters();
+		default:
+			throw new RuntimeException("Unexpected eventType " + eventType);
+		}
+	}
+
+	/* next start tag within the current element, null once it ends */
+	QNameContext nextStartElement() throws EXIException, IOException {
+		Object event = nextEvent();
+		if (event instanceof QNameContext) {
+			return (QNameContext) event;
+		} else if (event == Recording.END) {
+			return null;
+		}
+		throw new RuntimeException("Unexpected characters " + event);
+	}
+
+	void endElement() throws EXIException, IOException {
+		QNameContext qnc = nextStartElement();
+		if (qnc != null) {
+			throw new RuntimeException("Unexpected element " + qnc.getLocalName());
+		}
+	}
+
+	/* content of a simple-typed element including its end, null if empty */
+	Value characters() throws EXIException, IOException {
+		Object event = nextEvent();
+		if (event instanceof Value) {
+			endElement();
+			return (Value) event;
+		} else if (event == Recording.END) {
+			return null;
+		}
+		throw new RuntimeException("Unexpected element " + event);
+	}
+
+	/**
+	 * Skips the rest of the current element including its end, its events are
+	 * in the recording afterwards.
+	 *
+	 * @return the position of the first event in the recording
+	 */
+	int skip() throws EXIException, IOException {
+		// the expander records on its own
+		boolean record = !replay && expander == null;
+		int start = replay ? position : recording.size;
+		for (int depth = 1; depth > 0;) {
+			Object event = nextEvent();
+			if (record) {
+				recording.add(event);
+			}
+			if (event instanceof QNameContext) {
+				depth++;
+			} else if (event == Recording.END) {
+				depth--;
+			}
+		}
+		return start;
+	}
+
+	static boolean isNull(QNameContext qnc) {
+		return "null".equals(qnc.getLocalName());
+	}
+
+	static boolean toBoolean(Value value) {
+		if (value instanceof BooleanValue) {
+			return ((BooleanValue) value).toBoolean();
+		}
+		return value != null && BooleanValue.parse(value.toString()).toBoolean();
+	}
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+
+package com.siemens.ct.exi.javascript;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Output straight into a {@link ByteBuffer}, the counterpart of
+ * {@link Utf8Input}. Either into a buffer of the caller, which must take
+ * all of the output, or into a pooled direct buffer that is drained to a
+ * channel (e.g., a socket or a file) whenever it fills up, so that the bytes
+ * are neither copied into a growing <code>byte[]</code> nor, by the channel,
+ * into a temporary direct buffer. Unlike the streams of
+ * <code>java.io</code>, writes are not synchronized since the encoder writes
+ * byte by byte.
+ */
+final class ByteBufferOutput extends OutputStream {
+
+	static final int BUFFER_SIZE = 64 * 1024;
+
+	static final Pool<ByteBuffer> BUFFERS = new Pool<ByteBuffer>();
+
+	final WritableByteChannel channel;
+	ByteBuffer buffer;
+	final int start;
+
+	/* into the remaining bytes of the buffer, see BufferOverflowException */
+	ByteBufferOutput(ByteBuffer buffer) {
+		this.channel = null;
+		this.buffer = buffer;
+		this.start = buffer.position();
+	}
+
+	/* until closed, which leaves the channel open */
+	ByteBufferOutput(WritableByteChannel channel) {
+		this.channel = channel;
+		ByteBuffer pooled = BUFFERS.poll();
+		this.buffer = pooled == null ? ByteBuffer.allocateDirect(BUFFER_SIZE) : pooled;
+		this.start = 0;
+	}
+
+	/* bytes written into the buffer of the caller */
+	int written() {
+		return buffer.position() - start;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (!buffer.hasRemaining()) {
+			drain();
+		}
+		buffer.put((byte) b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (!buffer.hasRemaining()) {
+				drain();
+			}
+			int n = Math.min(len, buffer.remaining());
+			buffer.put(b, off, n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	void drain() throws IOException {
+		if (channel == null) {
+			throw new BufferOverflowException();
+		}
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (channel != null && buffer.position() > 0) {
+			drain();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (channel != null && buffer != null) {
+			try {
+				flush();
+			} finally {
+				buffer.clear();
+				BUFFERS.release(buffer);
+				buffer = null;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+
+package com.siemens.ct.exi.javascript;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Output of {@link CodeGeneratorSession}. Text is passed on to the writer in
+ * chunks; only what follows an open mark is held back, because EXI4JS carries
+ * some properties after the code they affect (e.g. <code>computed</code> of a
+ * member expression) and the code has to be fixed at the mark once they
+ * arrive. Marks are positions counted from the start of the output and are
+ * closed in reverse order.
+ */
+class CodeBuffer {
+
+	static final int CHUNK = 8192;
+
+	final StringBuilder sb = new StringBuilder(2 * CHUNK);
+
+	Writer out;
+
+	/* characters passed on to the writer */
+	long flushed;
+
+	char lastFlushed;
+
+	char[] chunk = new char[CHUNK];
+
+	long[] marks = new long[16];
+
+	int openMarks;
+
+	void reset(Writer out) {
+		this.out = out;
+		sb.setLength(0);
+		flushed = 0;
+		lastFlushed = 0;
+		openMarks = 0;
+	}
+
+	long position() {
+		return flushed + sb.length();
+	}
+
+	long mark() {
+		if (openMarks == marks.length) {
+			long[] a = new long[marks.length * 2];
+			System.arraycopy(marks, 0, a, 0, marks.length);
+			marks = a;
+		}
+		return marks[openMarks++] = position();
+	}
+
+	void close(long mark) throws IOException {
+		if (openMarks == 0 || marks[openMarks - 1] != mark) {
+			throw new RuntimeException("Mark closed out of order");
+		}
+		openMarks--;
+		if (sb.length() >= CHUNK) {
+			flush(false);
+		}
+	}
+
+	/* passes on what is not held back by a mark */
+	void flush(boolean all) throws IOException {
+		int n = all || openMarks == 0 ? sb.length() : (int) (marks[0] - flushed);
+		if (n > 0) {
+			if (n > chunk.length) {
+				chunk = new char[n];
+			}
+			sb.getChars(0, n, chunk, 0);
+			out.write(chunk, 0, n);
+			lastFlushed = sb.charAt(n - 1);
+			sb.delete(0, n);
+			flushed += n;
+		}
+	}
+
+	int index(long mark) {
+		return (int) (mark - flushed);
+	}
+
+	char charBefore(int index) {
+		return index > 0 ? sb.charAt(index - 1) : lastFlushed;
+	}
+
+	char last() {
+		return charBefore(sb.length());
+	}
+
+	/* appends a token, separated from the previous one where necessary */
+	void token(String s) throws IOException {
+		if (needsSpace(last(), s.charAt(0))) {
+			sb.append(' ');
+		}
+		sb.append(s);
+		if (sb.length() >= 2 * CHUNK) {
+			flush(false);
+		}
+	}
+
+	void append(char c) {
+		sb.append(c);
+	}
+
+	void insert(long mark, String s) {
+		int i = index(mark);
+		if (needsSpace(charBefore(i), s.charAt(0))) {
+			s = " " + s;
+		}
+		sb.insert(i, s);
+		// the space that separated the following token may be superfluous now
+		int j = i + s.length();
+		if (j + 1 < sb.length() && sb.charAt(j) == ' ' && !needsSpace(s.charAt(s.length() - 1), sb.charAt(j + 1))) {
+			sb.deleteCharAt(j);
+		}
+	}
+
+	/* moves the text between the two marks to the end */
+	void moveToEnd(long from, long to) {
+		int i = index(from);
+		int j = index(to);
+		String s = sb.substring(i, j);
+		sb.delete(i, j);
+		sb.append(s);
+	}
+
+	static boolean needsSpace(char last, char first) {
+		return (isIdentifierPart(last) && isIdentifierPart(first)) || (last == '+' && first == '+')
+				|| (last == '-' && first == '-') || (last == '/' && (first == '/' || first == '*'))
+				|| (last == '<' && first == '!');
+	}
+
+	static boolean isIdentifierPart(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '$' || c == '_'
+				|| c == '\\' || c >= 0x80;
+	}
+
+}
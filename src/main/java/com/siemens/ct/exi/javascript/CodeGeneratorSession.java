@@ -0,0 +1,1374 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+
+package com.siemens.ct.exi.javascript;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.context.QNameContext;
+import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.core.values.FloatValue;
+import com.siemens.ct.exi.core.values.Value;
+
+/**
+ * Code generator state of {@link EXItoJS} for one document at a time.
+ * Sessions are pooled and reused but must not be used by two threads at once.
+ *
+ * <p>
+ * JavaScript is printed while the EXI4JS events arrive. Parentheses are
+ * decided by operator precedence when a node starts. Properties that arrive
+ * after the code they affect (<code>kind</code> of object properties and
+ * variable declarations, <code>computed</code> of member expressions,
+ * <code>prefix</code> of updates, <code>alternate</code> of conditionals,
+ * <code>each</code> of for-in loops, <code>defaults</code> and
+ * <code>generator</code> of functions et cetera) hold back the output of that
+ * one construct until it is complete, see {@link CodeBuffer}.
+ * </p>
+ */
+class CodeGeneratorSession extends AbstractDecoderSession {
+
+	/* precedence levels, higher binds tighter */
+	static final int SEQUENCE = 0;
+	static final int ASSIGNMENT = 1;
+	static final int CONDITIONAL = 2;
+	static final int LOGICAL_OR = 3;
+	static final int EXPONENT = 13;
+	static final int UNARY = 14;
+	static final int POSTFIX = 15;
+	static final int CALL = 16;
+	static final int MEMBER = 17;
+	static final int PRIMARY = 18;
+
+	static final Map<String, Integer> BINARY = new HashMap<String, Integer>();
+
+	static {
+		String[][] levels = { { "," }, {}, {}, { "||" }, { "&&" }, { "|" }, { "^" }, { "&" },
+				{ "==", "!=", "===", "!==" }, { "<", ">", "<=", ">=", "in", "instanceof" }, { "<<", ">>", ">>>" },
+				{ "+", "-" }, { "*", "/", "%" }, { "**" } };
+		for (int i = 0; i < levels.length; i++) {
+			for (String op : levels[i]) {
+				BINARY.put(op, i);
+			}
+		}
+	}
+
+	final boolean pretty;
+
+	final CodeBuffer out = new CodeBuffer();
+
+	int indent;
+
+	/* expression statements must not start with function or { */
+	long statementStart;
+
+	/* a member access right after an integer needs a space: 1 .toString() */
+	long integerEnd;
+
+	/* no bare in within the initializer of a for statement */
+	boolean noIn;
+
+	CodeGeneratorSession(EXIFactory ef, boolean pretty) throws EXIException {
+		super(ef);
+		this.pretty = pretty;
+	}
+
+	void handleProgram(InputStream is, Writer writer) throws EXIException, IOException {
+		startDocument(is);
+		out.reset(writer);
+		indent = 0;
+		statementStart = -1;
+		integerEnd = -1;
+		noIn = false;
+
+		startProperty("body");
+		statements();
+		endElement();
+		endElement();
+
+		endDocument();
+		if (pretty) {
+			out.append('\n');
+		}
+		out.flush(true);
+		writer.flush();
+	}
+
+	/* ### events */
+
+	void startProperty(String name) throws EXIException, IOException {
+		QNameContext qnc = nextStartElement();
+		if (qnc == null || !name.equals(qnc.getLocalName())) {
+			throw new RuntimeException("Expected property " + name + " instead of " + qnc);
+		}
+	}
+
+	QNameContext startNode() throws EXIException, IOException {
+		QNameContext qnc = nextStartElement();
+		if (qnc == null) {
+			throw new RuntimeException("Missing node");
+		}
+		return qnc;
+	}
+
+	/* node of the property or null, in which case the property is consumed */
+	QNameContext optionalNode(String name) throws EXIException, IOException {
+		startProperty(name);
+		QNameContext qnc = startNode();
+		if (isNull(qnc)) {
+			endElement();
+			endElement();
+			return null;
+		}
+		return qnc;
+	}
+
+	String stringProperty(String name) throws EXIException, IOException {
+		startProperty(name);
+		Value value = characters();
+		return value == null ? "" : value.toString();
+	}
+
+	boolean booleanProperty(String name) throws EXIException, IOException {
+		startProperty(name);
+		return toBoolean(characters());
+	}
+
+	void expressionProperty(String name, int precedence) throws EXIException, IOException {
+		startProperty(name);
+		expression(startNode(), precedence, false);
+		endElement();
+	}
+
+	void startArray() throws EXIException, IOException {
+		QNameContext qnc = nextStartElement();
+		if (qnc == null || !"array".equals(qnc.getLocalName())) {
+			throw new RuntimeException("Expected array instead of " + qnc);
+		}
+	}
+
+	/* ### layout */
+
+	void newline() {
+		if (pretty && out.position() > 0) {
+			out.append('\n');
+			for (int i = 0; i < indent; i++) {
+				out.sb.append("    ");
+			}
+		}
+	}
+
+	void space() {
+		if (pretty) {
+			char c = out.last();
+			if (c != ' ' && c != '\n' && c != 0) {
+				out.append(' ');
+			}
+		}
+	}
+
+	void operator(String op) throws IOException {
+		if (",".equals(op)) {
+			out.token(op);
+		} else {
+			space();
+			out.token(op);
+		}
+		space();
+	}
+
+	/* ### statements */
+
+	/* array of statements, one per line */
+	int statements() throws EXIException, IOException {
+		startArray();
+		int n = 0;
+		QNameContext qnc;
+		while ((qnc = nextStartElement()) != null) {
+			newline();
+			statement(qnc);
+			n++;
+		}
+		return n;
+	}
+
+	void block() throws EXIException, IOException {
+		space();
+		out.token("{");
+		indent++;
+		startProperty("body");
+		int n = statements();
+		endElement();
+		indent--;
+		if (n > 0) {
+			newline();
+		}
+		out.token("}");
+		endElement();
+	}
+
+	/* body of if, for et cetera */
+	void substatement(String name) throws EXIException, IOException {
+		startProperty(name);
+		QNameContext qnc = startNode();
+		space();
+		statement(qnc);
+		endElement();
+	}
+
+	void statement(QNameContext qnc) throws EXIException, IOException {
+		String type = qnc.getLocalName();
+		switch (type) {
+		case "EmptyStatement":
+			out.token(";");
+			endElement();
+			break;
+		case "DebuggerStatement":
+			out.token("debugger");
+			out.token(";");
+			endElement();
+			break;
+		case "BlockStatement":
+			block();
+			break;
+		case "ExpressionStatement":
+			startProperty("expression");
+			statementStart = out.position();
+			expression(startNode(), SEQUENCE, false);
+			endElement();
+			endElement();
+			out.token(";");
+			break;
+		case "VariableDeclaration":
+			variableDeclaration();
+			out.token(";");
+			break;
+		case "FunctionDeclaration":
+			function();
+			break;
+		case "IfStatement":
+			ifStatement();
+			break;
+		case "LabeledStatement":
+			labeledStatement();
+			break;
+		case "BreakStatement":
+			jump("break");
+			break;
+		case "ContinueStatement":
+			jump("continue");
+			break;
+		case "ReturnStatement":
+			out.token("return");
+			if ((qnc = optionalNode("argument")) != null) {
+				space();
+				expression(qnc, SEQUENCE, false);
+				endElement();
+			}
+			out.token(";");
+			endElement();
+			break;
+		case "ThrowStatement":
+			out.token("throw");
+			space();
+			expressionProperty("argument", SEQUENCE);
+			out.token(";");
+			endElement();
+			break;
+		case "SwitchStatement":
+			switchStatement();
+			break;
+		case "TryStatement":
+			tryStatement();
+			break;
+		case "WhileStatement":
+			head("while");
+			expressionProperty("test", SEQUENCE);
+			out.token(")");
+			substatement("body");
+			endElement();
+			break;
+		case "WithStatement":
+			head("with");
+			expressionProperty("object", SEQUENCE);
+			out.token(")");
+			substatement("body");
+			endElement();
+			break;
+		case "DoWhileStatement":
+			out.token("do");
+			substatement("body");
+			space();
+			head("while");
+			expressionProperty("test", SEQUENCE);
+			out.token(")");
+			out.token(";");
+			endElement();
+			break;
+		case "ForStatement":
+			forStatement();
+			break;
+		case "ForInStatement":
+			forInStatement("in");
+			break;
+		case "ForOfStatement":
+			forInStatement("of");
+			break;
+		case "ClassDeclaration":
+			classNode();
+			break;
+		case "ImportDeclaration":
+			importDeclaration();
+			break;
+		case "ExportNamedDeclaration":
+			exportNamedDeclaration();
+			break;
+		case "ExportDefaultDeclaration":
+			out.token("export");
+			space();
+			out.token("default");
+			space();
+			startProperty("declaration");
+			qnc = startNode();
+			type = qnc.getLocalName();
+			if ("FunctionDeclaration".equals(type) || "ClassDeclaration".equals(type)) {
+				statement(qnc);
+			} else {
+				expression(qnc, ASSIGNMENT, false);
+				out.token(";");
+			}
+			endElement();
+			endElement();
+			break;
+		case "ExportAllDeclaration":
+			out.token("export");
+			space();
+			out.token("*");
+			space();
+			out.token("from");
+			space();
+			expressionProperty("source", PRIMARY);
+			out.token(";");
+			endElement();
+			break;
+		default:
+			throw new RuntimeException("Unsupported type " + type + "!");
+		}
+	}
+
+	/* keyword and opening parenthesis of if, while et cetera */
+	void head(String keyword) throws IOException {
+		out.token(keyword);
+		space();
+		out.token("(");
+	}
+
+	void ifStatement() throws EXIException, IOException {
+		head("if");
+		expressionProperty("test", SEQUENCE);
+		out.token(")");
+
+		startProperty("consequent");
+		QNameContext qnc = startNode();
+		space();
+		if ("IfStatement".equals(qnc.getLocalName())) {
+			// an else further down must not be taken for ours
+			out.token("{");
+			statement(qnc);
+			out.token("}");
+		} else {
+			statement(qnc);
+		}
+		endElement();
+
+		if ((qnc = optionalNode("alternate")) != null) {
+			space();
+			out.token("else");
+			space();
+			statement(qnc);
+			endElement();
+		}
+		endElement();
+	}
+
+	/*
+	 * Nashorn wraps the labeled statement into a block, a continue would not
+	 * find its loop behind braces
+	 */
+	void labeledStatement() throws EXIException, IOException {
+		startProperty("label");
+		expression(startNode(), PRIMARY, false);
+		endElement();
+		out.token(":");
+
+		startProperty("body");
+		QNameContext qnc = startNode();
+		if ("BlockStatement".equals(qnc.getLocalName())) {
+			long mark = out.mark();
+			startProperty("body");
+			startArray();
+			int n = 0;
+			while ((qnc = nextStartElement()) != null) {
+				if (n++ > 0) {
+					newline();
+				}
+				statement(qnc);
+			}
+			endElement();
+			endElement();
+			if (n != 1) {
+				out.insert(mark, "{");
+				out.token("}");
+			}
+			out.close(mark);
+		} else {
+			statement(qnc);
+		}
+		endElement();
+		endElement();
+	}
+
+	void jump(String keyword) throws EXIException, IOException {
+		out.token(keyword);
+		QNameContext qnc = optionalNode("label");
+		if (qnc != null) {
+			space();
+			expression(qnc, PRIMARY, false);
+			endElement();
+		}
+		out.token(";");
+		endElement();
+	}
+
+	void switchStatement() throws EXIException, IOException {
+		head("switch");
+		expressionProperty("discriminant", SEQUENCE);
+		out.token(")");
+		space();
+		out.token("{");
+		startProperty("cases");
+		startArray();
+		int n = 0;
+		while (nextStartElement() != null) {
+			// SwitchCase
+			newline();
+			QNameContext qnc = optionalNode("test");
+			if (qnc == null) {
+				out.token("default");
+			} else {
+				out.token("case");
+				space();
+				expression(qnc, SEQUENCE, false);
+				endElement();
+			}
+			out.token(":");
+			indent++;
+			startProperty("consequent");
+			statements();
+			endElement();
+			indent--;
+			endElement();
+			n++;
+		}
+		endElement();
+		if (nextStartElement() != null) {
+			// lexical
+			characters();
+			endElement();
+		}
+		if (n > 0) {
+			newline();
+		}
+		out.token("}");
+	}
+
+	void tryStatement() throws EXIException, IOException {
+		out.token("try");
+		startProperty("block");
+		startNode();
+		block();
+		endElement();
+
+		QNameContext qnc = optionalNode("handler");
+		if (qnc != null) {
+			catchClause();
+			endElement();
+		}
+		startProperty("guardedHandlers");
+		startArray();
+		while (nextStartElement() != null) {
+			catchClause();
+		}
+		endElement();
+		if ((qnc = optionalNode("finalizer")) != null) {
+			space();
+			out.token("finally");
+			block();
+			endElement();
+		}
+		endElement();
+	}
+
+	void catchClause() throws EXIException, IOException {
+		space();
+		head("catch");
+		expressionProperty("param", PRIMARY);
+		QNameContext qnc = optionalNode("guard");
+		if (qnc != null) {
+			out.token("if");
+			space();
+			expression(qnc, SEQUENCE, false);
+			endElement();
+		}
+		out.token(")");
+		startProperty("body");
+		startNode();
+		block();
+		endElement();
+		endElement();
+	}
+
+	void forStatement() throws EXIException, IOException {
+		head("for");
+		QNameContext qnc = optionalNode("init");
+		if (qnc != null) {
+			noIn = true;
+			forInit(qnc);
+			noIn = false;
+			endElement();
+		}
+		out.token(";");
+		if ((qnc = optionalNode("test")) != null) {
+			space();
+			expression(qnc, SEQUENCE, false);
+			endElement();
+		}
+		out.token(";");
+		if ((qnc = optionalNode("update")) != null) {
+			space();
+			expression(qnc, SEQUENCE, false);
+			endElement();
+		}
+		out.token(")");
+		substatement("body");
+		endElement();
+	}
+
+	void forInit(QNameContext qnc) throws EXIException, IOException {
+		if ("VariableDeclaration".equals(qnc.getLocalName())) {
+			variableDeclaration();
+		} else {
+			expression(qnc, SEQUENCE, false);
+		}
+	}
+
+	/* for-in or for-of */
+	void forInStatement(String keyword) throws EXIException, IOException {
+		out.token("for");
+		long mark = out.mark();
+		space();
+		out.token("(");
+		startProperty("left");
+		forInit(startNode());
+		endElement();
+		out.token(keyword);
+		space();
+		expressionProperty("right", "of".equals(keyword) ? ASSIGNMENT : SEQUENCE);
+		out.token(")");
+		substatement("body");
+		if ("in".equals(keyword) && booleanProperty("each")) {
+			out.insert(mark, " each");
+		}
+		out.close(mark);
+		endElement();
+	}
+
+	void variableDeclaration() throws EXIException, IOException {
+		long mark = out.mark();
+		out.token("var");
+		startProperty("declarations");
+		startArray();
+		int n = 0;
+		while (nextStartElement() != null) {
+			// VariableDeclarator
+			if (n++ > 0) {
+				out.token(",");
+			}
+			space();
+			expressionProperty("id", PRIMARY);
+			QNameContext qnc = optionalNode("init");
+			if (qnc != null) {
+				operator("=");
+				expression(qnc, ASSIGNMENT, false);
+				endElement();
+			}
+			endElement();
+		}
+		endElement();
+		if (nextStartElement() != null) {
+			// kind
+			Value kind = characters();
+			endElement();
+			if (kind != null && !"var".equals(kind.toString())) {
+				int i = out.sb.indexOf("var", out.index(mark));
+				out.sb.replace(i, i + 3, kind.toString());
+			}
+		}
+		out.close(mark);
+	}
+
+	void function() throws EXIException, IOException {
+		out.token("function");
+		// function* once generator is known
+		long mark = out.mark();
+		QNameContext qnc = optionalNode("id");
+		if (qnc != null) {
+			expression(qnc, PRIMARY, false);
+			endElement();
+		}
+		parameters();
+
+		startProperty("body");
+		qnc = startNode();
+		if ("BlockStatement".equals(qnc.getLocalName())) {
+			block();
+		} else {
+			// expression closure
+			space();
+			out.token("{");
+			out.token("return");
+			space();
+			expression(qnc, ASSIGNMENT, false);
+			out.token("}");
+		}
+		endElement();
+		if (booleanProperty("generator")) {
+			out.insert(mark, "*");
+		}
+		booleanProperty("expression");
+		out.close(mark);
+		endElement();
+	}
+
+	/*
+	 * (a, b = 1, ...c), the defaults arrive after all params and are moved
+	 * behind the last params they belong to
+	 */
+	void parameters() throws EXIException, IOException {
+		out.token("(");
+		long mark = out.mark();
+		startProperty("params");
+		startArray();
+		long[] ends = new long[4];
+		int n = 0;
+		QNameContext qnc;
+		while ((qnc = nextStartElement()) != null) {
+			if (n > 0) {
+				operator(",");
+			}
+			expression(qnc, ASSIGNMENT, false);
+			if (n == ends.length) {
+				ends = Arrays.copyOf(ends, 2 * n);
+			}
+			ends[n++] = out.position();
+		}
+		endElement();
+		startProperty("defaults");
+		startArray();
+		long[] defaults = new long[n + 1];
+		defaults[0] = out.position();
+		int d = 0;
+		while ((qnc = nextStartElement()) != null) {
+			if (d == n) {
+				throw new RuntimeException("More defaults than params");
+			}
+			expression(qnc, ASSIGNMENT, false);
+			defaults[++d] = out.position();
+		}
+		endElement();
+		if (d > 0) {
+			StringBuilder sb = out.sb;
+			StringBuilder params = new StringBuilder();
+			int from = out.index(mark);
+			for (int i = 0; i < n; i++) {
+				int end = out.index(ends[i]);
+				params.append(sb, from, end);
+				from = end;
+				int k = i - (n - d);
+				if (k >= 0) {
+					params.append(pretty ? " = " : "=");
+					params.append(sb.substring(out.index(defaults[k]), out.index(defaults[k + 1])).trim());
+				}
+			}
+			sb.replace(out.index(mark), sb.length(), params.toString());
+		}
+		if ((qnc = optionalNode("rest")) != null) {
+			if (n > 0) {
+				operator(",");
+			}
+			out.token("...");
+			expression(qnc, PRIMARY, false);
+			endElement();
+		}
+		out.close(mark);
+		out.token(")");
+	}
+
+	void arrowExpression(int precedence) throws EXIException, IOException {
+		boolean paren = precedence > ASSIGNMENT;
+		open(paren);
+		parameters();
+		operator("=>");
+		startProperty("body");
+		QNameContext qnc = startNode();
+		if ("BlockStatement".equals(qnc.getLocalName())) {
+			block();
+		} else {
+			// () => ({})
+			statementStart = out.position();
+			expression(qnc, ASSIGNMENT, false);
+		}
+		endElement();
+		booleanProperty("generator");
+		booleanProperty("expression");
+		close(paren);
+		endElement();
+	}
+
+	void classNode() throws EXIException, IOException {
+		out.token("class");
+		QNameContext qnc = optionalNode("id");
+		if (qnc != null) {
+			space();
+			expression(qnc, PRIMARY, false);
+			endElement();
+		}
+		if ((qnc = optionalNode("superClass")) != null) {
+			space();
+			out.token("extends");
+			space();
+			expression(qnc, CALL, false);
+			endElement();
+		}
+		space();
+		out.token("{");
+		indent++;
+		startProperty("body");
+		startNode();
+		startProperty("body");
+		startArray();
+		int n = 0;
+		while (nextStartElement() != null) {
+			newline();
+			methodDefinition();
+			n++;
+		}
+		endElement();
+		endElement();
+		endElement();
+		indent--;
+		if (n > 0) {
+			newline();
+		}
+		out.token("}");
+		endElement();
+	}
+
+	void methodDefinition() throws EXIException, IOException {
+		long start = out.mark();
+		expressionProperty("key", ASSIGNMENT);
+		if (booleanProperty("computed")) {
+			out.insert(start, "[");
+			out.token("]");
+		}
+		long value = out.mark();
+		expressionProperty("value", ASSIGNMENT);
+		String kind = stringProperty("kind");
+		method(start, value, "constructor".equals(kind) ? "method" : kind);
+		if (booleanProperty("static")) {
+			out.insert(start, "static ");
+		}
+		out.close(value);
+		out.close(start);
+		endElement();
+	}
+
+	/*
+	 * get a() {...} or *a() {...} from the function expression printed at value
+	 * for the key printed at start
+	 */
+	void method(long start, long value, String kind) {
+		StringBuilder sb = out.sb;
+		int i = out.index(value);
+		int j = i;
+		while (sb.charAt(j) == ' ') {
+			j++;
+		}
+		if (!sb.substring(j, j + 8).equals("function") || sb.charAt(j + 8) != '(' && sb.charAt(j + 8) != '*') {
+			throw new RuntimeException("Unsupported " + kind + " property");
+		}
+		boolean generator = sb.charAt(j + 8) == '*';
+		sb.delete(i, j + (generator ? 9 : 8));
+		if (generator) {
+			out.insert(start, "*");
+		} else if (!"method".equals(kind)) {
+			out.insert(start, kind + " ");
+		}
+	}
+
+	void importDeclaration() throws EXIException, IOException {
+		out.token("import");
+		startProperty("specifiers");
+		startArray();
+		int n = 0;
+		boolean braces = false;
+		QNameContext qnc;
+		while ((qnc = nextStartElement()) != null) {
+			if (n++ > 0) {
+				operator(",");
+			}
+			space();
+			String type = qnc.getLocalName();
+			if ("ImportDefaultSpecifier".equals(type)) {
+				out.token(identifierProperty("local"));
+			} else if ("ImportNamespaceSpecifier".equals(type)) {
+				out.token("*");
+				space();
+				out.token("as");
+				space();
+				out.token(identifierProperty("local"));
+			} else {
+				if (!braces) {
+					out.token("{");
+					braces = true;
+				}
+				specifier(identifierProperty("imported"), identifierProperty("local"));
+			}
+			endElement();
+		}
+		endElement();
+		if (braces) {
+			out.token("}");
+		}
+		if (n > 0) {
+			space();
+			out.token("from");
+		}
+		space();
+		expressionProperty("source", PRIMARY);
+		out.token(";");
+		endElement();
+	}
+
+	void exportNamedDeclaration() throws EXIException, IOException {
+		out.token("export");
+		space();
+		QNameContext qnc = optionalNode("declaration");
+		boolean declaration = qnc != null;
+		if (declaration) {
+			statement(qnc);
+			endElement();
+		}
+		startProperty("specifiers");
+		startArray();
+		int n = 0;
+		while (nextStartElement() != null) {
+			out.token(n++ > 0 ? "," : "{");
+			specifier(identifierProperty("local"), identifierProperty("exported"));
+			endElement();
+		}
+		endElement();
+		if (!declaration) {
+			out.token(n > 0 ? "}" : "{}");
+		}
+		if ((qnc = optionalNode("source")) != null) {
+			space();
+			out.token("from");
+			space();
+			expression(qnc, PRIMARY, false);
+			endElement();
+		}
+		if (!declaration) {
+			out.token(";");
+		}
+		endElement();
+	}
+
+	/* a as b, or a if both are the same */
+	void specifier(String name, String as) throws IOException {
+		space();
+		out.token(name);
+		if (!name.equals(as)) {
+			space();
+			out.token("as");
+			space();
+			out.token(as);
+		}
+	}
+
+	/* name of the Identifier in the property */
+	String identifierProperty(String name) throws EXIException, IOException {
+		startProperty(name);
+		startNode();
+		String s = stringProperty("name");
+		endElement();
+		endElement();
+		return s;
+	}
+
+	/* ### expressions */
+
+	void expression(QNameContext qnc, int precedence, boolean noCall) throws EXIException, IOException {
+		String type = qnc.getLocalName();
+		boolean paren;
+		switch (type) {
+		case "Identifier":
+			startProperty("name");
+			out.token(characters().toString());
+			endElement();
+			break;
+		case "Literal":
+			startProperty("value");
+			literal(startNode());
+			endElement();
+			endElement();
+			break;
+		case "ThisExpression":
+			out.token("this");
+			endElement();
+			break;
+		case "Super":
+			out.token("super");
+			endElement();
+			break;
+		case "ArrayExpression":
+		case "ArrayPattern":
+			arrayExpression();
+			break;
+		case "ObjectExpression":
+		case "ObjectPattern":
+			paren = out.position() == statementStart;
+			open(paren);
+			objectExpression();
+			close(paren);
+			break;
+		case "FunctionExpression":
+			paren = out.position() == statementStart;
+			open(paren);
+			function();
+			close(paren);
+			break;
+		case "ClassExpression":
+			paren = out.position() == statementStart;
+			open(paren);
+			classNode();
+			close(paren);
+			break;
+		case "ArrowExpression":
+			arrowExpression(precedence);
+			break;
+		case "SpreadElement":
+		case "RestElement":
+			out.token("...");
+			expressionProperty("argument", ASSIGNMENT);
+			endElement();
+			break;
+		case "AssignmentPattern":
+			expressionProperty("left", CALL);
+			operator("=");
+			expressionProperty("right", ASSIGNMENT);
+			endElement();
+			break;
+		case "YieldExpression":
+			paren = precedence > ASSIGNMENT;
+			open(paren);
+			out.token("yield");
+			// yield* once delegate is known
+			long delegate = out.mark();
+			if ((qnc = optionalNode("argument")) != null) {
+				space();
+				expression(qnc, ASSIGNMENT, false);
+				endElement();
+			}
+			if (booleanProperty("delegate")) {
+				out.insert(delegate, "*");
+			}
+			out.close(delegate);
+			close(paren);
+			endElement();
+			break;
+		case "TemplateLiteral":
+			templateLiteral();
+			break;
+		case "TaggedTemplateExpression":
+			paren = precedence > CALL || noCall;
+			open(paren);
+			startProperty("tag");
+			expression(startNode(), CALL, false);
+			endElement();
+			startProperty("quasi");
+			startNode();
+			templateLiteral();
+			endElement();
+			close(paren);
+			endElement();
+			break;
+		case "MetaProperty":
+			out.token(identifierProperty("meta"));
+			out.token(".");
+			out.token(identifierProperty("property"));
+			endElement();
+			break;
+		case "UnaryExpression":
+			String op = stringProperty("operator");
+			paren = precedence > UNARY;
+			open(paren);
+			booleanProperty("prefix");
+			out.token(op);
+			expressionProperty("argument", UNARY);
+			close(paren);
+			endElement();
+			break;
+		case "UpdateExpression":
+			op = stringProperty("operator");
+			paren = precedence > UNARY;
+			open(paren);
+			long mark = out.mark();
+			expressionProperty("argument", POSTFIX);
+			if (booleanProperty("prefix")) {
+				out.insert(mark, op);
+			} else {
+				out.token(op);
+			}
+			out.close(mark);
+			close(paren);
+			endElement();
+			break;
+		case "BinaryExpression":
+		case "LogicalExpression":
+			op = stringProperty("operator");
+			Integer p = BINARY.get(op);
+			if (p == null) {
+				throw new RuntimeException("Unsupported operator " + op);
+			}
+			boolean outerNoIn = noIn;
+			paren = p < precedence || (noIn && "in".equals(op));
+			if (paren) {
+				out.token("(");
+				noIn = false;
+			}
+			// ** is right-associative and takes no unary operand on its left
+			boolean exponent = p == EXPONENT;
+			expressionProperty("left", exponent ? POSTFIX : p);
+			operator(op);
+			expressionProperty("right", exponent ? p : p + 1);
+			noIn = outerNoIn;
+			close(paren);
+			endElement();
+			break;
+		case "AssignmentExpression":
+			op = stringProperty("operator");
+			startProperty("left");
+			qnc = startNode();
+			// ({a} = b), a statement must not start with {
+			paren = precedence > ASSIGNMENT
+					|| out.position() == statementStart && "ObjectPattern".equals(qnc.getLocalName());
+			open(paren);
+			expression(qnc, CALL, false);
+			endElement();
+			operator(op);
+			expressionProperty("right", ASSIGNMENT);
+			close(paren);
+			endElement();
+			break;
+		case "ConditionalExpression":
+			paren = precedence > CONDITIONAL;
+			open(paren);
+			expressionProperty("test", LOGICAL_OR);
+			// alternate comes first and is moved behind the consequent
+			long alternate = out.mark();
+			operator(":");
+			expressionProperty("alternate", ASSIGNMENT);
+			long consequent = out.mark();
+			operator("?");
+			expressionProperty("consequent", ASSIGNMENT);
+			out.moveToEnd(alternate, consequent);
+			out.close(consequent);
+			out.close(alternate);
+			close(paren);
+			endElement();
+			break;
+		case "CallExpression":
+			paren = precedence > CALL || noCall;
+			open(paren);
+			startProperty("callee");
+			expression(startNode(), CALL, false);
+			endElement();
+			arguments();
+			close(paren);
+			endElement();
+			break;
+		case "NewExpression":
+			paren = precedence > MEMBER;
+			open(paren);
+			out.token("new");
+			space();
+			startProperty("callee");
+			// new (f())() is not new f()()
+			expression(startNode(), MEMBER, true);
+			endElement();
+			arguments();
+			close(paren);
+			endElement();
+			break;
+		case "MemberExpression":
+			startProperty("object");
+			expression(startNode(), CALL, noCall);
+			endElement();
+			boolean afterInteger = integerEnd == out.position();
+			mark = out.mark();
+			expressionProperty("property", SEQUENCE);
+			if (booleanProperty("computed")) {
+				out.insert(mark, "[");
+				out.token("]");
+			} else {
+				out.insert(mark, afterInteger ? " ." : ".");
+			}
+			out.close(mark);
+			endElement();
+			break;
+		default:
+			throw new RuntimeException("Unsupported type " + type + "!");
+		}
+	}
+
+	void open(boolean paren) throws IOException {
+		if (paren) {
+			out.token("(");
+		}
+	}
+
+	void close(boolean paren) throws IOException {
+		if (paren) {
+			out.token(")");
+		}
+	}
+
+	void arguments() throws EXIException, IOException {
+		startProperty("arguments");
+		startArray();
+		out.token("(");
+		int n = 0;
+		QNameContext qnc;
+		while ((qnc = nextStartElement()) != null) {
+			if (n++ > 0) {
+				operator(",");
+			}
+			expression(qnc, ASSIGNMENT, false);
+		}
+		out.token(")");
+		endElement();
+	}
+
+	void arrayExpression() throws EXIException, IOException {
+		out.token("[");
+		startProperty("elements");
+		startArray();
+		int n = 0;
+		boolean hole = false;
+		QNameContext qnc;
+		while ((qnc = nextStartElement()) != null) {
+			if (n++ > 0) {
+				operator(",");
+			}
+			hole = isNull(qnc);
+			if (hole) {
+				endElement();
+			} else {
+				expression(qnc, ASSIGNMENT, false);
+			}
+		}
+		if (hole) {
+			// [1,,] has two elements
+			out.token(",");
+		}
+		endElement();
+		out.token("]");
+		endElement();
+	}
+
+	void objectExpression() throws EXIException, IOException {
+		out.token("{");
+		indent++;
+		startProperty("properties");
+		startArray();
+		int n = 0;
+		while (nextStartElement() != null) {
+			if (n++ > 0) {
+				out.token(",");
+			}
+			newline();
+			property();
+		}
+		endElement();
+		indent--;
+		if (n > 0) {
+			newline();
+		}
+		out.token("}");
+		endElement();
+	}
+
+	/* key and value are followed by the kind that decides between them */
+	void property() throws EXIException, IOException {
+		long start = out.mark();
+		expressionProperty("key", PRIMARY);
+		long value = out.mark();
+		expressionProperty("value", ASSIGNMENT);
+		String kind = stringProperty("kind");
+		if ("init".equals(kind)) {
+			out.insert(value, pretty ? ": " : ":");
+		} else {
+			method(start, value, kind);
+		}
+		out.close(value);
+		out.close(start);
+		endElement();
+	}
+
+	/* `a${b}c`, all quasis arrive before the expressions */
+	void templateLiteral() throws EXIException, IOException {
+		startProperty("quasis");
+		startArray();
+		List<String> quasis = new ArrayList<String>();
+		while (nextStartElement() != null) {
+			// TemplateElement
+			quasis.add(stringProperty("raw"));
+			stringProperty("cooked");
+			booleanProperty("tail");
+			endElement();
+		}
+		endElement();
+		startProperty("expressions");
+		startArray();
+		StringBuilder sb = out.sb;
+		sb.append('`').append(quasis.get(0));
+		int n = 1;
+		QNameContext qnc;
+		while ((qnc = nextStartElement()) != null) {
+			sb.append("${");
+			expression(qnc, SEQUENCE, false);
+			sb.append('}').append(quasis.get(n++));
+		}
+		sb.append('`');
+		endElement();
+		endElement();
+	}
+
+	void literal(QNameContext qnc) throws EXIException, IOException {
+		if (isNull(qnc)) {
+			endElement();
+			out.token("null");
+			return;
+		}
+		Value value = characters();
+		if (value == null) {
+			out.token("\"\"");
+			return;
+		}
+		switch (value.getValueType()) {
+		case BOOLEAN:
+			out.token(toBoolean(value) ? "true" : "false");
+			break;
+		case INTEGER:
+			out.token(value.toString());
+			integerEnd = out.position();
+			break;
+		case FLOAT:
+			String s = Numbers.toBigDecimal((FloatValue) value).toString();
+			out.token(s);
+			if (s.indexOf('.') < 0 && s.indexOf('E') < 0) {
+				integerEnd = out.position();
+			}
+			break;
+		default:
+			s = value.toString();
+			if (s.startsWith("$")) {
+				// Nashorn marks strings
+				string(s, 1);
+			} else if (s.startsWith("/")) {
+				// regular expression as in the source
+				out.token(s);
+			} else {
+				string(s, 0);
+			}
+		}
+	}
+
+	void string(String s, int start) throws IOException {
+		StringBuilder sb = new StringBuilder(s.length() - start + 2);
+		sb.append('"');
+		for (int i = start; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			case 0x2028:
+			case 0x2029:
+				// line terminators in JavaScript
+				sb.append(c == 0x2028 ? "\\u2028" : "\\u2029");
+				break;
+			default:
+				if (c < 0x20) {
+					sb.append(c < 0x10 ? "\\x0" : "\\x").append(Integer.toHexString(c));
+				} else {
+					sb.append(c);
+				}
+			}
+		}
+		sb.append('"');
+		out.token(sb.toString());
+	}
+
+}
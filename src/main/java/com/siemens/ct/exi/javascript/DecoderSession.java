@@ -0,0 +1,365 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+
+package com.siemens.ct.exi.javascript;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import javax.json.JsonObject;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
+
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.context.GrammarUriContext;
+import com.siemens.ct.exi.core.context.QNameContext;
+import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.core.grammars.Grammars;
+import com.siemens.ct.exi.core.values.FloatValue;
+import com.siemens.ct.exi.core.values.IntegerValue;
+import com.siemens.ct.exi.core.values.Value;
+import com.siemens.ct.exi.javascript.NodeDescriptor.Slot;
+
+/**
+ * Decoder state of {@link EXItoAST} for one document at a time, the
+ * counterpart of {@link EncoderSession}. Sessions are pooled and reused but
+ * must not be used by two threads at once.
+ *
+ * <p>
+ * The EXI4JS stream is read following the {@link NodeDescriptor} of every
+ * node type, the JSON AST is written as the events arrive. Open nodes are
+ * kept on a stack of their own, so that decoding may be suspended between
+ * events and resumed later. If <code>lazy</code> is set, the bodies of
+ * functions are skipped into the recording and written as {@link LazyNode}.
+ * </p>
+ */
+class DecoderSession extends AbstractDecoderSession {
+
+	/**
+	 * Node descriptors and their slots resolved against the grammars decoded,
+	 * so that events are matched by {@link QNameContext} identity, the way
+	 * {@link EncoderSession} starts elements by {@link Slot#qname}.
+	 */
+	static final class Names {
+		final int uriID;
+		/* by QNameContext#getLocalNameID() */
+		final NodeDescriptor[] nodes;
+		/* by NodeDescriptor#index, the element of each slot */
+		final QNameContext[][] slots;
+
+		Names(Grammars grammars) {
+			GrammarUriContext uc = grammars.getGrammarContext().getGrammarUriContext(JSConstants.URI);
+			uriID = uc.getNamespaceUriID();
+			nodes = new NodeDescriptor[uc.getNumberOfQNames()];
+			slots = new QNameContext[NodeDescriptor.TYPES.length][];
+			for (String type : NodeDescriptor.TYPES) {
+				NodeDescriptor nd = NodeDescriptor.get(type);
+				QNameContext qnc = uc.getQNameContext(type);
+				if (qnc == null) {
+					// e.g., ClassBody in exi4js.xsd
+					continue;
+				}
+				nodes[qnc.getLocalNameID()] = nd;
+				QNameContext[] qncs = new QNameContext[nd.slots.length];
+				for (int i = 0; i < qncs.length; i++) {
+					qncs[i] = uc.getQNameContext(nd.slots[i].name);
+				}
+				slots[nd.index] = qncs;
+			}
+		}
+
+		NodeDescriptor node(QNameContext qnc) {
+			int id = qnc.getLocalNameID();
+			NodeDescriptor nd = qnc.getNamespaceUriID() == uriID && id < nodes.length ? nodes[id] : null;
+			if (nd == null) {
+				throw new RuntimeException("Unsupported type " + qnc.getLocalName() + "!");
+			}
+			return nd;
+		}
+	}
+
+	final Names names;
+
+	JsonGenerator generator;
+
+	boolean lazy;
+
+	/* open nodes, the next slot of each and whether it is in an array */
+	NodeDescriptor[] nodes = new NodeDescriptor[32];
+	int[] next = new int[32];
+	boolean[] inArray = new boolean[32];
+	int depth;
+
+	/* makes resume() return before the next event, see ReactiveEXI4JS */
+	boolean suspend;
+
+	DecoderSession(EXIFactory ef) throws EXIException {
+		this(ef, new Names(ef.getGrammars()));
+	}
+
+	DecoderSession(EXIFactory ef, Names names) throws EXIException {
+		super(ef);
+		this.names = names;
+	}
+
+	void handleProgram(InputStream is, OutputStream os, JsonGeneratorFactory jgf)
+			throws EXIException, IOException {
+		handleProgram(is, jgf.createGenerator(os));
+	}
+
+	void handleProgram(InputStream is, JsonGenerator generator) throws EXIException, IOException {
+		startProgram(is, generator);
+		resume();
+	}
+
+	void startProgram(InputStream is, JsonGenerator generator) throws EXIException, IOException {
+		QNameContext qnc = startDocument(is);
+		this.generator = generator;
+		suspend = false;
+
+		generator.writeStartObject();
+		push(names.node(qnc));
+	}
+
+	/**
+	 * Decodes the program started by {@link #startProgram} until it ends or
+	 * <code>suspend</code> is set, e.g., by the output, in which case it is
+	 * cleared and false returned to be called again later.
+	 */
+	boolean resume() throws EXIException, IOException {
+		if (!decode(0)) {
+			return false;
+		}
+		generator.writeEnd();
+
+		endDocument();
+		generator.flush();
+		return true;
+	}
+
+	/* start tag has been read, the end tag is consumed */
+	void handleNode(NodeDescriptor nd) throws EXIException, IOException {
+		int base = depth;
+		push(nd);
+		decode(base);
+	}
+
+	void push(NodeDescriptor nd) {
+		if (depth == nodes.length) {
+			nodes = Arrays.copyOf(nodes, 2 * depth);
+			next = Arrays.copyOf(next, 2 * depth);
+			inArray = Arrays.copyOf(inArray, 2 * depth);
+		}
+		nodes[depth] = nd;
+		next[depth] = 0;
+		inArray[depth] = false;
+		depth++;
+		generator.write("type", nd.type);
+	}
+
+	/*
+	 * reads until the nodes above base are complete, false if suspended
+	 * before; nodes and arrays nest on the stack rather than by recursion so
+	 * that decoding can stop and resume between any two events
+	 */
+	boolean decode(int base) throws EXIException, IOException {
+		while (depth > base) {
+			if (suspend) {
+				suspend = false;
+				return false;
+			}
+			int d = depth - 1;
+			QNameContext qnc = nextStartElement();
+			if (inArray[d]) {
+				if (qnc == null) {
+					// end of the array, then of its property
+					inArray[d] = false;
+					generator.writeEnd();
+					endElement();
+				} else if (isNull(qnc)) {
+					endElement();
+					generator.writeNull();
+				} else {
+					generator.writeStartObject();
+					push(names.node(qnc));
+				}
+			} else if (qnc == null) {
+				// end of the node, then of the property or array item holding it
+				nodes[d] = null;
+				depth = d;
+				if (d > base) {
+					generator.writeEnd();
+					if (!inArray[d - 1]) {
+						endElement();
+					}
+				}
+			} else {
+				NodeDescriptor nd = nodes[d];
+				QNameContext[] qncs = names.slots[nd.index];
+				int i = next[d];
+				// properties arrive in schema order, optional ones may be absent
+				while (i < qncs.length && qncs[i] != qnc) {
+					i++;
+				}
+				if (i == qncs.length) {
+					throw new RuntimeException("Unexpected property " + qnc.getLocalName() + " in " + nd.type);
+				}
+				Slot slot = nd.slots[i];
+				next[d] = i + 1;
+				if (lazy && slot.lazy) {
+					handleLazySlot(slot);
+				} else {
+					handleSlot(slot);
+				}
+			}
+		}
+		return true;
+	}
+
+	void handleLazySlot(Slot slot) throws EXIException, IOException {
+		QNameContext qnc = nextStartElement();
+		if (qnc == null) {
+			throw new RuntimeException("Missing value of " + slot.name);
+		}
+		int start = skip();
+		generator.write(slot.name, new LazyNode(names.node(qnc), names, recording, start));
+		endElement();
+	}
+
+	/* the body of a function skipped by handleLazySlot */
+	static JsonObject replay(NodeDescriptor nd, Names names, Recording recording, int start)
+			throws EXIException, IOException {
+		DecoderSession session = new DecoderSession(null, names);
+		session.lazy = true;
+		session.recording = recording;
+		session.replay = true;
+		session.position = start;
+		JsonTreeGenerator tree = new JsonTreeGenerator();
+		session.generator = tree;
+		tree.writeStartObject();
+		session.handleNode(nd);
+		tree.writeEnd();
+		return tree.getObject();
+	}
+
+	/* nodes and arrays are pushed for decode() to continue with */
+	void handleSlot(Slot slot) throws EXIException, IOException {
+		switch (slot.kind) {
+		case NODE:
+		case NODE_OR_NULL:
+			QNameContext qnc = nextStartElement();
+			if (qnc == null) {
+				throw new RuntimeException("Missing value of " + slot.name);
+			}
+			if (isNull(qnc)) {
+				endElement();
+				// Nashorn leaves out properties such as CatchClause.guard
+				if (!slot.omittable) {
+					generator.writeNull(slot.name);
+				}
+				endElement();
+			} else {
+				generator.writeStartObject(slot.name);
+				push(names.node(qnc));
+			}
+			break;
+		case ARRAY:
+		case ARRAY_OR_NULL:
+			if (nextStartElement() == null) {
+				throw new RuntimeException("Missing array of " + slot.name);
+			}
+			generator.writeStartArray(slot.name);
+			inArray[depth - 1] = true;
+			break;
+		case STRING:
+		case OPTIONAL_STRING:
+			Value value = characters();
+			generator.write(slot.name, value == null ? "" : value.toString());
+			break;
+		case BOOLEAN:
+			boolean b = toBoolean(characters());
+			if (b || !slot.omittable) {
+				generator.write(slot.name, b);
+			}
+			break;
+		case LITERAL:
+			qnc = nextStartElement();
+			if (qnc == null) {
+				throw new RuntimeException("Missing value of " + slot.name);
+			}
+			handleLiteralValue(slot.name, qnc);
+			endElement();
+			break;
+		}
+	}
+
+	/*
+	 * string, boolean, null, integer, number or RegExp; the typed value tells
+	 * the others apart
+	 */
+	void handleLiteralValue(String name, QNameContext qnc) throws EXIException, IOException {
+		if (isNull(qnc)) {
+			endElement();
+			generator.writeNull(name);
+			return;
+		}
+		Value value = characters();
+		if (value == null) {
+			generator.write(name, "");
+			return;
+		}
+		switch (value.getValueType()) {
+		case BOOLEAN:
+			generator.write(name, toBoolean(value));
+			break;
+		case INTEGER:
+			IntegerValue iv = (IntegerValue) value;
+			switch (iv.getIntegerValueType()) {
+			case INT:
+				generator.write(name, iv.intValue());
+				break;
+			case LONG:
+				generator.write(name, iv.longValue());
+				break;
+			default:
+				generator.write(name, iv.bigIntegerValue());
+			}
+			break;
+		case FLOAT:
+			BigDecimal bd = Numbers.toBigDecimal((FloatValue) value);
+			if (bd.scale() == 0) {
+				// keep it a number rather than an integer when encoded again
+				bd = bd.setScale(1);
+			}
+			generator.write(name, bd);
+			break;
+		default:
+			generator.write(name, value.toString());
+		}
+	}
+
+}
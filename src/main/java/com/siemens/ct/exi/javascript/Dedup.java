@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+
+package com.siemens.ct.exi.javascript;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.siemens.ct.exi.core.context.GrammarUriContext;
+import com.siemens.ct.exi.core.context.QNameContext;
+import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.core.grammars.Grammars;
+import com.siemens.ct.exi.core.values.IntegerValue;
+import com.siemens.ct.exi.core.values.Value;
+
+/**
+ * Back-references for repeated subtrees, an encoding extension described by
+ * exi4js-dedup.xsd and enabled by its grammars, see
+ * {@link JSConstants#EXI_FACTORY_DEDUP}.
+ * <p>
+ * Encoder and decoder keep the same list of subtrees: every node below the
+ * Program that spans at least {@link #MIN_EVENTS} events (start elements,
+ * characters and end elements, references expanded) is appended once it
+ * ends, unless it is part of an expanded reference itself. A statement or
+ * expression equal to one of the list is encoded as
+ * <code>&lt;StatementReference&gt;</code> respectively
+ * <code>&lt;ExpressionReference&gt;</code> with the distance to the most
+ * recent equal entry, 0 being the last one appended. References only stand
+ * where the schema accepts any statement or expression.
+ * </p>
+ */
+final class Dedup {
+
+	static final String STATEMENT_REFERENCE = "StatementReference";
+	static final String EXPRESSION_REFERENCE = "ExpressionReference";
+	static final String DISTANCE = "distance";
+
+	/* smaller subtrees are encoded in about the bits of a reference */
+	static final int MIN_EVENTS = 8;
+
+	private Dedup() {
+	}
+
+	/* grammars that know the reference elements */
+	static boolean isEnabled(Grammars grammars) {
+		GrammarUriContext uc = grammars.getGrammarContext().getGrammarUriContext(JSConstants.URI);
+		return uc != null && uc.getQNameContext(STATEMENT_REFERENCE) != null;
+	}
+
+	static boolean isNode(String localName) {
+		return NodeDescriptor.NODES.containsKey(localName);
+	}
+
+	static boolean isReference(String localName) {
+		return STATEMENT_REFERENCE.equals(localName) || EXPRESSION_REFERENCE.equals(localName);
+	}
+
+	static Value distance(int distance) {
+		return IntegerValue.valueOf(distance);
+	}
+
+	/**
+	 * Decoding side: records all events of the document and replaces
+	 * references by the events of the subtree they refer to.
+	 */
+	static final class Expander {
+
+		final AbstractDecoderSession.Recording recording;
+
+		/* start and end in the recording per subtree that can be referred to */
+		int[] subtrees = new int[256];
+		int count;
+
+		/* per open element the start of a node in the recording, -1 otherwise */
+		int[] open = new int[64];
+		int depth;
+
+		/* position and end of the expanded reference, if any */
+		int position;
+		int end;
+
+		Expander(AbstractDecoderSession.Recording recording) {
+			this.recording = recording;
+		}
+
+		/* the next event, read from the session unless a reference is expanded */
+		Object next(AbstractDecoderSession session) throws EXIException, IOException {
+			Object event;
+			if (position < end) {
+				// nested references are already expanded in the recording
+				event = recording.events[position++];
+				recording.add(event);
+				return event;
+			}
+
+			event = session.readEvent();
+			if (event instanceof QNameContext) {
+				String localName = ((QNameContext) event).getLocalName();
+				if (isReference(localName)) {
+					expand(session);
+					return next(session);
+				}
+				if (depth == open.length) {
+					open = Arrays.copyOf(open, depth * 2);
+				}
+				open[depth] = depth > 0 && isNode(localName) ? recording.size : -1;
+				depth++;
+			} else if (event == AbstractDecoderSession.Recording.END) {
+				int start = open[--depth];
+				if (start >= 0 && recording.size + 1 - start >= MIN_EVENTS) {
+					if (count * 2 == subtrees.length) {
+						subtrees = Arrays.copyOf(subtrees, count * 4);
+					}
+					subtrees[count * 2] = start;
+					subtrees[count * 2 + 1] = recording.size + 1;
+					count++;
+				}
+			}
+			recording.add(event);
+			return event;
+		}
+
+		/* reads the distance and the end of the reference */
+		void expand(AbstractDecoderSession session) throws EXIException, IOException {
+			Object event = session.readEvent();
+			if (!(event instanceof QNameContext) || !DISTANCE.equals(((QNameContext) event).getLocalName())) {
+				throw new RuntimeException("Unexpected reference content " + event);
+			}
+			Object distance = session.readEvent();
+			if (!(distance instanceof Value) || session.readEvent() != AbstractDecoderSession.Recording.END
+					|| session.readEvent() != AbstractDecoderSession.Recording.END) {
+				throw new RuntimeException("Unexpected reference content " + distance);
+			}
+			int index = count - 1 - Integer.parseInt(distance.toString());
+			if (index < 0 || index >= count) {
+				throw new RuntimeException("Reference " + distance + " out of " + count + " subtrees");
+			}
+			position = subtrees[index * 2];
+			end = subtrees[index * 2 + 1];
+		}
+	}
+
+}
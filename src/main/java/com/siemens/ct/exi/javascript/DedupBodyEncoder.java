@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+
+package com.siemens.ct.exi.javascript;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+import com.siemens.ct.exi.core.EXIBodyEncoder;
+import com.siemens.ct.exi.core.attributes.AttributeList;
+import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.core.exceptions.ErrorHandler;
+import com.siemens.ct.exi.core.io.channel.EncoderChannel;
+import com.siemens.ct.exi.core.values.Value;
+
+/**
+ * Replaces repeated statements and expressions by references, see
+ * {@link Dedup}. The events of each top-level statement are held back until
+ * it ends. Meanwhile every node is hash-consed: its key is made of the
+ * events in between with nested nodes standing in by their ids, so equal
+ * subtrees get the same id in linear time. The statement is then written
+ * top-down, each node whose id has been written before by a reference.
+ */
+class DedupBodyEncoder implements EXIBodyEncoder {
+
+	/* events of a key and of the held back statement */
+	static final Object END = AbstractDecoderSession.Recording.END;
+
+	/* tokens of a subtree, see intern */
+	static final class Key {
+		final Object[] tokens;
+		final int hash;
+
+		Key(Object[] tokens) {
+			this.tokens = tokens;
+			this.hash = Arrays.hashCode(tokens);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Key && Arrays.equals(tokens, ((Key) o).tokens);
+		}
+	}
+
+	final EXIBodyEncoder encoder;
+
+	/* held back events: local names, values and END */
+	Object[] events = new Object[1024];
+	/* per event that starts a node its id and the end of the node, -1 otherwise */
+	int[] ids = new int[1024];
+	int[] ends = new int[1024];
+	int size;
+
+	/* open elements: local name and, if a node is held back, its start */
+	String[] names = new String[64];
+	int[] starts = new int[64];
+	int depth;
+
+	/* keys of the open nodes */
+	final List<List<Object>> keys = new ArrayList<List<Object>>();
+	int nodes;
+
+	final Map<Key, Integer> interned = new HashMap<Key, Integer>();
+	/* per id the subtree number of its last full encoding, -1 if none */
+	int[] latest = new int[1024];
+	/* subtrees to refer to so far */
+	int count;
+
+	DedupBodyEncoder(EXIBodyEncoder encoder) {
+		this.encoder = encoder;
+	}
+
+	public void encodeStartElement(String uri, String localName, String prefix) throws EXIException, IOException {
+		boolean node = depth > 0 && Dedup.isNode(localName);
+		if (depth == names.length) {
+			names = Arrays.copyOf(names, depth * 2);
+			starts = Arrays.copyOf(starts, depth * 2);
+		}
+		names[depth] = localName;
+		starts[depth] = -1;
+		depth++;
+
+		if (nodes == 0 && !node) {
+			encoder.encodeStartElement(uri, localName, prefix);
+			return;
+		}
+		if (node) {
+			starts[depth - 1] = size;
+			if (nodes == keys.size()) {
+				keys.add(new ArrayList<Object>());
+			}
+			keys.get(nodes++).add(localName);
+		} else {
+			keys.get(nodes - 1).add(localName);
+		}
+		add(localName);
+	}
+
+	public void encodeStartElement(QName qname) throws EXIException, IOException {
+		encodeStartElement(qname.getNamespaceURI(), qname.getLocalPart(), qname.getPrefix());
+	}
+
+	public void encodeCharacters(Value chars) throws EXIException, IOException {
+		if (nodes == 0) {
+			encoder.encodeCharacters(chars);
+			return;
+		}
+		keys.get(nodes - 1).add(chars.toString());
+		add(chars);
+	}
+
+	public void encodeEndElement() throws EXIException, IOException {
+		depth--;
+		if (nodes == 0) {
+			encoder.encodeEndElement();
+			return;
+		}
+		add(END);
+		int start = starts[depth];
+		if (start < 0) {
+			keys.get(nodes - 1).add(END);
+			return;
+		}
+
+		List<Object> key = keys.get(--nodes);
+		key.add(END);
+		int id = intern(key);
+		key.clear();
+		ids[start] = id;
+		ends[start] = size;
+		if (nodes > 0) {
+			keys.get(nodes - 1).add(id);
+		} else {
+			write();
+			size = 0;
+		}
+	}
+
+	void add(Object event) {
+		if (size == events.length) {
+			events = Arrays.copyOf(events, size * 2);
+			ids = Arrays.copyOf(ids, size * 2);
+			ends = Arrays.copyOf(ends, size * 2);
+		}
+		ids[size] = -1;
+		events[size++] = event;
+	}
+
+	int intern(List<Object> tokens) {
+		Key key = new Key(tokens.toArray());
+		Integer id = interned.get(key);
+		if (id == null) {
+			id = interned.size();
+			interned.put(key, id);
+			if (id == latest.length) {
+				latest = Arrays.copyOf(latest, id * 2);
+			}
+			latest[id] = -1;
+		}
+		return id;
+	}
+
+	/* writes the held back statement, the open elements are its ancestors */
+	void write() throws EXIException, IOException {
+		int d = depth;
+		for (int i = 0; i < size;) {
+			Object event = events[i];
+			if (event == END) {
+				encoder.encodeEndElement();
+				int start = starts[--d];
+				if (start >= 0) {
+					latest[ids[start]] = count++;
+				}
+				i++;
+			} else if (event instanceof String) {
+				String localName = (String) event;
+				int id = ids[i];
+				boolean subtree = id >= 0 && ends[i] - i >= Dedup.MIN_EVENTS;
+				if (subtree && latest[id] >= 0) {
+					String reference = reference(d, localName);
+					if (reference != null) {
+						encoder.encodeStartElement(JSConstants.URI, reference, null);
+						encoder.encodeStartElement(JSConstants.URI, Dedup.DISTANCE, null);
+						encoder.encodeCharacters(Dedup.distance(count - 1 - latest[id]));
+						encoder.encodeEndElement();
+						encoder.encodeEndElement();
+						i = ends[i];
+						continue;
+					}
+				}
+				encoder.encodeStartElement(JSConstants.URI, localName, null);
+				names[d] = localName;
+				starts[d] = subtree ? i : -1;
+				d++;
+				i++;
+			} else {
+				encoder.encodeCharacters((Value) event);
+				i++;
+			}
+		}
+	}
+
+	/* the reference element for the node at depth d, null if none fits there */
+	String reference(int d, String localName) {
+		// the node is an item of an array or the value of a property
+		int slot = "array".equals(names[d - 1]) ? d - 2 : d - 1;
+		NodeDescriptor owner = NodeDescriptor.get(names[slot - 1]);
+		NodeDescriptor nd = NodeDescriptor.get(localName);
+		int index = owner.indexOf(names[slot]);
+		if (index < 0 || !owner.slots[index].accepts(nd)) {
+			return null;
+		}
+		return nd.group == NodeDescriptor.STATEMENT ? Dedup.STATEMENT_REFERENCE : Dedup.EXPRESSION_REFERENCE;
+	}
+
+	public void encodeStartDocument() throws EXIException, IOException {
+		encoder.encodeStartDocument();
+	}
+
+	public void encodeEndDocument() throws EXIException, IOException {
+		encoder.encodeEndDocument();
+	}
+
+	public void flush() throws IOException {
+		encoder.flush();
+	}
+
+	public void setOutputStream(OutputStream os) throws EXIException, IOException {
+		encoder.setOutputStream(os);
+	}
+
+	public void setOutputChannel(EncoderChannel channel) throws EXIException, IOException {
+		encoder.setOutputChannel(channel);
+	}
+
+	public void setErrorHandler(ErrorHandler errorHandler) {
+		encoder.setErrorHandler(errorHandler);
+	}
+
+	/* EXI4JS has no further events */
+
+	public void encodeAttributeList(AttributeList attributes) throws EXIException, IOException {
+		throw new RuntimeException("Unexpected attributes");
+	}
+
+	public void encodeAttribute(String uri, String localName, String prefix, Value value)
+			throws EXIException, IOException {
+		throw new RuntimeException("Unexpected attribute " + localName);
+	}
+
+	public void encodeAttribute(QName at, Value value) throws EXIException, IOException {
+		throw new RuntimeException("Unexpected attribute " + at);
+	}
+
+	public void encodeNamespaceDeclaration(String uri, String prefix) throws EXIException, IOException {
+		throw new RuntimeException("Unexpected namespace declaration " + uri);
+	}
+
+	public void encodeAttributeXsiNil(Value nil, String pfx) throws EXIException, IOException {
+		throw new RuntimeException("Unexpected xsi:nil");
+	}
+
+	public void encodeAttributeXsiType(Value type, String pfx) throws EXIException, IOException {
+		throw new RuntimeException("Unexpected xsi:type");
+	}
+
+	public void encodeDocType(String name, String publicID, String systemID, String text)
+			throws EXIException, IOException {
+		throw new RuntimeException("Unexpected doctype");
+	}
+
+	public void encodeEntityReference(String name) throws EXIException, IOException {
+		throw new RuntimeException("Unexpected entity reference " + name);
+	}
+
+	public void encodeComment(char[] ch, int start, int length) throws EXIException, IOException {
+		throw new RuntimeException("Unexpected comment");
+	}
+
+	public void encodeProcessingInstruction(String target, String data) throws EXIException, IOException {
+		throw new RuntimeException("Unexpected processing instruction " + target);
+	}
+
+}
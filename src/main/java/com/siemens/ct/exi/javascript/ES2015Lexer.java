@@ -0,0 +1,948 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+
+package com.siemens.ct.exi.javascript;
+
+import java.math.BigInteger;
+
+/**
+ * Tokenizer of {@link ES2015ParserSession}. It works on the source array and
+ * keeps the current token in fields: no token objects and, thanks to a table
+ * of the names seen so far, no strings for names other than their first
+ * occurrence. Regular expressions and the continuation of template literals
+ * depend on the syntactic context, the parser asks for them by
+ * {@link #scanRegex()} and {@link #scanTemplateContinuation()}.
+ */
+class ES2015Lexer {
+
+	/* tokens */
+	static final int EOF = 0;
+	static final int NAME = 1;
+	static final int NUMBER = 2;
+	static final int STRING = 3;
+	static final int TEMPLATE = 4;
+	static final int REGEX = 5;
+
+	static final int LBRACE = 6;
+	static final int RBRACE = 7;
+	static final int LPAREN = 8;
+	static final int RPAREN = 9;
+	static final int LBRACKET = 10;
+	static final int RBRACKET = 11;
+	static final int DOT = 12;
+	static final int ELLIPSIS = 13;
+	static final int SEMICOLON = 14;
+	static final int COMMA = 15;
+	static final int QUESTION = 16;
+	static final int COLON = 17;
+	static final int ARROW = 18;
+	static final int TILDE = 19;
+	static final int BANG = 20;
+	static final int INC = 21;
+	static final int DEC = 22;
+
+	/* binary operators, see PRECEDENCE */
+	static final int OR = 23;
+	static final int AND = 24;
+	static final int BIT_OR = 25;
+	static final int BIT_XOR = 26;
+	static final int BIT_AND = 27;
+	static final int EQ = 28;
+	static final int NE = 29;
+	static final int EQ_STRICT = 30;
+	static final int NE_STRICT = 31;
+	static final int LT = 32;
+	static final int GT = 33;
+	static final int LE = 34;
+	static final int GE = 35;
+	static final int INSTANCEOF = 36;
+	static final int IN = 37;
+	static final int SHL = 38;
+	static final int SAR = 39;
+	static final int SHR = 40;
+	static final int PLUS = 41;
+	static final int MINUS = 42;
+	static final int STAR = 43;
+	static final int SLASH = 44;
+	static final int PERCENT = 45;
+	static final int EXP = 46;
+
+	/* assignment operators */
+	static final int ASSIGN = 47;
+	static final int PLUS_ASSIGN = 48;
+	static final int MINUS_ASSIGN = 49;
+	static final int STAR_ASSIGN = 50;
+	static final int SLASH_ASSIGN = 51;
+	static final int PERCENT_ASSIGN = 52;
+	static final int EXP_ASSIGN = 53;
+	static final int SHL_ASSIGN = 54;
+	static final int SAR_ASSIGN = 55;
+	static final int SHR_ASSIGN = 56;
+	static final int BIT_AND_ASSIGN = 57;
+	static final int BIT_OR_ASSIGN = 58;
+	static final int BIT_XOR_ASSIGN = 59;
+
+	/* reserved words */
+	static final int BREAK = 60;
+	static final int CASE = 61;
+	static final int CATCH = 62;
+	static final int CLASS = 63;
+	static final int CONST = 64;
+	static final int CONTINUE = 65;
+	static final int DEBUGGER = 66;
+	static final int DEFAULT = 67;
+	static final int DELETE = 68;
+	static final int DO = 69;
+	static final int ELSE = 70;
+	static final int EXPORT = 71;
+	static final int EXTENDS = 72;
+	static final int FALSE = 73;
+	static final int FINALLY = 74;
+	static final int FOR = 75;
+	static final int FUNCTION = 76;
+	static final int IF = 77;
+	static final int IMPORT = 78;
+	static final int NEW = 79;
+	static final int NULL = 80;
+	static final int RETURN = 81;
+	static final int SUPER = 82;
+	static final int SWITCH = 83;
+	static final int THIS = 84;
+	static final int THROW = 85;
+	static final int TRUE = 86;
+	static final int TRY = 87;
+	static final int TYPEOF = 88;
+	static final int VAR = 89;
+	static final int VOID = 90;
+	static final int WHILE = 91;
+	static final int WITH = 92;
+	static final int ENUM = 93;
+
+	static final int TOKENS = 94;
+
+	/* operators as reported in the tree, respectively keywords */
+	static final String[] TEXT = new String[TOKENS];
+	/* binding power of binary operators, 0 for other tokens */
+	static final int[] PRECEDENCE = new int[TOKENS];
+
+	static {
+		String[] punctuators = { "{", "}", "(", ")", "[", "]", ".", "...", ";", ",", "?", ":", "=>", "~", "!", "++",
+				"--", "||", "&&", "|", "^", "&", "==", "!=", "===", "!==", "<", ">", "<=", ">=", "instanceof", "in",
+				"<<", ">>", ">>>", "+", "-", "*", "/", "%", "**", "=", "+=", "-=", "*=", "/=", "%=", "**=", "<<=",
+				">>=", ">>>=", "&=", "|=", "^=", "break", "case", "catch", "class", "const", "continue", "debugger",
+				"default", "delete", "do", "else", "export", "extends", "false", "finally", "for", "function", "if",
+				"import", "new", "null", "return", "super", "switch", "this", "throw", "true", "try", "typeof", "var",
+				"void", "while", "with", "enum" };
+		System.arraycopy(punctuators, 0, TEXT, LBRACE, punctuators.length);
+		int[][] levels = { { OR }, { AND }, { BIT_OR }, { BIT_XOR }, { BIT_AND }, { EQ, NE, EQ_STRICT, NE_STRICT },
+				{ LT, GT, LE, GE, INSTANCEOF, IN }, { SHL, SAR, SHR }, { PLUS, MINUS }, { STAR, SLASH, PERCENT },
+				{ EXP } };
+		for (int i = 0; i < levels.length; i++) {
+			for (int t : levels[i]) {
+				PRECEDENCE[t] = i + 1;
+			}
+		}
+	}
+
+	/* contextual keywords, reported as NAME and compared by identity */
+	static final String LET = "let";
+	static final String STATIC = "static";
+	static final String GET = "get";
+	static final String SET = "set";
+	static final String OF = "of";
+	static final String AS = "as";
+	static final String FROM = "from";
+	static final String ASYNC = "async";
+	static final String AWAIT = "await";
+	static final String YIELD = "yield";
+	static final String TARGET = "target";
+	static final String CONSTRUCTOR = "constructor";
+
+	/* ASCII characters that may start, respectively continue, a name */
+	static final boolean[] NAME_START = new boolean[128];
+	static final boolean[] NAME_PART = new boolean[128];
+
+	static {
+		for (char c = 0; c < 128; c++) {
+			NAME_START[c] = c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '$' || c == '_';
+			NAME_PART[c] = NAME_START[c] || c >= '0' && c <= '9';
+		}
+	}
+
+	char[] src;
+	int length;
+	int pos;
+
+	/* current token */
+	int tok;
+	int tokStart;
+	boolean newlineBefore;
+	/* NAME and reserved words */
+	String name;
+	/* NAME written with escapes, never a keyword then */
+	boolean escaped;
+	/* STRING with leading '$', REGEX as written, TEMPLATE cooked */
+	String value;
+	/* TEMPLATE */
+	String raw;
+	boolean templateTail;
+	/* NUMBER */
+	double number;
+
+	final StringBuilder sb = new StringBuilder();
+
+	/* names seen so far, open addressing */
+	String[] names = new String[2048];
+	int[] nameTokens = new int[2048];
+	int nameCount;
+
+	ES2015Lexer() {
+		resetNames();
+	}
+
+	void resetNames() {
+		java.util.Arrays.fill(names, null);
+		nameCount = 0;
+		for (int t = BREAK; t < TOKENS; t++) {
+			addName(TEXT[t], t);
+		}
+		addName(TEXT[IN], IN);
+		addName(TEXT[INSTANCEOF], INSTANCEOF);
+		for (String s : new String[] { LET, STATIC, GET, SET, OF, AS, FROM, ASYNC, AWAIT, YIELD, TARGET,
+				CONSTRUCTOR }) {
+			addName(s, NAME);
+		}
+	}
+
+	void reset(char[] src) {
+		this.src = src;
+		this.length = src.length;
+		this.pos = 0;
+		if (nameCount > 1 << 16) {
+			// keep the table of a long-lived session small
+			names = new String[2048];
+			nameTokens = new int[2048];
+			resetNames();
+		}
+		if (length > 1 && src[0] == '#' && src[1] == '!') {
+			// hashbang
+			while (pos < length && !isLineTerminator(src[pos])) {
+				pos++;
+			}
+		}
+	}
+
+	static int hash(char[] c, int start, int end) {
+		int h = 0;
+		for (int i = start; i < end; i++) {
+			h = 31 * h + c[i];
+		}
+		return h;
+	}
+
+	void addName(String s, int token) {
+		char[] c = s.toCharArray();
+		int slot = slot(c, 0, c.length, hash(c, 0, c.length));
+		if (names[slot] == null) {
+			names[slot] = s;
+			nameTokens[slot] = token;
+			nameCount++;
+		} else {
+			nameTokens[slot] = token;
+		}
+	}
+
+	int slot(char[] c, int start, int end, int hash) {
+		int mask = names.length - 1;
+		int slot = (hash ^ hash >>> 16) & mask;
+		int len = end - start;
+		while (true) {
+			String s = names[slot];
+			if (s == null) {
+				return slot;
+			}
+			if (s.length() == len) {
+				int i = 0;
+				while (i < len && s.charAt(i) == c[start + i]) {
+					i++;
+				}
+				if (i == len) {
+					return slot;
+				}
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/* sets name and returns the token of the name in c[start, end) */
+	int lookup(char[] c, int start, int end) {
+		int hash = hash(c, start, end);
+		int slot = slot(c, start, end, hash);
+		if (names[slot] == null) {
+			if (2 * (nameCount + 1) > names.length) {
+				grow();
+				slot = slot(c, start, end, hash);
+			}
+			names[slot] = new String(c, start, end - start);
+			nameTokens[slot] = NAME;
+			nameCount++;
+		}
+		name = names[slot];
+		return nameTokens[slot];
+	}
+
+	void grow() {
+		String[] oldNames = names;
+		int[] oldTokens = nameTokens;
+		names = new String[oldNames.length * 2];
+		nameTokens = new int[names.length];
+		for (int i = 0; i < oldNames.length; i++) {
+			String s = oldNames[i];
+			if (s != null) {
+				char[] c = s.toCharArray();
+				int slot = slot(c, 0, c.length, hash(c, 0, c.length));
+				names[slot] = s;
+				nameTokens[slot] = oldTokens[i];
+			}
+		}
+	}
+
+	RuntimeException error(String message) {
+		return error(tokStart, message);
+	}
+
+	RuntimeException error(int at, String message) {
+		int line = 1;
+		int lineStart = 0;
+		for (int i = 0; i < at && i < length; i++) {
+			if (src[i] == '\n') {
+				line++;
+				lineStart = i + 1;
+			}
+		}
+		return new RuntimeException("SyntaxError: <unknown>:" + line + ":" + (at - lineStart) + " " + message);
+	}
+
+	static boolean isLineTerminator(char c) {
+		return c == '\n' || c == '\r' || c == '\u2028' || c == '\u2029';
+	}
+
+	static boolean isNameStart(int cp) {
+		return cp < 128 ? NAME_START[cp] : Character.isUnicodeIdentifierStart(cp);
+	}
+
+	static boolean isNamePart(int cp) {
+		return cp < 128 ? NAME_PART[cp]
+				: Character.isUnicodeIdentifierPart(cp) && !Character.isIdentifierIgnorable(cp) || cp == '\u200c'
+						|| cp == '\u200d';
+	}
+
+	/* skips white space and comments, notes line terminators */
+	void skip() {
+		char[] src = this.src;
+		while (pos < length) {
+			char c = src[pos];
+			if (c == ' ' || c == '\t') {
+				pos++;
+			} else if (c == '\n' || c == '\r' || c == '\u2028' || c == '\u2029') {
+				newlineBefore = true;
+				pos++;
+			} else if (c == '/' && pos + 1 < length && src[pos + 1] == '/') {
+				pos += 2;
+				while (pos < length && !isLineTerminator(src[pos])) {
+					pos++;
+				}
+			} else if (c == '/' && pos + 1 < length && src[pos + 1] == '*') {
+				int start = pos;
+				pos += 2;
+				while (true) {
+					if (pos + 1 >= length) {
+						throw error(start, "Missing close quote");
+					}
+					char d = src[pos++];
+					if (d == '*' && src[pos] == '/') {
+						pos++;
+						break;
+					} else if (isLineTerminator(d)) {
+						newlineBefore = true;
+					}
+				}
+			} else if (c == '\u000b' || c == '\u000c' || c == '\u00a0' || c == '\ufeff'
+					|| c > 127 && Character.getType(c) == Character.SPACE_SEPARATOR) {
+				pos++;
+			} else {
+				return;
+			}
+		}
+	}
+
+	void next() {
+		newlineBefore = false;
+		skip();
+		tokStart = pos;
+		if (pos >= length) {
+			tok = EOF;
+			return;
+		}
+		char[] src = this.src;
+		char c = src[pos];
+		if (c < 128 && NAME_START[c]) {
+			int end = pos + 1;
+			while (end < length && src[end] < 128 && NAME_PART[src[end]]) {
+				end++;
+			}
+			if (end == length || src[end] != '\\' && src[end] < 128) {
+				escaped = false;
+				tok = lookup(src, pos, end);
+				pos = end;
+				return;
+			}
+			scanName();
+			return;
+		}
+		if (c >= '0' && c <= '9' || c == '.' && pos + 1 < length && src[pos + 1] >= '0' && src[pos + 1] <= '9') {
+			scanNumber();
+			return;
+		}
+		switch (c) {
+		case '{':
+			punctuator(LBRACE, 1);
+			return;
+		case '}':
+			punctuator(RBRACE, 1);
+			return;
+		case '(':
+			punctuator(LPAREN, 1);
+			return;
+		case ')':
+			punctuator(RPAREN, 1);
+			return;
+		case '[':
+			punctuator(LBRACKET, 1);
+			return;
+		case ']':
+			punctuator(RBRACKET, 1);
+			return;
+		case ';':
+			punctuator(SEMICOLON, 1);
+			return;
+		case ',':
+			punctuator(COMMA, 1);
+			return;
+		case '?':
+			punctuator(QUESTION, 1);
+			return;
+		case ':':
+			punctuator(COLON, 1);
+			return;
+		case '~':
+			punctuator(TILDE, 1);
+			return;
+		case '.':
+			if (at(1) == '.' && at(2) == '.') {
+				punctuator(ELLIPSIS, 3);
+			} else {
+				punctuator(DOT, 1);
+			}
+			return;
+		case '"':
+		case '\'':
+			scanString(c);
+			return;
+		case '`':
+			pos++;
+			scanTemplate();
+			return;
+		case '=':
+			if (at(1) == '=') {
+				punctuator(at(2) == '=' ? EQ_STRICT : EQ, at(2) == '=' ? 3 : 2);
+			} else {
+				punctuator(at(1) == '>' ? ARROW : ASSIGN, at(1) == '>' ? 2 : 1);
+			}
+			return;
+		case '!':
+			if (at(1) == '=') {
+				punctuator(at(2) == '=' ? NE_STRICT : NE, at(2) == '=' ? 3 : 2);
+			} else {
+				punctuator(BANG, 1);
+			}
+			return;
+		case '+':
+			punctuator(at(1) == '+' ? INC : at(1) == '=' ? PLUS_ASSIGN : PLUS, at(1) == '+' || at(1) == '=' ? 2 : 1);
+			return;
+		case '-':
+			punctuator(at(1) == '-' ? DEC : at(1) == '=' ? MINUS_ASSIGN : MINUS, at(1) == '-' || at(1) == '=' ? 2 : 1);
+			return;
+		case '*':
+			if (at(1) == '*') {
+				punctuator(at(2) == '=' ? EXP_ASSIGN : EXP, at(2) == '=' ? 3 : 2);
+			} else {
+				punctuator(at(1) == '=' ? STAR_ASSIGN : STAR, at(1) == '=' ? 2 : 1);
+			}
+			return;
+		case '/':
+			// division, the parser rescans where a regular expression is due
+			punctuator(at(1) == '=' ? SLASH_ASSIGN : SLASH, at(1) == '=' ? 2 : 1);
+			return;
+		case '%':
+			punctuator(at(1) == '=' ? PERCENT_ASSIGN : PERCENT, at(1) == '=' ? 2 : 1);
+			return;
+		case '&':
+			punctuator(at(1) == '&' ? AND : at(1) == '=' ? BIT_AND_ASSIGN : BIT_AND,
+					at(1) == '&' || at(1) == '=' ? 2 : 1);
+			return;
+		case '|':
+			punctuator(at(1) == '|' ? OR : at(1) == '=' ? BIT_OR_ASSIGN : BIT_OR,
+					at(1) == '|' || at(1) == '=' ? 2 : 1);
+			return;
+		case '^':
+			punctuator(at(1) == '=' ? BIT_XOR_ASSIGN : BIT_XOR, at(1) == '=' ? 2 : 1);
+			return;
+		case '<':
+			if (at(1) == '<') {
+				punctuator(at(2) == '=' ? SHL_ASSIGN : SHL, at(2) == '=' ? 3 : 2);
+			} else {
+				punctuator(at(1) == '=' ? LE : LT, at(1) == '=' ? 2 : 1);
+			}
+			return;
+		case '>':
+			if (at(1) == '>') {
+				if (at(2) == '>') {
+					punctuator(at(3) == '=' ? SHR_ASSIGN : SHR, at(3) == '=' ? 4 : 3);
+				} else {
+					punctuator(at(2) == '=' ? SAR_ASSIGN : SAR, at(2) == '=' ? 3 : 2);
+				}
+			} else {
+				punctuator(at(1) == '=' ? GE : GT, at(1) == '=' ? 2 : 1);
+			}
+			return;
+		default:
+			if (c == '\\' || c > 127 && isNameStart(Character.codePointAt(src, pos))) {
+				scanName();
+				return;
+			}
+			throw error("Unexpected character '" + c + "'");
+		}
+	}
+
+	char at(int offset) {
+		int i = pos + offset;
+		return i < length ? src[i] : 0;
+	}
+
+	void punctuator(int token, int length) {
+		tok = token;
+		pos += length;
+	}
+
+	/* names with non-ASCII characters or escapes */
+	void scanName() {
+		sb.setLength(0);
+		escaped = false;
+		boolean first = true;
+		while (pos < length) {
+			int cp;
+			if (src[pos] == '\\') {
+				if (at(1) != 'u') {
+					throw error(pos, "Invalid escape in name");
+				}
+				pos += 2;
+				cp = unicodeEscape();
+				escaped = true;
+				if (!(first ? isNameStart(cp) : isNamePart(cp))) {
+					throw error(pos, "Invalid escape in name");
+				}
+			} else {
+				cp = Character.codePointAt(src, pos);
+				if (!(first ? isNameStart(cp) : isNamePart(cp))) {
+					break;
+				}
+				pos += Character.charCount(cp);
+			}
+			sb.appendCodePoint(cp);
+			first = false;
+		}
+		char[] c = new char[sb.length()];
+		sb.getChars(0, c.length, c, 0);
+		tok = lookup(c, 0, c.length);
+		if (escaped && tok != NAME) {
+			// e.g., if is a name, not a keyword
+			tok = NAME;
+		}
+	}
+
+	/* \\uXXXX or \\u{X...}, pos after the u */
+	int unicodeEscape() {
+		if (at(0) == '{') {
+			pos++;
+			int cp = 0;
+			int start = pos;
+			while (at(0) != '}') {
+				int d = Character.digit(at(0), 16);
+				if (d < 0 || cp > 0x10ffff) {
+					throw error(pos, "Invalid Unicode escape");
+				}
+				cp = cp * 16 + d;
+				pos++;
+			}
+			if (pos == start || cp > 0x10ffff) {
+				throw error(pos, "Invalid Unicode escape");
+			}
+			pos++;
+			return cp;
+		}
+		return hexDigits(4);
+	}
+
+	int hexDigits(int n) {
+		int v = 0;
+		for (int i = 0; i < n; i++) {
+			int d = Character.digit(at(0), 16);
+			if (d < 0) {
+				throw error(pos, "Invalid hex digit");
+			}
+			v = v * 16 + d;
+			pos++;
+		}
+		return v;
+	}
+
+	void scanNumber() {
+		char[] src = this.src;
+		int start = pos;
+		tok = NUMBER;
+		char c = src[pos];
+		if (c == '0' && pos + 1 < length) {
+			char x = src[pos + 1];
+			int radix = x == 'x' || x == 'X' ? 16 : x == 'o' || x == 'O' ? 8 : x == 'b' || x == 'B' ? 2 : 0;
+			if (radix != 0) {
+				pos += 2;
+				number = radixNumber(radix, pos);
+				checkNumberEnd();
+				return;
+			}
+			if (x >= '0' && x <= '9') {
+				// legacy octal, decimal if there is an 8 or 9
+				int end = pos + 1;
+				boolean octal = true;
+				while (end < length && src[end] >= '0' && src[end] <= '9') {
+					octal &= src[end] <= '7';
+					end++;
+				}
+				if (octal) {
+					number = radixNumber(8, pos + 1);
+					checkNumberEnd();
+					return;
+				}
+			}
+		}
+		long mantissa = 0;
+		int digits = 0;
+		boolean simple = true;
+		while (pos < length && (c = src[pos]) >= '0' && c <= '9') {
+			mantissa = mantissa * 10 + (c - '0');
+			digits++;
+			pos++;
+		}
+		if (pos < length && src[pos] == '.') {
+			simple = false;
+			pos++;
+			while (pos < length && src[pos] >= '0' && src[pos] <= '9') {
+				pos++;
+			}
+		}
+		if (pos < length && (src[pos] == 'e' || src[pos] == 'E')) {
+			simple = false;
+			pos++;
+			if (pos < length && (src[pos] == '+' || src[pos] == '-')) {
+				pos++;
+			}
+			int expStart = pos;
+			while (pos < length && src[pos] >= '0' && src[pos] <= '9') {
+				pos++;
+			}
+			if (pos == expStart) {
+				throw error(start, "Invalid number");
+			}
+		}
+		if (simple && digits <= 15) {
+			number = mantissa;
+		} else {
+			number = Double.parseDouble(new String(src, start, pos - start));
+		}
+		checkNumberEnd();
+	}
+
+	double radixNumber(int radix, int start) {
+		pos = start;
+		long v = 0;
+		boolean exact = true;
+		while (pos < length) {
+			int d = Character.digit(src[pos], radix);
+			if (d < 0) {
+				break;
+			}
+			exact &= v < 1L << 52;
+			v = v * radix + d;
+			pos++;
+		}
+		if (pos == start) {
+			throw error(start, "Invalid number");
+		}
+		return exact ? v : new BigInteger(new String(src, start, pos - start), radix).doubleValue();
+	}
+
+	void checkNumberEnd() {
+		if (pos < length && (isNameStart(src[pos]) || src[pos] >= '0' && src[pos] <= '9' || src[pos] == '\\')) {
+			throw error(pos, "Missing space after numeric literal");
+		}
+	}
+
+	void scanString(char quote) {
+		char[] src = this.src;
+		int start = ++pos;
+		while (pos < length && src[pos] != quote && src[pos] != '\\' && src[pos] != '\n' && src[pos] != '\r') {
+			pos++;
+		}
+		sb.setLength(0);
+		sb.append('$');
+		sb.append(src, start, pos - start);
+		while (true) {
+			if (pos >= length || isLineTerminator(src[pos]) && src[pos] < '\u2028') {
+				throw error(tokStart, "Missing close quote");
+			}
+			char c = src[pos++];
+			if (c == quote) {
+				break;
+			} else if (c == '\\') {
+				escape(false);
+			} else {
+				sb.append(c);
+			}
+		}
+		tok = STRING;
+		value = sb.toString();
+	}
+
+	/* appends the escape sequence (pos after '\\') to sb */
+	void escape(boolean template) {
+		if (pos >= length) {
+			throw error(pos, "Missing close quote");
+		}
+		char c = src[pos++];
+		switch (c) {
+		case 'n':
+			sb.append('\n');
+			break;
+		case 't':
+			sb.append('\t');
+			break;
+		case 'r':
+			sb.append('\r');
+			break;
+		case 'b':
+			sb.append('\b');
+			break;
+		case 'f':
+			sb.append('\f');
+			break;
+		case 'v':
+			sb.append('\u000b');
+			break;
+		case 'x':
+			sb.append((char) hexDigits(2));
+			break;
+		case 'u':
+			sb.appendCodePoint(unicodeEscape());
+			break;
+		case '\r':
+			if (at(0) == '\n') {
+				pos++;
+			}
+			break;
+		case '\n':
+		case '\u2028':
+		case '\u2029':
+			// line continuation
+			break;
+		default:
+			if (c >= '0' && c <= '7') {
+				if (c == '0' && !(at(0) >= '0' && at(0) <= '9')) {
+					sb.append('\0');
+				} else if (template) {
+					throw error(pos - 1, "Octal escape in template");
+				} else {
+					// legacy octal escape, up to \377
+					int v = c - '0';
+					if (at(0) >= '0' && at(0) <= '7') {
+						v = v * 8 + (src[pos++] - '0');
+						if (c <= '3' && at(0) >= '0' && at(0) <= '7') {
+							v = v * 8 + (src[pos++] - '0');
+						}
+					}
+					sb.append((char) v);
+				}
+			} else {
+				sb.append(c);
+			}
+		}
+	}
+
+	/* template characters up to '`' or "${", pos after '`' or '}' */
+	void scanTemplate() {
+		char[] src = this.src;
+		int start = pos;
+		sb.setLength(0);
+		boolean plain = true;
+		while (true) {
+			if (pos >= length) {
+				throw error(tokStart, "Missing close quote");
+			}
+			char c = src[pos];
+			if (c == '`') {
+				templateTail = true;
+				break;
+			} else if (c == '$' && at(1) == '{') {
+				templateTail = false;
+				break;
+			}
+			pos++;
+			if (c == '\\') {
+				plain = false;
+				escape(true);
+			} else if (c == '\r') {
+				// line terminators are normalized to \n
+				plain = false;
+				if (at(0) == '\n') {
+					pos++;
+				}
+				sb.append('\n');
+			} else {
+				sb.append(c);
+			}
+		}
+		value = sb.toString();
+		if (plain) {
+			raw = value;
+		} else {
+			sb.setLength(0);
+			for (int i = start; i < pos; i++) {
+				char c = src[i];
+				if (c == '\r') {
+					if (i + 1 < pos && src[i + 1] == '\n') {
+						i++;
+					}
+					c = '\n';
+				}
+				sb.append(c);
+			}
+			raw = sb.toString();
+		}
+		pos += templateTail ? 1 : 2;
+		tok = TEMPLATE;
+	}
+
+	/* the template continues after the '}' of a substitution */
+	void scanTemplateContinuation() {
+		if (tok != RBRACE) {
+			throw error("Expected } but found " + describe());
+		}
+		pos = tokStart + 1;
+		scanTemplate();
+	}
+
+	/* the '/' or "/=" token starts a regular expression */
+	void scanRegex() {
+		char[] src = this.src;
+		pos = tokStart + 1;
+		boolean inClass = false;
+		while (true) {
+			if (pos >= length || isLineTerminator(src[pos])) {
+				throw error(tokStart, "Unterminated regular expression");
+			}
+			char c = src[pos++];
+			if (c == '\\') {
+				if (pos >= length || isLineTerminator(src[pos])) {
+					throw error(tokStart, "Unterminated regular expression");
+				}
+				pos++;
+			} else if (c == '[') {
+				inClass = true;
+			} else if (c == ']') {
+				inClass = false;
+			} else if (c == '/' && !inClass) {
+				break;
+			}
+		}
+		while (pos < length && src[pos] < 128 && NAME_PART[src[pos]]) {
+			pos++;
+		}
+		tok = REGEX;
+		value = new String(src, tokStart, pos - tokStart);
+	}
+
+	/* type of the token after the current one */
+	int peek() {
+		int savedPos = pos;
+		int savedTok = tok;
+		int savedStart = tokStart;
+		boolean savedNewline = newlineBefore;
+		String savedName = name;
+		boolean savedEscaped = escaped;
+		String savedValue = value;
+		String savedRaw = raw;
+		boolean savedTail = templateTail;
+		double savedNumber = number;
+		next();
+		int peeked = tok;
+		pos = savedPos;
+		tok = savedTok;
+		tokStart = savedStart;
+		newlineBefore = savedNewline;
+		name = savedName;
+		escaped = savedEscaped;
+		value = savedValue;
+		raw = savedRaw;
+		templateTail = savedTail;
+		number = savedNumber;
+		return peeked;
+	}
+
+	String describe() {
+		switch (tok) {
+		case EOF:
+			return "eof";
+		case NAME:
+			return "ident";
+		case NUMBER:
+		case STRING:
+		case TEMPLATE:
+		case REGEX:
+			return new String(src, tokStart, Math.max(1, Math.min(pos, length) - tokStart));
+		default:
+			return TEXT[tok];
+		}
+	}
+
+}
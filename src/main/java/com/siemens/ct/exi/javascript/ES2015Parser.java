@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+
+package com.siemens.ct.exi.javascript;
+
+import javax.json.stream.JsonParser;
+
+/**
+ * Built-in {@link JSParser} for ECMAScript 2015 and the exponent operator,
+ * written by hand so that it needs neither Nashorn nor any other script
+ * engine. Nodes go into int arrays that are pooled and reused, the events are
+ * read off them directly. For ES5 code the tree is the one Nashorn reports.
+ * The ES2015 nodes need the grammars of exi4js-es2015.xsd, see
+ * {@link JSConstants#EXI_FACTORY_ES2015}.
+ * <p>
+ * Not supported are computed keys in object literals (classes have them),
+ * rest patterns other than names in parameters and anything after ES2016,
+ * e.g., <code>async</code> functions or object spread.
+ */
+public class ES2015Parser implements JSParser {
+
+	static final Pool<ES2015ParserSession> SESSIONS = new Pool<ES2015ParserSession>();
+
+	@Override
+	public JsonParser parse(char[] jsCode) {
+		long start = EXI4JSMetrics.METRICS.enabled ? System.nanoTime() : 0;
+		ES2015ParserSession session = SESSIONS.poll();
+		if (session == null) {
+			session = new ES2015ParserSession();
+		}
+		final ES2015ParserSession s = session;
+		try {
+			s.parse(jsCode);
+			if (start != 0) {
+				EXI4JSMetrics.METRICS.parsed(System.nanoTime() - start, jsCode.length);
+			}
+		} catch (RuntimeException e) {
+			SESSIONS.release(s);
+			throw e;
+		}
+		return new ESTree.Events(s.tree) {
+			boolean closed;
+
+			@Override
+			public void close() {
+				super.close();
+				if (!closed) {
+					closed = true;
+					SESSIONS.release(s);
+				}
+			}
+		};
+	}
+
+}
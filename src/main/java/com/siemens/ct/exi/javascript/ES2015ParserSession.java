@@ -0,0 +1,1379 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+
+package com.siemens.ct.exi.javascript;
+
+import static com.siemens.ct.exi.javascript.ESTree.*;
+
+import java.util.Arrays;
+
+/**
+ * Recursive descent parser for ECMAScript 2015 (plus the exponent operator)
+ * building an {@link ESTree}, used by {@link ES2015Parser}. The tree follows
+ * what Nashorn reports for ES5 code, so that both front-ends encode the same
+ * bytes: <code>var a, b</code> becomes one declaration per variable, function
+ * declarations move to the top of their body, or become
+ * <code>var f = function f() {}</code> within blocks, and bodies of
+ * <code>if</code>, loops and labels are always blocks. Nodes and lists are
+ * kept on an int stack while they are collected, see {@link #list(int)}.
+ */
+class ES2015ParserSession extends ES2015Lexer {
+
+	/* strings registered with every tree, after the token texts */
+	static final int S_INIT = TOKENS;
+	static final int S_GET = TOKENS + 1;
+	static final int S_SET = TOKENS + 2;
+	static final int S_METHOD = TOKENS + 3;
+	static final int S_CONSTRUCTOR = TOKENS + 4;
+	static final int S_LET = TOKENS + 5;
+	static final int S_CONST = TOKENS + 6;
+	static final String[] KINDS = { "init", "get", "set", "method", "constructor", "let", "const" };
+
+	/* where a statement is: function declarations are hoisted at the top */
+	static final int IN_PROGRAM = 0;
+	static final int IN_FUNCTION = 1;
+	static final int NESTED = 2;
+
+	/* flag of BLOCK_STATEMENT (F2), set for blocks written in braces */
+	static final int EXPLICIT = 1;
+
+	final ESTree tree = new ESTree();
+
+	/* items of the lists under construction */
+	int[] stack = new int[256];
+	int sp;
+	/* function declarations of the bodies under construction */
+	int[] hoisted = new int[64];
+	int hp;
+
+	boolean inGenerator;
+
+	ESTree parse(char[] jsCode) {
+		tree.clear();
+		for (int t = 0; t < TOKENS; t++) {
+			tree.string(TEXT[t]);
+		}
+		for (String kind : KINDS) {
+			tree.string(kind);
+		}
+		reset(jsCode);
+		sp = 0;
+		hp = 0;
+		inGenerator = false;
+
+		next();
+		int mark = sp;
+		int hmark = hp;
+		while (tok != EOF) {
+			statement(IN_PROGRAM);
+		}
+		tree.root = tree.node(ESTree.PROGRAM, body(mark, hmark));
+		return tree;
+	}
+
+	/* list handling */
+
+	void push(int n) {
+		if (sp == stack.length) {
+			stack = Arrays.copyOf(stack, sp * 2);
+		}
+		stack[sp++] = n;
+	}
+
+	void hoist(int n) {
+		if (hp == hoisted.length) {
+			hoisted = Arrays.copyOf(hoisted, hp * 2);
+		}
+		hoisted[hp++] = n;
+	}
+
+	/* links the items pushed since mark and pops them */
+	int list(int mark) {
+		int head = NONE;
+		for (int i = sp - 1; i >= mark; i--) {
+			tree.set(stack[i], NEXT, head);
+			head = stack[i];
+		}
+		sp = mark;
+		return head;
+	}
+
+	/* statements of a body, hoisted function declarations first */
+	int body(int mark, int hmark) {
+		int head = list(mark);
+		for (int i = hp - 1; i >= hmark; i--) {
+			tree.set(hoisted[i], NEXT, head);
+			head = hoisted[i];
+		}
+		hp = hmark;
+		return head;
+	}
+
+	/* tokens */
+
+	boolean eat(int token) {
+		if (tok == token) {
+			next();
+			return true;
+		}
+		return false;
+	}
+
+	void expect(int token) {
+		if (tok != token) {
+			throw error("Expected " + TEXT[token] + " but found " + describe());
+		}
+		next();
+	}
+
+	boolean isName(String contextual) {
+		return tok == NAME && name == contextual && !escaped;
+	}
+
+	void expectName(String contextual) {
+		if (!isName(contextual)) {
+			throw error("Expected " + contextual + " but found " + describe());
+		}
+		next();
+	}
+
+	void semicolon() {
+		if (tok == SEMICOLON) {
+			next();
+		} else if (tok != RBRACE && tok != EOF && !newlineBefore) {
+			throw error("Expected ; but found " + describe());
+		}
+	}
+
+	/* nodes */
+
+	int ident(String name) {
+		return tree.node(IDENTIFIER, tree.string(name));
+	}
+
+	/* the current NAME */
+	int bindingIdentifier() {
+		if (tok != NAME) {
+			throw error("Expected ident but found " + describe());
+		}
+		int id = ident(name);
+		next();
+		return id;
+	}
+
+	/* after '.', in imports and exports, reserved words are fine */
+	int identifierName() {
+		if (tok != NAME && tok < BREAK && tok != IN && tok != INSTANCEOF) {
+			throw error("Expected ident but found " + describe());
+		}
+		int id = ident(name);
+		next();
+		return id;
+	}
+
+	int stringLiteral() {
+		if (tok != STRING) {
+			throw error("Expected string but found " + describe());
+		}
+		int n = tree.node(LITERAL, L_STRING, tree.string(value));
+		next();
+		return n;
+	}
+
+	int numberLiteral(double d) {
+		return tree.node(LITERAL, L_NUMBER, tree.number(d));
+	}
+
+	/* void 0, stands in for parameters without default value */
+	int undefined() {
+		return tree.node(UNARY_EXPRESSION, VOID, numberLiteral(0));
+	}
+
+	/* statements */
+
+	void statement(int context) {
+		switch (tok) {
+		case LBRACE:
+			push(block());
+			return;
+		case SEMICOLON:
+			// Nashorn drops empty statements
+			next();
+			return;
+		case VAR:
+			next();
+			variables(NONE);
+			semicolon();
+			return;
+		case CONST:
+			next();
+			variables(S_CONST);
+			semicolon();
+			return;
+		case FUNCTION:
+			functionDeclaration(context);
+			return;
+		case CLASS:
+			push(classNode(CLASS_DECLARATION));
+			return;
+		case IF:
+			ifStatement();
+			return;
+		case FOR:
+			forStatement();
+			return;
+		case WHILE: {
+			next();
+			int test = condition();
+			push(tree.node(WHILE_STATEMENT, test, statementBody()));
+			return;
+		}
+		case DO: {
+			next();
+			int body = statementBody();
+			expect(WHILE);
+			int test = condition();
+			eat(SEMICOLON);
+			push(tree.node(DO_WHILE_STATEMENT, body, test));
+			return;
+		}
+		case CONTINUE:
+		case BREAK: {
+			int type = tok == BREAK ? BREAK_STATEMENT : CONTINUE_STATEMENT;
+			next();
+			int label = NONE;
+			if (tok == NAME && !newlineBefore) {
+				label = bindingIdentifier();
+			}
+			semicolon();
+			push(tree.node(type, label));
+			return;
+		}
+		case RETURN: {
+			next();
+			int argument = NONE;
+			if (tok != SEMICOLON && tok != RBRACE && tok != EOF && !newlineBefore) {
+				argument = expression(false);
+			}
+			semicolon();
+			push(tree.node(RETURN_STATEMENT, argument));
+			return;
+		}
+		case THROW: {
+			next();
+			if (newlineBefore) {
+				throw error("Illegal new line after throw");
+			}
+			int argument = expression(false);
+			semicolon();
+			push(tree.node(THROW_STATEMENT, argument));
+			return;
+		}
+		case SWITCH:
+			switchStatement();
+			return;
+		case TRY:
+			tryStatement();
+			return;
+		case WITH: {
+			next();
+			int object = condition();
+			push(tree.node(WITH_STATEMENT, object, statementBody()));
+			return;
+		}
+		case DEBUGGER:
+			next();
+			semicolon();
+			push(tree.node(DEBUGGER_STATEMENT));
+			return;
+		case IMPORT:
+			if (context == IN_PROGRAM && peek() != LPAREN && peek() != DOT) {
+				importDeclaration();
+				return;
+			}
+			break;
+		case EXPORT:
+			if (context == IN_PROGRAM) {
+				exportDeclaration();
+				return;
+			}
+			break;
+		case NAME:
+			if (isName(LET) && isLetDeclaration()) {
+				next();
+				variables(S_LET);
+				semicolon();
+				return;
+			}
+			if (isName(ASYNC) && peek() == FUNCTION) {
+				throw error("Unsupported async function");
+			}
+			break;
+		default:
+			break;
+		}
+		expressionStatement();
+	}
+
+	/* let starts a declaration rather than naming a variable */
+	boolean isLetDeclaration() {
+		int p = peek();
+		return p == NAME || p == LBRACKET || p == LBRACE;
+	}
+
+	void expressionStatement() {
+		boolean single = tok == NAME;
+		int e = expression(false);
+		if (single && tok == COLON && tree.type(e) == IDENTIFIER) {
+			next();
+			push(tree.node(LABELED_STATEMENT, e, statementBody()));
+			return;
+		}
+		semicolon();
+		push(tree.node(EXPRESSION_STATEMENT, e));
+	}
+
+	/* body of if, loops and labels, a block in any case */
+	int statementBody() {
+		int mark = sp;
+		statement(NESTED);
+		if (sp == mark + 1) {
+			int s = stack[mark];
+			if (tree.type(s) == BLOCK_STATEMENT && tree.get(s, F2) == EXPLICIT) {
+				sp = mark;
+				return s;
+			}
+		}
+		return tree.node(BLOCK_STATEMENT, list(mark));
+	}
+
+	int block() {
+		expect(LBRACE);
+		int mark = sp;
+		while (tok != RBRACE) {
+			if (tok == EOF) {
+				throw error("Expected } but found eof");
+			}
+			statement(NESTED);
+		}
+		next();
+		return tree.node(BLOCK_STATEMENT, list(mark), EXPLICIT);
+	}
+
+	/* (expression) */
+	int condition() {
+		expect(LPAREN);
+		int e = expression(false);
+		expect(RPAREN);
+		return e;
+	}
+
+	/* var, let or const statement, one declaration per variable */
+	void variables(int kind) {
+		do {
+			push(tree.node(VARIABLE_DECLARATION, declarator(false), kind));
+		} while (eat(COMMA));
+	}
+
+	int declarator(boolean noIn) {
+		int id = bindingTarget();
+		int init = NONE;
+		if (eat(ASSIGN)) {
+			init = assignment(noIn);
+		}
+		return tree.node(VARIABLE_DECLARATOR, id, init);
+	}
+
+	void functionDeclaration(int context) {
+		int f = function(FUNCTION_DECLARATION, true);
+		if (context == NESTED) {
+			// Nashorn: var f = function f() {}
+			tree.nodes[f] = FUNCTION_EXPRESSION;
+			int id = ident(tree.strings[tree.get(tree.get(f, F1), F1)]);
+			push(tree.node(VARIABLE_DECLARATION, tree.node(VARIABLE_DECLARATOR, id, f), NONE));
+		} else {
+			hoist(f);
+		}
+	}
+
+	void ifStatement() {
+		next();
+		int test = condition();
+		int consequent = statementBody();
+		int alternate = NONE;
+		if (eat(ELSE)) {
+			alternate = statementBody();
+		}
+		push(tree.node(IF_STATEMENT, test, consequent, alternate));
+	}
+
+	void forStatement() {
+		next();
+		if (isName(AWAIT)) {
+			throw error("Unsupported for await");
+		}
+		expect(LPAREN);
+		int init = NONE;
+		if (tok == VAR || tok == CONST || isName(LET) && isLetDeclaration()) {
+			boolean var = tok == VAR;
+			int kind = var ? NONE : tok == CONST ? S_CONST : S_LET;
+			next();
+			int mark = sp;
+			do {
+				push(declarator(true));
+			} while (eat(COMMA));
+			if ((tok == IN || isName(OF)) && sp == mark + 1) {
+				int declarator = stack[--sp];
+				int id = tree.get(declarator, F1);
+				int left;
+				if (var && tree.type(id) == IDENTIFIER) {
+					// Nashorn declares the variable before the loop
+					push(tree.node(VARIABLE_DECLARATION, declarator, NONE));
+					left = ident(tree.strings[tree.get(id, F1)]);
+				} else {
+					left = tree.node(VARIABLE_DECLARATION, declarator, kind);
+				}
+				forInOf(left);
+				return;
+			}
+			int declarators = list(mark);
+			if (var) {
+				// each variable becomes a declaration before the loop
+				for (int d = declarators; d != NONE;) {
+					int next = tree.get(d, NEXT);
+					tree.set(d, NEXT, NONE);
+					push(tree.node(VARIABLE_DECLARATION, d, NONE));
+					d = next;
+				}
+			} else {
+				init = tree.node(VARIABLE_DECLARATION, declarators, kind);
+			}
+		} else if (tok != SEMICOLON) {
+			init = expression(true);
+			if (tok == IN || isName(OF)) {
+				forInOf(toPattern(init));
+				return;
+			}
+		}
+		expect(SEMICOLON);
+		int test = tok == SEMICOLON ? NONE : expression(false);
+		expect(SEMICOLON);
+		int update = tok == RPAREN ? NONE : expression(false);
+		expect(RPAREN);
+		int body = statementBody();
+		int f = tree.node(FOR_STATEMENT, init, test, update);
+		tree.set(f, F4, body);
+		push(f);
+	}
+
+	void forInOf(int left) {
+		boolean of = tok != IN;
+		next();
+		int right = of ? assignment(false) : expression(false);
+		expect(RPAREN);
+		push(tree.node(of ? FOR_OF_STATEMENT : FOR_IN_STATEMENT, left, right, statementBody()));
+	}
+
+	void switchStatement() {
+		next();
+		int discriminant = condition();
+		expect(LBRACE);
+		int mark = sp;
+		while (tok != RBRACE) {
+			int test = NONE;
+			if (eat(CASE)) {
+				test = expression(false);
+			} else if (!eat(DEFAULT)) {
+				throw error("Expected case but found " + describe());
+			}
+			expect(COLON);
+			int cmark = sp;
+			while (tok != CASE && tok != DEFAULT && tok != RBRACE) {
+				if (tok == EOF) {
+					throw error("Expected } but found eof");
+				}
+				statement(NESTED);
+			}
+			int c = tree.node(SWITCH_CASE, test, list(cmark));
+			push(c);
+		}
+		next();
+		int cases = list(mark);
+		push(tree.node(SWITCH_STATEMENT, discriminant, cases));
+	}
+
+	void tryStatement() {
+		next();
+		int block = block();
+		int handler = NONE;
+		int finalizer = NONE;
+		if (eat(CATCH)) {
+			expect(LPAREN);
+			int param = bindingTarget();
+			expect(RPAREN);
+			handler = tree.node(CATCH_CLAUSE, param, block());
+		}
+		if (eat(FINALLY)) {
+			finalizer = block();
+		}
+		if (handler == NONE && finalizer == NONE) {
+			throw error("Missing catch or finally after try");
+		}
+		// Nashorn puts it into a block of its own
+		push(tree.node(BLOCK_STATEMENT, tree.node(TRY_STATEMENT, block, handler, finalizer)));
+	}
+
+	/* modules */
+
+	void importDeclaration() {
+		next();
+		int mark = sp;
+		if (tok != STRING) {
+			boolean more = true;
+			if (tok == NAME) {
+				push(tree.node(IMPORT_DEFAULT_SPECIFIER, bindingIdentifier()));
+				more = eat(COMMA);
+			}
+			if (more && eat(STAR)) {
+				expectName(AS);
+				push(tree.node(IMPORT_NAMESPACE_SPECIFIER, bindingIdentifier()));
+			} else if (more) {
+				expect(LBRACE);
+				while (tok != RBRACE) {
+					String imported = name;
+					int id = identifierName();
+					int local;
+					if (isName(AS)) {
+						next();
+						local = bindingIdentifier();
+					} else {
+						local = ident(imported);
+					}
+					push(tree.node(IMPORT_SPECIFIER, id, local));
+					if (tok != RBRACE) {
+						expect(COMMA);
+					}
+				}
+				next();
+			}
+			expectName(FROM);
+		}
+		int source = stringLiteral();
+		semicolon();
+		int specifiers = list(mark);
+		push(tree.node(IMPORT_DECLARATION, specifiers, source));
+	}
+
+	void exportDeclaration() {
+		next();
+		if (eat(STAR)) {
+			expectName(FROM);
+			int source = stringLiteral();
+			semicolon();
+			push(tree.node(EXPORT_ALL_DECLARATION, source));
+		} else if (eat(DEFAULT)) {
+			int declaration;
+			if (tok == FUNCTION || tok == CLASS) {
+				// anonymous ones are expressions
+				declaration = tok == FUNCTION ? function(FUNCTION_EXPRESSION, false) : classNode(CLASS_EXPRESSION);
+				if (tree.get(declaration, F1) != NONE) {
+					tree.nodes[declaration] = tree.type(declaration) == FUNCTION_EXPRESSION ? FUNCTION_DECLARATION
+							: CLASS_DECLARATION;
+				}
+			} else {
+				declaration = assignment(false);
+				semicolon();
+			}
+			push(tree.node(EXPORT_DEFAULT_DECLARATION, declaration));
+		} else if (tok == LBRACE) {
+			next();
+			int mark = sp;
+			while (tok != RBRACE) {
+				String local = name;
+				int id = identifierName();
+				int exported;
+				if (isName(AS)) {
+					next();
+					exported = identifierName();
+				} else {
+					exported = ident(local);
+				}
+				push(tree.node(EXPORT_SPECIFIER, id, exported));
+				if (tok != RBRACE) {
+					expect(COMMA);
+				}
+			}
+			next();
+			int source = NONE;
+			if (isName(FROM)) {
+				next();
+				source = stringLiteral();
+			}
+			semicolon();
+			int specifiers = list(mark);
+			push(tree.node(EXPORT_NAMED_DECLARATION, NONE, specifiers, source));
+		} else {
+			int declaration;
+			if (tok == FUNCTION) {
+				declaration = function(FUNCTION_DECLARATION, true);
+			} else if (tok == CLASS) {
+				declaration = classNode(CLASS_DECLARATION);
+			} else if (tok == VAR || tok == CONST || isName(LET)) {
+				// all variables in one declaration here
+				int kind = tok == VAR ? NONE : tok == CONST ? S_CONST : S_LET;
+				next();
+				int mark = sp;
+				do {
+					push(declarator(false));
+				} while (eat(COMMA));
+				semicolon();
+				declaration = tree.node(VARIABLE_DECLARATION, list(mark), kind);
+			} else {
+				throw error("Expected declaration but found " + describe());
+			}
+			push(tree.node(EXPORT_NAMED_DECLARATION, declaration, NONE, NONE));
+		}
+	}
+
+	/* functions and classes */
+
+	/* at function, id is required for declarations */
+	int function(int type, boolean named) {
+		next();
+		boolean generator = eat(STAR);
+		int id = NONE;
+		if (tok == NAME) {
+			id = bindingIdentifier();
+		} else if (named) {
+			throw error("Expected ident but found " + describe());
+		}
+		return functionRest(type, id, generator);
+	}
+
+	/* at the parameters */
+	int functionRest(int type, int id, boolean generator) {
+		int f = tree.node(type, id);
+		boolean outer = inGenerator;
+		inGenerator = generator;
+		expect(LPAREN);
+		int mark = sp;
+		int rest = NONE;
+		while (tok != RPAREN) {
+			if (eat(ELLIPSIS)) {
+				rest = restParameter(bindingTarget());
+				break;
+			}
+			push(bindingElement());
+			if (tok != RPAREN) {
+				expect(COMMA);
+			}
+		}
+		expect(RPAREN);
+		parameters(f, mark, rest);
+		tree.set(f, F5, functionBody());
+		tree.set(f, F6, generator ? 1 : 0);
+		inGenerator = outer;
+		return f;
+	}
+
+	int restParameter(int rest) {
+		if (tree.type(rest) != IDENTIFIER) {
+			throw error("Unsupported rest parameter pattern");
+		}
+		return rest;
+	}
+
+	/*
+	 * Parameters pushed since mark become params and defaults. Defaults
+	 * belong to the last params, starting with the first one that has a
+	 * default value, params in-between without one default to void 0.
+	 */
+	void parameters(int f, int mark, int rest) {
+		int end = sp;
+		int first = mark;
+		while (first < end && tree.type(stack[first]) != ASSIGNMENT_PATTERN) {
+			first++;
+		}
+		for (int i = first; i < end; i++) {
+			int p = stack[i];
+			if (tree.type(p) == ASSIGNMENT_PATTERN) {
+				push(tree.get(p, F2));
+				stack[i] = tree.get(p, F1);
+			} else {
+				push(undefined());
+			}
+		}
+		tree.set(f, F3, list(end));
+		tree.set(f, F2, list(mark));
+		tree.set(f, F4, rest);
+	}
+
+	int functionBody() {
+		expect(LBRACE);
+		int mark = sp;
+		int hmark = hp;
+		while (tok != RBRACE) {
+			if (tok == EOF) {
+				throw error("Expected } but found eof");
+			}
+			statement(IN_FUNCTION);
+		}
+		next();
+		return tree.node(BLOCK_STATEMENT, body(mark, hmark), EXPLICIT);
+	}
+
+	/* parameters pushed since mark, at => */
+	int arrow(int mark, int rest) {
+		next();
+		int f = tree.node(ARROW_EXPRESSION);
+		parameters(f, mark, rest);
+		boolean outer = inGenerator;
+		inGenerator = false;
+		if (tok == LBRACE) {
+			tree.set(f, F5, functionBody());
+			tree.set(f, F6, 0);
+		} else {
+			tree.set(f, F5, assignment(false));
+			tree.set(f, F6, 2);
+		}
+		inGenerator = outer;
+		return f;
+	}
+
+	int classNode(int type) {
+		next();
+		int id = NONE;
+		if (tok == NAME) {
+			id = bindingIdentifier();
+		} else if (type == CLASS_DECLARATION) {
+			throw error("Expected ident but found " + describe());
+		}
+		int superClass = NONE;
+		if (eat(EXTENDS)) {
+			superClass = leftHandSide();
+		}
+		expect(LBRACE);
+		int mark = sp;
+		while (tok != RBRACE) {
+			if (!eat(SEMICOLON)) {
+				push(methodDefinition());
+			}
+		}
+		next();
+		return tree.node(type, id, superClass, tree.node(CLASS_BODY, list(mark)));
+	}
+
+	int methodDefinition() {
+		boolean isStatic = false;
+		if (isName(STATIC)) {
+			next();
+			if (tok == LPAREN) {
+				return method(ident(STATIC), 0, S_METHOD, false);
+			}
+			isStatic = true;
+		}
+		int flags = isStatic ? 2 : 0;
+		int kind = S_METHOD;
+		boolean generator = eat(STAR);
+		if (!generator && (isName(GET) || isName(SET))) {
+			String accessor = name;
+			next();
+			if (tok == LPAREN) {
+				return method(ident(accessor), flags, S_METHOD, false);
+			}
+			kind = accessor == GET ? S_GET : S_SET;
+		}
+		int key;
+		if (eat(LBRACKET)) {
+			key = assignment(false);
+			expect(RBRACKET);
+			flags |= 1;
+		} else {
+			key = propertyName();
+		}
+		if (kind == S_METHOD && !generator && flags == 0 && CONSTRUCTOR.equals(keyName(key))) {
+			kind = S_CONSTRUCTOR;
+		}
+		return method(key, flags, kind, generator);
+	}
+
+	int method(int key, int flags, int kind, boolean generator) {
+		int m = tree.node(METHOD_DEFINITION, key, functionRest(FUNCTION_EXPRESSION, NONE, generator), kind);
+		tree.set(m, F4, flags);
+		return m;
+	}
+
+	/* identifier, string or number */
+	int propertyName() {
+		switch (tok) {
+		case STRING:
+			return stringLiteral();
+		case NUMBER: {
+			int n = numberLiteral(number);
+			next();
+			return n;
+		}
+		case LBRACKET:
+			throw error("Unsupported computed property name");
+		default:
+			return identifierName();
+		}
+	}
+
+	/* name a key stands for, null if it is computed */
+	String keyName(int key) {
+		if (tree.type(key) == IDENTIFIER) {
+			return tree.strings[tree.get(key, F1)];
+		} else if (tree.type(key) == LITERAL) {
+			int index = tree.get(key, F2);
+			return tree.get(key, F1) == L_STRING ? tree.strings[index].substring(1)
+					: Numbers.toString(tree.numbers[index]);
+		}
+		return null;
+	}
+
+	/* patterns */
+
+	int bindingTarget() {
+		switch (tok) {
+		case LBRACKET:
+			return arrayPattern();
+		case LBRACE:
+			return objectPattern();
+		default:
+			return bindingIdentifier();
+		}
+	}
+
+	int bindingElement() {
+		int target = bindingTarget();
+		if (eat(ASSIGN)) {
+			return tree.node(ASSIGNMENT_PATTERN, target, assignment(false));
+		}
+		return target;
+	}
+
+	int arrayPattern() {
+		next();
+		int mark = sp;
+		while (tok != RBRACKET) {
+			if (eat(COMMA)) {
+				push(tree.node(ESTree.NULL));
+				continue;
+			}
+			if (eat(ELLIPSIS)) {
+				push(tree.node(REST_ELEMENT, bindingTarget()));
+			} else {
+				push(bindingElement());
+			}
+			if (tok != RBRACKET) {
+				expect(COMMA);
+			}
+		}
+		next();
+		return tree.node(ARRAY_PATTERN, list(mark));
+	}
+
+	int objectPattern() {
+		next();
+		int mark = sp;
+		while (tok != RBRACE) {
+			if (tok == ELLIPSIS) {
+				throw error("Unsupported object rest");
+			}
+			boolean shorthand = tok == NAME;
+			String local = name;
+			int key = propertyName();
+			int value;
+			if (eat(COLON)) {
+				value = bindingElement();
+			} else if (shorthand) {
+				// {a} is given as {a: a}
+				value = ident(local);
+				if (eat(ASSIGN)) {
+					value = tree.node(ASSIGNMENT_PATTERN, value, assignment(false));
+				}
+			} else {
+				throw error("Expected : but found " + describe());
+			}
+			push(tree.node(PROPERTY, key, value, S_INIT));
+			if (tok != RBRACE) {
+				expect(COMMA);
+			}
+		}
+		next();
+		return tree.node(OBJECT_PATTERN, list(mark));
+	}
+
+	/* turns an expression into the pattern it covers, in place */
+	int toPattern(int e) {
+		switch (tree.type(e)) {
+		case IDENTIFIER:
+		case MEMBER_EXPRESSION:
+		case ASSIGNMENT_PATTERN:
+		case ARRAY_PATTERN:
+		case OBJECT_PATTERN:
+			return e;
+		case ASSIGNMENT_EXPRESSION:
+			if (tree.get(e, F1) == ASSIGN) {
+				int left = toPattern(tree.get(e, F2));
+				int right = tree.get(e, F3);
+				tree.nodes[e] = ASSIGNMENT_PATTERN;
+				tree.set(e, F1, left);
+				tree.set(e, F2, right);
+				tree.set(e, F3, NONE);
+				return e;
+			}
+			break;
+		case ARRAY_EXPRESSION:
+			tree.nodes[e] = ARRAY_PATTERN;
+			for (int item = tree.get(e, F1); item != NONE; item = tree.get(item, NEXT)) {
+				if (tree.type(item) == SPREAD_ELEMENT) {
+					tree.nodes[item] = REST_ELEMENT;
+					toPattern(tree.get(item, F1));
+				} else if (tree.type(item) != ESTree.NULL) {
+					toPattern(item);
+				}
+			}
+			return e;
+		case OBJECT_EXPRESSION:
+			tree.nodes[e] = OBJECT_PATTERN;
+			for (int p = tree.get(e, F1); p != NONE; p = tree.get(p, NEXT)) {
+				if (tree.get(p, F3) != S_INIT) {
+					break;
+				}
+				toPattern(tree.get(p, F2));
+			}
+			return e;
+		default:
+			break;
+		}
+		throw error("Invalid left hand side for assignment");
+	}
+
+	int simpleTarget(int e) {
+		int type = tree.type(e);
+		if (type != IDENTIFIER && type != MEMBER_EXPRESSION) {
+			throw error("Invalid left hand side for assignment");
+		}
+		return e;
+	}
+
+	/* expressions */
+
+	int expression(boolean noIn) {
+		int e = assignment(noIn);
+		while (tok == COMMA) {
+			next();
+			e = tree.node(BINARY_EXPRESSION, COMMA, e, assignment(noIn));
+		}
+		return e;
+	}
+
+	int assignment(boolean noIn) {
+		if (inGenerator && isName(YIELD)) {
+			return yield(noIn);
+		}
+		int left = conditional(noIn);
+		int op = tok;
+		if (op >= ASSIGN && op <= BIT_XOR_ASSIGN) {
+			left = op == ASSIGN ? toPattern(left) : simpleTarget(left);
+			next();
+			return tree.node(ASSIGNMENT_EXPRESSION, op, left, assignment(noIn));
+		}
+		return left;
+	}
+
+	int yield(boolean noIn) {
+		next();
+		int argument = NONE;
+		int delegate = 0;
+		if (!newlineBefore) {
+			if (eat(STAR)) {
+				delegate = 1;
+				argument = assignment(noIn);
+			} else if (tok != RPAREN && tok != RBRACKET && tok != RBRACE && tok != COMMA && tok != SEMICOLON
+					&& tok != COLON && tok != EOF && !(noIn && tok == IN)) {
+				argument = assignment(noIn);
+			}
+		}
+		return tree.node(YIELD_EXPRESSION, argument, delegate);
+	}
+
+	int conditional(boolean noIn) {
+		int test = binary(0, noIn);
+		if (tok != QUESTION) {
+			return test;
+		}
+		next();
+		int consequent = assignment(false);
+		expect(COLON);
+		return tree.node(CONDITIONAL_EXPRESSION, test, consequent, assignment(noIn));
+	}
+
+	/* operators binding tighter than precedence */
+	int binary(int precedence, boolean noIn) {
+		int left = unary();
+		while (true) {
+			int op = tok;
+			int p = PRECEDENCE[op];
+			if (p <= precedence || noIn && op == IN) {
+				return left;
+			}
+			next();
+			// ** is right-associative
+			int right = binary(op == EXP ? p - 1 : p, noIn);
+			left = tree.node(op == OR || op == AND ? LOGICAL_EXPRESSION : BINARY_EXPRESSION, op, left, right);
+		}
+	}
+
+	int unary() {
+		int op = tok;
+		switch (op) {
+		case DELETE:
+		case VOID:
+		case TYPEOF:
+		case PLUS:
+		case MINUS:
+		case TILDE:
+		case BANG:
+			next();
+			return tree.node(UNARY_EXPRESSION, op, unary());
+		case INC:
+		case DEC:
+			next();
+			return tree.node(UPDATE_EXPRESSION, op, simpleTarget(unary()), 1);
+		default:
+			int e = leftHandSide();
+			if ((tok == INC || tok == DEC) && !newlineBefore) {
+				op = tok;
+				next();
+				return tree.node(UPDATE_EXPRESSION, op, simpleTarget(e), 0);
+			}
+			return e;
+		}
+	}
+
+	int leftHandSide() {
+		int e;
+		if (tok == NEW) {
+			e = newExpression();
+		} else if (tok == SUPER) {
+			e = tree.node(ESTree.SUPER);
+			next();
+			if (tok != LPAREN && tok != DOT && tok != LBRACKET) {
+				throw error("Expected ( but found " + describe());
+			}
+		} else {
+			e = primary();
+		}
+		return member(e, true);
+	}
+
+	/* member accesses, calls and tagged templates applied to e */
+	int member(int e, boolean calls) {
+		while (true) {
+			switch (tok) {
+			case DOT:
+				next();
+				e = tree.node(MEMBER_EXPRESSION, e, identifierName(), 0);
+				break;
+			case LBRACKET:
+				next();
+				int property = expression(false);
+				expect(RBRACKET);
+				e = tree.node(MEMBER_EXPRESSION, e, property, 1);
+				break;
+			case LPAREN:
+				if (!calls) {
+					return e;
+				}
+				e = tree.node(CALL_EXPRESSION, e, arguments());
+				break;
+			case TEMPLATE:
+				e = tree.node(TAGGED_TEMPLATE_EXPRESSION, e, template());
+				break;
+			default:
+				return e;
+			}
+		}
+	}
+
+	int newExpression() {
+		next();
+		if (eat(DOT)) {
+			if (!isName(TARGET)) {
+				throw error("Expected target but found " + describe());
+			}
+			next();
+			return tree.node(META_PROPERTY, tree.node(IDENTIFIER, NEW), ident(TARGET));
+		}
+		int callee = tok == NEW ? newExpression() : primary();
+		callee = member(callee, false);
+		int arguments = tok == LPAREN ? arguments() : NONE;
+		return tree.node(NEW_EXPRESSION, callee, arguments);
+	}
+
+	int arguments() {
+		expect(LPAREN);
+		int mark = sp;
+		while (tok != RPAREN) {
+			if (eat(ELLIPSIS)) {
+				push(tree.node(SPREAD_ELEMENT, assignment(false)));
+			} else {
+				push(assignment(false));
+			}
+			if (tok != RPAREN) {
+				expect(COMMA);
+			}
+		}
+		next();
+		return list(mark);
+	}
+
+	int primary() {
+		int n;
+		switch (tok) {
+		case THIS:
+			next();
+			return tree.node(THIS_EXPRESSION);
+		case NAME:
+			if (isName(ASYNC) && peek() == FUNCTION) {
+				throw error("Unsupported async function");
+			}
+			int mark = sp;
+			n = bindingIdentifier();
+			if (tok == ARROW && !newlineBefore) {
+				push(n);
+				return arrow(mark, NONE);
+			}
+			return n;
+		case NUMBER:
+			n = numberLiteral(number);
+			next();
+			return n;
+		case STRING:
+			return stringLiteral();
+		case TEMPLATE:
+			return template();
+		case NULL:
+			next();
+			return tree.node(LITERAL, L_NULL);
+		case TRUE:
+			next();
+			return tree.node(LITERAL, L_TRUE);
+		case FALSE:
+			next();
+			return tree.node(LITERAL, L_FALSE);
+		case SLASH:
+		case SLASH_ASSIGN:
+			scanRegex();
+			n = tree.node(LITERAL, L_REGEX, tree.string(value));
+			next();
+			return n;
+		case LBRACKET:
+			return arrayLiteral();
+		case LBRACE:
+			return objectLiteral();
+		case FUNCTION:
+			return function(FUNCTION_EXPRESSION, false);
+		case CLASS:
+			return classNode(CLASS_EXPRESSION);
+		case LPAREN:
+			return parenthesized();
+		default:
+			throw error("Expected an operand but found " + describe());
+		}
+	}
+
+	/* (expression) or the parameters of an arrow function */
+	int parenthesized() {
+		next();
+		int mark = sp;
+		int rest = NONE;
+		while (tok != RPAREN) {
+			if (eat(ELLIPSIS)) {
+				rest = restParameter(bindingTarget());
+				break;
+			}
+			push(assignment(false));
+			if (tok != RPAREN) {
+				expect(COMMA);
+			}
+		}
+		expect(RPAREN);
+		if (tok == ARROW && !newlineBefore) {
+			for (int i = mark; i < sp; i++) {
+				toPattern(stack[i]);
+			}
+			return arrow(mark, rest);
+		}
+		if (rest != NONE || sp == mark) {
+			throw error("Expected => but found " + describe());
+		}
+		int e = stack[mark];
+		for (int i = mark + 1; i < sp; i++) {
+			e = tree.node(BINARY_EXPRESSION, COMMA, e, stack[i]);
+		}
+		sp = mark;
+		return e;
+	}
+
+	int arrayLiteral() {
+		next();
+		int mark = sp;
+		while (tok != RBRACKET) {
+			if (eat(COMMA)) {
+				// hole
+				push(tree.node(ESTree.NULL));
+				continue;
+			}
+			if (eat(ELLIPSIS)) {
+				push(tree.node(SPREAD_ELEMENT, assignment(false)));
+			} else {
+				push(assignment(false));
+			}
+			if (tok != RBRACKET) {
+				expect(COMMA);
+			}
+		}
+		next();
+		return tree.node(ARRAY_EXPRESSION, list(mark));
+	}
+
+	int objectLiteral() {
+		next();
+		int mark = sp;
+		while (tok != RBRACE) {
+			property(mark);
+			if (tok != RBRACE) {
+				expect(COMMA);
+			}
+		}
+		next();
+		return tree.node(OBJECT_EXPRESSION, list(mark));
+	}
+
+	void property(int mark) {
+		if (tok == ELLIPSIS) {
+			throw error("Unsupported object spread");
+		}
+		int key;
+		boolean shorthand = false;
+		if (eat(STAR)) {
+			key = propertyName();
+			push(tree.node(PROPERTY, key, functionRest(FUNCTION_EXPRESSION, NONE, true), S_METHOD));
+			return;
+		} else if (isName(GET) || isName(SET)) {
+			String accessor = name;
+			next();
+			if (tok != COLON && tok != LPAREN && tok != COMMA && tok != RBRACE && tok != ASSIGN) {
+				key = propertyName();
+				int value = functionRest(FUNCTION_EXPRESSION, NONE, false);
+				accessor(mark, tree.node(PROPERTY, key, value, accessor == GET ? S_GET : S_SET));
+				return;
+			}
+			key = ident(accessor);
+			shorthand = true;
+		} else {
+			shorthand = tok == NAME;
+			key = propertyName();
+		}
+		int value;
+		int kind = S_INIT;
+		if (eat(COLON)) {
+			value = assignment(false);
+		} else if (tok == LPAREN) {
+			value = functionRest(FUNCTION_EXPRESSION, NONE, false);
+			kind = S_METHOD;
+		} else if (shorthand) {
+			// {a} is given as {a: a}
+			value = ident(tree.strings[tree.get(key, F1)]);
+			if (eat(ASSIGN)) {
+				// only valid as a pattern
+				value = tree.node(ASSIGNMENT_PATTERN, value, assignment(false));
+			}
+		} else {
+			throw error("Expected : but found " + describe());
+		}
+		push(tree.node(PROPERTY, key, value, kind));
+	}
+
+	/*
+	 * Nashorn keeps getter and setter of a name together, where the first of
+	 * them is, the getter first.
+	 */
+	void accessor(int mark, int property) {
+		int kind = tree.get(property, F3);
+		String key = keyName(tree.get(property, F1));
+		for (int i = mark; i < sp; i++) {
+			int p = stack[i];
+			int k = tree.get(p, F3);
+			if ((k == S_GET || k == S_SET) && key.equals(keyName(tree.get(p, F1)))) {
+				boolean paired = i + 1 < sp && tree.get(stack[i + 1], F3) == (k == S_GET ? S_SET : S_GET)
+						&& key.equals(keyName(tree.get(stack[i + 1], F1)));
+				if (k == kind || paired) {
+					break;
+				}
+				int at = kind == S_GET ? i : i + 1;
+				push(NONE);
+				System.arraycopy(stack, at, stack, at + 1, sp - 1 - at);
+				stack[at] = property;
+				return;
+			}
+		}
+		push(property);
+	}
+
+	/* at the TEMPLATE token */
+	int template() {
+		int mark = sp;
+		while (true) {
+			push(tree.node(TEMPLATE_ELEMENT, tree.string(raw), tree.string(value), templateTail ? 1 : 0));
+			if (templateTail) {
+				next();
+				break;
+			}
+			next();
+			push(expression(false));
+			scanTemplateContinuation();
+		}
+		// quasis and expressions alternate
+		int quasis = NONE;
+		int expressions = NONE;
+		for (int i = sp - 1; i >= mark; i--) {
+			int n = stack[i];
+			if ((i - mark & 1) == 0) {
+				tree.set(n, NEXT, quasis);
+				quasis = n;
+			} else {
+				tree.set(n, NEXT, expressions);
+				expressions = n;
+			}
+		}
+		sp = mark;
+		return tree.node(TEMPLATE_LITERAL, quasis, expressions);
+	}
+
+}
@@ -0,0 +1,569 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+
+package com.siemens.ct.exi.javascript;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import javax.json.stream.JsonLocation;
+import javax.json.stream.JsonParser;
+
+/**
+ * ESTree of one document as built by {@link ES2015ParserSession}. Nodes are
+ * records of int fields in one array, lists are chained through the
+ * {@link #NEXT} field of their items and strings and numbers are kept in side
+ * tables. {@link Events} reports the tree as the JSON events of its ESTree
+ * serialization, properties in schema order.
+ */
+final class ESTree {
+
+	static final int NONE = -1;
+
+	/* record layout, a node is the offset of its record */
+	static final int TYPE = 0;
+	static final int F1 = 1;
+	static final int F2 = 2;
+	static final int F3 = 3;
+	static final int F4 = 4;
+	static final int F5 = 5;
+	static final int F6 = 6;
+	static final int NEXT = 7;
+	static final int SIZE = 8;
+
+	/* node types, see SHAPES */
+	static final int PROGRAM = 0;
+	static final int EXPRESSION_STATEMENT = 1;
+	static final int BLOCK_STATEMENT = 2;
+	static final int IF_STATEMENT = 3;
+	static final int LABELED_STATEMENT = 4;
+	static final int BREAK_STATEMENT = 5;
+	static final int CONTINUE_STATEMENT = 6;
+	static final int SWITCH_STATEMENT = 7;
+	static final int SWITCH_CASE = 8;
+	static final int RETURN_STATEMENT = 9;
+	static final int THROW_STATEMENT = 10;
+	static final int TRY_STATEMENT = 11;
+	static final int CATCH_CLAUSE = 12;
+	static final int WHILE_STATEMENT = 13;
+	static final int DO_WHILE_STATEMENT = 14;
+	static final int FOR_STATEMENT = 15;
+	static final int FOR_IN_STATEMENT = 16;
+	static final int FOR_OF_STATEMENT = 17;
+	static final int DEBUGGER_STATEMENT = 18;
+	static final int FUNCTION_DECLARATION = 19;
+	static final int FUNCTION_EXPRESSION = 20;
+	static final int ARROW_EXPRESSION = 21;
+	static final int VARIABLE_DECLARATION = 22;
+	static final int VARIABLE_DECLARATOR = 23;
+	static final int CLASS_DECLARATION = 24;
+	static final int CLASS_EXPRESSION = 25;
+	static final int CLASS_BODY = 26;
+	static final int METHOD_DEFINITION = 27;
+	static final int THIS_EXPRESSION = 28;
+	static final int SUPER = 29;
+	static final int ARRAY_EXPRESSION = 30;
+	static final int OBJECT_EXPRESSION = 31;
+	static final int PROPERTY = 32;
+	static final int UNARY_EXPRESSION = 33;
+	static final int UPDATE_EXPRESSION = 34;
+	static final int BINARY_EXPRESSION = 35;
+	static final int LOGICAL_EXPRESSION = 36;
+	static final int ASSIGNMENT_EXPRESSION = 37;
+	static final int CONDITIONAL_EXPRESSION = 38;
+	static final int CALL_EXPRESSION = 39;
+	static final int NEW_EXPRESSION = 40;
+	static final int MEMBER_EXPRESSION = 41;
+	static final int YIELD_EXPRESSION = 42;
+	static final int TEMPLATE_LITERAL = 43;
+	static final int TEMPLATE_ELEMENT = 44;
+	static final int TAGGED_TEMPLATE_EXPRESSION = 45;
+	static final int SPREAD_ELEMENT = 46;
+	static final int REST_ELEMENT = 47;
+	static final int ASSIGNMENT_PATTERN = 48;
+	static final int OBJECT_PATTERN = 49;
+	static final int ARRAY_PATTERN = 50;
+	static final int META_PROPERTY = 51;
+	static final int IDENTIFIER = 52;
+	static final int LITERAL = 53;
+	static final int IMPORT_DECLARATION = 54;
+	static final int IMPORT_SPECIFIER = 55;
+	static final int IMPORT_DEFAULT_SPECIFIER = 56;
+	static final int IMPORT_NAMESPACE_SPECIFIER = 57;
+	static final int EXPORT_NAMED_DECLARATION = 58;
+	static final int EXPORT_SPECIFIER = 59;
+	static final int EXPORT_DEFAULT_DECLARATION = 60;
+	static final int EXPORT_ALL_DECLARATION = 61;
+	static final int WITH_STATEMENT = 62;
+	/* hole of an array, reported as null */
+	static final int NULL = 63;
+
+	/* F1 of a LITERAL, F2 indexes strings respectively numbers */
+	static final int L_STRING = 0;
+	static final int L_NUMBER = 1;
+	static final int L_TRUE = 2;
+	static final int L_FALSE = 3;
+	static final int L_NULL = 4;
+	static final int L_REGEX = 5;
+
+	/* kinds of properties, FLAG is combined with the bit mask (<< 8) */
+	static final int NODE = 0;
+	static final int NODE_OR_NULL = 1;
+	static final int LIST = 2;
+	static final int STRING = 3;
+	static final int OPTIONAL_STRING = 4;
+	static final int VALUE = 5;
+	static final int CONST_NULL = 6;
+	static final int CONST_FALSE = 7;
+	static final int CONST_TRUE = 8;
+	static final int CONST_EMPTY = 9;
+	static final int FLAG = 10;
+
+	static final class Shape {
+		final String type;
+		final String[] keys;
+		final int[] kinds;
+		final int[] fields;
+
+		Shape(String type, Object... properties) {
+			this.type = type;
+			int n = properties.length / 3;
+			keys = new String[n];
+			kinds = new int[n];
+			fields = new int[n];
+			for (int i = 0; i < n; i++) {
+				keys[i] = (String) properties[3 * i];
+				kinds[i] = (Integer) properties[3 * i + 1];
+				fields[i] = (Integer) properties[3 * i + 2];
+			}
+		}
+	}
+
+	static int flag(int mask) {
+		return FLAG | mask << 8;
+	}
+
+	static final Shape[] SHAPES = new Shape[NULL + 1];
+
+	static {
+		SHAPES[PROGRAM] = new Shape("Program", "body", LIST, F1);
+		SHAPES[EXPRESSION_STATEMENT] = new Shape("ExpressionStatement", "expression", NODE, F1);
+		SHAPES[BLOCK_STATEMENT] = new Shape("BlockStatement", "body", LIST, F1);
+		SHAPES[IF_STATEMENT] = new Shape("IfStatement", "test", NODE, F1, "consequent", NODE, F2, "alternate",
+				NODE_OR_NULL, F3);
+		SHAPES[LABELED_STATEMENT] = new Shape("LabeledStatement", "label", NODE, F1, "body", NODE, F2);
+		SHAPES[BREAK_STATEMENT] = new Shape("BreakStatement", "label", NODE_OR_NULL, F1);
+		SHAPES[CONTINUE_STATEMENT] = new Shape("ContinueStatement", "label", NODE_OR_NULL, F1);
+		SHAPES[SWITCH_STATEMENT] = new Shape("SwitchStatement", "discriminant", NODE, F1, "cases", LIST, F2,
+				"lexical", CONST_FALSE, 0);
+		SHAPES[SWITCH_CASE] = new Shape("SwitchCase", "test", NODE_OR_NULL, F1, "consequent", LIST, F2);
+		SHAPES[RETURN_STATEMENT] = new Shape("ReturnStatement", "argument", NODE_OR_NULL, F1);
+		SHAPES[THROW_STATEMENT] = new Shape("ThrowStatement", "argument", NODE, F1);
+		SHAPES[TRY_STATEMENT] = new Shape("TryStatement", "block", NODE, F1, "handler", NODE_OR_NULL, F2,
+				"guardedHandlers", CONST_EMPTY, 0, "finalizer", NODE_OR_NULL, F3);
+		SHAPES[CATCH_CLAUSE] = new Shape("CatchClause", "param", NODE, F1, "guard", CONST_NULL, 0, "body", NODE, F2);
+		SHAPES[WHILE_STATEMENT] = new Shape("WhileStatement", "test", NODE, F1, "body", NODE, F2);
+		SHAPES[DO_WHILE_STATEMENT] = new Shape("DoWhileStatement", "body", NODE, F1, "test", NODE, F2);
+		SHAPES[WITH_STATEMENT] = new Shape("WithStatement", "object", NODE, F1, "body", NODE, F2);
+		SHAPES[FOR_STATEMENT] = new Shape("ForStatement", "init", NODE_OR_NULL, F1, "test", NODE_OR_NULL, F2,
+				"update", NODE_OR_NULL, F3, "body", NODE, F4);
+		SHAPES[FOR_IN_STATEMENT] = new Shape("ForInStatement", "left", NODE, F1, "right", NODE, F2, "body", NODE, F3,
+				"each", CONST_FALSE, 0);
+		SHAPES[FOR_OF_STATEMENT] = new Shape("ForOfStatement", "left", NODE, F1, "right", NODE, F2, "body", NODE,
+				F3);
+		SHAPES[DEBUGGER_STATEMENT] = new Shape("DebuggerStatement");
+		// F6 holds generator (1) and expression (2)
+		SHAPES[FUNCTION_DECLARATION] = new Shape("FunctionDeclaration", "id", NODE, F1, "params", LIST,
+				F2, "defaults", LIST, F3, "rest", NODE_OR_NULL, F4, "body", NODE, F5, "generator", flag(1), F6,
+				"expression", flag(2), F6);
+		SHAPES[FUNCTION_EXPRESSION] = new Shape("FunctionExpression", "id", NODE_OR_NULL, F1, "params", LIST, F2,
+				"defaults", LIST, F3, "rest", NODE_OR_NULL, F4, "body", NODE, F5, "generator", flag(1), F6,
+				"expression", flag(2), F6);
+		SHAPES[ARROW_EXPRESSION] = new Shape("ArrowExpression", "params", LIST, F2, "defaults", LIST, F3, "rest",
+				NODE_OR_NULL, F4, "body", NODE, F5, "generator", flag(1), F6, "expression", flag(2), F6);
+		SHAPES[VARIABLE_DECLARATION] = new Shape("VariableDeclaration", "declarations", LIST, F1, "kind",
+				OPTIONAL_STRING, F2);
+		SHAPES[VARIABLE_DECLARATOR] = new Shape("VariableDeclarator", "id", NODE, F1, "init", NODE_OR_NULL, F2);
+		SHAPES[CLASS_DECLARATION] = new Shape("ClassDeclaration", "id", NODE, F1, "superClass", NODE_OR_NULL, F2,
+				"body", NODE, F3);
+		SHAPES[CLASS_EXPRESSION] = new Shape("ClassExpression", "id", NODE_OR_NULL, F1, "superClass", NODE_OR_NULL,
+				F2, "body", NODE, F3);
+		SHAPES[CLASS_BODY] = new Shape("ClassBody", "body", LIST, F1);
+		// F4 holds computed (1) and static (2)
+		SHAPES[METHOD_DEFINITION] = new Shape("MethodDefinition", "key", NODE, F1, "computed", flag(1), F4, "value",
+				NODE, F2, "kind", STRING, F3, "static", flag(2), F4);
+		SHAPES[THIS_EXPRESSION] = new Shape("ThisExpression");
+		SHAPES[SUPER] = new Shape("Super");
+		SHAPES[ARRAY_EXPRESSION] = new Shape("ArrayExpression", "elements", LIST, F1);
+		SHAPES[OBJECT_EXPRESSION] = new Shape("ObjectExpression", "properties", LIST, F1);
+		SHAPES[PROPERTY] = new Shape("Property", "key", NODE, F1, "value", NODE, F2, "kind", STRING, F3);
+		SHAPES[UNARY_EXPRESSION] = new Shape("UnaryExpression", "operator", STRING, F1, "prefix", CONST_TRUE, 0,
+				"argument", NODE, F2);
+		SHAPES[UPDATE_EXPRESSION] = new Shape("UpdateExpression", "operator", STRING, F1, "argument", NODE, F2,
+				"prefix", flag(1), F3);
+		SHAPES[BINARY_EXPRESSION] = new Shape("BinaryExpression", "operator", STRING, F1, "left", NODE, F2, "right",
+				NODE, F3);
+		SHAPES[LOGICAL_EXPRESSION] = new Shape("LogicalExpression", "operator", STRING, F1, "left", NODE, F2,
+				"right", NODE, F3);
+		SHAPES[ASSIGNMENT_EXPRESSION] = new Shape("AssignmentExpression", "operator", STRING, F1, "left", NODE, F2,
+				"right", NODE, F3);
+		SHAPES[CONDITIONAL_EXPRESSION] = new Shape("ConditionalExpression", "test", NODE, F1, "alternate", NODE, F3,
+				"consequent", NODE, F2);
+		SHAPES[CALL_EXPRESSION] = new Shape("CallExpression", "callee", NODE, F1, "arguments", LIST, F2);
+		SHAPES[NEW_EXPRESSION] = new Shape("NewExpression", "callee", NODE, F1, "arguments", LIST, F2);
+		SHAPES[MEMBER_EXPRESSION] = new Shape("MemberExpression", "object", NODE, F1, "property", NODE, F2,
+				"computed", flag(1), F3);
+		SHAPES[YIELD_EXPRESSION] = new Shape("YieldExpression", "argument", NODE_OR_NULL, F1, "delegate", flag(1),
+				F2);
+		SHAPES[TEMPLATE_LITERAL] = new Shape("TemplateLiteral", "quasis", LIST, F1, "expressions", LIST, F2);
+		SHAPES[TEMPLATE_ELEMENT] = new Shape("TemplateElement", "raw", STRING, F1, "cooked", STRING, F2, "tail",
+				flag(1), F3);
+		SHAPES[TAGGED_TEMPLATE_EXPRESSION] = new Shape("TaggedTemplateExpression", "tag", NODE, F1, "quasi", NODE,
+				F2);
+		SHAPES[SPREAD_ELEMENT] = new Shape("SpreadElement", "argument", NODE, F1);
+		SHAPES[REST_ELEMENT] = new Shape("RestElement", "argument", NODE, F1);
+		SHAPES[ASSIGNMENT_PATTERN] = new Shape("AssignmentPattern", "left", NODE, F1, "right", NODE, F2);
+		SHAPES[OBJECT_PATTERN] = new Shape("ObjectPattern", "properties", LIST, F1);
+		SHAPES[ARRAY_PATTERN] = new Shape("ArrayPattern", "elements", LIST, F1);
+		SHAPES[META_PROPERTY] = new Shape("MetaProperty", "meta", NODE, F1, "property", NODE, F2);
+		SHAPES[IDENTIFIER] = new Shape("Identifier", "name", STRING, F1);
+		SHAPES[LITERAL] = new Shape("Literal", "value", VALUE, F1);
+		SHAPES[IMPORT_DECLARATION] = new Shape("ImportDeclaration", "specifiers", LIST, F1, "source", NODE, F2);
+		SHAPES[IMPORT_SPECIFIER] = new Shape("ImportSpecifier", "imported", NODE, F1, "local", NODE, F2);
+		SHAPES[IMPORT_DEFAULT_SPECIFIER] = new Shape("ImportDefaultSpecifier", "local", NODE, F1);
+		SHAPES[IMPORT_NAMESPACE_SPECIFIER] = new Shape("ImportNamespaceSpecifier", "local", NODE, F1);
+		SHAPES[EXPORT_NAMED_DECLARATION] = new Shape("ExportNamedDeclaration", "declaration", NODE_OR_NULL, F1,
+				"specifiers", LIST, F2, "source", NODE_OR_NULL, F3);
+		SHAPES[EXPORT_SPECIFIER] = new Shape("ExportSpecifier", "local", NODE, F1, "exported", NODE, F2);
+		SHAPES[EXPORT_DEFAULT_DECLARATION] = new Shape("ExportDefaultDeclaration", "declaration", NODE, F1);
+		SHAPES[EXPORT_ALL_DECLARATION] = new Shape("ExportAllDeclaration", "source", NODE, F1);
+		SHAPES[NULL] = new Shape(null);
+	}
+
+	int[] nodes = new int[SIZE * 1024];
+	int size;
+	String[] strings = new String[256];
+	int stringCount;
+	double[] numbers = new double[64];
+	int numberCount;
+	int root = NONE;
+
+	void clear() {
+		size = 0;
+		// let go of the strings of the previous document
+		Arrays.fill(strings, 0, stringCount, null);
+		stringCount = 0;
+		numberCount = 0;
+		root = NONE;
+	}
+
+	int node(int type) {
+		if (size == nodes.length) {
+			nodes = Arrays.copyOf(nodes, size * 2);
+		}
+		int n = size;
+		size += SIZE;
+		nodes[n] = type;
+		for (int i = 1; i < SIZE; i++) {
+			nodes[n + i] = NONE;
+		}
+		return n;
+	}
+
+	int node(int type, int f1) {
+		int n = node(type);
+		nodes[n + F1] = f1;
+		return n;
+	}
+
+	int node(int type, int f1, int f2) {
+		int n = node(type);
+		nodes[n + F1] = f1;
+		nodes[n + F2] = f2;
+		return n;
+	}
+
+	int node(int type, int f1, int f2, int f3) {
+		int n = node(type);
+		nodes[n + F1] = f1;
+		nodes[n + F2] = f2;
+		nodes[n + F3] = f3;
+		return n;
+	}
+
+	int type(int n) {
+		return nodes[n];
+	}
+
+	int get(int n, int field) {
+		return nodes[n + field];
+	}
+
+	void set(int n, int field, int value) {
+		nodes[n + field] = value;
+	}
+
+	int string(String s) {
+		if (stringCount == strings.length) {
+			strings = Arrays.copyOf(strings, stringCount * 2);
+		}
+		strings[stringCount] = s;
+		return stringCount++;
+	}
+
+	int number(double d) {
+		if (numberCount == numbers.length) {
+			numbers = Arrays.copyOf(numbers, numberCount * 2);
+		}
+		numbers[numberCount] = d;
+		return numberCount++;
+	}
+
+	/**
+	 * Pull parser over the tree. The stack holds a frame per open node: the
+	 * node, the step within its properties (twice the property index, plus one
+	 * while at its value) and the next list item while in a list.
+	 */
+	static class Events implements JsonParser {
+
+		final ESTree tree;
+		int[] frameNode = new int[64];
+		int[] frameStep = new int[64];
+		int[] frameItem = new int[64];
+		int depth;
+		boolean started;
+
+		/* current KEY_NAME or VALUE_STRING, VALUE_NUMBER sets it on demand */
+		String string;
+		double number;
+
+		Events(ESTree tree) {
+			this.tree = tree;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !started || depth > 0;
+		}
+
+		void push(int n) {
+			if (depth == frameNode.length) {
+				frameNode = Arrays.copyOf(frameNode, depth * 2);
+				frameStep = Arrays.copyOf(frameStep, depth * 2);
+				frameItem = Arrays.copyOf(frameItem, depth * 2);
+			}
+			frameNode[depth] = n;
+			frameStep[depth] = 0;
+			frameItem[depth] = NONE;
+			depth++;
+		}
+
+		/* START_OBJECT of a node, VALUE_NULL for holes */
+		Event enter(int n) {
+			if (tree.nodes[n] == NULL) {
+				return Event.VALUE_NULL;
+			}
+			push(n);
+			return Event.START_OBJECT;
+		}
+
+		@Override
+		public Event next() {
+			if (!started) {
+				started = true;
+				return enter(tree.root);
+			}
+			if (depth == 0) {
+				throw new java.util.NoSuchElementException();
+			}
+			final int[] nodes = tree.nodes;
+			while (true) {
+				int top = depth - 1;
+				int n = frameNode[top];
+				Shape shape = SHAPES[nodes[n]];
+				int step = frameStep[top];
+				// property 0 is "type"
+				int p = step >> 1;
+				if (p > shape.keys.length) {
+					depth--;
+					return Event.END_OBJECT;
+				}
+				if (p == 0) {
+					if ((step & 1) == 0) {
+						frameStep[top] = 1;
+						string = "type";
+						return Event.KEY_NAME;
+					}
+					frameStep[top] = 2;
+					string = shape.type;
+					return Event.VALUE_STRING;
+				}
+				int kind = shape.kinds[p - 1];
+				int value = nodes[n + shape.fields[p - 1]];
+				if ((step & 1) == 0) {
+					if (kind == OPTIONAL_STRING && value == NONE) {
+						frameStep[top] = step + 2;
+						continue;
+					}
+					frameStep[top] = step + 1;
+					string = shape.keys[p - 1];
+					return Event.KEY_NAME;
+				}
+				switch (kind & 0xff) {
+				case NODE:
+				case NODE_OR_NULL:
+					frameStep[top] = step + 1;
+					if (value == NONE) {
+						return Event.VALUE_NULL;
+					}
+					return enter(value);
+				case LIST:
+					int item = frameItem[top];
+					if (item == NONE) {
+						// not started yet
+						frameItem[top] = value == NONE ? Integer.MIN_VALUE : value;
+						return Event.START_ARRAY;
+					}
+					if (item == Integer.MIN_VALUE) {
+						frameItem[top] = NONE;
+						frameStep[top] = step + 1;
+						return Event.END_ARRAY;
+					}
+					int next = nodes[item + NEXT];
+					frameItem[top] = next == NONE ? Integer.MIN_VALUE : next;
+					return enter(item);
+				case STRING:
+				case OPTIONAL_STRING:
+					frameStep[top] = step + 1;
+					string = tree.strings[value];
+					return Event.VALUE_STRING;
+				case VALUE:
+					frameStep[top] = step + 1;
+					return literal(n);
+				case CONST_NULL:
+					frameStep[top] = step + 1;
+					return Event.VALUE_NULL;
+				case CONST_FALSE:
+					frameStep[top] = step + 1;
+					return Event.VALUE_FALSE;
+				case CONST_TRUE:
+					frameStep[top] = step + 1;
+					return Event.VALUE_TRUE;
+				case CONST_EMPTY:
+					if (frameItem[top] == NONE) {
+						frameItem[top] = Integer.MIN_VALUE;
+						return Event.START_ARRAY;
+					}
+					frameItem[top] = NONE;
+					frameStep[top] = step + 1;
+					return Event.END_ARRAY;
+				default:
+					// FLAG
+					frameStep[top] = step + 1;
+					return (value & kind >> 8) != 0 ? Event.VALUE_TRUE : Event.VALUE_FALSE;
+				}
+			}
+		}
+
+		Event literal(int n) {
+			int index = tree.nodes[n + F2];
+			switch (tree.nodes[n + F1]) {
+			case L_STRING:
+			case L_REGEX:
+				string = tree.strings[index];
+				return Event.VALUE_STRING;
+			case L_NUMBER:
+				number = tree.numbers[index];
+				string = null;
+				return Event.VALUE_NUMBER;
+			case L_TRUE:
+				return Event.VALUE_TRUE;
+			case L_FALSE:
+				return Event.VALUE_FALSE;
+			default:
+				return Event.VALUE_NULL;
+			}
+		}
+
+		@Override
+		public String getString() {
+			if (string == null) {
+				string = Numbers.toString(number);
+			}
+			return string;
+		}
+
+		@Override
+		public boolean isIntegralNumber() {
+			return getBigDecimal().scale() == 0;
+		}
+
+		@Override
+		public int getInt() {
+			return (int) number;
+		}
+
+		@Override
+		public long getLong() {
+			return (long) number;
+		}
+
+		@Override
+		public BigDecimal getBigDecimal() {
+			if (number >= 0 && number < 9007199254740992d && number == (long) number) {
+				// same as the digits Numbers.toString gives
+				return BigDecimal.valueOf((long) number);
+			}
+			return Numbers.toBigDecimal(getString());
+		}
+
+		@Override
+		public JsonLocation getLocation() {
+			return LOCATION;
+		}
+
+		@Override
+		public void close() {
+			depth = 0;
+		}
+	}
+
+	static final JsonLocation LOCATION = new JsonLocation() {
+		@Override
+		public long getLineNumber() {
+			return -1;
+		}
+
+		@Override
+		public long getColumnNumber() {
+			return -1;
+		}
+
+		@Override
+		public long getStreamOffset() {
+			return -1;
+		}
+	};
+
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+
+package com.siemens.ct.exi.javascript;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+
+import com.siemens.ct.exi.core.exceptions.EXIException;
+
+/**
+ * Random access to the top-level statements of a program, see
+ * {@link JStoEXI#generateContainer(String, OutputStream)}. Each statement is
+ * encoded as an EXI4JS document of its own (a <code>Program</code> with a
+ * single statement) that {@link EXItoAST} or {@link EXItoJS} decode without
+ * touching the rest of the container.
+ *
+ * <pre>
+ * container := magic version document* index offset magic
+ * magic     := "E4JC"
+ * version   := byte (1)
+ * index     := count:int (offset:long length:int type:UTF hasName:boolean name:UTF?)*
+ * offset    := long (position of the index)
+ * </pre>
+ *
+ * <p>
+ * Offsets count from the start of the container, strings are written as by
+ * {@link DataOutputStream#writeUTF(String)}. Statements are in the order of
+ * {@link JStoEXI#generateFromSource(String, OutputStream)}, as the
+ * {@link JSParser} of the encoder reports them.
+ * </p>
+ */
+public class EXI4JSContainer implements Closeable {
+
+	static final byte[] MAGIC = { 'E', '4', 'J', 'C' };
+	static final int VERSION = 1;
+	static final int TRAILER_LENGTH = 8 + MAGIC.length;
+
+	/** A top-level statement in the container */
+	public static class Entry {
+		final long offset;
+		final int length;
+		final String type;
+		final String name;
+
+		Entry(long offset, int length, String type, String name) {
+			this.offset = offset;
+			this.length = length;
+			this.type = type;
+			this.name = name;
+		}
+
+		public long getOffset() {
+			return offset;
+		}
+
+		public int getLength() {
+			return length;
+		}
+
+		/**
+		 * @return the node type, e.g., FunctionDeclaration
+		 */
+		public String getType() {
+			return type;
+		}
+
+		/**
+		 * @return the name declared, assigned (e.g., <code>exports.foo</code>)
+		 *         or registered as module (the string literal a call starts
+		 *         with, e.g., <code>define("foo", ...)</code>), or null
+		 */
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public String toString() {
+			return type + (name == null ? "" : " " + name) + " @" + offset + "+" + length;
+		}
+	}
+
+	final SeekableByteChannel channel;
+	final List<Entry> entries;
+
+	/**
+	 * Reads the index, the statements are read on demand.
+	 */
+	public EXI4JSContainer(SeekableByteChannel channel) throws IOException {
+		this.channel = channel;
+
+		long size = channel.size();
+		if (size < MAGIC.length + 1 + TRAILER_LENGTH) {
+			throw new IOException("Not an EXI4JS container");
+		}
+		DataInputStream header = read(0, MAGIC.length + 1);
+		checkMagic(header);
+		int version = header.readUnsignedByte();
+		if (version != VERSION) {
+			throw new IOException("Unsupported EXI4JS container version " + version);
+		}
+		DataInputStream trailer = read(size - TRAILER_LENGTH, TRAILER_LENGTH);
+		long indexOffset = trailer.readLong();
+		checkMagic(trailer);
+		if (indexOffset < MAGIC.length + 1 || indexOffset > size - TRAILER_LENGTH) {
+			throw new IOException("Corrupt EXI4JS container index");
+		}
+
+		DataInputStream index = read(indexOffset, (int) (size - TRAILER_LENGTH - indexOffset));
+		int count = index.readInt();
+		List<Entry> entries = new ArrayList<Entry>(count);
+		for (int i = 0; i < count; i++) {
+			long offset = index.readLong();
+			int length = index.readInt();
+			String type = index.readUTF();
+			String name = index.readBoolean() ? index.readUTF() : null;
+			entries.add(new Entry(offset, length, type, name));
+		}
+		this.entries = Collections.unmodifiableList(entries);
+	}
+
+	public static EXI4JSContainer open(Path container) throws IOException {
+		FileChannel channel = FileChannel.open(container);
+		try {
+			return new EXI4JSContainer(channel);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	public List<Entry> getEntries() {
+		return entries;
+	}
+
+	/**
+	 * @return the index of the first statement declaring or assigning the
+	 *         name, -1 if there is none
+	 */
+	public int indexOf(String name) {
+		for (int i = 0; i < entries.size(); i++) {
+			if (name.equals(entries.get(i).name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the EXI4JS document of the statement, a <code>Program</code>
+	 *         with the statement only
+	 */
+	public InputStream getStatement(int index) throws IOException {
+		Entry entry = entries.get(index);
+		return read(entry.offset, entry.length);
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	DataInputStream read(long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		channel.position(position);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new EOFException();
+			}
+		}
+		return new DataInputStream(new ByteArrayInputStream(buffer.array()));
+	}
+
+	static void checkMagic(DataInputStream in) throws IOException {
+		for (byte b : MAGIC) {
+			if (in.readByte() != b) {
+				throw new IOException("Not an EXI4JS container");
+			}
+		}
+	}
+
+	/** Receives the statements of {@link #encode} one at a time */
+	static abstract class Statements {
+		abstract void add(JsonObject statement, ByteArrayOutputStream document) throws IOException;
+	}
+
+	static void write(JStoEXI js2exi, JsonParser program, OutputStream os) throws IOException, EXIException {
+		final DataOutputStream out = new DataOutputStream(os);
+		writeHeader(out);
+		final List<Entry> entries = new ArrayList<Entry>();
+		encode(js2exi, program, new Statements() {
+			long offset = MAGIC.length + 1;
+
+			@Override
+			void add(JsonObject statement, ByteArrayOutputStream document) throws IOException {
+				document.writeTo(out);
+				entries.add(new Entry(offset, document.size(), statement.getString("type"), nameOf(statement)));
+				offset += document.size();
+			}
+		});
+		writeIndex(out, entries);
+	}
+
+	static void writeHeader(DataOutputStream out) throws IOException {
+		out.write(MAGIC);
+		out.writeByte(VERSION);
+	}
+
+	/* the documents of the entries precede it */
+	static void writeIndex(DataOutputStream out, List<Entry> entries) throws IOException {
+		long offset = MAGIC.length + 1;
+		out.writeInt(entries.size());
+		for (Entry entry : entries) {
+			out.writeLong(entry.offset);
+			out.writeInt(entry.length);
+			out.writeUTF(entry.type);
+			out.writeBoolean(entry.name != null);
+			if (entry.name != null) {
+				out.writeUTF(entry.name);
+			}
+			offset += entry.length;
+		}
+		out.writeLong(offset);
+		out.write(MAGIC);
+		out.flush();
+	}
+
+	/* encodes each top-level statement as a Program of its own */
+	static void encode(JStoEXI js2exi, JsonParser program, Statements statements) throws IOException, EXIException {
+		if (!program.hasNext() || program.next() != Event.START_OBJECT) {
+			throw new RuntimeException("Unexpected JsonArray");
+		}
+		// one statement in memory at a time
+		ASTStreamToEXI reader = new ASTStreamToEXI(program);
+		ByteArrayOutputStream document = new ByteArrayOutputStream();
+		EncoderSession session = js2exi.acquire(0);
+		Event e;
+		while ((e = program.next()) != Event.END_OBJECT) {
+			String key = program.getString();
+			e = program.next();
+			if ("type".equals(key)) {
+				if (e != Event.VALUE_STRING || !"Program".equals(program.getString())) {
+					throw new RuntimeException("Unexpected type: " + program.getString());
+				}
+			} else if ("body".equals(key) && e == Event.START_ARRAY) {
+				while ((e = program.next()) != Event.END_ARRAY) {
+					if (e != Event.START_OBJECT) {
+						throw new RuntimeException("Unexpected ValueType in body array: " + e);
+					}
+					JsonObject statement = reader.readObject(program.next());
+					document.reset();
+					session.handleProgram(JsonTreeGenerator.BUILDERS.createObjectBuilder().add("type", "Program")
+							.add("body", JsonTreeGenerator.BUILDERS.createArrayBuilder().add(statement)).build(),
+							document);
+					statements.add(statement, document);
+				}
+			} else if ("loc".equals(key) || "range".equals(key)) {
+				reader.skipValue(e);
+			} else {
+				throw new RuntimeException("Unsupported property " + key + " in Program");
+			}
+		}
+		js2exi.release(session);
+	}
+
+	/* the variable, function or class declared, the target of an assignment or a module */
+	static String nameOf(JsonObject statement) {
+		String type = statement.getString("type");
+		if ("VariableDeclaration".equals(type)) {
+			JsonArray declarations = statement.getJsonArray("declarations");
+			return declarations.isEmpty() ? null : path(declarations.getJsonObject(0).get("id"));
+		}
+		if ("FunctionDeclaration".equals(type) || "ClassDeclaration".equals(type)) {
+			return path(statement.get("id"));
+		}
+		if ("ExpressionStatement".equals(type)) {
+			JsonObject expression = statement.getJsonObject("expression");
+			type = expression.getString("type");
+			if ("AssignmentExpression".equals(type)) {
+				return path(expression.get("left"));
+			}
+			if ("CallExpression".equals(type)) {
+				// modules, e.g., define("name", ...) or System.register("name", ...)
+				JsonArray args = expression.getJsonArray("arguments");
+				if (!args.isEmpty() && args.get(0) instanceof JsonObject
+						&& "Literal".equals(args.getJsonObject(0).getString("type"))
+						&& args.getJsonObject(0).get("value") instanceof JsonString) {
+					// string literals carry a "$" prefix in the JSON AST
+					String value = args.getJsonObject(0).getString("value");
+					return value.startsWith("$") ? value.substring(1) : value;
+				}
+			}
+		}
+		return null;
+	}
+
+	/* a or a.b.c, null for anything else */
+	static String path(JsonValue expression) {
+		if (!(expression instanceof JsonObject)) {
+			return null;
+		}
+		JsonObject node = (JsonObject) expression;
+		String type = node.getString("type");
+		if ("Identifier".equals(type)) {
+			return node.getString("name");
+		}
+		if ("MemberExpression".equals(type) && !node.getBoolean("computed", false)) {
+			String base = path(node.get("object"));
+			String property = path(node.get("property"));
+			return base == null || property == null ? null : base + "." + property;
+		}
+		return null;
+	}
+
+}
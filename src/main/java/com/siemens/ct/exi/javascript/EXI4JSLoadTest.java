@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+
+package com.siemens.ct.exi.javascript;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load-test client for {@link EXI4JSServer}: concurrent clients post the same
+ * code to <code>/encode</code> (and the outcome back to <code>/decode</code>
+ * with <code>-roundtrip</code>) and report throughput and latencies.
+ */
+public class EXI4JSLoadTest {
+
+	static class Result {
+		final int requests;
+		final int failures;
+		final double seconds;
+		/* per request, in ascending order */
+		final long[] nanos;
+
+		Result(int requests, int failures, double seconds, long[] nanos) {
+			this.requests = requests;
+			this.failures = failures;
+			this.seconds = seconds;
+			this.nanos = nanos;
+		}
+
+		double millis(double percentile) {
+			if (nanos.length == 0) {
+				return 0;
+			}
+			int i = (int) Math.ceil(percentile / 100 * nanos.length) - 1;
+			return nanos[Math.max(0, Math.min(i, nanos.length - 1))] / 1e6;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d requests, %d failed in %.2f s: %.1f requests/s, p50 %.2f ms, p99 %.2f ms, max %.2f ms",
+					requests, failures, seconds, requests / seconds, millis(50), millis(99), millis(100));
+		}
+	}
+
+	/**
+	 * Posts the body in chunks and reads the response, an exception for
+	 * any status other than 200.
+	 */
+	static byte[] post(URL url, byte[] body) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setChunkedStreamingMode(Utf8Input.BUFFER_SIZE);
+		OutputStream os = connection.getOutputStream();
+		os.write(body);
+		os.close();
+		int status = connection.getResponseCode();
+		InputStream is = status == 200 ? connection.getInputStream() : connection.getErrorStream();
+		ByteArrayOutputStream response = new ByteArrayOutputStream();
+		if (is != null) {
+			byte[] buffer = new byte[Utf8Input.BUFFER_SIZE];
+			int n;
+			while ((n = is.read(buffer)) >= 0) {
+				response.write(buffer, 0, n);
+			}
+			is.close();
+		}
+		if (status != 200) {
+			throw new IOException("HTTP " + status + " from " + url + ": " + response.toString("UTF-8"));
+		}
+		return response.toByteArray();
+	}
+
+	/**
+	 * @param server
+	 *            e.g., http://localhost:8080
+	 * @param query
+	 *            e.g., codingMode=compression, or null
+	 */
+	static Result run(String server, String query, final byte[] jsCode, int clients, final int requests,
+			final boolean roundtrip) throws Exception {
+		String q = query == null ? "" : "?" + query;
+		final URL encode = new URL(server + EXI4JSServer.ENCODE + q);
+		final URL decode = new URL(server + EXI4JSServer.DECODE + q);
+		final AtomicInteger next = new AtomicInteger();
+		final AtomicInteger failures = new AtomicInteger();
+		final long[] nanos = new long[requests];
+
+		ExecutorService executor = Executors.newFixedThreadPool(clients);
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		long start = System.nanoTime();
+		for (int c = 0; c < clients; c++) {
+			futures.add(executor.submit(new Callable<Void>() {
+				public Void call() {
+					int i;
+					while ((i = next.getAndIncrement()) < requests) {
+						long t = System.nanoTime();
+						try {
+							byte[] exi = post(encode, jsCode);
+							if (roundtrip) {
+								post(decode, exi);
+							}
+						} catch (IOException e) {
+							if (failures.getAndIncrement() == 0) {
+								System.err.println(e.getMessage());
+							}
+						}
+						nanos[i] = System.nanoTime() - t;
+					}
+					return null;
+				}
+			}));
+		}
+		for (Future<Void> f : futures) {
+			f.get();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		executor.shutdown();
+		Arrays.sort(nanos);
+		return new Result(requests, failures.get(), seconds, nanos);
+	}
+
+	public static void main(String[] args) throws Exception {
+		String server = "http://localhost:8080";
+		String query = null;
+		String input = null;
+		int clients = 8;
+		int requests = 1000;
+		boolean roundtrip = false;
+		for (int i = 0; i < args.length; i++) {
+			if ("-server".equals(args[i]) && i + 1 < args.length) {
+				server = args[++i];
+			} else if ("-query".equals(args[i]) && i + 1 < args.length) {
+				query = args[++i];
+			} else if ("-i".equals(args[i]) && i + 1 < args.length) {
+				input = args[++i];
+			} else if ("-clients".equals(args[i]) && i + 1 < args.length) {
+				clients = Integer.parseInt(args[++i]);
+			} else if ("-requests".equals(args[i]) && i + 1 < args.length) {
+				requests = Integer.parseInt(args[++i]);
+			} else if ("-roundtrip".equals(args[i])) {
+				roundtrip = true;
+			} else {
+				input = null;
+				break;
+			}
+		}
+		PrintStream ps = System.out;
+		if (input == null) {
+			ps.println("java " + EXI4JSLoadTest.class.getName()
+					+ " -i <input-file> [-server http://localhost:8080] [-query codingMode=compression]"
+					+ " [-clients 8] [-requests 1000] [-roundtrip]");
+			return;
+		}
+		byte[] jsCode = Files.readAllBytes(Paths.get(input));
+		// warm up the server
+		run(server, query, jsCode, clients, Math.min(requests, 10 * clients), roundtrip);
+		ps.println(run(server, query, jsCode, clients, requests, roundtrip));
+	}
+
+}
@@ -0,0 +1,487 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+
+package com.siemens.ct.exi.javascript;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.siemens.ct.exi.core.CodingMode;
+import com.siemens.ct.exi.core.EXIFactory;
+
+/**
+ * Throughput of parsing, encoding and decoding in this JVM, exposed as
+ * {@link EXI4JSMetricsMXBean} once {@link #register()} is called. Nothing is
+ * recorded while disabled apart from one check per document. When enabled,
+ * a document costs two <code>System.nanoTime()</code> calls and a handful of
+ * uncontended adders, a node one array increment, an output byte one
+ * counting stream call, see "Metrics" in the README.
+ */
+public class EXI4JSMetrics implements EXI4JSMetricsMXBean {
+
+	public static final String OBJECT_NAME = "com.siemens.ct.exi.javascript:type=EXI4JSMetrics";
+
+	/* bucket i counts latencies below 2^i microseconds, the last one the rest */
+	static final int BUCKETS = 32;
+
+	/* Identifier nodes given by name only, see ASTStreamToEXI#handleIdentifier */
+	static final int IDENTIFIER = NodeDescriptor.get("Identifier").index;
+
+	static final EXI4JSMetrics METRICS = new EXI4JSMetrics();
+
+	/**
+	 * Snapshot of a phase, in bytes for EXI and JSON, in characters for
+	 * JavaScript code.
+	 */
+	public static final class PhaseMetrics {
+		final long documents;
+		final long bytesIn;
+		final long bytesOut;
+		final long nodes;
+		final long nanos;
+		final long textBytes;
+		final long exiBytes;
+		final long[] latencies;
+
+		PhaseMetrics(Phase phase) {
+			documents = phase.documents.sum();
+			bytesIn = phase.bytesIn.sum();
+			bytesOut = phase.bytesOut.sum();
+			nodes = phase.nodes.sum();
+			nanos = phase.nanos.sum();
+			textBytes = phase.textBytes.sum();
+			exiBytes = phase.exiBytes.sum();
+			latencies = new long[BUCKETS];
+			for (int i = 0; i < BUCKETS; i++) {
+				latencies[i] = phase.latencies.get(i);
+			}
+		}
+
+		public long getDocuments() {
+			return documents;
+		}
+
+		/* 0 for documents of unknown size, e.g., a JsonParser or a Writer */
+		public long getBytesIn() {
+			return bytesIn;
+		}
+
+		public long getBytesOut() {
+			return bytesOut;
+		}
+
+		public long getNodes() {
+			return nodes;
+		}
+
+		public double getTotalMillis() {
+			return nanos / 1e6;
+		}
+
+		public double getNodesPerSecond() {
+			return nanos == 0 ? 0 : nodes * 1e9 / nanos;
+		}
+
+		/**
+		 * EXI size relative to the JSON AST (respectively the code) over the
+		 * documents whose both sizes are known, NaN if there are none.
+		 */
+		public double getCompressionRatio() {
+			return textBytes == 0 ? Double.NaN : (double) exiBytes / textBytes;
+		}
+
+		public double getMeanMillis() {
+			return documents == 0 ? 0 : nanos / 1e6 / documents;
+		}
+
+		/**
+		 * Upper bound of the bucket the median falls into.
+		 */
+		public double getP50Millis() {
+			return percentile(0.5);
+		}
+
+		public double getP99Millis() {
+			return percentile(0.99);
+		}
+
+		/**
+		 * Documents by latency, see {@link #getLatencyBucketsMicros()}.
+		 */
+		public long[] getLatencyHistogram() {
+			return latencies.clone();
+		}
+
+		/**
+		 * Exclusive upper bounds of the histogram buckets, the last one is
+		 * open.
+		 */
+		public long[] getLatencyBucketsMicros() {
+			long[] bounds = new long[BUCKETS];
+			for (int i = 0; i < BUCKETS; i++) {
+				bounds[i] = i == BUCKETS - 1 ? Long.MAX_VALUE : 1L << i;
+			}
+			return bounds;
+		}
+
+		double percentile(double p) {
+			long rank = (long) Math.ceil(p * documents);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += latencies[i];
+				if (seen >= rank && seen > 0) {
+					return (1L << i) / 1e3;
+				}
+			}
+			return 0;
+		}
+	}
+
+	static final class Phase {
+		final LongAdder documents = new LongAdder();
+		final LongAdder bytesIn = new LongAdder();
+		final LongAdder bytesOut = new LongAdder();
+		final LongAdder nodes = new LongAdder();
+		final LongAdder nanos = new LongAdder();
+		/* of documents whose input and output size is known */
+		final LongAdder textBytes = new LongAdder();
+		final LongAdder exiBytes = new LongAdder();
+		final AtomicLongArray latencies = new AtomicLongArray(BUCKETS);
+
+		void add(long time, long in, long out, long count) {
+			documents.increment();
+			nanos.add(time);
+			bytesIn.add(in);
+			bytesOut.add(out);
+			nodes.add(count);
+			latencies.incrementAndGet(bucket(time));
+		}
+
+		void ratio(long text, long exi) {
+			if (text > 0 && exi > 0) {
+				textBytes.add(text);
+				exiBytes.add(exi);
+			}
+		}
+
+		static int bucket(long nanos) {
+			long micros = nanos / 1000;
+			return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+		}
+	}
+
+	/**
+	 * Per-document recorder of a session, reused with it. Inactive (and
+	 * cheap) if metrics were disabled when the document started.
+	 */
+	static final class Document {
+		boolean active;
+		long start;
+		long bytesIn;
+		long nodes;
+		final int[] nodeTypes = new int[NodeDescriptor.TYPES.length];
+		final CountingOutputStream out = new CountingOutputStream();
+		final CountingInputStream in = new CountingInputStream();
+
+		/* length of the input in bytes or characters, 0 if not known */
+		void start(long length) {
+			active = METRICS.enabled;
+			if (active) {
+				start = System.nanoTime();
+				bytesIn = length;
+				nodes = 0;
+				out.count = 0;
+				in.count = 0;
+			}
+		}
+
+		/* where to count node types, null if inactive */
+		int[] nodeTypes() {
+			return active ? nodeTypes : null;
+		}
+
+		OutputStream output(OutputStream os) {
+			if (active) {
+				// counts on across documents of a container
+				out.os = os;
+				return out;
+			}
+			return os;
+		}
+
+		InputStream input(InputStream is) {
+			if (active) {
+				in.is = is;
+				return in;
+			}
+			return is;
+		}
+
+		long elapsed() {
+			return System.nanoTime() - start;
+		}
+	}
+
+	static final class CountingOutputStream extends FilterOutputStream {
+		long count;
+		OutputStream os;
+
+		CountingOutputStream() {
+			super(null);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			os.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			os.write(b, off, len);
+			count += len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			os.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			os.close();
+		}
+	}
+
+	static final class CountingInputStream extends FilterInputStream {
+		long count;
+		InputStream is;
+
+		CountingInputStream() {
+			super(null);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = is.read();
+			if (b >= 0) {
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = is.read(b, off, len);
+			if (n > 0) {
+				count += n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = is.skip(n);
+			count += skipped;
+			return skipped;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return is.available();
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		@Override
+		public void close() throws IOException {
+			is.close();
+		}
+	}
+
+	volatile boolean enabled;
+
+	final Phase parse = new Phase();
+	final ConcurrentHashMap<String, Phase> encode = new ConcurrentHashMap<String, Phase>();
+	final ConcurrentHashMap<String, Phase> decode = new ConcurrentHashMap<String, Phase>();
+	final AtomicLongArray nodeTypes = new AtomicLongArray(NodeDescriptor.TYPES.length);
+
+	EXI4JSMetrics() {
+	}
+
+	public static EXI4JSMetrics get() {
+		return METRICS;
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server (if not done
+	 * before) and enables them.
+	 */
+	public static synchronized EXI4JSMetrics register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(METRICS, name);
+			}
+		} catch (JMException e) {
+			throw new RuntimeException("Not able to register " + OBJECT_NAME, e);
+		}
+		METRICS.enabled = true;
+		return METRICS;
+	}
+
+	/* key of the coding mode, DEDUP added if repeated subtrees are shared */
+	static String codingMode(EXIFactory ef) {
+		CodingMode cm = ef.getCodingMode();
+		return Dedup.isEnabled(ef.getGrammars()) ? cm.name() + "_DEDUP" : cm.name();
+	}
+
+	static Phase phase(ConcurrentHashMap<String, Phase> phases, String codingMode) {
+		Phase phase = phases.get(codingMode);
+		if (phase == null) {
+			Phase p = phases.putIfAbsent(codingMode, phase = new Phase());
+			if (p != null) {
+				phase = p;
+			}
+		}
+		return phase;
+	}
+
+	void parsed(long nanos, long characters) {
+		parse.add(nanos, characters, 0, 0);
+	}
+
+	void encoded(String codingMode, Document doc) {
+		long time = doc.elapsed();
+		int[] types = doc.nodeTypes;
+		long nodes = 0;
+		for (int i = 0; i < types.length; i++) {
+			if (types[i] != 0) {
+				nodeTypes.addAndGet(i, types[i]);
+				nodes += types[i];
+				types[i] = 0;
+			}
+		}
+		Phase phase = phase(encode, codingMode);
+		phase.add(time, doc.bytesIn, doc.out.count, nodes);
+		phase.ratio(doc.bytesIn, doc.out.count);
+		doc.out.os = null;
+		doc.active = false;
+	}
+
+	void decoded(String codingMode, Document doc) {
+		Phase phase = phase(decode, codingMode);
+		phase.add(doc.elapsed(), doc.in.count, doc.out.count, doc.nodes);
+		phase.ratio(doc.out.count, doc.in.count);
+		doc.in.is = null;
+		doc.out.os = null;
+		doc.active = false;
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	@Override
+	public PhaseMetrics getParse() {
+		return new PhaseMetrics(parse);
+	}
+
+	@Override
+	public Map<String, PhaseMetrics> getEncode() {
+		return snapshot(encode);
+	}
+
+	@Override
+	public Map<String, PhaseMetrics> getDecode() {
+		return snapshot(decode);
+	}
+
+	static Map<String, PhaseMetrics> snapshot(Map<String, Phase> phases) {
+		Map<String, PhaseMetrics> snapshot = new TreeMap<String, PhaseMetrics>();
+		for (Map.Entry<String, Phase> e : phases.entrySet()) {
+			snapshot.put(e.getKey(), new PhaseMetrics(e.getValue()));
+		}
+		return snapshot;
+	}
+
+	@Override
+	public Map<String, Long> getNodeTypes() {
+		Map<String, Long> counts = new TreeMap<String, Long>();
+		for (int i = 0; i < NodeDescriptor.TYPES.length; i++) {
+			long n = nodeTypes.get(i);
+			if (n > 0) {
+				counts.put(NodeDescriptor.TYPES[i], n);
+			}
+		}
+		return counts;
+	}
+
+	@Override
+	public void reset() {
+		resetPhase(parse);
+		encode.clear();
+		decode.clear();
+		for (int i = 0; i < nodeTypes.length(); i++) {
+			nodeTypes.set(i, 0);
+		}
+	}
+
+	static void resetPhase(Phase phase) {
+		phase.documents.reset();
+		phase.bytesIn.reset();
+		phase.bytesOut.reset();
+		phase.nodes.reset();
+		phase.nanos.reset();
+		phase.textBytes.reset();
+		phase.exiBytes.reset();
+		for (int i = 0; i < BUCKETS; i++) {
+			phase.latencies.set(i, 0);
+		}
+	}
+
+}
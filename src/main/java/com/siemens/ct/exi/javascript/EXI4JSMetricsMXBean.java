@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+
+package com.siemens.ct.exi.javascript;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link EXI4JSMetrics}, registered as
+ * {@value EXI4JSMetrics#OBJECT_NAME}.
+ */
+public interface EXI4JSMetricsMXBean {
+
+	boolean isEnabled();
+
+	void setEnabled(boolean enabled);
+
+	/**
+	 * JavaScript to AST by any parser.
+	 */
+	EXI4JSMetrics.PhaseMetrics getParse();
+
+	/**
+	 * AST to EXI by coding mode, e.g., <code>BIT_PACKED</code> or
+	 * <code>COMPRESSION_DEDUP</code>.
+	 */
+	Map<String, EXI4JSMetrics.PhaseMetrics> getEncode();
+
+	/**
+	 * EXI to AST or JavaScript by coding mode.
+	 */
+	Map<String, EXI4JSMetrics.PhaseMetrics> getDecode();
+
+	/**
+	 * Encoded nodes by ESTree type.
+	 */
+	Map<String, Long> getNodeTypes();
+
+	void reset();
+
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+
+package com.siemens.ct.exi.javascript;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.exceptions.EXIException;
+
+/**
+ * Bits of EXI4JS streams by ESTree node type, by element of exi4js.xsd and by
+ * value partition, to tell which constructs cost the most. A profile is
+ * filled by any number of documents encoded with
+ * {@link JStoEXI#setProfile(EXI4JSProfile)} in the bit- or byte-packed coding
+ * mode, see {@link ProfilingBodyEncoder}.
+ * <p>
+ * A node type owns the bits of its own start and end, of its properties and
+ * of their values, but not those of nested nodes, so that the node types add
+ * up to the stream (apart from header, document events and padding). Values
+ * of strings are partitioned by the string table: a miss is written as
+ * literal and added to the table, a local hit refers to an earlier value of
+ * the same element, a global hit to one of another element (or a shared
+ * string). Other values go by their datatype, e.g., <code>enumeration</code>.
+ * </p>
+ */
+public class EXI4JSProfile {
+
+	public static final String MISS = "miss";
+	public static final String LOCAL_HIT = "localHit";
+	public static final String GLOBAL_HIT = "globalHit";
+
+	static final class Bits {
+		long count;
+		/* event codes, i.e., the structure */
+		long eventBits;
+		/* characters */
+		long valueBits;
+
+		long total() {
+			return eventBits + valueBits;
+		}
+
+		void add(Bits bits) {
+			count += bits.count;
+			eventBits += bits.eventBits;
+			valueBits += bits.valueBits;
+		}
+	}
+
+	long documents;
+	/* characters (or bytes) of the input as far as known */
+	long length;
+	long exiBits;
+	/* header, start and end document and the final padding */
+	long documentBits;
+
+	final Map<String, Bits> nodes = new HashMap<String, Bits>();
+	final Map<String, Bits> elements = new HashMap<String, Bits>();
+	/* by element and partition */
+	final Map<String, Map<String, Bits>> values = new HashMap<String, Map<String, Bits>>();
+
+	static Bits bits(Map<String, Bits> map, String key) {
+		Bits bits = map.get(key);
+		if (bits == null) {
+			map.put(key, bits = new Bits());
+		}
+		return bits;
+	}
+
+	Bits node(String type) {
+		return bits(nodes, type);
+	}
+
+	Bits element(String name) {
+		return bits(elements, name);
+	}
+
+	Bits value(String element, String partition) {
+		Map<String, Bits> partitions = values.get(element);
+		if (partitions == null) {
+			values.put(element, partitions = new HashMap<String, Bits>());
+		}
+		return bits(partitions, partition);
+	}
+
+	/* adds a document (or another profile) */
+	synchronized void add(EXI4JSProfile p) {
+		documents += p.documents;
+		length += p.length;
+		exiBits += p.exiBits;
+		documentBits += p.documentBits;
+		addAll(nodes, p.nodes);
+		addAll(elements, p.elements);
+		for (Map.Entry<String, Map<String, Bits>> e : p.values.entrySet()) {
+			for (Map.Entry<String, Bits> partition : e.getValue().entrySet()) {
+				value(e.getKey(), partition.getKey()).add(partition.getValue());
+			}
+		}
+	}
+
+	static void addAll(Map<String, Bits> to, Map<String, Bits> from) {
+		for (Map.Entry<String, Bits> e : from.entrySet()) {
+			bits(to, e.getKey()).add(e.getValue());
+		}
+	}
+
+	public synchronized long getDocuments() {
+		return documents;
+	}
+
+	public synchronized long getBytes() {
+		return exiBits / 8;
+	}
+
+	/**
+	 * Bits by node type, of the node itself without nested nodes.
+	 */
+	public synchronized Map<String, Long> getNodeBits() {
+		return totals(nodes);
+	}
+
+	public synchronized Map<String, Long> getElementBits() {
+		return totals(elements);
+	}
+
+	/**
+	 * Bits of values by partition, e.g., {@link #MISS} or
+	 * <code>integer</code>, over all elements.
+	 */
+	public synchronized Map<String, Long> getValueBits() {
+		Map<String, Bits> partitions = new HashMap<String, Bits>();
+		for (Map<String, Bits> m : values.values()) {
+			addAll(partitions, m);
+		}
+		return totals(partitions);
+	}
+
+	static Map<String, Long> totals(Map<String, Bits> map) {
+		Map<String, Long> totals = new HashMap<String, Long>();
+		for (Map.Entry<String, Bits> e : map.entrySet()) {
+			totals.put(e.getKey(), e.getValue().total());
+		}
+		return totals;
+	}
+
+	/* most bits first */
+	static List<Map.Entry<String, Bits>> sorted(Map<String, Bits> map) {
+		List<Map.Entry<String, Bits>> entries = new ArrayList<Map.Entry<String, Bits>>(map.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, Bits>>() {
+			@Override
+			public int compare(Map.Entry<String, Bits> a, Map.Entry<String, Bits> b) {
+				int c = Long.compare(b.getValue().total(), a.getValue().total());
+				return c != 0 ? c : a.getKey().compareTo(b.getKey());
+			}
+		});
+		return entries;
+	}
+
+	/* values of all partitions by element */
+	Map<String, Bits> valuesByElement() {
+		Map<String, Bits> byElement = new HashMap<String, Bits>();
+		for (Map.Entry<String, Map<String, Bits>> e : values.entrySet()) {
+			for (Bits b : e.getValue().values()) {
+				bits(byElement, e.getKey()).add(b);
+			}
+		}
+		return byElement;
+	}
+
+	double percent(long bits) {
+		return exiBits == 0 ? 0 : 100.0 * bits / exiBits;
+	}
+
+	public synchronized void writeText(PrintStream ps) {
+		ps.printf("%d documents, %d characters to %d bytes of EXI4JS%n", documents, length, exiBits / 8);
+		ps.printf("header, document and padding: %d bits (%.2f%%)%n", documentBits, percent(documentBits));
+
+		ps.println();
+		ps.println("Node types (own bits without nested nodes)");
+		ps.printf("%-28s %10s %12s %12s %12s %7s %9s%n", "type", "count", "bits", "events", "values", "%",
+				"bits/node");
+		for (Map.Entry<String, Bits> e : sorted(nodes)) {
+			Bits b = e.getValue();
+			ps.printf("%-28s %10d %12d %12d %12d %7.2f %9.2f%n", e.getKey(), b.count, b.total(), b.eventBits,
+					b.valueBits, percent(b.total()), b.count == 0 ? 0 : (double) b.total() / b.count);
+		}
+
+		ps.println();
+		ps.println("Elements");
+		ps.printf("%-28s %10s %12s %12s %12s %7s%n", "element", "count", "bits", "events", "values", "%");
+		for (Map.Entry<String, Bits> e : sorted(elements)) {
+			Bits b = e.getValue();
+			ps.printf("%-28s %10d %12d %12d %12d %7.2f%n", e.getKey(), b.count, b.total(), b.eventBits, b.valueBits,
+					percent(b.total()));
+		}
+
+		ps.println();
+		ps.println("Values by element and partition");
+		ps.printf("%-28s %-12s %10s %12s %7s %10s%n", "element", "partition", "count", "bits", "%", "bits/value");
+		for (Map.Entry<String, Bits> element : sorted(valuesByElement())) {
+			for (Map.Entry<String, Bits> e : sorted(values.get(element.getKey()))) {
+				Bits b = e.getValue();
+				ps.printf("%-28s %-12s %10d %12d %7.2f %10.2f%n", element.getKey(), e.getKey(), b.count, b.total(),
+						percent(b.total()), (double) b.total() / b.count);
+			}
+		}
+	}
+
+	public synchronized void writeJson(OutputStream os) {
+		Map<String, Object> config = new HashMap<String, Object>();
+		config.put(JsonGenerator.PRETTY_PRINTING, true);
+		JsonGenerator generator = Json.createGeneratorFactory(config).createGenerator(os);
+		generator.writeStartObject();
+		generator.write("documents", documents);
+		generator.write("characters", length);
+		generator.write("bits", exiBits);
+		generator.write("documentBits", documentBits);
+		writeJson(generator, "nodes", nodes);
+		writeJson(generator, "elements", elements);
+		generator.writeStartObject("values");
+		for (Map.Entry<String, Bits> element : sorted(valuesByElement())) {
+			writeJson(generator, element.getKey(), values.get(element.getKey()));
+		}
+		generator.writeEnd();
+		generator.writeEnd();
+		generator.flush();
+	}
+
+	static void writeJson(JsonGenerator generator, String name, Map<String, Bits> map) {
+		generator.writeStartObject(name);
+		for (Map.Entry<String, Bits> e : sorted(map)) {
+			Bits b = e.getValue();
+			generator.writeStartObject(e.getKey());
+			generator.write("count", b.count);
+			generator.write("eventBits", b.eventBits);
+			generator.write("valueBits", b.valueBits);
+			generator.writeEnd();
+		}
+		generator.writeEnd();
+	}
+
+	/**
+	 * Profiles JavaScript files, directories are searched for
+	 * <code>*.js</code>.
+	 */
+	public static void main(String[] args) throws IOException, EXIException {
+		EXIFactory ef = JSConstants.EXI_FACTORY;
+		boolean json = false;
+		final List<Path> files = new ArrayList<Path>();
+		for (int i = 0; i < args.length; i++) {
+			if ("-bytepacked".equals(args[i])) {
+				ef = JSConstants.EXI_FACTORY_BYTE_PACKED;
+			} else if ("-dedup".equals(args[i])) {
+				ef = JSConstants.EXI_FACTORY_DEDUP;
+			} else if ("-json".equals(args[i])) {
+				json = true;
+			} else if (Files.isDirectory(Paths.get(args[i]))) {
+				Files.walkFileTree(Paths.get(args[i]), new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+						if (file.toString().endsWith(".js")) {
+							files.add(file);
+						}
+						return FileVisitResult.CONTINUE;
+					}
+				});
+			} else {
+				files.add(Paths.get(args[i]));
+			}
+		}
+		PrintStream ps = System.out;
+		if (files.isEmpty()) {
+			ps.println("java " + EXI4JSProfile.class.getName()
+					+ " [-bytepacked | -dedup] [-json] <file or directory> ...");
+			return;
+		}
+		Collections.sort(files);
+
+		EXI4JSProfile profile = new EXI4JSProfile();
+		JStoEXI js2exi = new JStoEXI(ef);
+		js2exi.setProfile(profile);
+		for (Path file : files) {
+			js2exi.generateFromSource(file, new OutputStream() {
+				@Override
+				public void write(int b) {
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) {
+				}
+			});
+		}
+		if (json) {
+			profile.writeJson(ps);
+		} else {
+			profile.writeText(ps);
+		}
+	}
+
+}
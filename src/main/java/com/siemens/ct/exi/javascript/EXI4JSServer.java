@@ -0,0 +1,424 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+
+package com.siemens.ct.exi.javascript;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.exceptions.EXIException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Lightweight HTTP service on the JDK's <code>com.sun.net.httpserver</code>.
+ * <code>POST /encode</code> takes JavaScript code and responds with EXI,
+ * <code>POST /decode</code> takes EXI and responds with the JSON AST, or
+ * with JavaScript code given <code>js</code> (and <code>pretty</code>).
+ * The coding mode is chosen per request by the query, e.g.,
+ * <code>/encode?codingMode=compression&amp;dedup</code>, and must be the
+ * same for decoding. Given <code>es2015</code>, code is encoded with
+ * exi4js-es2015.xsd and {@link ES2015Parser} rather than with exi4js.xsd and
+ * Nashorn.
+ *
+ * <p>
+ * Requests are handled on virtual threads where the JDK provides them and by
+ * a bounded pool otherwise. All requests share the grammars and the pooled
+ * sessions of one coder per coding mode. EXI is decoded as it arrives and
+ * all responses are streamed in chunks; the code to encode is read as a
+ * whole since the parser needs all of it anyway. Request bodies larger than
+ * {@link #setMaxBody(long)} are refused with 413.
+ */
+public class EXI4JSServer {
+
+	public static final String ENCODE = "/encode";
+	public static final String DECODE = "/decode";
+
+	public static final String CODING_MODE = "codingMode";
+	public static final String DEDUP = "dedup";
+	public static final String ES2015 = "es2015";
+	public static final String JAVASCRIPT = "js";
+	public static final String PRETTY = "pretty";
+
+	/* 16 MB, a little more than the largest bundles in the wild */
+	public static final long DEFAULT_MAX_BODY = 16L << 20;
+
+	static final Map<String, EXIFactory> CODING_MODES = new HashMap<String, EXIFactory>();
+
+	static {
+		CODING_MODES.put("bitPacked", JSConstants.EXI_FACTORY);
+		CODING_MODES.put("bytePacked", JSConstants.EXI_FACTORY_BYTE_PACKED);
+		CODING_MODES.put("preCompression", JSConstants.EXI_FACTORY_PRE_COMPRESSION);
+		CODING_MODES.put("compression", JSConstants.EXI_FACTORY_COMPRESSION);
+	}
+
+	/**
+	 * Encoder and decoders for one coding mode, shared by all requests.
+	 */
+	static class Coders {
+		final JStoEXI js2exi;
+		final EXItoAST exi2ast;
+		final EXItoJS exi2js;
+		final EXItoJS exi2jsPretty;
+
+		Coders(EXIFactory ef) {
+			js2exi = new JStoEXI(ef);
+			exi2ast = new EXItoAST(ef);
+			exi2js = new EXItoJS(ef, false);
+			exi2jsPretty = new EXItoJS(ef, true);
+		}
+	}
+
+	final HttpServer server;
+	final ExecutorService executor;
+	final ConcurrentMap<String, Coders> coders = new ConcurrentHashMap<String, Coders>();
+	volatile long maxBody = DEFAULT_MAX_BODY;
+
+	/**
+	 * @param threads
+	 *            size of the pool if there are no virtual threads
+	 */
+	public EXI4JSServer(InetSocketAddress address, int threads) throws IOException {
+		server = HttpServer.create(address, 0);
+		executor = newExecutor(threads);
+		server.setExecutor(executor);
+		server.createContext(ENCODE, new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				EXI4JSServer.this.handle(exchange, true);
+			}
+		});
+		server.createContext(DECODE, new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				EXI4JSServer.this.handle(exchange, false);
+			}
+		});
+	}
+
+	/* Executors.newVirtualThreadPerTaskExecutor() of JDK 21 and later */
+	static ExecutorService newExecutor(int threads) {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (NoSuchMethodException e) {
+			// JDK 20 and before
+		} catch (InvocationTargetException e) {
+			// preview feature not enabled
+		} catch (IllegalAccessException e) {
+			throw new RuntimeException(e);
+		}
+		return Executors.newFixedThreadPool(threads);
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Stops accepting requests and waits up to <code>delay</code> seconds for
+	 * the current ones.
+	 */
+	public void stop(int delay) {
+		server.stop(delay);
+		executor.shutdown();
+		try {
+			executor.awaitTermination(delay, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @param maxBody
+	 *            bytes a request body may have, by its Content-Length or as
+	 *            read
+	 */
+	public void setMaxBody(long maxBody) {
+		if (maxBody < 0) {
+			throw new IllegalArgumentException("Negative maximum body " + maxBody);
+		}
+		this.maxBody = maxBody;
+	}
+
+	public InetSocketAddress getAddress() {
+		return server.getAddress();
+	}
+
+	Coders coders(String codingMode, boolean dedup, boolean es2015) throws EXIException {
+		String key = codingMode + (dedup ? "+dedup" : "") + (es2015 ? "+es2015" : "");
+		Coders c = coders.get(key);
+		if (c == null) {
+			EXIFactory ef = CODING_MODES.get(codingMode);
+			if (ef == null) {
+				throw new IllegalArgumentException("Unknown " + CODING_MODE + " " + codingMode);
+			}
+			if (dedup || es2015) {
+				ef = JSConstants.factory(ef, JSConstants.grammars(es2015, dedup));
+			}
+			Coders previous = coders.putIfAbsent(key, c = new Coders(ef));
+			if (previous != null) {
+				c = previous;
+			}
+		}
+		return c;
+	}
+
+	/* name=value&flag, values are not URL-encoded */
+	static Map<String, String> query(URI uri) {
+		Map<String, String> query = new HashMap<String, String>();
+		String q = uri.getRawQuery();
+		if (q != null) {
+			for (String parameter : q.split("&")) {
+				int eq = parameter.indexOf('=');
+				if (eq < 0) {
+					query.put(parameter, "true");
+				} else {
+					query.put(parameter.substring(0, eq), parameter.substring(eq + 1));
+				}
+			}
+		}
+		return query;
+	}
+
+	static boolean isSet(Map<String, String> query, String name) {
+		String value = query.get(name);
+		return value != null && !"false".equals(value);
+	}
+
+	void handle(HttpExchange exchange, boolean encode) throws IOException {
+		Response response = new Response(exchange);
+		Body is = null;
+		try {
+			if (!"POST".equals(exchange.getRequestMethod())) {
+				response.error(405, "Use POST");
+				return;
+			}
+			Map<String, String> query = query(exchange.getRequestURI());
+			String codingMode = query.containsKey(CODING_MODE) ? query.get(CODING_MODE) : "bitPacked";
+			Coders c;
+			try {
+				c = coders(codingMode, isSet(query, DEDUP), isSet(query, ES2015));
+			} catch (IllegalArgumentException e) {
+				response.error(400, e.getMessage());
+				return;
+			}
+
+			long max = maxBody;
+			String length = exchange.getRequestHeaders().getFirst("Content-Length");
+			if (length != null && Long.parseLong(length) > max) {
+				response.error(413, Body.message(max));
+				return;
+			}
+			// chunked bodies have no length to check in advance
+			is = new Body(exchange.getRequestBody(), max);
+			if (encode) {
+				response.contentType = "application/exi";
+				char[] jsCode = Utf8Input.read(Channels.newChannel(is));
+				c.js2exi.generateFromSource(jsCode, response);
+			} else if (isSet(query, JAVASCRIPT)) {
+				response.contentType = "application/javascript; charset=utf-8";
+				Writer writer = new OutputStreamWriter(response, StandardCharsets.UTF_8);
+				(isSet(query, PRETTY) ? c.exi2jsPretty : c.exi2js).generate(is, writer);
+				writer.flush();
+			} else {
+				response.contentType = "application/json; charset=utf-8";
+				c.exi2ast.generate(is, response);
+			}
+			response.close();
+		} catch (RuntimeException e) {
+			// e.g., SyntaxError of the parser
+			response.error(is != null && is.exceeded ? 413 : 400, String.valueOf(e.getMessage()));
+		} catch (EXIException e) {
+			// EXIficient may wrap the exception of the body
+			response.error(is != null && is.exceeded ? 413 : 400, String.valueOf(e.getMessage()));
+		} catch (IOException e) {
+			response.error(is != null && is.exceeded ? 413 : 500, String.valueOf(e.getMessage()));
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Request body that fails once more than <code>max</code> bytes arrive.
+	 */
+	static class Body extends FilterInputStream {
+		final long max;
+		long remaining;
+		boolean exceeded;
+
+		Body(InputStream in, long max) {
+			super(in);
+			this.max = max;
+			this.remaining = max;
+		}
+
+		static String message(long max) {
+			return "Request body exceeds " + max + " bytes";
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (remaining == 0) {
+				return beyond();
+			}
+			int b = super.read();
+			if (b >= 0) {
+				remaining--;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (remaining == 0) {
+				return beyond();
+			}
+			int n = super.read(b, off, (int) Math.min(len, remaining));
+			if (n > 0) {
+				remaining -= n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(Math.min(n, remaining));
+			remaining -= skipped;
+			return skipped;
+		}
+
+		/* the end of the stream or one byte too many */
+		int beyond() throws IOException {
+			if (super.read() < 0) {
+				return -1;
+			}
+			exceeded = true;
+			throw new IOException(message(max));
+		}
+	}
+
+	/**
+	 * Chunked response body whose headers are sent with the first bytes, so
+	 * that an error before that can still be reported as such.
+	 */
+	static class Response extends OutputStream {
+		final HttpExchange exchange;
+		String contentType;
+		OutputStream body;
+
+		Response(HttpExchange exchange) {
+			this.exchange = exchange;
+		}
+
+		OutputStream body() throws IOException {
+			if (body == null) {
+				exchange.getResponseHeaders().set("Content-Type", contentType);
+				exchange.sendResponseHeaders(200, 0);
+				body = exchange.getResponseBody();
+			}
+			return body;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			body().write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			body().write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			// chunks are flushed as they fill up
+		}
+
+		@Override
+		public void close() throws IOException {
+			body().close();
+		}
+
+		void error(int status, String message) throws IOException {
+			if (body != null) {
+				// too late, the client sees the response cut off
+				return;
+			}
+			byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+			exchange.sendResponseHeaders(status, bytes.length);
+			OutputStream os = exchange.getResponseBody();
+			os.write(bytes);
+			os.close();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = 8080;
+		int threads = Runtime.getRuntime().availableProcessors();
+		long maxBody = DEFAULT_MAX_BODY;
+		for (int i = 0; i < args.length; i++) {
+			if ("-port".equals(args[i]) && i + 1 < args.length) {
+				port = Integer.parseInt(args[++i]);
+			} else if ("-threads".equals(args[i]) && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			} else if ("-maxBody".equals(args[i]) && i + 1 < args.length) {
+				maxBody = Long.parseLong(args[++i]);
+			} else if ("-metrics".equals(args[i])) {
+				EXI4JSMetrics.register();
+			} else {
+				PrintStream ps = System.out;
+				ps.println("java " + EXI4JSServer.class.getName() + " [-port <port>] [-threads <n>] [-maxBody <bytes>] [-metrics]");
+				return;
+			}
+		}
+		EXI4JSServer server = new EXI4JSServer(new InetSocketAddress(port), threads);
+		server.setMaxBody(maxBody);
+		server.start();
+		System.out.println("EXI for JavaScript on http://localhost:" + server.getAddress().getPort() + ENCODE
+				+ " and " + DECODE);
+	}
+
+}
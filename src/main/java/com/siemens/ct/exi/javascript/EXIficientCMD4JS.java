@@ -23,15 +23,35 @@
 
 package com.siemens.ct.exi.javascript;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
@@ -53,7 +73,19 @@ public class EXIficientCMD4JS {
 	public static String DECODE = "-decode";
 	
 	public static final String INPUT = "-i";
+	public static final String INPUT_LIST = "-l";
 	public static final String OUTPUT = "-o";
+	public static final String THREADS = "-threads";
+	public static final String JAVASCRIPT = "-js";
+	public static final String PRETTY = "-pretty";
+	public static final String SHARED_STRINGS = "-sharedStrings";
+	/* JSConstants.SHARED_STRINGS rather than a file */
+	public static final String SHARED_STRINGS_DEFAULT = "default";
+	public static final String CONTAINER = "-container";
+	public static final String CACHE = "-cache";
+	public static final String CACHE_SIZE = "-cacheSize";
+	public static final String DEDUP = "-dedup";
+	public static final String ES2015 = "-es2015";
 
 	public static final String CODING_BYTEPACKED = "-bytePacked";
 	public static final String CODING_PRE_COMPRESSION = "-preCompression";
@@ -63,8 +95,26 @@ public class EXIficientCMD4JS {
 	boolean inputParametersOK;
 	CmdOption cmdOption;
 	String input;
+	String inputList;
 	String output;
 	String outputXML;
+	/* directory, glob or file list */
+	boolean batch;
+	int threads;
+	/* decode to JavaScript rather than to the JSON AST */
+	boolean javaScript;
+	boolean pretty;
+	/* dictionary file or SHARED_STRINGS_DEFAULT, none unless given */
+	String sharedStrings;
+	/* encode as EXI4JSContainer */
+	boolean container;
+	/* EncodingCache directory and its size in MB */
+	String cacheDirectory;
+	long cacheSize;
+	EncodingCache cache;
+	/* exi4js-es2015.xsd and ES2015Parser rather than exi4js.xsd and Nashorn */
+	boolean es2015;
+	boolean dedup;
 
 	private static void printHeader() {
 		ps.println("#########################################################################");
@@ -85,7 +135,19 @@ public class EXIficientCMD4JS {
 		ps.println();
 		ps.println();
 		ps.println(" " + INPUT + " <input-file>");
+		ps.println(" " + INPUT + " <input-directory>           /* all .js (.exi) files */");
+		ps.println(" " + INPUT + " \"<glob>\"                   /* e.g., \"dist/**.js\" */");
+		ps.println(" " + INPUT_LIST + " <file-list>               /* one input file per line */");
 //		ps.println(" " + OUTPUT + " <output-file>");
+		ps.println(" " + THREADS + " <n>                     /* batch workers, default #cores */");
+		ps.println(" " + JAVASCRIPT + "                             /* decode to JavaScript (.js) */");
+		ps.println(" " + PRETTY + "                         /* pretty printed JavaScript */");
+		ps.println(" " + SHARED_STRINGS + " <file>|" + SHARED_STRINGS_DEFAULT + " /* string table dictionary, see SharedStrings */");
+		ps.println(" " + CONTAINER + "                      /* statements indexed for random access (.e4jc) */");
+		ps.println(" " + CACHE + " <directory>              /* re-use outputs of unchanged inputs */");
+		ps.println(" " + CACHE_SIZE + " <MB>                 /* cache limit, default 512 */");
+		ps.println(" " + DEDUP + "                          /* repeated code by reference, decode alike */");
+		ps.println(" " + ES2015 + "                         /* ES2015 schema and parser, decode alike */");
 		ps.println();
 		ps.println(" " + CODING_BYTEPACKED);
 		ps.println(" " + CODING_PRE_COMPRESSION);
@@ -94,6 +156,13 @@ public class EXIficientCMD4JS {
 		ps.println("# Examples");
 		ps.println(" " + ENCODE + " " + INPUT + " sample.js");
 		ps.println(" " + DECODE + " " + INPUT + " sample.js.xml.exi");
+		ps.println(" " + DECODE + " " + JAVASCRIPT + " " + INPUT + " sample.js.exi");
+		ps.println(" " + ENCODE + " " + INPUT + " ./dist " + CODING_COMPRESSION);
+		ps.println(" " + ENCODE + " " + SHARED_STRINGS + " strings.txt " + INPUT + " sample.js");
+		ps.println(" " + ENCODE + " " + CONTAINER + " " + INPUT + " bundle.js");
+		ps.println(" " + ENCODE + " " + CACHE + " ~/.exi4js-cache " + INPUT + " ./vendor");
+		ps.println(" " + ENCODE + " " + DEDUP + " " + INPUT + " bundle.min.js");
+		ps.println(" " + ENCODE + " " + ES2015 + " " + INPUT + " app.es6.js");
 	}
 
 	protected static void printError(String msg) {
@@ -105,10 +174,24 @@ public class EXIficientCMD4JS {
 		cmdOption = null;
 
 		input = null;
+		inputList = null;
 		output = null;
+		batch = false;
+		threads = Runtime.getRuntime().availableProcessors();
+		javaScript = false;
+		pretty = false;
+		sharedStrings = null;
+		container = false;
+		cacheDirectory = null;
+		cacheSize = 512;
+		cache = null;
+		es2015 = false;
+		dedup = false;
 
 		exiFactory = JSConstants.EXI_FACTORY;
 		exiFactory.setCodingMode(CodingMode.BIT_PACKED);
+		exiFactory.setGrammars(JSConstants.EXI_FOR_JS_GRAMMARS);
+		exiFactory.setSharedStrings(null);
 		
 		int indexArgument = 0;
 		while (indexArgument < args.length) {
@@ -131,6 +214,42 @@ public class EXIficientCMD4JS {
 				indexArgument++;
 
 				input = args[indexArgument];
+			} else if (INPUT_LIST.equalsIgnoreCase(argument)) {
+				assert ((indexArgument + 1) < args.length);
+				indexArgument++;
+
+				inputList = args[indexArgument];
+			} else if (THREADS.equalsIgnoreCase(argument)) {
+				assert ((indexArgument + 1) < args.length);
+				indexArgument++;
+
+				threads = Integer.parseInt(args[indexArgument]);
+			} else if (JAVASCRIPT.equalsIgnoreCase(argument)) {
+				javaScript = true;
+			} else if (PRETTY.equalsIgnoreCase(argument)) {
+				javaScript = true;
+				pretty = true;
+			} else if (SHARED_STRINGS.equalsIgnoreCase(argument)) {
+				assert ((indexArgument + 1) < args.length);
+				indexArgument++;
+
+				sharedStrings = args[indexArgument];
+			} else if (CONTAINER.equalsIgnoreCase(argument)) {
+				container = true;
+			} else if (CACHE.equalsIgnoreCase(argument)) {
+				assert ((indexArgument + 1) < args.length);
+				indexArgument++;
+
+				cacheDirectory = args[indexArgument];
+			} else if (CACHE_SIZE.equalsIgnoreCase(argument)) {
+				assert ((indexArgument + 1) < args.length);
+				indexArgument++;
+
+				cacheSize = Long.parseLong(args[indexArgument]);
+			} else if (DEDUP.equalsIgnoreCase(argument)) {
+				dedup = true;
+			} else if (ES2015.equalsIgnoreCase(argument)) {
+				es2015 = true;
 //			} else if (OUTPUT.equalsIgnoreCase(argument)) {
 //				assert ((indexArgument + 1) < args.length);
 //				indexArgument++;
@@ -164,9 +283,17 @@ public class EXIficientCMD4JS {
 					+ DECODE);
 		}
 
-		if (input == null) {
+		if (inputList != null) {
+			batch = true;
+			if (!(new File(inputList)).isFile()) {
+				inputParametersOK = false;
+				printError("Not existing input parameter -l, \"" + inputList + "\"");
+			}
+		} else if (input == null) {
 			inputParametersOK = false;
 			printError("Missing option -i");
+		} else if (isGlob(input) || (new File(input)).isDirectory()) {
+			batch = true;
 		} else if (!(new File(input)).exists()) {
 			inputParametersOK = false;
 			printError("Not existing input parameter -i, \"" + input + "\"");
@@ -174,13 +301,50 @@ public class EXIficientCMD4JS {
 			// ok
 		}
 
+		if (threads < 1) {
+			inputParametersOK = false;
+			printError("Number of threads must be positive");
+		}
+
+		if (es2015) {
+			// with the schemaId in the header
+			exiFactory = JSConstants.factory(exiFactory, JSConstants.grammars(true, dedup));
+		} else if (dedup) {
+			exiFactory.setGrammars(JSConstants.EXI_FOR_JS_DEDUP_GRAMMARS);
+		}
+
+		if (SHARED_STRINGS_DEFAULT.equals(sharedStrings)) {
+			exiFactory.setSharedStrings(JSConstants.SHARED_STRINGS);
+		} else if (sharedStrings != null) {
+			try {
+				exiFactory.setSharedStrings(SharedStrings.load(new File(sharedStrings)));
+			} catch (IOException e) {
+				inputParametersOK = false;
+				printError("Not able to load shared strings from \"" + sharedStrings + "\"");
+			}
+		}
+
+		if (cacheDirectory != null) {
+			try {
+				cache = new EncodingCache(Paths.get(cacheDirectory), cacheSize * 1024 * 1024);
+			} catch (IOException e) {
+				inputParametersOK = false;
+				printError("Not able to use cache directory \"" + cacheDirectory + "\"");
+			}
+		}
+
+		if (batch) {
+			// output next to each input
+			return;
+		}
+
 		if (input != null && output == null) {
 			// default output
 			if (CmdOption.encode == cmdOption) {
-				output = input + ".exi";
+				output = input + encodedExtension();
 
 			} else {
-				output = input + ".jsast";
+				output = input + decodedExtension();
 			}
 		}
 
@@ -218,14 +382,26 @@ public class EXIficientCMD4JS {
 		}
 	}
 
+	String encodedExtension() {
+		return container ? ".e4jc" : ".exi";
+	}
+
+	String decodedExtension() {
+		return javaScript ? ".js" : ".jsast";
+	}
+
 	protected void decode(String input, EXIFactory exiFactory, String output)
 			throws FileNotFoundException, EXIException, IOException {
 
-		EXItoAST exi2ast = new EXItoAST(exiFactory);
-		OutputStream osAST = new FileOutputStream(output);
-		exi2ast.generate(new FileInputStream(input), osAST);
-		osAST.flush();
-		osAST.close();
+		try (InputStream is = new FileInputStream(input); OutputStream osAST = new FileOutputStream(output)) {
+			if (javaScript) {
+				new EXItoJS(exiFactory, pretty).generate(is, osAST);
+			} else {
+				EXItoAST exi2ast = new EXItoAST(exiFactory);
+				exi2ast.generate(is, osAST);
+			}
+			osAST.flush();
+		}
 	}
 
 	protected void encode(String input, EXIFactory exiFactory, String output)
@@ -233,21 +409,192 @@ public class EXIficientCMD4JS {
 			EXIException, SAXException {
 		
 		
-		String jsCode = new String(Files.readAllBytes(Paths.get(input)));
 		JStoEXI js2exi = new JStoEXI(exiFactory);
-		OutputStream os = new FileOutputStream(output);
-		String jsonAST = JStoAST.getAST(jsCode);
-		js2exi.generate(jsonAST, os);
-		os.flush();
-		os.close();
+		try (FileChannel channel = open(Paths.get(output)); OutputStream os = new ByteBufferOutput(channel)) {
+			encode(js2exi, Paths.get(input), os);
+		}
 		
 		
 
 	}
 
+	/* written through pooled direct buffers, see ByteBufferOutput */
+	static FileChannel open(Path output) throws IOException {
+		return FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE);
+	}
+
+	void encode(JStoEXI js2exi, Path input, OutputStream os) throws IOException, EXIException {
+		if (cache != null && container) {
+			cache.generateContainer(js2exi, input, os);
+		} else if (cache != null) {
+			cache.generateFromSource(js2exi, input, os);
+		} else if (container) {
+			js2exi.generateContainer(input, os);
+		} else {
+			js2exi.generateFromSource(input, os);
+		}
+	}
+
+	static boolean isGlob(String input) {
+		return input.indexOf('*') >= 0 || input.indexOf('?') >= 0 || input.indexOf('{') >= 0
+				|| input.indexOf('[') >= 0;
+	}
+
+	/**
+	 * Resolves the batch input (file list, directory or glob) to files.
+	 */
+	protected List<Path> collectInputs() throws IOException {
+		final List<Path> inputs = new ArrayList<Path>();
+		if (inputList != null) {
+			for (String line : Files.readAllLines(Paths.get(inputList), Charset.defaultCharset())) {
+				line = line.trim();
+				if (line.length() > 0 && !line.startsWith("#")) {
+					inputs.add(Paths.get(line));
+				}
+			}
+			return inputs;
+		}
+
+		final PathMatcher matcher;
+		final Path start;
+		final boolean relativize;
+		if (isGlob(input)) {
+			matcher = FileSystems.getDefault().getPathMatcher("glob:" + input);
+			// walk from the deepest directory without wildcards
+			String prefix = input.substring(0, indexOfGlob(input));
+			int sep = Math.max(prefix.lastIndexOf('/'), prefix.lastIndexOf(File.separatorChar));
+			start = Paths.get(sep < 0 ? "." : prefix.substring(0, sep + 1));
+			// "*.js" is meant relative to the working directory
+			relativize = sep < 0;
+		} else {
+			final String extension = cmdOption == CmdOption.encode ? ".js" : ".exi";
+			matcher = new PathMatcher() {
+				public boolean matches(Path path) {
+					return path.toString().endsWith(extension);
+				}
+			};
+			start = Paths.get(input);
+			relativize = false;
+		}
+
+		Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				if (attrs.isRegularFile() && matcher.matches(relativize ? start.relativize(file) : file)) {
+					inputs.add(file);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return inputs;
+	}
+
+	static int indexOfGlob(String input) {
+		for (int i = 0; i < input.length(); i++) {
+			if ("*?{[".indexOf(input.charAt(i)) >= 0) {
+				return i;
+			}
+		}
+		return input.length();
+	}
+
+	/**
+	 * Codes all batch inputs with a pool of worker threads. The EXI grammars,
+	 * the encoder sessions and the parser contexts are shared by all files.
+	 */
+	protected void batch(final EXIFactory exiFactory) throws IOException, EXIException {
+		List<Path> inputs = collectInputs();
+		final boolean encode = cmdOption == CmdOption.encode;
+		final JStoEXI js2exi = encode ? new JStoEXI(exiFactory) : null;
+		final EXItoAST exi2ast = encode || javaScript ? null : new EXItoAST(exiFactory);
+		final EXItoJS exi2js = encode || !javaScript ? null : new EXItoJS(exiFactory, pretty);
+		final String extension = encode ? encodedExtension() : decodedExtension();
+
+		final AtomicLong bytesIn = new AtomicLong();
+		final AtomicLong bytesOut = new AtomicLong();
+		final AtomicInteger failures = new AtomicInteger();
+
+		long start = System.nanoTime();
+		ExecutorService workers = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, inputs.size())));
+		try {
+			List<Future<?>> tasks = new ArrayList<Future<?>>();
+			for (final Path in : inputs) {
+				tasks.add(workers.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						File fIn = in.toFile();
+						File fOut = new File(fIn.getPath() + extension);
+						FileChannel channel = open(fOut.toPath());
+						OutputStream os = new ByteBufferOutput(channel);
+						boolean done = false;
+						try {
+							if (encode) {
+								encode(js2exi, in, os);
+							} else {
+								InputStream is = new BufferedInputStream(new FileInputStream(fIn));
+								try {
+									if (exi2js != null) {
+										exi2js.generate(is, os);
+									} else {
+										exi2ast.generate(is, os);
+									}
+								} finally {
+									is.close();
+								}
+							}
+							done = true;
+						} finally {
+							try {
+								os.close();
+							} finally {
+								channel.close();
+							}
+							if (!done) {
+								// no partial outputs
+								fOut.delete();
+							}
+						}
+						bytesIn.addAndGet(fIn.length());
+						bytesOut.addAndGet(fOut.length());
+						return null;
+					}
+				}));
+			}
+			for (int i = 0; i < tasks.size(); i++) {
+				try {
+					tasks.get(i).get();
+				} catch (ExecutionException e) {
+					failures.incrementAndGet();
+					printError(inputs.get(i) + ": " + e.getCause().getLocalizedMessage());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException(e);
+				}
+			}
+		} finally {
+			workers.shutdown();
+		}
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		int files = inputs.size() - failures.get();
+		long exiBytes = encode ? bytesOut.get() : bytesIn.get();
+		long jsBytes = encode ? bytesIn.get() : bytesOut.get();
+		ps.println((encode ? "Encoded " : "Decoded ") + files + " files (" + failures.get() + " failed) in "
+				+ String.format("%.2f", seconds) + " s with " + threads + " threads");
+		ps.println(String.format("%.1f files/s, %.2f MB/s, compression ratio %.3f (%d -> %d bytes)",
+				files / seconds, bytesIn.get() / (1024d * 1024d) / seconds,
+				jsBytes == 0 ? 0d : (double) exiBytes / jsBytes, bytesIn.get(), bytesOut.get()));
+		if (encode && cache != null) {
+			ps.println("Cache " + cache.getDirectory() + ": " + cache.getHits() + " hits, " + cache.getMisses()
+					+ " misses");
+		}
+	}
+
 	protected void process() throws EXIException, TransformerException,
 			IOException, SAXException {
-		if (inputParametersOK) {
+		if (inputParametersOK && batch) {
+			batch(exiFactory);
+		} else if (inputParametersOK) {
 			// start coding
 			switch (cmdOption) {
 			case decode:
@@ -28,28 +28,31 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.math.BigDecimal;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 
 import javax.json.Json;
-import javax.json.stream.JsonGenerator;
+import javax.json.JsonObject;
+import javax.json.stream.JsonGeneratorFactory;
 
-import com.siemens.ct.exi.core.EXIBodyDecoder;
 import com.siemens.ct.exi.core.EXIFactory;
-import com.siemens.ct.exi.core.EXIStreamDecoder;
-import com.siemens.ct.exi.core.context.QNameContext;
 import com.siemens.ct.exi.core.exceptions.EXIException;
-import com.siemens.ct.exi.core.grammars.event.EventType;
-import com.siemens.ct.exi.core.values.FloatValue;
-import com.siemens.ct.exi.core.values.IntegerValue;
-import com.siemens.ct.exi.core.values.Value;
-import com.siemens.ct.exi.core.values.ValueType;
+import com.siemens.ct.exi.javascript.AbstractDecoderSession.Recording;
 
+/**
+ * Decodes EXI4JS to the JSON AST. Instances hold no per-document state and
+ * can be shared by any number of threads; each call checks out a
+ * {@link DecoderSession} that is reset and reused by later calls.
+ */
 public class EXItoAST {
-	
-	EXIFactory ef;
+
+	static final JsonGeneratorFactory JSON_GENERATORS = Json.createGeneratorFactory(null);
+
+	final EXIFactory ef;
+	/* key of the metrics, see EXI4JSMetrics#codingMode */
+	final String codingMode;
+
+	final Pool<DecoderSession> sessions = new Pool<DecoderSession>();
 	
 	public EXItoAST() {
 		this(JSConstants.EXI_FACTORY);
@@ -64,150 +67,57 @@ public class EXItoAST {
 			// setup EXI schema/grammars
 			ef.setGrammars(JSConstants.EXI_FOR_JS_GRAMMARS);
 		}
+		this.codingMode = EXI4JSMetrics.codingMode(ef);
 	}
 	
-	public void generate(InputStream is, OutputStream os) throws IOException, EXIException {
-		EXIStreamDecoder streamDecoder = ef.createEXIStreamDecoder();
-		EXIBodyDecoder bodyDecoder = streamDecoder.decodeHeader(is);
-		
-		JsonGenerator generator = Json.createGenerator(new OutputStreamWriter(os));
-		
-		EventType eventType;
-		
-		String prevLocalName = null;
-		String prePrevLocalName = null;
-		
-		while ((eventType = bodyDecoder.next()) != null) {
-			switch (eventType) {
-			/* DOCUMENT */
-			case START_DOCUMENT:
-				bodyDecoder.decodeStartDocument();
-				break;
-			case END_DOCUMENT:
-				bodyDecoder.decodeEndDocument();
-				break;
-			case START_ELEMENT:
-			case START_ELEMENT_NS:
-			case START_ELEMENT_GENERIC:
-			case START_ELEMENT_GENERIC_UNDECLARED:
-				// defer start element and keep on processing
-				QNameContext se = bodyDecoder.decodeStartElement();
-				
-				String localName = se.getLocalName();
-				System.out.println("localName = " + localName);
-				
-				if("init".equals(localName)) {
-					System.err.println("XX");
-				}
-				
-				switch(localName) {
-				case "Program":
-				case "VariableDeclaration":
-				case "VariableDeclarator":
-					// part of array or root?
-					generator.writeStartObject();
-					generator.write("type", localName);
-					break;
-				case "Literal":
-				case "Identifier":
-				case "BinaryExpression":
-					// Do nothing, string/content comes afterwards, add type
-					generator.write("type", localName);
-					break;
-				case "string":
-				case "boolean":
-				case "integer":
-				case "number":
-				case "RegExp":
-					// TODO not sure about null
-					// Do nothing, just surrounder
-				case "kind":
-					break;
-				case "body":
-				case "declarations":
-					// Do nothing, array comes afterwards (see array)
-					break;
-				case "name":
-				case "value":
-				case "operator":
-					// Do nothing, string/content comes afterwards
-					break;
-				case "array":
-					// generator.writeStartArray();
-					generator.writeStartArray(prevLocalName);
-					break;
-				default:
-					generator.writeStartObject(localName);
-				}
-				prePrevLocalName = prevLocalName;
-				prevLocalName = localName;
-				break;
-			case END_ELEMENT:
-			case END_ELEMENT_UNDECLARED:
-				// String eeQNameAsString = bodyDecoder.getElementQNameAsString();
-				QNameContext eeQName = bodyDecoder.decodeEndElement();
-				String eelocalName = eeQName.getLocalName();
-				switch(eelocalName) {
-				case "Literal":
-				case "Identifier":
-				case "BinaryExpression":
-					//
-				case "string":
-				case "boolean":
-				case "integer":
-				case "number":
-				case "RegExp":
-					//
-				case "kind":
-					// 
-				case "body":
-				case "declarations":
-					// 
-				case "name":
-				case "value":
-				case "operator":
-					// do nothing
-					break;
-				default:
-					generator.writeEnd();	
-				}
-				break;
-			case CHARACTERS:
-			case CHARACTERS_GENERIC:
-			case CHARACTERS_GENERIC_UNDECLARED:
-				Value val = bodyDecoder.decodeCharacters();
-				
-				String vLocalName = prevLocalName;
-				switch(vLocalName) {
-				case "string":
-				case "boolean":
-				case "integer":
-				case "number":
-				case "RegExp":
-					vLocalName = prePrevLocalName;
-				}
-				
-				if(val.getValueType() == ValueType.FLOAT) {
-					FloatValue fv = (FloatValue) val;
-					generator.write(vLocalName, new BigDecimal(fv.getMantissa() + "E" + fv.getExponent()));
-				} else if(val.getValueType() == ValueType.INTEGER) {
-					IntegerValue iv = (IntegerValue) val;
-					generator.write(vLocalName, iv.intValue());
-				} else {
-					generator.write(vLocalName, val.toString());
-				}
-				break;
-			default:
-				throw new RuntimeException("Unsupported eventType " + eventType);
-				// break;
-			}
+	DecoderSession acquire() throws EXIException {
+		DecoderSession session = sessions.poll();
+		if (session == null) {
+			session = new DecoderSession(ef);
 		}
-		
-		generator.flush();
-		
-//		BufferedWriter writer = new BufferedWriter(new FileWriter(fCSS));
-//		writer.write(sb.toString());
-//		writer.close();
+		session.document.start(0);
+		return session;
+	}
+
+	/* sessions that failed are dropped rather than reused */
+	void release(DecoderSession session) {
+		session.bodyDecoder = null;
+		session.generator = null;
+		session.lazy = false;
+		session.recording = null;
+		if (session.document.active) {
+			EXI4JSMetrics.METRICS.decoded(codingMode, session.document);
+		}
+		sessions.release(session);
+	}
+
+	public void generate(InputStream is, OutputStream os) throws IOException, EXIException {
+		DecoderSession session = acquire();
+		session.handleProgram(is, session.document.output(os), JSON_GENERATORS);
+		release(session);
+	}
+
+	/**
+	 * Decodes to the JSON AST as object tree.
+	 */
+	public JsonObject decode(InputStream is) throws IOException, EXIException {
+		return decode(is, false);
+	}
+
+	/**
+	 * Decodes to the JSON AST as object tree. If <code>lazy</code> is set, the
+	 * bodies of functions are decoded on first access only, which saves most
+	 * of the time and memory for consumers of the outer structure, e.g., the
+	 * declarations of a bundle. The EXI stream is read as a whole either way.
+	 */
+	public JsonObject decode(InputStream is, boolean lazy) throws IOException, EXIException {
+		DecoderSession session = acquire();
+		JsonTreeGenerator tree = new JsonTreeGenerator();
+		session.lazy = lazy;
+		session.recording = lazy ? new Recording() : null;
+		session.handleProgram(is, tree);
+		release(session);
+		return tree.getObject();
 	}
 
 	// TODO JSON comparison https://github.com/lukas-krecan/JsonUnit
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+
+package com.siemens.ct.exi.javascript;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.exceptions.EXIException;
+
+/**
+ * Decodes EXI4JS straight to JavaScript, minified or pretty printed, without
+ * building an AST. Instances hold no per-document state and can be shared by
+ * any number of threads; each call checks out a {@link CodeGeneratorSession}
+ * that is reset and reused by later calls.
+ */
+public class EXItoJS {
+
+	final EXIFactory ef;
+
+	final boolean pretty;
+	/* key of the metrics, see EXI4JSMetrics#codingMode */
+	final String codingMode;
+
+	final Pool<CodeGeneratorSession> sessions = new Pool<CodeGeneratorSession>();
+
+	public EXItoJS() {
+		this(JSConstants.EXI_FACTORY);
+	}
+
+	public EXItoJS(EXIFactory ef) {
+		this(ef, false);
+	}
+
+	public EXItoJS(EXIFactory ef, boolean pretty) {
+		this.ef = ef;
+		this.pretty = pretty;
+
+		if (ef.getGrammars().isSchemaInformed()) {
+			// schema-informed grammars (dedicated grammars in use)
+		} else {
+			// setup EXI schema/grammars
+			ef.setGrammars(JSConstants.EXI_FOR_JS_GRAMMARS);
+		}
+		this.codingMode = EXI4JSMetrics.codingMode(ef);
+	}
+
+	CodeGeneratorSession acquire() throws EXIException {
+		CodeGeneratorSession session = sessions.poll();
+		if (session == null) {
+			session = new CodeGeneratorSession(ef, pretty);
+		}
+		session.document.start(0);
+		return session;
+	}
+
+	/* sessions that failed are dropped rather than reused */
+	void release(CodeGeneratorSession session) {
+		session.bodyDecoder = null;
+		session.out.reset(null);
+		session.recording = null;
+		if (session.document.active) {
+			EXI4JSMetrics.METRICS.decoded(codingMode, session.document);
+		}
+		sessions.release(session);
+	}
+
+	/**
+	 * Writes the JavaScript code in UTF-8.
+	 */
+	public void generate(InputStream is, OutputStream os) throws IOException, EXIException {
+		CodeGeneratorSession session = acquire();
+		session.handleProgram(is, new OutputStreamWriter(session.document.output(os), StandardCharsets.UTF_8));
+		release(session);
+	}
+
+	public void generate(InputStream is, Writer writer) throws IOException, EXIException {
+		CodeGeneratorSession session = acquire();
+		session.handleProgram(is, writer);
+		release(session);
+	}
+
+	public static void main(String[] args) throws IOException, EXIException {
+		String sin = "./src/test/resources/animals.js";
+		String jsCode = new String(Files.readAllBytes(Paths.get(sin)));
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		new JStoEXI().generateFromSource(jsCode, baos);
+
+		new EXItoJS(JSConstants.EXI_FACTORY, true).generate(new ByteArrayInputStream(baos.toByteArray()), System.out);
+	}
+
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.javascript;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+
+import javax.json.JsonArray;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.JsonValue.ValueType;
+import javax.xml.namespace.QName;
+
+import com.siemens.ct.exi.core.EXIBodyEncoder;
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.EXIStreamEncoder;
+import com.siemens.ct.exi.core.context.QNameContext;
+import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.core.values.BooleanValue;
+import com.siemens.ct.exi.javascript.NodeDescriptor.Slot;
+
+/**
+ * Encoder state of {@link JStoEXI} for one document at a time. The
+ * {@link EXIStreamEncoder} is created once and reset by every new document
+ * (<code>encodeStartDocument</code>), sessions are therefore pooled and reused
+ * but must not be used by two threads at once. Where the coding mode allows
+ * it, the body is written by an {@link InOrderBodyEncoder}.
+ *
+ * <p>
+ * JSON AST nodes are encoded by one generic walker following the
+ * {@link NodeDescriptor} of the node type.
+ * </p>
+ */
+class EncoderSession {
+
+	final EXIFactory ef;
+
+	/* null if inOrder is used, see InOrderBodyEncoder#supports */
+	final EXIStreamEncoder streamEncoder;
+	final InOrderBodyEncoder inOrder;
+
+	/* repeated subtrees by reference, see Dedup */
+	final boolean dedup;
+
+	PrintStream ps;
+
+	EXIBodyEncoder bodyEncoder;
+
+	final EXI4JSMetrics.Document document = new EXI4JSMetrics.Document();
+
+	/* where the bits go if set, see JStoEXI#setProfile */
+	EXI4JSProfile profile;
+	ProfilingBodyEncoder profiler;
+	/* of the input, 0 if not known */
+	long length;
+
+	EncoderSession(EXIFactory ef) throws EXIException {
+		this.ef = ef;
+		if (InOrderBodyEncoder.supports(ef)) {
+			this.inOrder = new InOrderBodyEncoder(ef);
+			this.streamEncoder = null;
+		} else {
+			this.inOrder = null;
+			this.streamEncoder = ef.createEXIStreamEncoder();
+		}
+		this.dedup = Dedup.isEnabled(ef.getGrammars());
+	}
+
+	/* writes the header, returns the encoder for the body */
+	EXIBodyEncoder encodeHeader(OutputStream os) throws EXIException, IOException {
+		EXIBodyEncoder encoder;
+		os = document.output(os);
+		if (profile != null) {
+			if (profiler == null) {
+				profiler = new ProfilingBodyEncoder(ef);
+			}
+			profiler.profile = profile;
+			profiler.encodeHeader(os, length);
+			encoder = profiler;
+		} else if (inOrder != null) {
+			inOrder.encodeHeader(os);
+			encoder = inOrder;
+		} else {
+			encoder = streamEncoder.encodeHeader(os);
+		}
+		return dedup ? new DedupBodyEncoder(encoder) : encoder;
+	}
+
+	void println(String s) {
+		if (ps != null) {
+			ps.println(s);
+		}
+	}
+
+	void startElement(QNameContext qnc) throws EXIException, IOException {
+		QName qname = qnc.getQName();
+		if (ps != null) {
+			ps.println("<" + qname.getLocalPart() + ">");
+		}
+		bodyEncoder.encodeStartElement(qname.getNamespaceURI(), qname.getLocalPart(), null);
+	}
+
+	void endElement() throws EXIException, IOException {
+		if (ps != null) {
+			ps.println("</>");
+		}
+		bodyEncoder.encodeEndElement();
+	}
+
+	void handleProgram(JsonObject jo, OutputStream os) throws EXIException, IOException {
+		bodyEncoder = encodeHeader(os);
+		bodyEncoder.encodeStartDocument();
+
+		if (!jo.containsKey("type")) {
+			throw new RuntimeException("No key type in Program");
+		}
+		String type = jo.getString("type");
+		if (!"Program".equals(type)) {
+			throw new RuntimeException("Unexpected type: " + type);
+		}
+		handleNode(jo, null);
+
+		bodyEncoder.encodeEndDocument();
+		bodyEncoder.flush();
+	}
+
+	void handleNode(JsonObject jo, String defaultType) throws EXIException, IOException {
+		JsonString js = jo.getJsonString("type");
+		String type = js == null ? defaultType : js.getString();
+		if (type == null) {
+			// TODO not sure why Nashorn sometimes does not report type
+			// properly!
+			throw new RuntimeException("No key type in Node");
+		}
+		NodeDescriptor nd = NodeDescriptor.get(type);
+		if (document.active) {
+			document.nodeTypes[nd.index]++;
+		}
+		startElement(nd.qname);
+
+		JsonValue block = jo.get("block");
+		if (block != null && "BlockStatement".equals(type)) {
+			// Nashorn has the body in another "block"
+			jo = (JsonObject) block;
+		}
+		int keys = jo.containsKey("type") ? 1 : 0;
+
+		Slot[] slots = nd.slots;
+		for (int i = 0; i < slots.length; i++) {
+			JsonValue jv = jo.get(slots[i].name);
+			if (jv == null) {
+				handleMissingSlot(slots[i]);
+			} else {
+				keys++;
+				handleSlot(slots[i], jv);
+			}
+		}
+		if (keys < jo.size()) {
+			checkKeys(nd, jo);
+		}
+
+		endElement();
+	}
+
+	/* properties the schema does not know would get lost */
+	void checkKeys(NodeDescriptor nd, JsonObject jo) {
+		for (String key : jo.keySet()) {
+			if (nd.indexOf(key) < 0 && !"type".equals(key) && !"loc".equals(key) && !"range".equals(key)) {
+				throw new RuntimeException("Unsupported property " + key + " in " + nd.type);
+			}
+		}
+	}
+
+	void handleMissingSlot(Slot slot) throws EXIException, IOException {
+		switch (slot.kind) {
+		case NODE_OR_NULL:
+			startElement(slot.qname);
+			handleNull();
+			endElement();
+			break;
+		case BOOLEAN:
+			startElement(slot.qname);
+			bodyEncoder.encodeCharacters(BooleanValue.BOOLEAN_VALUE_FALSE);
+			endElement();
+			break;
+		case OPTIONAL_STRING:
+			// kind seems to be optional
+			break;
+		default:
+			throw new RuntimeException("Missing property " + slot.name);
+		}
+	}
+
+	void handleSlot(Slot slot, JsonValue jv) throws EXIException, IOException {
+		startElement(slot.qname);
+
+		ValueType vt = jv.getValueType();
+		switch (slot.kind) {
+		case NODE:
+		case NODE_OR_NULL:
+			if (vt == ValueType.OBJECT) {
+				handleNode((JsonObject) jv, slot.defaultType);
+			} else if (vt == ValueType.STRING) {
+				// Identifier given by its name only (e.g., labels)
+				handleIdentifier(((JsonString) jv).getString());
+			} else if (vt == ValueType.NULL && slot.kind == NodeDescriptor.Kind.NODE_OR_NULL) {
+				handleNull();
+			} else {
+				throw new RuntimeException("Unsupported ValueType " + vt + " for " + slot.name);
+			}
+			break;
+		case ARRAY:
+		case ARRAY_OR_NULL:
+			if (vt != ValueType.ARRAY) {
+				throw new RuntimeException("Unsupported ValueType " + vt + " for " + slot.name);
+			}
+			startElement(QNames.ARRAY);
+			JsonArray ja = (JsonArray) jv;
+			for (int i = 0; i < ja.size(); i++) {
+				JsonValue item = ja.get(i);
+				if (item.getValueType() == ValueType.OBJECT) {
+					handleNode((JsonObject) item, slot.defaultType);
+				} else if (item.getValueType() == ValueType.NULL && slot.kind == NodeDescriptor.Kind.ARRAY_OR_NULL) {
+					handleNull();
+				} else {
+					throw new RuntimeException(
+							"Unexpected ValueType in " + slot.name + " array: " + item.getValueType());
+				}
+			}
+			endElement();
+			break;
+		case STRING:
+		case OPTIONAL_STRING:
+			if (vt != ValueType.STRING) {
+				throw new RuntimeException("Unsupported ValueType " + vt + " for " + slot.name);
+			}
+			characters(((JsonString) jv).getString());
+			break;
+		case BOOLEAN:
+			if (vt == ValueType.TRUE) {
+				bodyEncoder.encodeCharacters(BooleanValue.BOOLEAN_VALUE_TRUE);
+			} else if (vt == ValueType.FALSE) {
+				bodyEncoder.encodeCharacters(BooleanValue.BOOLEAN_VALUE_FALSE);
+			} else {
+				throw new RuntimeException("Unsupported ValueType " + vt + " for " + slot.name);
+			}
+			break;
+		case LITERAL:
+			handleLiteralValue(jv);
+			break;
+		}
+
+		endElement();
+	}
+
+	// value: string | boolean | null | number | RegExp;
+	void handleLiteralValue(JsonValue jv) throws EXIException, IOException {
+		switch (jv.getValueType()) {
+		case STRING:
+			startElement(QNames.STRING);
+			characters(((JsonString) jv).getString());
+			endElement();
+			break;
+		case TRUE:
+		case FALSE:
+			startElement(QNames.BOOLEAN);
+			bodyEncoder.encodeCharacters(jv.getValueType() == ValueType.TRUE ? BooleanValue.BOOLEAN_VALUE_TRUE
+					: BooleanValue.BOOLEAN_VALUE_FALSE);
+			endElement();
+			break;
+		case NUMBER:
+			BigDecimal bd = ((JsonNumber) jv).bigDecimalValue();
+			if (Numbers.isInteger(bd)) {
+				startElement(QNames.INTEGER);
+				bodyEncoder.encodeCharacters(Numbers.integerValue(bd));
+			} else {
+				startElement(QNames.NUMBER);
+				bodyEncoder.encodeCharacters(Numbers.floatValue(bd));
+			}
+			endElement();
+			break;
+		case NULL:
+			handleNull();
+			break;
+		default:
+			// TODO RegExp
+			throw new RuntimeException("Unsupported ValueType " + jv.getValueType() + " in Value");
+		}
+	}
+
+	void handleIdentifier(String name) throws EXIException, IOException {
+		if (document.active) {
+			document.nodeTypes[EXI4JSMetrics.IDENTIFIER]++;
+		}
+		startElement(QNames.IDENTIFIER);
+		startElement(QNames.NAME);
+		characters(name);
+		endElement();
+		endElement();
+	}
+
+	void handleNull() throws EXIException, IOException {
+		startElement(QNames.NULL);
+		endElement();
+	}
+
+	void characters(String s) throws EXIException, IOException {
+		println(s);
+		InOrderBodyEncoder.characters(bodyEncoder, s);
+	}
+
+}
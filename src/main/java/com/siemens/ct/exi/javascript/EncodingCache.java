@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+
+package com.siemens.ct.exi.javascript;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.exceptions.EXIException;
+
+/**
+ * Persistent cache of encoded outputs, so that unchanged inputs (e.g.,
+ * vendored libraries in every build) are neither parsed nor encoded again.
+ *
+ * <p>
+ * Entries are addressed by the SHA-256 of the source together with everything
+ * else the output depends on: the coding mode and further options of the
+ * {@link EXIFactory}, the {@link JSParser}, the schema, the shared strings and
+ * the version of this library. Entries are written to a temporary file first and moved into place
+ * atomically, hence any number of processes can share a directory. The least
+ * recently used entries (by modification time, which hits refresh) are deleted
+ * once the directory exceeds its maximum size.
+ * </p>
+ */
+public class EncodingCache {
+
+	/* changes whenever the cached outputs change */
+	static final String VERSION = "EXI4JS-cache-1";
+
+	static final String SUFFIX = ".exi";
+	static final String TEMP_SUFFIX = ".tmp";
+	/* temporary files of writers that died */
+	static final long TEMP_EXPIRY = 60 * 60 * 1000;
+
+	static final byte[] XSD_DIGEST;
+
+	static {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			for (String location : new String[] { JSConstants.XSD_LOCATION, JSConstants.ES2015_XSD_LOCATION }) {
+				InputStream isXsd = JSConstants.class.getResourceAsStream(location);
+				try {
+					byte[] buffer = new byte[8192];
+					int len;
+					while ((len = isXsd.read(buffer)) >= 0) {
+						md.update(buffer, 0, len);
+					}
+				} finally {
+					isXsd.close();
+				}
+			}
+			XSD_DIGEST = md.digest();
+		} catch (Exception e) {
+			throw new RuntimeException("Not able to read the schemas", e);
+		}
+	}
+
+	static class Entry {
+		final Path path;
+		final long lastModified;
+		final long size;
+
+		Entry(Path path, long lastModified, long size) {
+			this.path = path;
+			this.lastModified = lastModified;
+			this.size = size;
+		}
+	}
+
+	final Path directory;
+	final long maxSize;
+
+	/* size of the directory as far as known, -1 before the first scan */
+	long size = -1;
+
+	final AtomicLong hits = new AtomicLong();
+	final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param maxSize
+	 *            bytes the cache directory may occupy
+	 */
+	public EncodingCache(Path directory, long maxSize) throws IOException {
+		this.directory = Files.createDirectories(directory);
+		this.maxSize = maxSize;
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Same as {@link JStoEXI#generateFromSource(Path, OutputStream)} but
+	 * served from the cache if possible.
+	 */
+	public void generateFromSource(JStoEXI js2exi, Path jsFile, OutputStream os) throws IOException, EXIException {
+		generate(js2exi, Utf8Input.map(jsFile), jsFile, false, os);
+	}
+
+	public void generateFromSource(JStoEXI js2exi, String jsCode, OutputStream os) throws IOException, EXIException {
+		generate(js2exi, ByteBuffer.wrap(jsCode.getBytes(StandardCharsets.UTF_8)), "<unknown>", false, os);
+	}
+
+	/**
+	 * Same as {@link JStoEXI#generateContainer(Path, OutputStream)} but served
+	 * from the cache if possible.
+	 */
+	public void generateContainer(JStoEXI js2exi, Path jsFile, OutputStream os) throws IOException, EXIException {
+		generate(js2exi, Utf8Input.map(jsFile), jsFile, true, os);
+	}
+
+	void generate(JStoEXI js2exi, ByteBuffer source, Object name, boolean container, OutputStream os)
+			throws IOException, EXIException {
+		Path entry = entry(key(js2exi.ef, js2exi.parser, source.duplicate(), container));
+		if (read(entry, os)) {
+			hits.incrementAndGet();
+			return;
+		}
+		misses.incrementAndGet();
+
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		char[] jsCode = Utf8Input.decode(source, name);
+		if (container) {
+			js2exi.generateContainer(jsCode, encoded);
+		} else {
+			js2exi.generateFromSource(jsCode, encoded);
+		}
+		encoded.writeTo(os);
+		write(entry, encoded);
+	}
+
+	static String key(EXIFactory ef, JSParser parser, ByteBuffer source, boolean container) {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		StringBuilder options = new StringBuilder(VERSION);
+		options.append('\n').append(JStoEXI.class.getPackage().getImplementationVersion());
+		options.append('\n').append(container ? "container" : "document");
+		// parsers differ in what they accept and in the trees they build
+		options.append('\n').append(parser.getClass().getName());
+		options.append('\n').append(ef.getCodingMode());
+		options.append('\n').append(ef.getFidelityOptions());
+		options.append('\n').append(ef.getEncodingOptions());
+		options.append('\n').append(ef.isFragment());
+		options.append('\n').append(ef.getBlockSize());
+		options.append('\n').append(ef.getValueMaxLength());
+		options.append('\n').append(ef.getValuePartitionCapacity());
+		options.append('\n').append(ef.getGrammars().getSchemaId());
+		options.append('\n').append(Dedup.isEnabled(ef.getGrammars()));
+		options.append('\n');
+		md.update(options.toString().getBytes(StandardCharsets.UTF_8));
+		md.update(XSD_DIGEST);
+		List<String> sharedStrings = ef.getSharedStrings();
+		if (sharedStrings != null) {
+			for (String s : sharedStrings) {
+				md.update(s.getBytes(StandardCharsets.UTF_8));
+				md.update((byte) 0);
+			}
+		}
+		md.update((byte) '\n');
+		md.update(source);
+
+		StringBuilder key = new StringBuilder();
+		for (byte b : md.digest()) {
+			key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return key.toString();
+	}
+
+	/* e.g., 3f/3fa4...exi */
+	Path entry(String key) {
+		return directory.resolve(key.substring(0, 2)).resolve(key + SUFFIX);
+	}
+
+	boolean read(Path entry, OutputStream os) throws IOException {
+		InputStream is;
+		try {
+			is = Files.newInputStream(entry);
+		} catch (NoSuchFileException e) {
+			return false;
+		}
+		try {
+			// no partial output in case the entry is evicted in the meantime
+			ByteArrayOutputStream cached = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int len;
+			while ((len = is.read(buffer)) >= 0) {
+				cached.write(buffer, 0, len);
+			}
+			cached.writeTo(os);
+		} finally {
+			is.close();
+		}
+		try {
+			Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException e) {
+			// evicted by another process, no harm
+		}
+		return true;
+	}
+
+	void write(Path entry, ByteArrayOutputStream encoded) throws IOException {
+		Path parent = Files.createDirectories(entry.getParent());
+		Path temp = Files.createTempFile(parent, "entry", TEMP_SUFFIX);
+		try {
+			OutputStream os = Files.newOutputStream(temp);
+			try {
+				encoded.writeTo(os);
+			} finally {
+				os.close();
+			}
+			try {
+				Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+
+		synchronized (this) {
+			size = size < 0 ? scan(null) : size + encoded.size();
+			if (size > maxSize) {
+				evict();
+			}
+		}
+	}
+
+	/* deletes the least recently used entries down to 90% of the maximum */
+	void evict() throws IOException {
+		List<Entry> entries = new ArrayList<Entry>();
+		size = scan(entries);
+		Collections.sort(entries, new Comparator<Entry>() {
+			public int compare(Entry e1, Entry e2) {
+				return e1.lastModified < e2.lastModified ? -1 : (e1.lastModified == e2.lastModified ? 0 : 1);
+			}
+		});
+		long target = maxSize / 10 * 9;
+		for (int i = 0; i < entries.size() && size > target; i++) {
+			Entry entry = entries.get(i);
+			if (Files.deleteIfExists(entry.path)) {
+				size -= entry.size;
+			}
+		}
+	}
+
+	/* size of all entries, collected if entries is given */
+	long scan(List<Entry> entries) throws IOException {
+		long total = 0;
+		long now = System.currentTimeMillis();
+		DirectoryStream<Path> dirs = Files.newDirectoryStream(directory);
+		try {
+			for (Path dir : dirs) {
+				if (!Files.isDirectory(dir)) {
+					continue;
+				}
+				DirectoryStream<Path> files = Files.newDirectoryStream(dir);
+				try {
+					for (Path file : files) {
+						BasicFileAttributes attributes;
+						try {
+							attributes = Files.readAttributes(file, BasicFileAttributes.class);
+						} catch (NoSuchFileException e) {
+							continue;
+						}
+						String name = file.getFileName().toString();
+						if (name.endsWith(TEMP_SUFFIX)) {
+							if (now - attributes.lastModifiedTime().toMillis() > TEMP_EXPIRY) {
+								Files.deleteIfExists(file);
+							}
+						} else if (name.endsWith(SUFFIX)) {
+							total += attributes.size();
+							if (entries != null) {
+								entries.add(new Entry(file, attributes.lastModifiedTime().toMillis(), attributes.size()));
+							}
+						}
+					}
+				} finally {
+					files.close();
+				}
+			}
+		} finally {
+			dirs.close();
+		}
+		return total;
+	}
+
+}
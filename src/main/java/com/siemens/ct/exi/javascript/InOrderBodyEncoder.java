@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+
+package com.siemens.ct.exi.javascript;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import com.siemens.ct.exi.core.CodingMode;
+import com.siemens.ct.exi.core.EXIBodyEncoder;
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.FidelityOptions;
+import com.siemens.ct.exi.core.coder.EXIBodyEncoderInOrder;
+import com.siemens.ct.exi.core.context.QNameContext;
+import com.siemens.ct.exi.core.datatype.WhiteSpace;
+import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.core.grammars.event.Characters;
+import com.siemens.ct.exi.core.grammars.event.EventType;
+import com.siemens.ct.exi.core.grammars.event.StartElement;
+import com.siemens.ct.exi.core.grammars.grammar.Grammar;
+import com.siemens.ct.exi.core.grammars.production.Production;
+import com.siemens.ct.exi.core.io.channel.BitEncoderChannel;
+import com.siemens.ct.exi.core.values.StringValue;
+import com.siemens.ct.exi.core.values.Value;
+
+/**
+ * Body encoder for bit- and byte-packed streams whose steady state allocates
+ * nothing per node. It writes the same bits as the encoder EXIficient creates
+ * but
+ * <ul>
+ * <li>reuses the element context of an element name at a given depth instead
+ * of pushing a new one for every start element,</li>
+ * <li>encodes a lone string value as is where EXIficient would copy it into
+ * a new String and StringValue first just to find nothing to replace or
+ * collapse (e.g., operators), and</li>
+ * <li>takes strings by {@link #characters(EXIBodyEncoder, String)} through one
+ * mutable holder.</li>
+ * </ul>
+ * The values of a document are consumed before the next event, which is why
+ * the holder can not be handed to encoders keeping values, see
+ * {@link DedupBodyEncoder}.
+ */
+class InOrderBodyEncoder extends EXIBodyEncoderInOrder {
+
+	/* StringValue of the string most recently set */
+	static final class StringHolder extends StringValue {
+
+		StringHolder() {
+			super("");
+		}
+
+		void set(String s) {
+			sValue = s;
+			characters = null;
+		}
+
+		@Override
+		public int getCharactersLength() {
+			return sValue.length();
+		}
+
+		@Override
+		public void getCharacters(char[] cbuffer, int offset) {
+			sValue.getChars(0, sValue.length(), cbuffer, offset);
+		}
+	}
+
+	/* contexts by element name and depth */
+	final Map<QNameContext, ElementContext[]> contexts = new IdentityHashMap<QNameContext, ElementContext[]>();
+
+	final StringHolder holder = new StringHolder();
+
+	InOrderBodyEncoder(EXIFactory exiFactory) throws EXIException {
+		super(exiFactory);
+	}
+
+	/**
+	 * Whether the encoder writes what <code>exiFactory</code> would, i.e.,
+	 * in-order coding without prefixes and self-contained elements (whose
+	 * element contexts are tracked differently).
+	 */
+	static boolean supports(EXIFactory exiFactory) {
+		CodingMode cm = exiFactory.getCodingMode();
+		FidelityOptions fo = exiFactory.getFidelityOptions();
+		return (cm == CodingMode.BIT_PACKED || cm == CodingMode.BYTE_PACKED)
+				&& !fo.isFidelityEnabled(FidelityOptions.FEATURE_SC)
+				&& !fo.isFidelityEnabled(FidelityOptions.FEATURE_PREFIX);
+	}
+
+	/* writes the header, same as EXIStreamEncoder#encodeHeader */
+	void encodeHeader(OutputStream os) throws EXIException, IOException {
+		BitEncoderChannel headerChannel = new BitEncoderChannel(os);
+		exiHeader.write(headerChannel, exiFactory);
+		if (exiFactory.getCodingMode() == CodingMode.BIT_PACKED) {
+			setOutputChannel(headerChannel);
+		} else {
+			setOutputStream(os);
+		}
+	}
+
+	/**
+	 * Encodes the string without a StringValue of its own if the encoder is
+	 * an InOrderBodyEncoder.
+	 */
+	static void characters(EXIBodyEncoder encoder, String s) throws EXIException, IOException {
+		if (encoder instanceof InOrderBodyEncoder) {
+			((InOrderBodyEncoder) encoder).encodeCharacters(s);
+		} else {
+			encoder.encodeCharacters(new StringValue(s));
+		}
+	}
+
+	void encodeCharacters(String s) throws EXIException, IOException {
+		if (bChars.isEmpty()) {
+			holder.set(s);
+			encodeCharacters(holder);
+		} else {
+			// the holder is pending already
+			encodeCharacters(new StringValue(s));
+		}
+	}
+
+	@Override
+	protected void pushElement(Grammar updContextGrammar, StartElement se) {
+		updateCurrentRule(updContextGrammar);
+		if (++elementContextStackIndex == elementContextStack.length) {
+			ElementContext[] stack = new ElementContext[elementContextStack.length << 2];
+			System.arraycopy(elementContextStack, 0, stack, 0, elementContextStack.length);
+			elementContextStack = stack;
+		}
+		ElementContext ec = context(se.getQNameContext(), elementContextStackIndex);
+		elementContextStack[elementContextStackIndex] = ec;
+		updateElementContext(ec);
+		updateCurrentRule(se.getGrammar());
+	}
+
+	ElementContext context(QNameContext qnc, int depth) {
+		ElementContext[] ecs = contexts.get(qnc);
+		if (ecs == null || ecs.length <= depth) {
+			ElementContext[] grown = new ElementContext[Math.max(depth + 1, 16)];
+			if (ecs != null) {
+				System.arraycopy(ecs, 0, grown, 0, ecs.length);
+			}
+			contexts.put(qnc, ecs = grown);
+		}
+		ElementContext ec = ecs[depth];
+		if (ec == null) {
+			ec = ecs[depth] = new ElementContext(qnc, null);
+		}
+		return ec;
+	}
+
+	@Override
+	protected void checkPendingCharacters(EventType next) throws EXIException, IOException {
+		if (bChars.size() == 1 && next == EventType.END_ELEMENT && lastEvent == EventType.START_ELEMENT
+				&& !preserveLexicalValues && !isXmlSpacePreserve) {
+			Value value = bChars.get(0);
+			if (value instanceof StringValue) {
+				WhiteSpace ws = whiteSpace();
+				if (ws != WhiteSpace.preserve && (ws == null || !hasWhiteSpace(value.toString()))) {
+					// what EXIficient encodes after copying the characters,
+					// there is nothing to replace or collapse
+					bChars.clear();
+					if (value.getCharactersLength() > 0) {
+						encodeCharactersForce(value);
+					}
+					return;
+				}
+			}
+		}
+		super.checkPendingCharacters(next);
+	}
+
+	static boolean hasWhiteSpace(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/* white space handling of the characters expected next, if any */
+	WhiteSpace whiteSpace() {
+		Grammar g = getCurrentGrammar();
+		if (g.isSchemaInformed() && g.getNumberOfEvents() > 0) {
+			Production p = g.getProduction(0);
+			if (p.getEvent().getEventType() == EventType.CHARACTERS) {
+				return ((Characters) p.getEvent()).getDatatype().getWhiteSpace();
+			}
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,407 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+
+package com.siemens.ct.exi.javascript;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.json.JsonObject;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.stream.JsonParser;
+
+import com.siemens.ct.exi.core.exceptions.EXIException;
+
+/**
+ * Encodes successive versions of the same JavaScript code (e.g., while it is
+ * being edited) as {@link EXI4JSContainer}, parsing and encoding only the
+ * top-level statements that changed since the previous version. The outcome is
+ * identical to {@link JStoEXI#generateContainer(String, OutputStream)}.
+ *
+ * <p>
+ * Each top-level statement is an EXI4JS document of its own in the container,
+ * so the documents of the statements left unchanged are copied as they are.
+ * The code of the previous version is kept split into chunks of whole
+ * statements (see {@link StatementSplitter}) together with their documents.
+ * The change is found by comparing the common prefix and suffix of both
+ * versions. The chunks it touches are parsed by the {@link JSParser} of the
+ * encoder until they line up with the unchanged ones again, a chunk that does
+ * not parse on its own is joined with the next one. Whenever this goes wrong
+ * the whole code is parsed instead.
+ * </p>
+ *
+ * <p>
+ * The unit is the top-level statement: a change within a function wrapping
+ * all of the code, e.g., of UMD bundles such as react.js, costs as much as
+ * the first version.
+ * </p>
+ *
+ * <p>
+ * Instances are not safe to be used concurrently.
+ * </p>
+ */
+public class IncrementalJStoEXI {
+
+	/* in front of chunks of strict code, its statement is left out */
+	static final String STRICT_PREFIX = "'use strict';";
+
+	/* chunks joined at most before the whole code is parsed */
+	static final int MAX_JOINS = 8;
+
+	/** A top-level statement and its EXI4JS document */
+	static class Statement {
+		final byte[] document;
+		final String type;
+		final String name;
+		/* the string of a directive such as 'use strict', else null */
+		final String directive;
+
+		Statement(JsonObject statement, byte[] document) {
+			this.document = document;
+			this.type = statement.getString("type");
+			this.name = EXI4JSContainer.nameOf(statement);
+			this.directive = directiveOf(statement);
+		}
+
+		/* hoisted, i.e., reported before the other statements */
+		boolean isFunctionDeclaration() {
+			return "FunctionDeclaration".equals(type);
+		}
+	}
+
+	/** Whole statements, [start, end) of the current code */
+	static class Chunk {
+		int start;
+		int end;
+		/* whether it ends with a semicolon (rather than a brace) */
+		final boolean semicolon;
+		final List<Statement> statements;
+
+		Chunk(int start, int end, boolean semicolon, List<Statement> statements) {
+			this.start = start;
+			this.end = end;
+			this.semicolon = semicolon;
+			this.statements = statements;
+		}
+	}
+
+	final JStoEXI js2exi;
+
+	String code;
+	List<Chunk> chunks;
+	/* whether the directives of the program make it strict */
+	boolean strict;
+	/* the chunk where the directives end */
+	int prologue;
+
+	int parsedCharacters;
+	int encodedStatements;
+
+	public IncrementalJStoEXI() throws EXIException {
+		this(new JStoEXI());
+	}
+
+	public IncrementalJStoEXI(JStoEXI js2exi) {
+		this.js2exi = js2exi;
+	}
+
+	/**
+	 * Encodes the code as container, re-using the statements left unchanged
+	 * since the previous call.
+	 */
+	public void generateContainer(String jsCode, OutputStream os) throws IOException, EXIException {
+		parsedCharacters = 0;
+		encodedStatements = 0;
+		try {
+			if (chunks == null || !update(jsCode)) {
+				chunks = parse(jsCode);
+			}
+			code = jsCode;
+		} catch (RuntimeException e) {
+			reset();
+			throw e;
+		}
+		write(os);
+	}
+
+	/**
+	 * @return the number of characters the last call to
+	 *         {@link #generateContainer(String, OutputStream)} had to parse
+	 */
+	public int getParsedCharacters() {
+		return parsedCharacters;
+	}
+
+	/**
+	 * @return the number of statements the last call to
+	 *         {@link #generateContainer(String, OutputStream)} had to encode
+	 */
+	public int getEncodedStatements() {
+		return encodedStatements;
+	}
+
+	/** Forgets the previous code */
+	public void reset() {
+		code = null;
+		chunks = null;
+	}
+
+	List<Chunk> parse(String jsCode) throws IOException, EXIException {
+		strict = false;
+		prologue = 0;
+		int end = jsCode.length();
+		StatementSplitter splitter = new StatementSplitter(jsCode, 0, end);
+		List<Integer> ends = new ArrayList<Integer>();
+		List<Boolean> semicolons = new ArrayList<Boolean>();
+		int position;
+		do {
+			position = splitter.next();
+			ends.add(position);
+			semicolons.add(splitter.semicolon);
+		} while (position < end);
+
+		List<Chunk> chunks = chunks(jsCode, 0, ends, semicolons, true);
+		if (chunks == null) {
+			// reports the syntax error, if any
+			strict = false;
+			prologue = 0;
+			chunks = new ArrayList<Chunk>();
+			chunks.add(new Chunk(0, end, splitter.semicolon, statements(jsCode, false)));
+			prologue(chunks);
+		}
+		return chunks;
+	}
+
+	boolean update(String jsCode) throws IOException, EXIException {
+		int oldLength = code.length();
+		int newLength = jsCode.length();
+		int max = Math.min(oldLength, newLength);
+		int from = 0;
+		while (from < max && code.charAt(from) == jsCode.charAt(from)) {
+			from++;
+		}
+		if (from == oldLength && from == newLength) {
+			return true;
+		}
+		int suffix = 0;
+		while (suffix < max - from && code.charAt(oldLength - 1 - suffix) == jsCode.charAt(newLength - 1 - suffix)) {
+			suffix++;
+		}
+		int to = oldLength - suffix;
+		int delta = newLength - oldLength;
+
+		int lo = indexOf(chunks, from);
+		int hi = to > from ? indexOf(chunks, to - 1) : lo;
+		if (lo < 0 || hi < 0) {
+			return false;
+		}
+		// a chunk ending with a brace depends on what follows
+		while (lo > 0 && !chunks.get(lo - 1).semicolon) {
+			lo--;
+		}
+		int start = chunks.get(lo).start;
+		if (lo < prologue || lo == prologue && (isDirective(code, start) || isDirective(jsCode, start))) {
+			// strictness may change
+			return false;
+		}
+
+		// split until the chunks line up with the unchanged ones again
+		StatementSplitter splitter = new StatementSplitter(jsCode, start, newLength);
+		List<Integer> ends = new ArrayList<Integer>();
+		List<Boolean> semicolons = new ArrayList<Boolean>();
+		int k = hi + 1;
+		int position;
+		do {
+			position = splitter.next();
+			ends.add(position);
+			semicolons.add(splitter.semicolon);
+			while (k < chunks.size() && chunks.get(k).start + delta < position) {
+				k++;
+			}
+		} while (position < newLength && (k == chunks.size() || chunks.get(k).start + delta != position));
+		if (position == newLength) {
+			k = chunks.size();
+		}
+
+		List<Chunk> replacement = chunks(jsCode, start, ends, semicolons, false);
+		if (replacement == null) {
+			return false;
+		}
+		for (int i = k; i < chunks.size(); i++) {
+			Chunk chunk = chunks.get(i);
+			chunk.start += delta;
+			chunk.end += delta;
+		}
+		chunks.subList(lo, k).clear();
+		chunks.addAll(lo, replacement);
+		return true;
+	}
+
+	/*
+	 * the chunks ending at ends, a chunk that does not parse on its own is
+	 * joined with the next one; null if the last one does not parse either
+	 */
+	List<Chunk> chunks(String jsCode, int start, List<Integer> ends, List<Boolean> semicolons, boolean program)
+			throws IOException, EXIException {
+		List<Chunk> chunks = new ArrayList<Chunk>();
+		int joins = 0;
+		for (int i = 0; i < ends.size(); i++) {
+			List<Statement> statements = statements(jsCode, start, ends.get(i));
+			if (statements == null) {
+				if (++joins > MAX_JOINS) {
+					return null;
+				}
+				continue;
+			}
+			joins = 0;
+			chunks.add(new Chunk(start, ends.get(i), semicolons.get(i), statements));
+			start = ends.get(i);
+			if (program && prologue == chunks.size() - 1) {
+				prologue(chunks);
+			}
+		}
+		return joins == 0 ? chunks : null;
+	}
+
+	/* follows the directives into the last chunk, they may make the code strict */
+	void prologue(List<Chunk> chunks) {
+		for (Statement statement : chunks.get(prologue).statements) {
+			if (statement.isFunctionDeclaration()) {
+				continue;
+			}
+			if (statement.directive == null) {
+				return;
+			}
+			if ("use strict".equals(statement.directive)) {
+				strict = true;
+			}
+		}
+		prologue++;
+	}
+
+	/* the statements of [start, end), null if it fails to parse on its own */
+	List<Statement> statements(String jsCode, int start, int end) throws IOException, EXIException {
+		String text = jsCode.substring(start, end);
+		try {
+			return statements(strict ? STRICT_PREFIX + text : text, strict);
+		} catch (RuntimeException e) {
+			// not whole statements
+			return null;
+		} finally {
+			parsedCharacters += text.length();
+		}
+	}
+
+	List<Statement> statements(String text, final boolean prefixed) throws IOException, EXIException {
+		final List<Statement> statements = new ArrayList<Statement>();
+		JsonParser events = js2exi.parser.parse(text.toCharArray());
+		try {
+			EXI4JSContainer.encode(js2exi, events, new EXI4JSContainer.Statements() {
+				boolean prefix = prefixed;
+
+				@Override
+				void add(JsonObject statement, ByteArrayOutputStream document) {
+					Statement s = new Statement(statement, document.toByteArray());
+					if (prefix && !s.isFunctionDeclaration()) {
+						prefix = false;
+					} else {
+						statements.add(s);
+					}
+				}
+			});
+		} finally {
+			events.close();
+		}
+		encodedStatements += statements.size();
+		return statements;
+	}
+
+	void write(OutputStream os) throws IOException {
+		DataOutputStream out = new DataOutputStream(os);
+		EXI4JSContainer.writeHeader(out);
+		List<EXI4JSContainer.Entry> entries = new ArrayList<EXI4JSContainer.Entry>();
+		long offset = EXI4JSContainer.MAGIC.length + 1;
+		// function declarations first, as the parser reports them
+		for (int i = 0; i < 2; i++) {
+			for (Chunk chunk : chunks) {
+				for (Statement statement : chunk.statements) {
+					if (statement.isFunctionDeclaration() == (i == 0)) {
+						out.write(statement.document);
+						entries.add(new EXI4JSContainer.Entry(offset, statement.document.length, statement.type,
+								statement.name));
+						offset += statement.document.length;
+					}
+				}
+			}
+		}
+		EXI4JSContainer.writeIndex(out, entries);
+	}
+
+	/* string literals carry a "$" prefix in the JSON AST */
+	static String directiveOf(JsonObject statement) {
+		if (!"ExpressionStatement".equals(statement.getString("type"))) {
+			return null;
+		}
+		JsonObject expression = statement.getJsonObject("expression");
+		if (!"Literal".equals(expression.getString("type"))) {
+			return null;
+		}
+		JsonValue value = expression.get("value");
+		if (!(value instanceof JsonString) || !((JsonString) value).getString().startsWith("$")) {
+			return null;
+		}
+		return ((JsonString) value).getString().substring(1);
+	}
+
+	/* whether the first statement may be a directive */
+	static boolean isDirective(String jsCode, int start) {
+		StatementSplitter splitter = new StatementSplitter(jsCode, start, jsCode.length());
+		int i = splitter.skipTrivia(start);
+		return i < jsCode.length() && (jsCode.charAt(i) == '\'' || jsCode.charAt(i) == '"');
+	}
+
+	/* the chunk containing the position, the last one for the end */
+	static int indexOf(List<Chunk> chunks, int position) {
+		int lo = 0;
+		int hi = chunks.size() - 1;
+		if (hi < 0 || position < chunks.get(0).start || position > chunks.get(hi).end) {
+			return -1;
+		}
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (chunks.get(mid).start <= position) {
+				lo = mid;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return lo;
+	}
+
+}
@@ -23,13 +23,17 @@
 
 package com.siemens.ct.exi.javascript;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
 
 import com.siemens.ct.exi.core.CodingMode;
 import com.siemens.ct.exi.core.EXIFactory;
 import com.siemens.ct.exi.core.EncodingOptions;
 import com.siemens.ct.exi.core.FidelityOptions;
+import com.siemens.ct.exi.core.SchemaIdResolver;
 import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.core.exceptions.UnsupportedOption;
 import com.siemens.ct.exi.core.grammars.Grammars;
 import com.siemens.ct.exi.core.helpers.DefaultEXIFactory;
 import com.siemens.ct.exi.grammars.GrammarFactory;
@@ -37,16 +41,72 @@ import com.siemens.ct.exi.grammars.GrammarFactory;
 public class JSConstants {
 	
 	public static final String XSD_LOCATION = "/exi4js.xsd";
+	public static final String SHARED_STRINGS_LOCATION = "/exi4js-strings.txt";
+	/* exi4js.xsd plus references to repeated subtrees, see Dedup */
+	public static final String DEDUP_XSD_LOCATION = "/exi4js-dedup.xsd";
+	/*
+	 * ES2015 version of exi4js.xsd (and its dedup extension), told apart by
+	 * the schemaId in the header, see factory(EXIFactory, Grammars)
+	 */
+	public static final String ES2015_XSD_LOCATION = "/exi4js-es2015.xsd";
+	public static final String ES2015_DEDUP_XSD_LOCATION = "/exi4js-es2015-dedup.xsd";
+	public static final String ES2015_SCHEMA_ID = "exi4js-es2015-1";
+	public static final String ES2015_DEDUP_SCHEMA_ID = "exi4js-es2015-dedup-1";
 	public static Grammars EXI_FOR_JS_GRAMMARS;
+	public static Grammars EXI_FOR_JS_DEDUP_GRAMMARS;
+	public static Grammars EXI_FOR_JS_ES2015_GRAMMARS;
+	public static Grammars EXI_FOR_JS_ES2015_DEDUP_GRAMMARS;
+	/*
+	 * pre-populated string table, see SharedStrings, opt-in since decoders
+	 * without it (e.g., the C codec) get the strings wrong
+	 */
+	public static List<String> SHARED_STRINGS;
 	public static EXIFactory EXI_FACTORY;
 	public static EXIFactory EXI_FACTORY_COMPRESSION;
 	public static EXIFactory EXI_FACTORY_PRE_COMPRESSION;
 	public static EXIFactory EXI_FACTORY_BYTE_PACKED;
+	public static EXIFactory EXI_FACTORY_DEDUP;
+	public static EXIFactory EXI_FACTORY_ES2015;
+	public static EXIFactory EXI_FACTORY_ES2015_DEDUP;
+
+	/* schemaIds of the header, streams of exi4js.xsd have none */
+	static final SchemaIdResolver SCHEMA_IDS = new SchemaIdResolver() {
+		@Override
+		public Grammars resolveSchemaId(String schemaId) throws EXIException {
+			if (ES2015_SCHEMA_ID.equals(schemaId)) {
+				return EXI_FOR_JS_ES2015_GRAMMARS;
+			} else if (ES2015_DEDUP_SCHEMA_ID.equals(schemaId)) {
+				return EXI_FOR_JS_ES2015_DEDUP_GRAMMARS;
+			}
+			throw new EXIException("Unsupported EXI4JS stream, unknown schemaId " + schemaId);
+		}
+	};
+
+	/* all but INCLUDE_OPTIONS and INCLUDE_SCHEMA_ID, see factory */
+	static final String[] ENCODING_OPTIONS = { EncodingOptions.INCLUDE_COOKIE,
+			EncodingOptions.RETAIN_ENTITY_REFERENCE, EncodingOptions.INCLUDE_XSI_SCHEMALOCATION,
+			EncodingOptions.INCLUDE_INSIGNIFICANT_XSI_NIL, EncodingOptions.INCLUDE_PROFILE_VALUES,
+			EncodingOptions.UTC_TIME, EncodingOptions.CANONICAL_EXI, EncodingOptions.DEFLATE_COMPRESSION_VALUE };
 
 	static {
 		try {
 			InputStream isXsd = JSConstants.class.getResourceAsStream(JSConstants.XSD_LOCATION);
 			EXI_FOR_JS_GRAMMARS = GrammarFactory.newInstance().createGrammars(isXsd);
+			// by URL so that the include of exi4js.xsd resolves
+			EXI_FOR_JS_DEDUP_GRAMMARS = GrammarFactory.newInstance()
+					.createGrammars(JSConstants.class.getResource(JSConstants.DEDUP_XSD_LOCATION).toExternalForm());
+			EXI_FOR_JS_ES2015_GRAMMARS = GrammarFactory.newInstance()
+					.createGrammars(JSConstants.class.getResourceAsStream(JSConstants.ES2015_XSD_LOCATION));
+			EXI_FOR_JS_ES2015_GRAMMARS.setSchemaId(ES2015_SCHEMA_ID);
+			EXI_FOR_JS_ES2015_DEDUP_GRAMMARS = GrammarFactory.newInstance().createGrammars(
+					JSConstants.class.getResource(JSConstants.ES2015_DEDUP_XSD_LOCATION).toExternalForm());
+			EXI_FOR_JS_ES2015_DEDUP_GRAMMARS.setSchemaId(ES2015_DEDUP_SCHEMA_ID);
+			InputStream isStrings = JSConstants.class.getResourceAsStream(JSConstants.SHARED_STRINGS_LOCATION);
+			try {
+				SHARED_STRINGS = SharedStrings.load(isStrings);
+			} finally {
+				isStrings.close();
+			}
 			
 			EXI_FACTORY = DefaultEXIFactory.newInstance();
 			EXI_FACTORY.setFidelityOptions(FidelityOptions.createStrict());
@@ -68,11 +128,65 @@ public class JSConstants {
 			EXI_FACTORY_BYTE_PACKED.setGrammars(JSConstants.EXI_FOR_JS_GRAMMARS); // use XML schema
 			EXI_FACTORY_BYTE_PACKED.setCodingMode(CodingMode.BYTE_PACKED);
 			
+			EXI_FACTORY_DEDUP = DefaultEXIFactory.newInstance();
+			EXI_FACTORY_DEDUP.setFidelityOptions(FidelityOptions.createStrict());
+			EXI_FACTORY_DEDUP.setGrammars(JSConstants.EXI_FOR_JS_DEDUP_GRAMMARS); // repeated subtrees by reference
+			
+			for (EXIFactory ef : new EXIFactory[] { EXI_FACTORY, EXI_FACTORY_COMPRESSION, EXI_FACTORY_PRE_COMPRESSION,
+					EXI_FACTORY_BYTE_PACKED, EXI_FACTORY_DEDUP }) {
+				// streams of exi4js-es2015.xsd are recognized as such
+				ef.setSchemaIdResolver(SCHEMA_IDS);
+			}
+			
+			EXI_FACTORY_ES2015 = factory(EXI_FACTORY, EXI_FOR_JS_ES2015_GRAMMARS);
+			EXI_FACTORY_ES2015_DEDUP = factory(EXI_FACTORY, EXI_FOR_JS_ES2015_DEDUP_GRAMMARS);
+			
 		} catch (EXIException e) {
 			System.err.println("Not able to load EXI grammars from " + XSD_LOCATION);
+		} catch (IOException e) {
+			System.err.println("Not able to load shared strings from " + SHARED_STRINGS_LOCATION);
 		}
 	}
 	
 	static final String URI = "urn:javascript";
 	
+	/**
+	 * Copy of an EXI4JS factory, e.g., with another coding mode, for the
+	 * given grammars. The schemaId of those of exi4js-es2015.xsd is written
+	 * to the header, exi4js.xsd streams stay as they are.
+	 */
+	public static EXIFactory factory(EXIFactory ef, Grammars grammars) throws UnsupportedOption {
+		ef = ef.clone();
+		ef.setGrammars(grammars);
+		ef.setSchemaIdResolver(SCHEMA_IDS);
+		// the clone shares the options with the original
+		EncodingOptions options = EncodingOptions.createDefault();
+		for (String option : ENCODING_OPTIONS) {
+			Object value = ef.getEncodingOptions().getOptionValue(option);
+			if (value != null) {
+				options.setOption(option, value);
+			} else if (ef.getEncodingOptions().isOptionEnabled(option)) {
+				options.setOption(option);
+			}
+		}
+		if (isES2015(grammars)) {
+			options.setOption(EncodingOptions.INCLUDE_OPTIONS);
+			options.setOption(EncodingOptions.INCLUDE_SCHEMA_ID);
+		}
+		ef.setEncodingOptions(options);
+		return ef;
+	}
+
+	/* grammars of exi4js.xsd or exi4js-es2015.xsd, with references if dedup */
+	public static Grammars grammars(boolean es2015, boolean dedup) {
+		if (es2015) {
+			return dedup ? EXI_FOR_JS_ES2015_DEDUP_GRAMMARS : EXI_FOR_JS_ES2015_GRAMMARS;
+		}
+		return dedup ? EXI_FOR_JS_DEDUP_GRAMMARS : EXI_FOR_JS_GRAMMARS;
+	}
+
+	static boolean isES2015(Grammars grammars) {
+		return grammars == EXI_FOR_JS_ES2015_GRAMMARS || grammars == EXI_FOR_JS_ES2015_DEDUP_GRAMMARS;
+	}
+	
 }
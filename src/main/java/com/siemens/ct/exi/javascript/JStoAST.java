@@ -28,12 +28,54 @@ import java.io.IOException;
 import com.siemens.ct.exi.core.exceptions.EXIException;
 
 import jdk.nashorn.api.scripting.ScriptUtils;
+import jdk.nashorn.internal.ir.FunctionNode;
+import jdk.nashorn.internal.objects.Global;
+import jdk.nashorn.internal.parser.Parser;
 import jdk.nashorn.internal.runtime.Context;
 import jdk.nashorn.internal.runtime.ErrorManager;
+import jdk.nashorn.internal.runtime.ParserException;
+import jdk.nashorn.internal.runtime.ScriptEnvironment;
+import jdk.nashorn.internal.runtime.Source;
 import jdk.nashorn.internal.runtime.options.Options;
 
+/**
+ * Parses JavaScript code with Nashorn. All methods are safe to be called
+ * concurrently. Nashorn contexts are costly to set up and are therefore pooled
+ * and reused; each parse checks out a context for the current thread and
+ * restores the thread's previous global afterwards.
+ */
 public class JStoAST {
-	
+
+	static final Pool<ParserContext> CONTEXTS = new Pool<ParserContext>();
+
+	/**
+	 * Nashorn context and its global, in use by at most one thread at a time.
+	 */
+	static class ParserContext {
+		final Context context;
+		final Global global;
+
+		ParserContext() {
+			Options options = new Options("nashorn");
+			options.set("anon.functions", true);
+			options.set("parse.only", true);
+			options.set("scripting", true);
+
+			ErrorManager errors = new ErrorManager();
+			context = new Context(options, errors, Thread.currentThread().getContextClassLoader());
+			global = context.createGlobal();
+		}
+	}
+
+	static ParserContext acquire() {
+		ParserContext pc = CONTEXTS.poll();
+		return pc == null ? new ParserContext() : pc;
+	}
+
+	static void release(ParserContext pc) {
+		CONTEXTS.release(pc);
+	}
+
 	public static String getAST(String jsCode) throws IOException, EXIException {
 		// http://sites.psu.edu/robertbcolton/2015/07/31/java-8-nashorn-script-engine/
 		/*
@@ -59,16 +101,63 @@ public class JStoAST {
 		// "');");
 		// engine.eval("load('" + sin + "');");
 
-		Options options = new Options("nashorn");
-		options.set("anon.functions", true);
-		options.set("parse.only", true);
-		options.set("scripting", true);
-
-		ErrorManager errors = new ErrorManager();
-		Context contextm = new Context(options, errors, Thread.currentThread().getContextClassLoader());
-		Context.setGlobal(contextm.createGlobal());
-		String jsonAST = ScriptUtils.parse(jsCode, "<unknown>", false);
-		
-		return jsonAST;
+		long start = EXI4JSMetrics.METRICS.enabled ? System.nanoTime() : 0;
+		ParserContext pc = acquire();
+		Global previous = Context.getGlobal();
+		Context.setGlobal(pc.global);
+		try {
+			String jsonAST = ScriptUtils.parse(jsCode, "<unknown>", false);
+			if (start != 0) {
+				EXI4JSMetrics.METRICS.parsed(System.nanoTime() - start, jsCode.length());
+			}
+
+			return jsonAST;
+		} finally {
+			Context.setGlobal(previous);
+			release(pc);
+		}
+	}
+
+	/**
+	 * Parses the code into the Nashorn tree that {@link #getAST(String)}
+	 * serializes as JSON, see {@link JStoEXI#generateFromSource(String, java.io.OutputStream)}.
+	 */
+	static FunctionNode parse(String jsCode) {
+		return parse(jsCode.toCharArray());
+	}
+
+	/**
+	 * Parses the code in place, the parser keeps working on the given array.
+	 */
+	static FunctionNode parse(char[] jsCode) {
+		return parse(jsCode, false);
+	}
+
+	/**
+	 * Parses the code in place, in strict mode if <code>strict</code> is set
+	 * (or the environment says so).
+	 */
+	static FunctionNode parse(char[] jsCode, boolean strict) {
+		long start = EXI4JSMetrics.METRICS.enabled ? System.nanoTime() : 0;
+		ParserContext pc = acquire();
+		Global previous = Context.getGlobal();
+		Context.setGlobal(pc.global);
+		try {
+			ScriptEnvironment env = pc.context.getEnv();
+			Parser parser = new Parser(env, Source.sourceFor("<unknown>", jsCode), new Context.ThrowErrorManager(),
+					strict || env._strict, pc.context.getLogger(Parser.class));
+			FunctionNode program = parser.parse();
+			if (start != 0) {
+				EXI4JSMetrics.METRICS.parsed(System.nanoTime() - start, jsCode.length);
+			}
+			return program;
+		} catch (ParserException e) {
+			// same as ScriptUtils.parse
+			e.throwAsEcmaException();
+			return null;
+		} finally {
+			Context.setGlobal(previous);
+			release(pc);
+		}
 	}
 }
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+
+package com.siemens.ct.exi.javascript;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonBuilderFactory;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGenerationException;
+
+/**
+ * Builds the objects written to it rather than writing text, so that
+ * {@link DecoderSession} produces JSON object trees as well.
+ */
+class JsonTreeGenerator implements JsonGenerator {
+
+	static final JsonBuilderFactory BUILDERS = Json.createBuilderFactory(null);
+
+	/* JsonObjectBuilder or JsonArrayBuilder, with the names they go by */
+	final List<Object> builders = new ArrayList<Object>();
+	final List<String> names = new ArrayList<String>();
+
+	JsonObject object;
+
+	JsonObject getObject() {
+		return object;
+	}
+
+	JsonObjectBuilder object() {
+		Object builder = builders.isEmpty() ? null : builders.get(builders.size() - 1);
+		if (builder instanceof JsonObjectBuilder) {
+			return (JsonObjectBuilder) builder;
+		}
+		throw new JsonGenerationException("Not in an object");
+	}
+
+	JsonArrayBuilder array() {
+		Object builder = builders.isEmpty() ? null : builders.get(builders.size() - 1);
+		if (builder instanceof JsonArrayBuilder) {
+			return (JsonArrayBuilder) builder;
+		}
+		throw new JsonGenerationException("Not in an array");
+	}
+
+	JsonGenerator start(Object builder, String name) {
+		if (name == null && !builders.isEmpty()) {
+			array();
+		} else if (name != null) {
+			object();
+		}
+		builders.add(builder);
+		names.add(name);
+		return this;
+	}
+
+	public JsonGenerator writeStartObject() {
+		return start(BUILDERS.createObjectBuilder(), null);
+	}
+
+	public JsonGenerator writeStartObject(String name) {
+		return start(BUILDERS.createObjectBuilder(), name);
+	}
+
+	public JsonGenerator writeStartArray() {
+		return start(BUILDERS.createArrayBuilder(), null);
+	}
+
+	public JsonGenerator writeStartArray(String name) {
+		return start(BUILDERS.createArrayBuilder(), name);
+	}
+
+	public JsonGenerator writeEnd() {
+		if (builders.isEmpty()) {
+			throw new JsonGenerationException("Nothing to end");
+		}
+		Object builder = builders.remove(builders.size() - 1);
+		String name = names.remove(names.size() - 1);
+		JsonValue value = builder instanceof JsonObjectBuilder ? ((JsonObjectBuilder) builder).build()
+				: ((JsonArrayBuilder) builder).build();
+		if (builders.isEmpty()) {
+			if (!(value instanceof JsonObject)) {
+				throw new JsonGenerationException("Not an object");
+			}
+			object = (JsonObject) value;
+		} else if (name == null) {
+			array().add(value);
+		} else {
+			object().add(name, value);
+		}
+		return this;
+	}
+
+	public JsonGenerator write(String name, JsonValue value) {
+		object().add(name, value);
+		return this;
+	}
+
+	public JsonGenerator write(String name, String value) {
+		object().add(name, value);
+		return this;
+	}
+
+	public JsonGenerator write(String name, BigInteger value) {
+		object().add(name, value);
+		return this;
+	}
+
+	public JsonGenerator write(String name, BigDecimal value) {
+		object().add(name, value);
+		return this;
+	}
+
+	public JsonGenerator write(String name, int value) {
+		object().add(name, value);
+		return this;
+	}
+
+	public JsonGenerator write(String name, long value) {
+		object().add(name, value);
+		return this;
+	}
+
+	public JsonGenerator write(String name, double value) {
+		object().add(name, value);
+		return this;
+	}
+
+	public JsonGenerator write(String name, boolean value) {
+		object().add(name, value);
+		return this;
+	}
+
+	public JsonGenerator writeNull(String name) {
+		object().addNull(name);
+		return this;
+	}
+
+	public JsonGenerator write(JsonValue value) {
+		array().add(value);
+		return this;
+	}
+
+	public JsonGenerator write(String value) {
+		array().add(value);
+		return this;
+	}
+
+	public JsonGenerator write(BigDecimal value) {
+		array().add(value);
+		return this;
+	}
+
+	public JsonGenerator write(BigInteger value) {
+		array().add(value);
+		return this;
+	}
+
+	public JsonGenerator write(int value) {
+		array().add(value);
+		return this;
+	}
+
+	public JsonGenerator write(long value) {
+		array().add(value);
+		return this;
+	}
+
+	public JsonGenerator write(double value) {
+		array().add(value);
+		return this;
+	}
+
+	public JsonGenerator write(boolean value) {
+		array().add(value);
+		return this;
+	}
+
+	public JsonGenerator writeNull() {
+		array().addNull();
+		return this;
+	}
+
+	public void close() {
+	}
+
+	public void flush() {
+	}
+
+}
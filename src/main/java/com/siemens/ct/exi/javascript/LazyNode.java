@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+
+package com.siemens.ct.exi.javascript;
+
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.json.JsonArray;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+
+import com.siemens.ct.exi.javascript.AbstractDecoderSession.Recording;
+
+/**
+ * The body of a function decoded by {@link EXItoAST#decode(java.io.InputStream, boolean)}
+ * on first access. Its events have been read from the EXI stream already
+ * (EXI gives no lengths to skip by) but are kept as they are rather than as
+ * JSON objects.
+ */
+final class LazyNode extends AbstractMap<String, JsonValue> implements JsonObject {
+
+	final NodeDescriptor nd;
+	final DecoderSession.Names names;
+	final String type;
+	Recording recording;
+	final int start;
+	JsonObject node;
+
+	LazyNode(NodeDescriptor nd, DecoderSession.Names names, Recording recording, int start) {
+		this.nd = nd;
+		this.names = names;
+		this.type = nd.type;
+		this.recording = recording;
+		this.start = start;
+	}
+
+	synchronized JsonObject node() {
+		if (node == null) {
+			try {
+				node = DecoderSession.replay(nd, names, recording, start);
+			} catch (Exception e) {
+				throw new RuntimeException("Not able to decode " + type, e);
+			}
+			recording = null;
+		}
+		return node;
+	}
+
+	synchronized boolean isDecoded() {
+		return node != null;
+	}
+
+	@Override
+	public Set<Map.Entry<String, JsonValue>> entrySet() {
+		return node().entrySet();
+	}
+
+	@Override
+	public JsonValue get(Object key) {
+		return node().get(key);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return node().containsKey(key);
+	}
+
+	public JsonArray getJsonArray(String name) {
+		return node().getJsonArray(name);
+	}
+
+	public JsonObject getJsonObject(String name) {
+		return node().getJsonObject(name);
+	}
+
+	public JsonNumber getJsonNumber(String name) {
+		return node().getJsonNumber(name);
+	}
+
+	public JsonString getJsonString(String name) {
+		return node().getJsonString(name);
+	}
+
+	public String getString(String name) {
+		// known without decoding
+		return "type".equals(name) ? type : node().getString(name);
+	}
+
+	public String getString(String name, String defaultValue) {
+		return "type".equals(name) ? type : node().getString(name, defaultValue);
+	}
+
+	public int getInt(String name) {
+		return node().getInt(name);
+	}
+
+	public int getInt(String name, int defaultValue) {
+		return node().getInt(name, defaultValue);
+	}
+
+	public boolean getBoolean(String name) {
+		return node().getBoolean(name);
+	}
+
+	public boolean getBoolean(String name, boolean defaultValue) {
+		return node().getBoolean(name, defaultValue);
+	}
+
+	public boolean isNull(String name) {
+		return node().isNull(name);
+	}
+
+	public ValueType getValueType() {
+		return ValueType.OBJECT;
+	}
+
+	@Override
+	public String toString() {
+		return node().toString();
+	}
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+
+package com.siemens.ct.exi.javascript;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import javax.json.Json;
+import javax.json.stream.JsonParser;
+
+import com.siemens.ct.exi.core.exceptions.EXIException;
+
+/**
+ * {@link JSParser} backed by Nashorn (ES5, JDK 8 to 14). {@link JStoEXI}
+ * encodes straight from Nashorn's tree when it is given this parser, as it
+ * did before the parser could be chosen.
+ */
+public class NashornParser implements JSParser {
+
+	/* false on JDK 15 and later */
+	static final boolean AVAILABLE = available();
+
+	static boolean available() {
+		try {
+			Class.forName("jdk.nashorn.internal.parser.Parser");
+			return true;
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+
+	@Override
+	public JsonParser parse(char[] jsCode) {
+		try {
+			return Json.createParser(new StringReader(JStoAST.getAST(new String(jsCode))));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} catch (EXIException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+}
@@ -0,0 +1,676 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package com.siemens.ct.exi.javascript;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+import com.siemens.ct.exi.core.EXIBodyEncoder;
+import com.siemens.ct.exi.core.context.QNameContext;
+import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.core.values.BooleanValue;
+import com.siemens.ct.exi.core.values.Value;
+
+import jdk.nashorn.internal.ir.AccessNode;
+import jdk.nashorn.internal.ir.BinaryNode;
+import jdk.nashorn.internal.ir.Block;
+import jdk.nashorn.internal.ir.BlockStatement;
+import jdk.nashorn.internal.ir.BreakNode;
+import jdk.nashorn.internal.ir.CallNode;
+import jdk.nashorn.internal.ir.CaseNode;
+import jdk.nashorn.internal.ir.CatchNode;
+import jdk.nashorn.internal.ir.ContinueNode;
+import jdk.nashorn.internal.ir.EmptyNode;
+import jdk.nashorn.internal.ir.Expression;
+import jdk.nashorn.internal.ir.ExpressionStatement;
+import jdk.nashorn.internal.ir.ForNode;
+import jdk.nashorn.internal.ir.FunctionNode;
+import jdk.nashorn.internal.ir.IdentNode;
+import jdk.nashorn.internal.ir.IfNode;
+import jdk.nashorn.internal.ir.IndexNode;
+import jdk.nashorn.internal.ir.JoinPredecessorExpression;
+import jdk.nashorn.internal.ir.LabelNode;
+import jdk.nashorn.internal.ir.LiteralNode;
+import jdk.nashorn.internal.ir.LiteralNode.ArrayLiteralNode;
+import jdk.nashorn.internal.ir.Node;
+import jdk.nashorn.internal.ir.ObjectNode;
+import jdk.nashorn.internal.ir.PropertyNode;
+import jdk.nashorn.internal.ir.ReturnNode;
+import jdk.nashorn.internal.ir.RuntimeNode;
+import jdk.nashorn.internal.ir.SwitchNode;
+import jdk.nashorn.internal.ir.TernaryNode;
+import jdk.nashorn.internal.ir.ThrowNode;
+import jdk.nashorn.internal.ir.TryNode;
+import jdk.nashorn.internal.ir.UnaryNode;
+import jdk.nashorn.internal.ir.VarNode;
+import jdk.nashorn.internal.ir.WhileNode;
+import jdk.nashorn.internal.ir.WithNode;
+import jdk.nashorn.internal.ir.visitor.SimpleNodeVisitor;
+import jdk.nashorn.internal.parser.Lexer.RegexToken;
+import jdk.nashorn.internal.parser.TokenType;
+
+/**
+ * Encodes the Nashorn parser tree (see {@link JStoAST#parse(String)}) without
+ * writing and re-reading the JSON AST in-between.
+ *
+ * <p>
+ * Nodes are mapped the same way <code>jdk.nashorn.internal.ir.debug.JSONWriter</code>
+ * does (including its quirks such as the "$" prefix of string literals) so
+ * that the outcome is identical to {@link JStoEXI#generate(String, java.io.OutputStream)}
+ * for the JSON AST of the same code. Properties are encoded in the order
+ * mandated by exi4js.xsd.
+ * </p>
+ */
+class NashornToEXI extends SimpleNodeVisitor {
+
+	/* carries checked exceptions through the visitor methods */
+	static class EncodingException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		EncodingException(Exception cause) {
+			super(cause);
+		}
+	}
+
+	final EXIBodyEncoder bodyEncoder;
+
+	/* encoded nodes by NodeDescriptor#index, null unless metrics are enabled */
+	int[] nodeTypes;
+
+	NashornToEXI(EXIBodyEncoder bodyEncoder) {
+		this.bodyEncoder = bodyEncoder;
+	}
+
+	void encode(FunctionNode program) throws EXIException, IOException {
+		try {
+			bodyEncoder.encodeStartDocument();
+			startElement(QNames.PROGRAM);
+			startElement(QNames.BODY);
+			statements(program.getBody().getStatements());
+			endElement();
+			endElement();
+			bodyEncoder.encodeEndDocument();
+			bodyEncoder.flush();
+		} catch (EncodingException e) {
+			if (e.getCause() instanceof EXIException) {
+				throw (EXIException) e.getCause();
+			}
+			throw (IOException) e.getCause();
+		}
+	}
+
+	void startElement(QNameContext qnc) {
+		QName qname = qnc.getQName();
+		if (nodeTypes != null) {
+			NodeDescriptor nd = NodeDescriptor.NODES.get(qname.getLocalPart());
+			if (nd != null) {
+				nodeTypes[nd.index]++;
+			}
+		}
+		try {
+			bodyEncoder.encodeStartElement(qname.getNamespaceURI(), qname.getLocalPart(), null);
+		} catch (EXIException e) {
+			throw new EncodingException(e);
+		} catch (IOException e) {
+			throw new EncodingException(e);
+		}
+	}
+
+	void endElement() {
+		try {
+			bodyEncoder.encodeEndElement();
+		} catch (EXIException e) {
+			throw new EncodingException(e);
+		} catch (IOException e) {
+			throw new EncodingException(e);
+		}
+	}
+
+	void characters(Value value) {
+		try {
+			bodyEncoder.encodeCharacters(value);
+		} catch (EXIException e) {
+			throw new EncodingException(e);
+		} catch (IOException e) {
+			throw new EncodingException(e);
+		}
+	}
+
+	void characters(String s) {
+		try {
+			InOrderBodyEncoder.characters(bodyEncoder, s);
+		} catch (EXIException e) {
+			throw new EncodingException(e);
+		} catch (IOException e) {
+			throw new EncodingException(e);
+		}
+	}
+
+	/* <name>value</name> */
+	void property(QNameContext name, String value) {
+		startElement(name);
+		characters(value);
+		endElement();
+	}
+
+	void property(QNameContext name, boolean value) {
+		startElement(name);
+		characters(value ? BooleanValue.BOOLEAN_VALUE_TRUE : BooleanValue.BOOLEAN_VALUE_FALSE);
+		endElement();
+	}
+
+	/* <name>node | null</name> */
+	void property(QNameContext name, Node node) {
+		startElement(name);
+		nodeOrNull(node);
+		endElement();
+	}
+
+	void nodeOrNull(Node node) {
+		if (node instanceof JoinPredecessorExpression) {
+			node = ((JoinPredecessorExpression) node).getExpression();
+		}
+		if (node == null) {
+			startElement(QNames.NULL);
+			endElement();
+		} else {
+			node.accept(this);
+		}
+	}
+
+	/* <name><array>nodes</array></name> */
+	void array(QNameContext name, List<? extends Node> nodes) {
+		startElement(name);
+		statements(nodes);
+		endElement();
+	}
+
+	void statements(List<? extends Node> nodes) {
+		startElement(QNames.ARRAY);
+		for (int i = 0; i < nodes.size(); i++) {
+			nodeOrNull(nodes.get(i));
+		}
+		endElement();
+	}
+
+	/* e.g., labels are given by name only */
+	void identifier(String name) {
+		startElement(QNames.IDENTIFIER);
+		property(QNames.NAME, name);
+		endElement();
+	}
+
+	@Override
+	protected boolean enterDefault(Node node) {
+		throw new RuntimeException("Unsupported node " + node.getClass().getSimpleName() + "!");
+	}
+
+	@Override
+	public boolean enterAccessNode(AccessNode accessNode) {
+		startElement(QNames.MEMBER_EXPRESSION);
+		property(QNames.OBJECT, accessNode.getBase());
+		startElement(QNames.MEMBER_PROPERTY);
+		identifier(accessNode.getProperty());
+		endElement();
+		property(QNames.COMPUTED, false);
+		endElement();
+		return false;
+	}
+
+	@Override
+	public boolean enterBlock(Block block) {
+		startElement(QNames.BLOCK_STATEMENT);
+		array(QNames.BODY, block.getStatements());
+		endElement();
+		return false;
+	}
+
+	@Override
+	public boolean enterBlockStatement(BlockStatement blockStatement) {
+		return enterBlock(blockStatement.getBlock());
+	}
+
+	@Override
+	public boolean enterBinaryNode(BinaryNode binaryNode) {
+		if (binaryNode.isAssignment()) {
+			startElement(QNames.ASSIGNMENT_EXPRESSION);
+		} else if (binaryNode.isLogical()) {
+			startElement(QNames.LOGICAL_EXPRESSION);
+		} else {
+			startElement(QNames.BINARY_EXPRESSION);
+		}
+		property(QNames.OPERATOR, binaryNode.tokenType().getName());
+		property(QNames.LEFT, binaryNode.lhs());
+		property(QNames.RIGHT, binaryNode.rhs());
+		endElement();
+		return false;
+	}
+
+	@Override
+	public boolean enterBreakNode(BreakNode breakNode) {
+		startElement(QNames.BREAK_STATEMENT);
+		label(breakNode.getLabelName());
+		endElement();
+		return false;
+	}
+
+	@Override
+	public boolean enterContinueNode(ContinueNode continueNode) {
+		startElement(QNames.CONTINUE_STATEMENT);
+		label(continueNode.getLabelName());
+		endElement();
+		return false;
+	}
+
+	void label(String labelName) {
+		startElement(QNames.LABEL);
+		if (labelName == null) {
+			nodeOrNull(null);
+		} else {
+			identifier(labelName);
+		}
+		endElement();
+	}
+
+	@Override
+	public boolean enterCallNode(CallNode callNode) {
+		startElement(QNames.CALL_EXPRESSION);
+		property(QNames.CALLEE, callNode.getFunction());
+		array(QNames.ARGUMENTS, callNode.getArgs());
+		endElement();
+		return false;
+	}
+
+	@Override
+	public boolean enterCaseNode(CaseNode caseNode) {
+		startElement(QNames.SWITCH_CASE);
+		property(QNames.TEST, caseNode.getTest());
+		array(QNames.CONSEQUENT, caseNode.getBody().getStatements());
+		endElement();
+		return false;
+	}
+
+	@Override
+	public boolean enterCatchNode(CatchNode catchNode) {
+		startElement(QNames.CATCH_CLAUSE);
+		property(QNames.PARAM, catchNode.getException());
+		property(QNames.GUARD, catchNode.getExceptionCondition());
+		property(QNames.BODY, catchNode.getBody());
+		endElement();
+		return false;
+	}
+
+	@Override
+	public boolean enterEmptyNode(EmptyNode emptyNode) {
+		startElement(QNames.EMPTY_STATEMENT);
+		endElement();
+		return false;
+	}
+
+	@Override
+	public boolean enterExpressionStatement(ExpressionStatement expressionStatement) {
+		Expression expression = expressionStatement.getExpression();
+		if (expression instanceof RuntimeNode) {
+			// debugger
+			expression.accept(this);
+		} else {
+			startElement(QNames.EXPRESSION_STATEMENT);
+			property(QNames.EXPRESSION, expression);
+			endElement();
+		}
+		return false;
+	}
+
+	@Override
+	public boolean enterForNode(ForNode forNode) {
+		if (forNode.isForIn() || (forNode.isForEach() && forNode.getInit() != null)) {
+			startElement(QNames.FOR_IN_STATEMENT);
+			property(QNames.LEFT, forNode.getInit());
+			property(QNames.RIGHT, forNode.getModify());
+			property(QNames.BODY, forNode.getBody());
+			property(QNames.EACH, forNode.isForEach());
+		} else {
+			startElement(QNames.FOR_STATEMENT);
+			property(QNames.INIT, forNode.getInit());
+			property(QNames.TEST, forNode.getTest());
+			property(QNames.UPDATE, forNode.getModify());
+			property(QNames.BODY, forNode.getBody());
+		}
+		endElement();
+		return false;
+	}
+
+	@Override
+	public boolean enterFunctionNode(FunctionNode functionNode) {
+		startElement(functionNode.isDeclared() ? QNames.FUNCTION_DECLARATION : QNames.FUNCTION_EXPRESSION);
+		FunctionNode.Kind kind = functionNode.getKind();
+		if (functionNode.isAnonymous() || kind == FunctionNode.Kind.GETTER || kind == FunctionNode.Kind.SETTER) {
+			property(QNames.ID, (Node) null);
+		} else {
+			property(QNames.ID, functionNode.getIdent());
+		}
+		array(QNames.PARAMS, functionNode.getParameters());
+		array(QNames.DEFAULTS, Collections.<Node> emptyList());
+		property(QNames.REST, (Node) null);
+		property(QNames.BODY, functionNode.getBody());
+		property(QNames.GENERATOR, false);
+		property(QNames.EXPRESSION, false);
+		endElement();
+		return false;
+	}
+
+	@Override
+	public boolean enterIdentNode(IdentNode identNode) {
+		if ("this".equals(identNode.getName())) {
+			startElement(QNames.THIS_EXPRESSION);
+			endElement();
+		} else {
+			identifier(identNode.getName());
+		}
+		return false;
+	}
+
+	@Override
+	public boolean enterIfNode(IfNode ifNode) {
+		startElement(QNames.IF_STATEMENT);
+		property(QNames.TEST, ifNode.getTest());
+		property(QNames.CONSEQUENT, ifNode.getPass());
+		property(QNames.ALTERNATE, ifNode.getFail());
+		endElement();
+		return false;
+	}
+
+	@Override
+	public boolean enterIndexNode(IndexNode indexNode) {
+		startElement(QNames.MEMBER_EXPRESSION);
+		property(QNames.OBJECT, indexNode.getBase());
+		property(QNames.MEMBER_PROPERTY, indexNode.getIndex());
+		property(QNames.COMPUTED, true);
+		endElement();
+		return false;
+	}
+
+	@Override
+	public boolean enterJoinPredecessorExpression(JoinPredecessorExpression expr) {
+		nodeOrNull(expr.getExpression());
+		return false;
+	}
+
+	@Override
+	public boolean enterLabelNode(LabelNode labelNode) {
+		startElement(QNames.LABELED_STATEMENT);
+		startElement(QNames.LABEL);
+		identifier(labelNode.getLabelName());
+		endElement();
+		property(QNames.BODY, labelNode.getBody());
+		endElement();
+		return false;
+	}
+
+	@Override
+	public boolean enterLiteralNode(LiteralNode<?> literalNode) {
+		if (literalNode instanceof ArrayLiteralNode) {
+			startElement(QNames.ARRAY_EXPRESSION);
+			array(QNames.ELEMENTS, ((ArrayLiteralNode) literalNode).getElementExpressions());
+			endElement();
+			return false;
+		}
+
+		startElement(QNames.LITERAL);
+		startElement(QNames.VALUE);
+		Object value = literalNode.getValue();
+		if (value instanceof RegexToken) {
+			RegexToken regex = (RegexToken) value;
+			property(QNames.STRING, "/" + regex.getExpression() + "/" + regex.getOptions());
+		} else if (literalNode.isString()) {
+			// JSONWriter marks string literals
+			property(QNames.STRING, "$" + literalNode.getString());
+		} else if (value instanceof Boolean) {
+			property(QNames.BOOLEAN, ((Boolean) value).booleanValue());
+		} else if (value == null) {
+			startElement(QNames.NULL);
+			endElement();
+		} else if (value instanceof Integer) {
+			startElement(QNames.INTEGER);
+			characters(Numbers.integerValue(((Integer) value).intValue()));
+			endElement();
+		} else if (value instanceof Number) {
+			// same textual representation the JSON AST carries
+			BigDecimal bd = Numbers.toBigDecimal(literalNode.getString());
+			if (Numbers.isInteger(bd)) {
+				startElement(QNames.INTEGER);
+				characters(Numbers.integerValue(bd));
+			} else {
+				startElement(QNames.NUMBER);
+				characters(Numbers.floatValue(bd));
+			}
+			endElement();
+		} else {
+			throw new RuntimeException("Unsupported literal " + value + " in Value");
+		}
+		endElement();
+		endElement();
+		return false;
+	}
+
+	@Override
+	public boolean enterObjectNode(ObjectNode objectNode) {
+		startElement(QNames.OBJECT_EXPRESSION);
+		startElement(QNames.PROPERTIES);
+		startElement(QNames.ARRAY);
+		List<PropertyNode> elements = objectNode.getElements();
+		for (int i = 0; i < elements.size(); i++) {
+			PropertyNode propertyNode = elements.get(i);
+			// accessor pairs result in two properties
+			if (propertyNode.getValue() != null) {
+				property(propertyNode.getKey(), propertyNode.getValue(), "init");
+			}
+			if (propertyNode.getGetter() != null) {
+				property(propertyNode.getKey(), propertyNode.getGetter(), "get");
+			}
+			if (propertyNode.getSetter() != null) {
+				property(propertyNode.getKey(), propertyNode.getSetter(), "set");
+			}
+		}
+		endElement();
+		endElement();
+		endElement();
+		return false;
+	}
+
+	void property(Node key, Node value, String kind) {
+		startElement(QNames.PROPERTY);
+		property(QNames.KEY, key);
+		property(QNames.VALUE, value);
+		property(QNames.KIND, kind);
+		endElement();
+	}
+
+	@Override
+	public boolean enterReturnNode(ReturnNode returnNode) {
+		startElement(QNames.RETURN_STATEMENT);
+		property(QNames.ARGUMENT, returnNode.getExpression());
+		endElement();
+		return false;
+	}
+
+	@Override
+	public boolean enterRuntimeNode(RuntimeNode runtimeNode) {
+		if (runtimeNode.getRequest() != RuntimeNode.Request.DEBUGGER) {
+			return enterDefault(runtimeNode);
+		}
+		startElement(QNames.DEBUGGER_STATEMENT);
+		endElement();
+		return false;
+	}
+
+	@Override
+	public boolean enterSwitchNode(SwitchNode switchNode) {
+		startElement(QNames.SWITCH_STATEMENT);
+		property(QNames.DISCRIMINANT, switchNode.getExpression());
+		array(QNames.CASES, switchNode.getCases());
+		property(QNames.LEXICAL, false);
+		endElement();
+		return false;
+	}
+
+	@Override
+	public boolean enterTernaryNode(TernaryNode ternaryNode) {
+		startElement(QNames.CONDITIONAL_EXPRESSION);
+		property(QNames.TEST, ternaryNode.getTest());
+		property(QNames.ALTERNATE, ternaryNode.getFalseExpression());
+		property(QNames.CONSEQUENT, ternaryNode.getTrueExpression());
+		endElement();
+		return false;
+	}
+
+	@Override
+	public boolean enterThrowNode(ThrowNode throwNode) {
+		startElement(QNames.THROW_STATEMENT);
+		property(QNames.ARGUMENT, throwNode.getExpression());
+		endElement();
+		return false;
+	}
+
+	@Override
+	public boolean enterTryNode(TryNode tryNode) {
+		CatchNode handler = null;
+		List<CatchNode> guardedHandlers = new ArrayList<CatchNode>();
+		for (CatchNode catchNode : tryNode.getCatches()) {
+			if (catchNode.getExceptionCondition() != null) {
+				guardedHandlers.add(catchNode);
+			} else {
+				handler = catchNode;
+			}
+		}
+
+		startElement(QNames.TRY_STATEMENT);
+		property(QNames.BLOCK, tryNode.getBody());
+		property(QNames.HANDLER, handler);
+		array(QNames.GUARDED_HANDLERS, guardedHandlers);
+		property(QNames.FINALIZER, tryNode.getFinallyBody());
+		endElement();
+		return false;
+	}
+
+	@Override
+	public boolean enterUnaryNode(UnaryNode unaryNode) {
+		TokenType tokenType = unaryNode.tokenType();
+		if (tokenType == TokenType.NEW) {
+			CallNode callNode = (CallNode) unaryNode.getExpression();
+			startElement(QNames.NEW_EXPRESSION);
+			property(QNames.CALLEE, callNode.getFunction());
+			array(QNames.ARGUMENTS, callNode.getArgs());
+			endElement();
+			return false;
+		}
+
+		String operator;
+		boolean prefix;
+		switch (tokenType) {
+		case INCPOSTFIX:
+			operator = "++";
+			prefix = false;
+			break;
+		case DECPOSTFIX:
+			operator = "--";
+			prefix = false;
+			break;
+		case INCPREFIX:
+			operator = "++";
+			prefix = true;
+			break;
+		case DECPREFIX:
+			operator = "--";
+			prefix = true;
+			break;
+		default:
+			operator = tokenType.getName();
+			prefix = true;
+			break;
+		}
+
+		if (unaryNode.isAssignment()) {
+			startElement(QNames.UPDATE_EXPRESSION);
+			property(QNames.OPERATOR, operator);
+			property(QNames.ARGUMENT, unaryNode.getExpression());
+			property(QNames.PREFIX, prefix);
+		} else {
+			startElement(QNames.UNARY_EXPRESSION);
+			property(QNames.OPERATOR, operator);
+			property(QNames.PREFIX, prefix);
+			property(QNames.ARGUMENT, unaryNode.getExpression());
+		}
+		endElement();
+		return false;
+	}
+
+	@Override
+	public boolean enterVarNode(VarNode varNode) {
+		Expression init = varNode.getInit();
+		if (init instanceof FunctionNode && ((FunctionNode) init).isDeclared()) {
+			init.accept(this);
+			return false;
+		}
+
+		startElement(QNames.VARIABLE_DECLARATION);
+		startElement(QNames.DECLARATIONS);
+		startElement(QNames.ARRAY);
+		startElement(QNames.VARIABLE_DECLARATOR);
+		property(QNames.ID, varNode.getName());
+		property(QNames.INIT, init);
+		endElement();
+		endElement();
+		endElement();
+		endElement();
+		return false;
+	}
+
+	@Override
+	public boolean enterWhileNode(WhileNode whileNode) {
+		if (whileNode.isDoWhile()) {
+			startElement(QNames.DO_WHILE_STATEMENT);
+			property(QNames.BODY, whileNode.getBody());
+			property(QNames.TEST, whileNode.getTest());
+		} else {
+			startElement(QNames.WHILE_STATEMENT);
+			property(QNames.TEST, whileNode.getTest());
+			property(QNames.BODY, whileNode.getBody());
+		}
+		endElement();
+		return false;
+	}
+
+	@Override
+	public boolean enterWithNode(WithNode withNode) {
+		// exi4js.xsd has no properties for it
+		throw new RuntimeException("Unsupported type WithStatement!");
+	}
+
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.javascript;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.siemens.ct.exi.core.context.QNameContext;
+
+/**
+ * Shape of an ESTree node as described by exi4js-es2015.xsd: its properties
+ * in schema order and what kind of value each of them holds. The table is
+ * derived from the schema once and drives the generic encoders, so that a
+ * node type added to the schema needs no further code. The nodes of
+ * exi4js.xsd have the same shape there, those it leaves empty (e.g.,
+ * ArrowExpression) or lacks are refused by its grammars.
+ */
+class NodeDescriptor {
+
+	enum Kind {
+		/* Expression, Statement et cetera */
+		NODE,
+		/* NODE or null */
+		NODE_OR_NULL,
+		/* [ NODE ] */
+		ARRAY,
+		/* [ NODE | null ] */
+		ARRAY_OR_NULL,
+		/* operator, kind et cetera */
+		STRING,
+		/* STRING that may not be present at all */
+		OPTIONAL_STRING,
+		/* boolean, false if not present */
+		BOOLEAN,
+		/* string | boolean | null | number */
+		LITERAL
+	}
+
+	static class Slot {
+		final String name;
+		/* pre-resolved element, see QNames */
+		final QNameContext qname;
+		final Kind kind;
+		/* type to assume for array items that do not report one */
+		final String defaultType;
+		/* Nashorn may omit the property altogether */
+		final boolean omittable;
+		/* any Statement, respectively Expression, may stand here, see Dedup */
+		boolean statements;
+		boolean expressions;
+		/* body of a function, see LazyNode */
+		boolean lazy;
+
+		Slot(String name, Kind kind, String defaultType, boolean omittable) {
+			this.name = name;
+			this.qname = QNames.get(name);
+			this.kind = kind;
+			this.defaultType = defaultType;
+			this.omittable = omittable;
+		}
+
+		boolean accepts(NodeDescriptor nd) {
+			return nd.group == STATEMENT ? statements : nd.group == EXPRESSION && expressions;
+		}
+	}
+
+	/* properties Nashorn leaves out of its JSON AST, see Slot.omittable */
+	static final Set<String> OMITTABLE = new HashSet<String>(
+			Arrays.asList("CatchClause.guard", "SwitchStatement.lexical", "VariableDeclaration.kind"));
+
+	/* nodes whose body may be decoded on demand, see Slot.lazy */
+	static final Set<String> FUNCTIONS = new HashSet<String>(
+			Arrays.asList("FunctionDeclaration", "FunctionExpression", "ArrowExpression"));
+
+	/* abstract heads of the substitution groups */
+	static final String STATEMENT = "Statement";
+	static final String EXPRESSION = "Expression";
+
+	static final String XSD_NS = "http://www.w3.org/2001/XMLSchema";
+
+	static final Map<String, NodeDescriptor> NODES;
+
+	/* node types in alphabetical order, see NodeDescriptor#index */
+	static final String[] TYPES;
+
+	static {
+		try {
+			InputStream isXsd = NodeDescriptor.class.getResourceAsStream(JSConstants.ES2015_XSD_LOCATION);
+			try {
+				DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+				dbf.setNamespaceAware(true);
+				NODES = Collections.unmodifiableMap(build(dbf.newDocumentBuilder().parse(isXsd)));
+				TYPES = NODES.keySet().toArray(new String[NODES.size()]);
+				Arrays.sort(TYPES);
+				for (int i = 0; i < TYPES.length; i++) {
+					NODES.get(TYPES[i]).index = i;
+				}
+			} finally {
+				isXsd.close();
+			}
+		} catch (Exception e) {
+			throw new RuntimeException("Not able to derive node descriptors from " + JSConstants.ES2015_XSD_LOCATION, e);
+		}
+	}
+
+	final String type;
+	final QNameContext qname;
+	/* STATEMENT, EXPRESSION or null for nodes of neither group */
+	final String group;
+	final Slot[] slots;
+	/* position in TYPES, e.g., for counters */
+	int index;
+
+	NodeDescriptor(String type, String group, Slot[] slots) {
+		this.type = type;
+		this.qname = QNames.get(type);
+		this.group = group;
+		this.slots = slots;
+	}
+
+	static NodeDescriptor get(String type) {
+		NodeDescriptor nd = NODES.get(type);
+		if (nd == null) {
+			throw new RuntimeException("Unsupported type " + type + "!");
+		}
+		return nd;
+	}
+
+	int indexOf(String name) {
+		for (int i = 0; i < slots.length; i++) {
+			if (slots[i].name.equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	static Map<String, NodeDescriptor> build(Document xsd) {
+		Map<String, Element> elements = new HashMap<String, Element>();
+		Map<String, Element> types = new HashMap<String, Element>();
+		for (Element e : children(xsd.getDocumentElement())) {
+			if ("element".equals(e.getLocalName())) {
+				elements.put(e.getAttribute("name"), e);
+			} else if ("complexType".equals(e.getLocalName())) {
+				types.put(e.getAttribute("name"), e);
+			}
+		}
+
+		Map<String, NodeDescriptor> nodes = new HashMap<String, NodeDescriptor>();
+		for (Element e : elements.values()) {
+			if ("true".equals(e.getAttribute("abstract"))) {
+				continue;
+			}
+			String type = e.getAttribute("name");
+			List<Element> properties = new ArrayList<Element>();
+			Element ct = child(e, "complexType");
+			if (ct == null && e.hasAttribute("type")) {
+				ct = types.get(localName(e.getAttribute("type")));
+			}
+			collectProperties(ct, types, properties);
+
+			Slot[] slots = new Slot[properties.size()];
+			for (int i = 0; i < slots.length; i++) {
+				slots[i] = slot(type, properties.get(i), elements);
+				slots[i].lazy = slots[i].kind == Kind.NODE && "body".equals(slots[i].name) && FUNCTIONS.contains(type);
+			}
+			nodes.put(type, new NodeDescriptor(type, group(e, elements), slots));
+		}
+		return nodes;
+	}
+
+	/* STATEMENT or EXPRESSION if the element substitutes for one of them */
+	static String group(Element e, Map<String, Element> elements) {
+		while (e != null && e.hasAttribute("substitutionGroup")) {
+			String head = localName(e.getAttribute("substitutionGroup"));
+			if (STATEMENT.equals(head)) {
+				return STATEMENT;
+			} else if (EXPRESSION.equals(head)) {
+				return EXPRESSION;
+			}
+			e = elements.get(head);
+		}
+		return null;
+	}
+
+	/* named child elements of the (extended) sequence */
+	static void collectProperties(Element ct, Map<String, Element> types, List<Element> properties) {
+		if (ct == null) {
+			return;
+		}
+		for (Element c : children(ct)) {
+			String ln = c.getLocalName();
+			if ("complexContent".equals(ln)) {
+				collectProperties(c, types, properties);
+			} else if ("extension".equals(ln)) {
+				collectProperties(types.get(localName(c.getAttribute("base"))), types, properties);
+				collectProperties(c, types, properties);
+			} else if ("sequence".equals(ln)) {
+				for (Element p : children(c)) {
+					if ("element".equals(p.getLocalName()) && p.hasAttribute("name")) {
+						properties.add(p);
+					}
+				}
+			}
+		}
+	}
+
+	static Slot slot(String type, Element property, Map<String, Element> elements) {
+		String name = property.getAttribute("name");
+		boolean omittable = OMITTABLE.contains(type + "." + name);
+		String xsdType = localName(property.getAttribute("type"));
+
+		if ("boolean".equals(xsdType)) {
+			return new Slot(name, Kind.BOOLEAN, null, omittable);
+		}
+		if ("string".equals(xsdType) || child(property, "simpleType") != null) {
+			boolean optional = "0".equals(property.getAttribute("minOccurs"));
+			return new Slot(name, optional ? Kind.OPTIONAL_STRING : Kind.STRING, null, omittable);
+		}
+
+		Element ct = child(property, "complexType");
+		Element content = ct == null ? null : child(ct, null);
+		if (content == null) {
+			throw new RuntimeException("Unexpected definition of " + type + "." + name);
+		}
+		List<Element> alternatives = children(content);
+		if (alternatives.size() == 1 && "array".equals(alternatives.get(0).getAttribute("name"))) {
+			Element items = child(child(alternatives.get(0), "complexType"), null);
+			String itemType = null;
+			List<Element> refs = new ArrayList<Element>();
+			for (Element item : children(items)) {
+				if (item.hasAttribute("ref")) {
+					refs.add(elements.get(localName(item.getAttribute("ref"))));
+				}
+			}
+			if (refs.size() == 1 && !"true".equals(refs.get(0).getAttribute("abstract"))) {
+				// e.g., Property, the only node an array of properties holds
+				itemType = refs.get(0).getAttribute("name");
+			}
+			return accepting(new Slot(name, hasNull(items) ? Kind.ARRAY_OR_NULL : Kind.ARRAY, itemType, omittable),
+					items);
+		}
+		for (Element alternative : alternatives) {
+			if (alternative.hasAttribute("name") && alternative.hasAttribute("type")) {
+				// typed values, e.g., <string> or <integer>
+				return new Slot(name, Kind.LITERAL, null, omittable);
+			}
+		}
+		return accepting(new Slot(name, hasNull(content) ? Kind.NODE_OR_NULL : Kind.NODE, null, omittable), content);
+	}
+
+	/* an Expression may stand wherever a Pattern is expected */
+	static Slot accepting(Slot slot, Element group) {
+		for (Element e : children(group)) {
+			String ref = localName(e.getAttribute("ref"));
+			if (STATEMENT.equals(ref)) {
+				slot.statements = true;
+			} else if (EXPRESSION.equals(ref) || "Pattern".equals(ref)) {
+				slot.expressions = true;
+			}
+		}
+		return slot;
+	}
+
+	static boolean hasNull(Element group) {
+		for (Element e : children(group)) {
+			if ("null".equals(e.getAttribute("name"))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	static String localName(String qname) {
+		return qname.substring(qname.indexOf(':') + 1);
+	}
+
+	/* first XSD child element with the given local name, or any if null */
+	static Element child(Element parent, String localName) {
+		for (Element c : children(parent)) {
+			if (localName == null || localName.equals(c.getLocalName())) {
+				return c;
+			}
+		}
+		return null;
+	}
+
+	static List<Element> children(Element parent) {
+		List<Element> children = new ArrayList<Element>();
+		for (Node n = parent.getFirstChild(); n != null; n = n.getNextSibling()) {
+			if (n.getNodeType() == Node.ELEMENT_NODE && XSD_NS.equals(n.getNamespaceURI())
+					&& !"annotation".equals(n.getLocalName())) {
+				children.add((Element) n);
+			}
+		}
+		return children;
+	}
+
+}
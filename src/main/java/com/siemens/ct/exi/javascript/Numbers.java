@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+
+package com.siemens.ct.exi.javascript;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+import com.siemens.ct.exi.core.values.FloatValue;
+import com.siemens.ct.exi.core.values.IntegerValue;
+
+/**
+ * Numeric literals as EXI values and back, without going through strings or
+ * <code>double</code>. A literal without fraction digits is an
+ * <code>integer</code> of any size, anything else a <code>number</code>
+ * given by the decimal mantissa and exponent of the literal itself. Literals
+ * beyond the EXI float range are <code>INF</code> respectively 0, as they are
+ * beyond <code>double</code> anyway.
+ */
+final class Numbers {
+
+	/* EXI float exponents are limited to [-(2^14-1), 2^14-1] */
+	static final int MAX_EXPONENT = (1 << 14) - 1;
+
+	/* more digits than a long can hold exceed double precision anyway */
+	static final MathContext LONG_DIGITS = new MathContext(18);
+
+	static final FloatValue INF = new FloatValue(FloatValue.FLOAT_POSITIVE_INFINITY, FloatValue.FLOAT_SPECIAL_VALUES);
+	static final FloatValue NEGATIVE_INF = new FloatValue(FloatValue.FLOAT_NEGATIVE_INFINITY,
+			FloatValue.FLOAT_SPECIAL_VALUES);
+
+	/*
+	 * Infinity as decimal, beyond the EXI range and thus INF again; JSON has
+	 * no Infinity and JavaScript reads it as such
+	 */
+	static final BigDecimal INFINITY = BigDecimal.ONE.scaleByPowerOfTen(2 * MAX_EXPONENT);
+
+	static final BigInteger LONG_MIN = BigInteger.valueOf(Long.MIN_VALUE);
+	static final BigInteger LONG_MAX = BigInteger.valueOf(Long.MAX_VALUE);
+
+	/* values of the most common integer literals, IntegerValue is immutable */
+	static final IntegerValue[] INTEGERS = new IntegerValue[1024];
+
+	static {
+		for (int i = 0; i < INTEGERS.length; i++) {
+			INTEGERS[i] = IntegerValue.valueOf(i);
+		}
+	}
+
+	private Numbers() {
+	}
+
+	static boolean isInteger(BigDecimal bd) {
+		return bd.scale() == 0;
+	}
+
+	static IntegerValue integerValue(int i) {
+		return i >= 0 && i < INTEGERS.length ? INTEGERS[i] : IntegerValue.valueOf(i);
+	}
+
+	static IntegerValue integerValue(BigDecimal bd) {
+		if (bd.scale() == 0 && bd.precision() < 10) {
+			// fits an int, no BigInteger needed
+			return integerValue(bd.intValue());
+		}
+		BigInteger bi = bd.unscaledValue();
+		int bitLength = bi.bitLength();
+		if (bitLength < 32) {
+			return IntegerValue.valueOf(bi.intValue());
+		} else if (bitLength < 64) {
+			return IntegerValue.valueOf(bi.longValue());
+		} else {
+			return IntegerValue.valueOf(bi);
+		}
+	}
+
+	static FloatValue floatValue(BigDecimal bd) {
+		if (bd.signum() == 0) {
+			return new FloatValue(0, 0);
+		}
+		bd = bd.stripTrailingZeros();
+		BigInteger mantissa = bd.unscaledValue();
+		if (mantissa.compareTo(LONG_MIN) < 0 || mantissa.compareTo(LONG_MAX) > 0) {
+			bd = bd.round(LONG_DIGITS).stripTrailingZeros();
+			mantissa = bd.unscaledValue();
+		}
+		long exponent = -(long) bd.scale();
+		if (exponent > MAX_EXPONENT) {
+			// trailing zeros into the mantissa, as far as a long holds them
+			int shift = (int) Math.min(exponent - MAX_EXPONENT, Integer.MAX_VALUE);
+			if (shift > LONG_DIGITS.getPrecision() - bd.precision()) {
+				return bd.signum() > 0 ? INF : NEGATIVE_INF;
+			}
+			mantissa = mantissa.multiply(BigInteger.TEN.pow(shift));
+			exponent = MAX_EXPONENT;
+		} else if (exponent < -MAX_EXPONENT) {
+			// least significant digits dropped, as far as any are left
+			long shift = -MAX_EXPONENT - exponent;
+			if (shift >= bd.precision()) {
+				return new FloatValue(0, 0);
+			}
+			bd = bd.setScale(MAX_EXPONENT, RoundingMode.HALF_EVEN);
+			if (bd.signum() == 0) {
+				return new FloatValue(0, 0);
+			}
+			mantissa = bd.unscaledValue();
+			exponent = -MAX_EXPONENT;
+		}
+		return new FloatValue(mantissa.longValue(), exponent);
+	}
+
+	/* literal as reported by the parsers, Infinity for values beyond double */
+	static BigDecimal toBigDecimal(String literal) {
+		if ("Infinity".equals(literal)) {
+			return INFINITY;
+		} else if ("-Infinity".equals(literal)) {
+			return INFINITY.negate();
+		}
+		return new BigDecimal(literal);
+	}
+
+	/**
+	 * ECMAScript's Number::toString, the shortest decimal that reads back as
+	 * the same double, e.g. <code>0.1</code>, <code>1e+21</code> or
+	 * <code>1.5e-7</code>. Numeric literals read by {@link ES2015Parser} are
+	 * reported this way, as Nashorn does.
+	 */
+	static String toString(double d) {
+		if (d == 0) {
+			return "0";
+		}
+		if (Double.isNaN(d) || Double.isInfinite(d)) {
+			return Double.isNaN(d) ? "NaN" : d > 0 ? "Infinity" : "-Infinity";
+		}
+		if (d < 0) {
+			return "-" + toString(-d);
+		}
+		if (d < 9007199254740992d && d == (long) d) {
+			return Long.toString((long) d);
+		}
+		BigDecimal digits = shortest(d);
+		String s = digits.unscaledValue().toString();
+		int k = s.length();
+		int n = k - digits.scale();
+		StringBuilder sb = new StringBuilder(k + 8);
+		if (k <= n && n <= 21) {
+			sb.append(s);
+			for (int i = k; i < n; i++) {
+				sb.append('0');
+			}
+		} else if (0 < n && n <= 21) {
+			sb.append(s, 0, n).append('.').append(s, n, k);
+		} else if (-6 < n && n <= 0) {
+			sb.append("0.");
+			for (int i = n; i < 0; i++) {
+				sb.append('0');
+			}
+			sb.append(s);
+		} else {
+			sb.append(s.charAt(0));
+			if (k > 1) {
+				sb.append('.').append(s, 1, k);
+			}
+			sb.append('e').append(n > 0 ? '+' : '-').append(Math.abs(n - 1));
+		}
+		return sb.toString();
+	}
+
+	/* fewest digits that round-trip, the closer one if both neighbors do */
+	static BigDecimal shortest(double d) {
+		BigDecimal exact = new BigDecimal(d);
+		for (int p = 1; p < 17; p++) {
+			BigDecimal down = exact.round(new MathContext(p, RoundingMode.DOWN));
+			BigDecimal up = exact.round(new MathContext(p, RoundingMode.UP));
+			boolean downOk = down.doubleValue() == d;
+			boolean upOk = up.doubleValue() == d;
+			if (downOk && upOk) {
+				int c = exact.subtract(down).compareTo(up.subtract(exact));
+				if (c == 0) {
+					return exact.round(new MathContext(p, RoundingMode.HALF_EVEN)).stripTrailingZeros();
+				}
+				return (c < 0 ? down : up).stripTrailingZeros();
+			} else if (downOk || upOk) {
+				return (downOk ? down : up).stripTrailingZeros();
+			}
+		}
+		return exact.round(new MathContext(17, RoundingMode.HALF_EVEN)).stripTrailingZeros();
+	}
+
+	static BigDecimal toBigDecimal(FloatValue fv) {
+		IntegerValue mantissa = fv.getMantissa();
+		if (fv.getExponent().equals(FloatValue.FLOAT_SPECIAL_VALUES)) {
+			if (mantissa.equals(FloatValue.FLOAT_POSITIVE_INFINITY)) {
+				return INFINITY;
+			} else if (mantissa.equals(FloatValue.FLOAT_NEGATIVE_INFINITY)) {
+				return INFINITY.negate();
+			}
+			throw new RuntimeException("NaN is no numeric literal");
+		}
+		int scale = -fv.getExponent().intValue();
+		switch (mantissa.getIntegerValueType()) {
+		case BIG:
+			return new BigDecimal(mantissa.bigIntegerValue(), scale);
+		default:
+			return BigDecimal.valueOf(mantissa.longValue(), scale);
+		}
+	}
+
+}
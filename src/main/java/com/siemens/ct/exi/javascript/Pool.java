@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.javascript;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free pool of idle objects that are costly to set up. An object is
+ * checked out by {@link #poll()} (<code>null</code> if none is idle, the caller
+ * creates one then) and handed back by {@link #release(Object)}. Only up to
+ * <code>maxIdle</code> objects are retained, so the pool works the same for a
+ * fixed set of worker threads and for many short-lived (virtual) threads.
+ */
+class Pool<T> {
+
+	final int maxIdle;
+	final Queue<T> idle = new ConcurrentLinkedQueue<T>();
+	final AtomicInteger idleCount = new AtomicInteger();
+
+	Pool() {
+		this(Math.max(2, Runtime.getRuntime().availableProcessors() * 2));
+	}
+
+	Pool(int maxIdle) {
+		this.maxIdle = maxIdle;
+	}
+
+	T poll() {
+		T t = idle.poll();
+		if (t != null) {
+			idleCount.decrementAndGet();
+		}
+		return t;
+	}
+
+	void release(T t) {
+		if (idleCount.incrementAndGet() <= maxIdle) {
+			idle.offer(t);
+		} else {
+			idleCount.decrementAndGet();
+		}
+	}
+
+}
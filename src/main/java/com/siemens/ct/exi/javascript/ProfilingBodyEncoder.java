@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+
+package com.siemens.ct.exi.javascript;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.context.QNameContext;
+import com.siemens.ct.exi.core.datatype.Datatype;
+import com.siemens.ct.exi.core.datatype.strings.StringEncoderImpl.ValueContainer;
+import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.core.grammars.event.EventType;
+import com.siemens.ct.exi.core.io.BitOutputStream;
+import com.siemens.ct.exi.core.io.channel.BitEncoderChannel;
+import com.siemens.ct.exi.core.types.BuiltInType;
+import com.siemens.ct.exi.core.values.Value;
+
+/**
+ * {@link InOrderBodyEncoder} that attributes every bit it writes to an
+ * {@link EXI4JSProfile}: event codes to the element they start, end or fill,
+ * values to their element and to the string table partition they hit (or to
+ * their datatype), and both to the innermost ESTree node. The position in
+ * bits is what went through to the output stream plus what the bit channel
+ * still holds. Characters are written once the next event arrives, their
+ * bits are taken out of that event.
+ */
+class ProfilingBodyEncoder extends InOrderBodyEncoder {
+
+	final EXI4JSMetrics.CountingOutputStream out = new EXI4JSMetrics.CountingOutputStream();
+
+	/* the shared profile and the one of the document being encoded */
+	EXI4JSProfile profile;
+	EXI4JSProfile document;
+
+	/* open elements and the node each of them belongs to */
+	String[] elements = new String[64];
+	String[] owners = new String[64];
+	int depth;
+
+	/* bits of characters written while handling another event */
+	long flushed;
+	/* bits of the value written last */
+	long valueBits;
+
+	/* datatype and value of the characters about to be written */
+	Datatype datatype;
+	Value value;
+
+	ProfilingBodyEncoder(EXIFactory exiFactory) throws EXIException {
+		super(exiFactory);
+	}
+
+	long position() {
+		long bits = out.count * 8;
+		if (channel instanceof BitEncoderChannel) {
+			bits += ((BitOutputStream) channel.getOutputStream()).getBitsInBuffer();
+		}
+		return bits;
+	}
+
+	/* length of the input in characters (or bytes), 0 if not known */
+	void encodeHeader(OutputStream os, long length) throws EXIException, IOException {
+		document = new EXI4JSProfile();
+		document.documents = 1;
+		document.length = length;
+		depth = 0;
+		out.count = 0;
+		out.os = os;
+		encodeHeader(out);
+		document.documentBits += position();
+	}
+
+	@Override
+	public void encodeStartDocument() throws EXIException, IOException {
+		long start = position();
+		super.encodeStartDocument();
+		document.documentBits += position() - start;
+	}
+
+	@Override
+	public void encodeEndDocument() throws EXIException, IOException {
+		long start = position();
+		super.encodeEndDocument();
+		document.documentBits += position() - start;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		long start = position();
+		super.flush();
+		document.documentBits += position() - start;
+		document.exiBits = out.count * 8;
+		out.os = null;
+		profile.add(document);
+		document = null;
+	}
+
+	@Override
+	public void encodeStartElement(String uri, String localName, String prefix)
+			throws EXIException, IOException {
+		long start = position();
+		flushed = 0;
+		super.encodeStartElement(uri, localName, prefix);
+
+		if (depth == elements.length) {
+			elements = Arrays.copyOf(elements, depth * 2);
+			owners = Arrays.copyOf(owners, depth * 2);
+		}
+		boolean node = NodeDescriptor.NODES.containsKey(localName);
+		elements[depth] = localName;
+		owners[depth] = node || depth == 0 ? localName : owners[depth - 1];
+		long bits = position() - start - flushed;
+		EXI4JSProfile.Bits element = document.element(localName);
+		element.count++;
+		element.eventBits += bits;
+		EXI4JSProfile.Bits owner = document.node(owners[depth]);
+		if (node) {
+			owner.count++;
+		}
+		owner.eventBits += bits;
+		depth++;
+	}
+
+	@Override
+	public void encodeEndElement() throws EXIException, IOException {
+		long start = position();
+		flushed = 0;
+		super.encodeEndElement();
+		long bits = position() - start - flushed;
+		depth--;
+		document.element(elements[depth]).eventBits += bits;
+		document.node(owners[depth]).eventBits += bits;
+	}
+
+	@Override
+	protected void checkPendingCharacters(EventType next) throws EXIException, IOException {
+		if (bChars.isEmpty()) {
+			super.checkPendingCharacters(next);
+			return;
+		}
+		long start = position();
+		valueBits = 0;
+		super.checkPendingCharacters(next);
+		long bits = position() - start;
+		flushed += bits;
+		if (depth > 0) {
+			EXI4JSProfile.Bits element = document.element(elements[depth - 1]);
+			element.eventBits += bits - valueBits;
+			element.valueBits += valueBits;
+			EXI4JSProfile.Bits owner = document.node(owners[depth - 1]);
+			owner.eventBits += bits - valueBits;
+			owner.valueBits += valueBits;
+		}
+	}
+
+	@Override
+	protected boolean isTypeValid(Datatype datatype, Value value) {
+		boolean valid = super.isTypeValid(datatype, value);
+		if (valid) {
+			this.datatype = datatype;
+			this.value = value;
+		}
+		return valid;
+	}
+
+	@Override
+	protected void writeValue(QNameContext qnc) throws IOException {
+		String partition;
+		BuiltInType type = datatype.getBuiltInType();
+		if (type == BuiltInType.STRING || type == BuiltInType.RCS_STRING || type == BuiltInType.EXTENDED_STRING) {
+			// as decided by StringEncoderImpl#writeValue
+			ValueContainer vc = stringEncoder.getValueContainer(value.toString());
+			if (vc == null) {
+				partition = EXI4JSProfile.MISS;
+			} else if (stringEncoder.isLocalValuePartitions() && qnc.equals(vc.context)) {
+				partition = EXI4JSProfile.LOCAL_HIT;
+			} else {
+				partition = EXI4JSProfile.GLOBAL_HIT;
+			}
+		} else {
+			partition = type.name().toLowerCase();
+		}
+		long start = position();
+		super.writeValue(qnc);
+		valueBits = position() - start;
+		EXI4JSProfile.Bits bits = document.value(qnc.getLocalName(), partition);
+		bits.count++;
+		bits.valueBits += valueBits;
+		datatype = null;
+		value = null;
+	}
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+
+package com.siemens.ct.exi.javascript;
+
+import com.siemens.ct.exi.core.context.GrammarUriContext;
+import com.siemens.ct.exi.core.context.QNameContext;
+
+/**
+ * Elements of exi4js-es2015.xsd resolved once against
+ * {@link JSConstants#EXI_FOR_JS_ES2015_GRAMMARS}. Encoders start elements by
+ * these handles instead of string literals: the QName of a handle holds the
+ * very URI and local name instances of the grammar productions, so matching
+ * an event is settled by reference rather than by comparing characters.
+ * Other grammars, e.g., of exi4js.xsd, match them by name.
+ */
+final class QNames {
+
+	static final GrammarUriContext URI_CONTEXT = JSConstants.EXI_FOR_JS_ES2015_GRAMMARS.getGrammarContext()
+			.getGrammarUriContext(JSConstants.URI);
+
+	/* typed values and containers */
+	static final QNameContext ARRAY = get("array");
+	static final QNameContext NULL = get("null");
+	static final QNameContext STRING = get("string");
+	static final QNameContext BOOLEAN = get("boolean");
+	static final QNameContext INTEGER = get("integer");
+	static final QNameContext NUMBER = get("number");
+
+	/* node types */
+	static final QNameContext ARRAY_EXPRESSION = get("ArrayExpression");
+	static final QNameContext ASSIGNMENT_EXPRESSION = get("AssignmentExpression");
+	static final QNameContext BINARY_EXPRESSION = get("BinaryExpression");
+	static final QNameContext BLOCK_STATEMENT = get("BlockStatement");
+	static final QNameContext BREAK_STATEMENT = get("BreakStatement");
+	static final QNameContext CALL_EXPRESSION = get("CallExpression");
+	static final QNameContext CATCH_CLAUSE = get("CatchClause");
+	static final QNameContext CONDITIONAL_EXPRESSION = get("ConditionalExpression");
+	static final QNameContext CONTINUE_STATEMENT = get("ContinueStatement");
+	static final QNameContext DEBUGGER_STATEMENT = get("DebuggerStatement");
+	static final QNameContext DO_WHILE_STATEMENT = get("DoWhileStatement");
+	static final QNameContext EMPTY_STATEMENT = get("EmptyStatement");
+	static final QNameContext EXPRESSION_STATEMENT = get("ExpressionStatement");
+	static final QNameContext FOR_IN_STATEMENT = get("ForInStatement");
+	static final QNameContext FOR_STATEMENT = get("ForStatement");
+	static final QNameContext FUNCTION_DECLARATION = get("FunctionDeclaration");
+	static final QNameContext FUNCTION_EXPRESSION = get("FunctionExpression");
+	static final QNameContext IDENTIFIER = get("Identifier");
+	static final QNameContext IF_STATEMENT = get("IfStatement");
+	static final QNameContext LABELED_STATEMENT = get("LabeledStatement");
+	static final QNameContext LITERAL = get("Literal");
+	static final QNameContext LOGICAL_EXPRESSION = get("LogicalExpression");
+	static final QNameContext MEMBER_EXPRESSION = get("MemberExpression");
+	static final QNameContext NEW_EXPRESSION = get("NewExpression");
+	static final QNameContext OBJECT_EXPRESSION = get("ObjectExpression");
+	static final QNameContext PROGRAM = get("Program");
+	static final QNameContext PROPERTY = get("Property");
+	static final QNameContext RETURN_STATEMENT = get("ReturnStatement");
+	static final QNameContext SWITCH_CASE = get("SwitchCase");
+	static final QNameContext SWITCH_STATEMENT = get("SwitchStatement");
+	static final QNameContext THIS_EXPRESSION = get("ThisExpression");
+	static final QNameContext THROW_STATEMENT = get("ThrowStatement");
+	static final QNameContext TRY_STATEMENT = get("TryStatement");
+	static final QNameContext UNARY_EXPRESSION = get("UnaryExpression");
+	static final QNameContext UPDATE_EXPRESSION = get("UpdateExpression");
+	static final QNameContext VARIABLE_DECLARATION = get("VariableDeclaration");
+	static final QNameContext VARIABLE_DECLARATOR = get("VariableDeclarator");
+	static final QNameContext WHILE_STATEMENT = get("WhileStatement");
+
+	/* properties */
+	static final QNameContext ALTERNATE = get("alternate");
+	static final QNameContext ARGUMENT = get("argument");
+	static final QNameContext ARGUMENTS = get("arguments");
+	static final QNameContext BLOCK = get("block");
+	static final QNameContext BODY = get("body");
+	static final QNameContext CALLEE = get("callee");
+	static final QNameContext CASES = get("cases");
+	static final QNameContext COMPUTED = get("computed");
+	static final QNameContext CONSEQUENT = get("consequent");
+	static final QNameContext DECLARATIONS = get("declarations");
+	static final QNameContext DEFAULTS = get("defaults");
+	static final QNameContext DISCRIMINANT = get("discriminant");
+	static final QNameContext EACH = get("each");
+	static final QNameContext ELEMENTS = get("elements");
+	static final QNameContext EXPRESSION = get("expression");
+	static final QNameContext FINALIZER = get("finalizer");
+	static final QNameContext GENERATOR = get("generator");
+	static final QNameContext GUARD = get("guard");
+	static final QNameContext GUARDED_HANDLERS = get("guardedHandlers");
+	static final QNameContext HANDLER = get("handler");
+	static final QNameContext ID = get("id");
+	static final QNameContext INIT = get("init");
+	static final QNameContext KEY = get("key");
+	static final QNameContext KIND = get("kind");
+	static final QNameContext LABEL = get("label");
+	static final QNameContext LEFT = get("left");
+	static final QNameContext LEXICAL = get("lexical");
+	static final QNameContext NAME = get("name");
+	static final QNameContext OBJECT = get("object");
+	static final QNameContext OPERATOR = get("operator");
+	static final QNameContext PARAM = get("param");
+	static final QNameContext PARAMS = get("params");
+	static final QNameContext PREFIX = get("prefix");
+	static final QNameContext PROPERTIES = get("properties");
+	static final QNameContext MEMBER_PROPERTY = get("property");
+	static final QNameContext REST = get("rest");
+	static final QNameContext RIGHT = get("right");
+	static final QNameContext TEST = get("test");
+	static final QNameContext UPDATE = get("update");
+	static final QNameContext VALUE = get("value");
+
+	private QNames() {
+	}
+
+	static QNameContext get(String localName) {
+		QNameContext qnc = URI_CONTEXT.getQNameContext(localName);
+		if (qnc == null) {
+			throw new RuntimeException("No element " + localName + " in " + JSConstants.ES2015_XSD_LOCATION);
+		}
+		return qnc;
+	}
+
+}
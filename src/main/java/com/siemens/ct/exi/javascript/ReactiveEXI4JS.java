@@ -0,0 +1,410 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+
+package com.siemens.ct.exi.javascript;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.siemens.ct.exi.core.EXIFactory;
+
+/**
+ * Non-blocking counterpart of {@link JStoEXI} and {@link EXItoAST}: the input
+ * is a {@link Flow.Publisher} of bytes, the output is one as well. Input is
+ * requested one buffer at a time and collected without blocking the
+ * publishing thread (e.g., an event loop); once complete, coding runs on the
+ * given executor. The output is emitted in buffers as the subscriber demands
+ * them.
+ *
+ * <p>
+ * Decoding stops once {@link #WINDOW} buffers are ahead of demand and
+ * returns its executor thread; the next request resumes it where it stopped.
+ * Encoding waits on its executor thread instead, as the encoder recurses over
+ * the tree and cannot stop in between. Either way the input is collected as
+ * a whole first: the parser needs all of the code and EXIficient reads from a
+ * blocking stream.
+ * </p>
+ *
+ * <p>
+ * Each subscription to a returned publisher subscribes to the input and
+ * codes it anew. Buffers passed to the subscriber are its own.
+ * </p>
+ */
+public class ReactiveEXI4JS {
+
+	static final int CHUNK_SIZE = Utf8Input.BUFFER_SIZE;
+	/* output buffers ahead of demand */
+	static final int WINDOW = 16;
+
+	final JStoEXI js2exi;
+	final EXItoAST exi2ast;
+	final Executor executor;
+
+	public ReactiveEXI4JS(Executor executor) {
+		this(JSConstants.EXI_FACTORY, executor);
+	}
+
+	public ReactiveEXI4JS(EXIFactory ef, Executor executor) {
+		this.js2exi = new JStoEXI(ef);
+		this.exi2ast = new EXItoAST(ef);
+		this.executor = executor;
+	}
+
+	/**
+	 * UTF-8 JavaScript code to EXI, see
+	 * {@link JStoEXI#generateFromSource(String, OutputStream)}.
+	 */
+	public Flow.Publisher<ByteBuffer> encode(final Flow.Publisher<ByteBuffer> jsCode) {
+		return new Flow.Publisher<ByteBuffer>() {
+			public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+				new Job(subscriber, true).start(jsCode);
+			}
+		};
+	}
+
+	/**
+	 * EXI to the UTF-8 JSON AST, see
+	 * {@link EXItoAST#generate(java.io.InputStream, OutputStream)}.
+	 */
+	public Flow.Publisher<ByteBuffer> decode(final Flow.Publisher<ByteBuffer> exi) {
+		return new Flow.Publisher<ByteBuffer>() {
+			public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+				new Job(subscriber, false).start(exi);
+			}
+		};
+	}
+
+	/**
+	 * One subscription: subscriber of the input, subscription of the output
+	 * and the coding task in between.
+	 */
+	class Job extends OutputStream implements Flow.Subscriber<ByteBuffer>, Flow.Subscription, Runnable {
+		final Flow.Subscriber<? super ByteBuffer> subscriber;
+		final boolean encode;
+
+		/* input, complete before run() */
+		volatile Flow.Subscription upstream;
+		byte[] input = new byte[CHUNK_SIZE];
+		int length;
+		volatile boolean received;
+
+		/* decoding, suspended while parked */
+		DecoderSession session;
+		final AtomicBoolean parked = new AtomicBoolean();
+
+		/* output, see drain() */
+		ByteBuffer chunk;
+		final Queue<ByteBuffer> queue = new ConcurrentLinkedQueue<ByteBuffer>();
+		final AtomicInteger queued = new AtomicInteger();
+		final AtomicLong requested = new AtomicLong();
+		final AtomicInteger wip = new AtomicInteger();
+		volatile Throwable error;
+		volatile boolean done;
+		volatile boolean cancelled;
+		/* request of less than one, rule 3.9 */
+		volatile Throwable violation;
+		boolean terminated;
+
+		Job(Flow.Subscriber<? super ByteBuffer> subscriber, boolean encode) {
+			if (subscriber == null) {
+				throw new NullPointerException();
+			}
+			this.subscriber = subscriber;
+			this.encode = encode;
+		}
+
+		void start(Flow.Publisher<ByteBuffer> input) {
+			subscriber.onSubscribe(this);
+			input.subscribe(this);
+		}
+
+		// Flow.Subscriber of the input
+
+		public void onSubscribe(Flow.Subscription subscription) {
+			if (upstream != null || cancelled) {
+				subscription.cancel();
+				return;
+			}
+			upstream = subscription;
+			subscription.request(1);
+		}
+
+		public void onNext(ByteBuffer bytes) {
+			if (received) {
+				return;
+			}
+			if (cancelled) {
+				// upstream is cancelled, items may still be on their way
+				input = null;
+				return;
+			}
+			int n = bytes.remaining();
+			if (length + n > input.length) {
+				input = Arrays.copyOf(input, Math.max(length + n, 2 * input.length));
+			}
+			bytes.get(input, length, n);
+			length += n;
+			upstream.request(1);
+		}
+
+		public void onError(Throwable throwable) {
+			if (received) {
+				return;
+			}
+			received = true;
+			complete(throwable);
+		}
+
+		public void onComplete() {
+			if (received) {
+				return;
+			}
+			received = true;
+			if (cancelled) {
+				return;
+			}
+			try {
+				executor.execute(this);
+			} catch (RejectedExecutionException e) {
+				complete(e);
+			}
+		}
+
+		// coding
+
+		public void run() {
+			try {
+				if (cancelled) {
+					throw new IOException("Cancelled");
+				}
+				if (encode) {
+					js2exi.generateFromSource(Utf8Input.decode(ByteBuffer.wrap(input, 0, length), "publisher"), this);
+				} else {
+					if (session == null) {
+						session = exi2ast.acquire();
+						session.startProgram(new ByteArrayInputStream(input, 0, length),
+								EXItoAST.JSON_GENERATORS.createGenerator(session.document.output(this)));
+					}
+					if (!session.resume()) {
+						park();
+						return;
+					}
+					exi2ast.release(session);
+					session = null;
+				}
+				if (chunk != null && chunk.position() > 0) {
+					emit();
+				}
+				complete(null);
+			} catch (Throwable t) {
+				complete(t);
+			}
+		}
+
+		/* returns the executor thread, request(n) or cancel() resume */
+		void park() {
+			parked.set(true);
+			if (queued.get() < WINDOW || cancelled) {
+				unpark();
+			}
+		}
+
+		void unpark() {
+			if (parked.compareAndSet(true, false)) {
+				try {
+					executor.execute(this);
+				} catch (RejectedExecutionException e) {
+					complete(e);
+				}
+			}
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (chunk == null) {
+				chunk = ByteBuffer.allocate(CHUNK_SIZE);
+			}
+			chunk.put((byte) b);
+			if (!chunk.hasRemaining()) {
+				emit();
+			}
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				if (chunk == null) {
+					chunk = ByteBuffer.allocate(CHUNK_SIZE);
+				}
+				int n = Math.min(len, chunk.remaining());
+				chunk.put(b, off, n);
+				off += n;
+				len -= n;
+				if (!chunk.hasRemaining()) {
+					emit();
+				}
+			}
+		}
+
+		/*
+		 * hands the chunk over; once WINDOW chunks are pending, decoding is
+		 * suspended and encoding waits
+		 */
+		void emit() throws IOException {
+			chunk.flip();
+			queue.offer(chunk);
+			chunk = null;
+			if (queued.incrementAndGet() >= WINDOW && session != null) {
+				session.suspend = true;
+			}
+			drain();
+			if (encode) {
+				synchronized (this) {
+					while (queued.get() >= WINDOW && !cancelled) {
+						try {
+							wait();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new IOException("Interrupted");
+						}
+					}
+				}
+			}
+			if (cancelled) {
+				throw new IOException("Cancelled");
+			}
+		}
+
+		void complete(Throwable t) {
+			input = null;
+			error = t;
+			done = true;
+			drain();
+		}
+
+		// Flow.Subscription of the output
+
+		public void request(long n) {
+			if (n <= 0) {
+				violation = new IllegalArgumentException("Non-positive request " + n);
+				cancel();
+				drain();
+				return;
+			}
+			long r;
+			do {
+				r = requested.get();
+			} while (!requested.compareAndSet(r, r + n < 0 ? Long.MAX_VALUE : r + n));
+			drain();
+		}
+
+		public void cancel() {
+			cancelled = true;
+			Flow.Subscription s = upstream;
+			if (s != null && !received) {
+				s.cancel();
+			}
+			if (encode) {
+				synchronized (this) {
+					notifyAll();
+				}
+			} else {
+				unpark();
+			}
+		}
+
+		/* emits to the subscriber from one thread at a time */
+		void drain() {
+			if (wip.getAndIncrement() != 0) {
+				return;
+			}
+			int missed = 1;
+			do {
+				long r = requested.get();
+				long e = 0;
+				while (!terminated) {
+					if (cancelled) {
+						if (violation != null) {
+							terminated = true;
+							subscriber.onError(violation);
+						}
+						break;
+					}
+					boolean d = done;
+					if (e == r) {
+						if (d && queue.isEmpty()) {
+							terminate();
+						}
+						break;
+					}
+					ByteBuffer b = queue.poll();
+					if (b == null) {
+						if (d) {
+							terminate();
+						}
+						break;
+					}
+					queued.decrementAndGet();
+					subscriber.onNext(b);
+					e++;
+				}
+				if (cancelled) {
+					queue.clear();
+				}
+				if (e != 0) {
+					requested.addAndGet(-e);
+					if (encode) {
+						synchronized (this) {
+							notifyAll();
+						}
+					} else if (queued.get() < WINDOW) {
+						unpark();
+					}
+				}
+				missed = wip.addAndGet(-missed);
+			} while (missed != 0);
+		}
+
+		void terminate() {
+			terminated = true;
+			Throwable t = error;
+			if (t == null) {
+				subscriber.onComplete();
+			} else {
+				subscriber.onError(t);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+
+package com.siemens.ct.exi.javascript;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.json.stream.JsonParser;
+
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.context.QNameContext;
+import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.core.values.Value;
+
+/**
+ * Dictionary of identifiers and string literals that pre-populates the EXI
+ * string table of every document (see
+ * {@link com.siemens.ct.exi.core.EXIFactory#setSharedStrings(List)}), so that
+ * common names such as <code>prototype</code> or <code>document</code> are
+ * string table hits on first use already. Encoder and decoder must use the
+ * same dictionary.
+ *
+ * <p>
+ * A dictionary is trained from a corpus of JavaScript files: a string is
+ * worth sharing if many documents use it, no matter how often each of them
+ * does. Versions of the same document, e.g., as is and minified, count as
+ * one. The file format is UTF-8 with one string per line; string literals
+ * carry the "$" prefix of the JSON AST and lines starting with '#' are
+ * comments.
+ * </p>
+ */
+public class SharedStrings {
+
+	public static final String DEFAULT_MAX_STRINGS = "1024";
+	public static final String DEFAULT_MIN_DOCUMENTS = "2";
+
+	/* name and string are the only elements using the string table */
+	static class CollectingSink extends ASTStreamToEXI.Sink {
+		final Set<String> strings = new HashSet<String>();
+		QNameContext element;
+
+		void startElement(QNameContext qnc) {
+			element = qnc;
+		}
+
+		void endElement() {
+		}
+
+		void characters(Value value) {
+			characters(value.toString());
+		}
+
+		void characters(String s) {
+			if (element == QNames.NAME || element == QNames.STRING) {
+				strings.add(s);
+			}
+		}
+	}
+
+	/* number of documents using the string, number of occurrences ignored */
+	final Map<String, int[]> documents = new HashMap<String, int[]>();
+
+	int numberOfDocuments;
+
+	final JSParser parser;
+
+	/**
+	 * Parses as {@link JStoEXI} does for {@link JSConstants#EXI_FACTORY}
+	 */
+	public SharedStrings() {
+		this(JStoEXI.parser(JSConstants.EXI_FACTORY));
+	}
+
+	public SharedStrings(JSParser parser) {
+		this.parser = parser;
+	}
+
+	/**
+	 * Adds a document given in one or more versions, e.g., as is and
+	 * minified, the strings of which count once.
+	 */
+	public void addDocument(String... versions) throws IOException, EXIException {
+		CollectingSink sink = new CollectingSink();
+		for (String jsCode : versions) {
+			JsonParser events = parser.parse(jsCode.toCharArray());
+			try {
+				new ASTStreamToEXI(events).encode(sink);
+			} finally {
+				events.close();
+			}
+		}
+		for (String s : sink.strings) {
+			int[] count = documents.get(s);
+			if (count == null) {
+				documents.put(s, new int[] { 1 });
+			} else {
+				count[0]++;
+			}
+		}
+		numberOfDocuments++;
+	}
+
+	public int getNumberOfDocuments() {
+		return numberOfDocuments;
+	}
+
+	/**
+	 * Strings used by at least <code>minDocuments</code> documents, most
+	 * widely used first. Strings spanning several lines cannot be stored and
+	 * the empty string costs nothing anyway.
+	 */
+	public List<String> getStrings(int maxStrings, int minDocuments) {
+		List<String> strings = new ArrayList<String>();
+		for (Map.Entry<String, int[]> e : documents.entrySet()) {
+			String s = e.getKey();
+			if (e.getValue()[0] >= minDocuments && s.length() > 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) {
+				strings.add(s);
+			}
+		}
+		Collections.sort(strings, new Comparator<String>() {
+			public int compare(String s1, String s2) {
+				int c = documents.get(s2)[0] - documents.get(s1)[0];
+				return c == 0 ? s1.compareTo(s2) : c;
+			}
+		});
+		return strings.size() > maxStrings ? new ArrayList<String>(strings.subList(0, maxStrings)) : strings;
+	}
+
+	public static List<String> load(InputStream is) throws IOException {
+		List<String> strings = new ArrayList<String>();
+		BufferedReader br = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+		String line;
+		while ((line = br.readLine()) != null) {
+			if (line.length() > 0 && line.charAt(0) != '#') {
+				strings.add(line);
+			}
+		}
+		return strings;
+	}
+
+	public static List<String> load(File file) throws IOException {
+		InputStream is = new FileInputStream(file);
+		try {
+			return load(is);
+		} finally {
+			is.close();
+		}
+	}
+
+	public static void write(List<String> strings, String comment, OutputStream os) throws IOException {
+		PrintWriter pw = new PrintWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8));
+		if (comment != null) {
+			pw.print("# ");
+			pw.print(comment);
+			pw.print('\n');
+		}
+		for (String s : strings) {
+			pw.print(s);
+			pw.print('\n');
+		}
+		pw.flush();
+	}
+
+	/* the .js files by name, x.min.js along with x.js */
+	static void collect(File file, Map<String, List<File>> documents) {
+		if (file.isDirectory()) {
+			File[] children = file.listFiles();
+			if (children != null) {
+				for (File child : children) {
+					collect(child, documents);
+				}
+			}
+		} else if (file.getName().endsWith(".js")) {
+			String path = file.getPath();
+			String name = path.substring(0, path.length() - (path.endsWith(".min.js") ? 7 : 3));
+			List<File> versions = documents.get(name);
+			if (versions == null) {
+				versions = new ArrayList<File>();
+				documents.put(name, versions);
+			}
+			versions.add(file);
+		}
+	}
+
+	static String[] read(List<File> files) throws IOException {
+		String[] versions = new String[files.size()];
+		for (int i = 0; i < versions.length; i++) {
+			versions[i] = new String(Files.readAllBytes(files.get(i).toPath()), StandardCharsets.UTF_8);
+		}
+		return versions;
+	}
+
+	/*
+	 * bytes of each file without and with a dictionary trained from the other
+	 * documents only
+	 */
+	static void evaluate(Map<String, List<File>> documents, EXIFactory ef, JSParser parser, int maxStrings,
+			int minDocuments, PrintStream ps) throws IOException, EXIException {
+		JStoEXI without = new JStoEXI(ef, parser);
+		long total = 0;
+		long totalShared = 0;
+		for (String name : documents.keySet()) {
+			SharedStrings trainer = new SharedStrings(parser);
+			for (Map.Entry<String, List<File>> e : documents.entrySet()) {
+				if (!e.getKey().equals(name)) {
+					trainer.addDocument(read(e.getValue()));
+				}
+			}
+			EXIFactory efShared = ef.clone();
+			efShared.setSharedStrings(trainer.getStrings(maxStrings, minDocuments));
+			JStoEXI with = new JStoEXI(efShared, parser);
+			for (File file : documents.get(name)) {
+				String jsCode = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+				ByteArrayOutputStream baos = new ByteArrayOutputStream();
+				without.generateFromSource(jsCode, baos);
+				int size = baos.size();
+				baos.reset();
+				with.generateFromSource(jsCode, baos);
+				ps.println(file.getName() + "\t" + size + "\t" + baos.size());
+				total += size;
+				totalShared += baos.size();
+			}
+		}
+		ps.println("total\t" + total + "\t" + totalShared);
+	}
+
+	/**
+	 * Trains a dictionary, e.g.
+	 * <code>-o strings.txt -max 1024 -min 2 ./corpus</code>, or with
+	 * <code>-evaluate</code> prints the bytes of each file without and with a
+	 * dictionary trained from the other documents.
+	 */
+	public static void main(String[] args) throws IOException, EXIException {
+		String output = null;
+		int maxStrings = Integer.parseInt(DEFAULT_MAX_STRINGS);
+		int minDocuments = Integer.parseInt(DEFAULT_MIN_DOCUMENTS);
+		boolean evaluate = false;
+		EXIFactory ef = JSConstants.EXI_FACTORY;
+		Map<String, List<File>> documents = new TreeMap<String, List<File>>();
+		for (int i = 0; i < args.length; i++) {
+			if ("-o".equals(args[i]) && i + 1 < args.length) {
+				output = args[++i];
+			} else if ("-max".equals(args[i]) && i + 1 < args.length) {
+				maxStrings = Integer.parseInt(args[++i]);
+			} else if ("-min".equals(args[i]) && i + 1 < args.length) {
+				minDocuments = Integer.parseInt(args[++i]);
+			} else if ("-evaluate".equals(args[i])) {
+				evaluate = true;
+			} else if (EXIficientCMD4JS.ES2015.equals(args[i])) {
+				ef = JSConstants.EXI_FACTORY_ES2015;
+			} else {
+				collect(new File(args[i]), documents);
+			}
+		}
+		if (documents.isEmpty()) {
+			System.out.println("Usage: " + SharedStrings.class.getName()
+					+ " [-o <output-file>] [-max <strings>] [-min <documents>] [-evaluate] [-es2015] <file-or-directory>...");
+			return;
+		}
+
+		JSParser parser = JStoEXI.parser(ef);
+		if (evaluate) {
+			evaluate(documents, ef, parser, maxStrings, minDocuments, System.out);
+			return;
+		}
+		SharedStrings trainer = new SharedStrings(parser);
+		for (List<File> versions : documents.values()) {
+			trainer.addDocument(read(versions));
+		}
+		List<String> strings = trainer.getStrings(maxStrings, minDocuments);
+		String comment = strings.size() + " strings used by at least " + minDocuments + " of "
+				+ trainer.getNumberOfDocuments() + " documents";
+
+		OutputStream os = output == null ? System.out : new FileOutputStream(output);
+		try {
+			write(strings, comment, os);
+		} finally {
+			if (output != null) {
+				os.close();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+
+package com.siemens.ct.exi.javascript;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Splits a statement list (program or function body) into chunks of whole
+ * statements without parsing it, see {@link IncrementalJStoEXI}. A chunk ends
+ * after a <code>;</code> on nesting level 0, or after a <code>}</code> on
+ * nesting level 0 that is followed by a line break and a word that cannot
+ * continue the statement. Strings, comments and regular expressions are
+ * skipped; a regular expression is assumed wherever a value is expected.
+ *
+ * <p>
+ * Being wrong costs nothing but time: a chunk that does not consist of whole
+ * statements fails to parse and a larger part of the code is parsed instead.
+ * </p>
+ */
+class StatementSplitter {
+
+	/* words a value or operator may follow, i.e., a regular expression */
+	static final Set<String> EXPRESSION_KEYWORDS = new HashSet<String>(Arrays.asList("return", "typeof",
+			"instanceof", "in", "of", "new", "delete", "void", "throw", "case", "do", "else", "yield"));
+
+	/* words that continue the statement before, e.g., else */
+	static final Set<String> CONTINUATIONS = new HashSet<String>(
+			Arrays.asList("in", "instanceof", "else", "catch", "finally", "while"));
+
+	final String code;
+	final int end;
+	int pos;
+	/* whether the last chunk ended with a semicolon */
+	boolean semicolon;
+
+	int depth;
+	boolean regexAllowed;
+	boolean lineBreak;
+
+	StatementSplitter(String code, int start, int end) {
+		this.code = code;
+		this.pos = start;
+		this.end = end;
+	}
+
+	/**
+	 * @return the end of the next chunk, <code>end</code> for the last one
+	 */
+	int next() {
+		depth = 0;
+		regexAllowed = true;
+		semicolon = false;
+		while (pos < end) {
+			char c = code.charAt(pos);
+			switch (c) {
+			case ';':
+				pos++;
+				if (depth == 0 && !continues()) {
+					semicolon = true;
+					return pos;
+				}
+				regexAllowed = true;
+				break;
+			case '(':
+			case '[':
+			case '{':
+				pos++;
+				depth++;
+				regexAllowed = true;
+				break;
+			case ')':
+			case ']':
+				pos++;
+				depth--;
+				regexAllowed = false;
+				break;
+			case '}':
+				pos++;
+				depth--;
+				if (depth == 0 && endsStatement()) {
+					return pos;
+				}
+				regexAllowed = true;
+				break;
+			case '\'':
+			case '"':
+			case '`':
+				skipString(c);
+				regexAllowed = false;
+				break;
+			case '#':
+				skipLine();
+				break;
+			case '/':
+				if (pos + 1 < end && code.charAt(pos + 1) == '/') {
+					skipLine();
+				} else if (pos + 1 < end && code.charAt(pos + 1) == '*') {
+					skipComment();
+				} else if (regexAllowed) {
+					skipRegex();
+					regexAllowed = false;
+				} else {
+					pos++;
+					regexAllowed = true;
+				}
+				break;
+			default:
+				if (Character.isWhitespace(c)) {
+					pos++;
+				} else if (isIdentifierPart(c)) {
+					int start = pos;
+					while (pos < end && isIdentifierPart(code.charAt(pos))) {
+						pos++;
+					}
+					regexAllowed = EXPRESSION_KEYWORDS.contains(code.substring(start, pos));
+				} else {
+					pos++;
+					regexAllowed = true;
+				}
+			}
+			if (depth < 0) {
+				// not a statement list after all
+				pos = end;
+			}
+		}
+		return end;
+	}
+
+	/* a line break and a word that starts a statement follow */
+	boolean endsStatement() {
+		int i = skipTrivia(pos);
+		if (!lineBreak || i == end || !isIdentifierPart(code.charAt(i)) || Character.isDigit(code.charAt(i))) {
+			return false;
+		}
+		return !continues();
+	}
+
+	/* a word that continues the statement follows, e.g., if (a) b; else c; */
+	boolean continues() {
+		int i = skipTrivia(pos);
+		int start = i;
+		while (i < end && isIdentifierPart(code.charAt(i))) {
+			i++;
+		}
+		return CONTINUATIONS.contains(code.substring(start, i));
+	}
+
+	/**
+	 * @return the position of the next token, sets {@link #lineBreak}
+	 */
+	int skipTrivia(int i) {
+		lineBreak = false;
+		while (i < end) {
+			char c = code.charAt(i);
+			if (c == '\n' || c == '\r' || c == '\u2028' || c == '\u2029') {
+				lineBreak = true;
+				i++;
+			} else if (Character.isWhitespace(c)) {
+				i++;
+			} else if (c == '/' && i + 1 < end && code.charAt(i + 1) == '/') {
+				while (i < end && code.charAt(i) != '\n' && code.charAt(i) != '\r') {
+					i++;
+				}
+			} else if (c == '/' && i + 1 < end && code.charAt(i + 1) == '*') {
+				int close = code.indexOf("*/", i + 2);
+				if (close < 0 || close + 2 > end) {
+					return end;
+				}
+				for (int j = i; j < close; j++) {
+					if (code.charAt(j) == '\n' || code.charAt(j) == '\r') {
+						lineBreak = true;
+					}
+				}
+				i = close + 2;
+			} else {
+				break;
+			}
+		}
+		return i;
+	}
+
+	void skipString(char quote) {
+		pos++;
+		while (pos < end) {
+			char c = code.charAt(pos++);
+			if (c == '\\') {
+				pos++;
+			} else if (c == quote) {
+				return;
+			}
+		}
+	}
+
+	void skipLine() {
+		while (pos < end && code.charAt(pos) != '\n' && code.charAt(pos) != '\r') {
+			pos++;
+		}
+	}
+
+	void skipComment() {
+		int close = code.indexOf("*/", pos + 2);
+		pos = close < 0 || close + 2 > end ? end : close + 2;
+	}
+
+	void skipRegex() {
+		pos++;
+		boolean inClass = false;
+		while (pos < end) {
+			char c = code.charAt(pos++);
+			if (c == '\\') {
+				pos++;
+			} else if (c == '[') {
+				inClass = true;
+			} else if (c == ']') {
+				inClass = false;
+			} else if (c == '/' && !inClass) {
+				break;
+			} else if (c == '\n' || c == '\r') {
+				// division after all
+				pos--;
+				return;
+			}
+		}
+		while (pos < end && isIdentifierPart(code.charAt(pos))) {
+			// flags
+			pos++;
+		}
+	}
+
+	static boolean isIdentifierPart(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '$' || c == '_'
+				|| c == '\\' || c >= 0x80;
+	}
+
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+
+package com.siemens.ct.exi.javascript;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * UTF-8 input without intermediate copies. JavaScript code is decoded once
+ * into the <code>char[]</code> the parser works on (see
+ * {@link JStoAST#parse(char[])}), a JSON AST is decoded chunk by chunk while
+ * the JSON parser reads it. Files are memory-mapped rather than read.
+ * Malformed input is replaced the way <code>new String(bytes, UTF_8)</code>
+ * does.
+ */
+final class Utf8Input {
+
+	static final int BUFFER_SIZE = 8192;
+
+	private Utf8Input() {
+	}
+
+	static CharsetDecoder newDecoder() {
+		return StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	static char[] read(Reader reader) throws IOException {
+		char[] chars = new char[BUFFER_SIZE];
+		int length = 0;
+		int n;
+		while ((n = reader.read(chars, length, chars.length - length)) >= 0) {
+			length += n;
+			if (length == chars.length) {
+				chars = Arrays.copyOf(chars, 2 * chars.length);
+			}
+		}
+		return length == chars.length ? chars : Arrays.copyOf(chars, length);
+	}
+
+	/* blocking channels only */
+	static char[] read(ReadableByteChannel channel) throws IOException {
+		CharsetDecoder decoder = newDecoder();
+		ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+		CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+		boolean eof = false;
+		while (!eof) {
+			eof = channel.read(bytes) < 0;
+			bytes.flip();
+			while (decoder.decode(bytes, chars, eof).isOverflow()) {
+				chars = grow(chars);
+			}
+			bytes.compact();
+		}
+		while (decoder.flush(chars).isOverflow()) {
+			chars = grow(chars);
+		}
+		return toArray(chars);
+	}
+
+	static char[] read(Path file) throws IOException {
+		return decode(map(file), file);
+	}
+
+	/* the remaining bytes, e.g., of a mapped file */
+	static char[] decode(ByteBuffer bytes, Object source) throws IOException {
+		// UTF-8 never has more chars than bytes
+		CharBuffer chars = CharBuffer.allocate(bytes.remaining());
+		CharsetDecoder decoder = newDecoder();
+		CoderResult cr = decoder.decode(bytes, chars, true);
+		if (!cr.isUnderflow() || !decoder.flush(chars).isUnderflow()) {
+			throw new IOException("Not able to decode " + source + ": " + cr);
+		}
+		return toArray(chars);
+	}
+
+	static Reader reader(ReadableByteChannel channel) {
+		return Channels.newReader(channel, newDecoder(), BUFFER_SIZE);
+	}
+
+	static Reader reader(Path file) throws IOException {
+		return new MappedReader(map(file));
+	}
+
+	static MappedByteBuffer map(Path file) throws IOException {
+		FileChannel fc = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			return fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+		} finally {
+			// the mapping stays valid
+			fc.close();
+		}
+	}
+
+	static CharBuffer grow(CharBuffer chars) {
+		CharBuffer bigger = CharBuffer.allocate(2 * chars.capacity());
+		chars.flip();
+		bigger.put(chars);
+		return bigger;
+	}
+
+	static char[] toArray(CharBuffer chars) {
+		char[] array = chars.array();
+		return chars.position() == array.length ? array : Arrays.copyOf(array, chars.position());
+	}
+
+	/**
+	 * Decodes straight from the mapped file into the buffer of the caller.
+	 */
+	static class MappedReader extends Reader {
+		final ByteBuffer bytes;
+		final CharsetDecoder decoder = newDecoder();
+		/* low surrogate that did not fit into the last read */
+		int pending = -1;
+		boolean flushed;
+
+		MappedReader(ByteBuffer bytes) {
+			this.bytes = bytes;
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			CharBuffer chars = CharBuffer.wrap(cbuf, off, len);
+			if (pending >= 0) {
+				chars.put((char) pending);
+				pending = -1;
+			}
+			if (bytes.hasRemaining()) {
+				decoder.decode(bytes, chars, true);
+				if (chars.position() == off && bytes.hasRemaining()) {
+					// a surrogate pair does not fit into a single char
+					CharBuffer pair = CharBuffer.allocate(2);
+					decoder.decode(bytes, pair, true);
+					pair.flip();
+					chars.put(pair.get());
+					if (pair.hasRemaining()) {
+						pending = pair.get();
+					}
+				}
+			}
+			if (!bytes.hasRemaining() && pending < 0 && !flushed) {
+				flushed = decoder.flush(chars).isUnderflow();
+			}
+			int n = chars.position() - off;
+			return n == 0 && flushed ? -1 : n;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+}
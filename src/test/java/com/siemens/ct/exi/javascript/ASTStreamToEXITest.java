@@ -0,0 +1,106 @@
+package com.siemens.ct.exi.javascript;
+
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.assertSameBytes;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.encodeAST;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.parseJSON;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.read;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
+
+import org.junit.FixMethodOrder;
+import org.junit.runners.MethodSorters;
+
+import com.siemens.ct.exi.core.exceptions.EXIException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for streaming JSON AST ingestion
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class ASTStreamToEXITest extends TestCase {
+
+	/**
+	 * Create the test case
+	 *
+	 * @param testName
+	 *            name of the test case
+	 */
+	public ASTStreamToEXITest(String testName) {
+		super(testName);
+	}
+
+	/**
+	 * @return the suite of tests being tested
+	 */
+	public static Test suite() {
+		return new TestSuite(ASTStreamToEXITest.class);
+	}
+
+	public void testKeyOrder() throws IOException, EXIException {
+		JStoEXI js2exi = new JStoEXI();
+		String jsonAST = JStoAST.getAST(read("browserDetection.js"));
+		byte[] expected = encodeAST(js2exi, jsonAST);
+		Random random = new Random(42);
+		for (int i = 0; i < 5; i++) {
+			String shuffled = shuffle(parseJSON(jsonAST), random).toString();
+			assertSameBytes(expected, encodeStreaming(js2exi, shuffled));
+			assertSameBytes(expected, encodeAST(js2exi, shuffled));
+		}
+
+		// properties ahead of the type
+		String unary = "{\"type\":\"Program\",\"body\":[{\"type\":\"ExpressionStatement\",\"expression\":"
+				+ "{\"prefix\":true,\"argument\":{\"type\":\"Identifier\",\"name\":\"x\"},\"operator\":\"!\","
+				+ "\"type\":\"UnaryExpression\"}}]}";
+		assertSameBytes(encodeAST(js2exi, unary), encodeStreaming(js2exi, unary));
+		// items of a default type, with and without it
+		String object = "{\"type\":\"Program\",\"body\":[{\"type\":\"ExpressionStatement\",\"expression\":"
+				+ "{\"type\":\"ObjectExpression\",\"properties\":[{\"key\":{\"type\":\"Identifier\",\"name\":\"a\"},"
+				+ "\"type\":\"Property\",\"value\":{\"type\":\"Literal\",\"value\":1},\"kind\":\"init\"},"
+				+ "{\"key\":{\"type\":\"Identifier\",\"name\":\"b\"},\"value\":{\"type\":\"Literal\",\"value\":2.5},"
+				+ "\"kind\":\"init\"}]}}]}";
+		assertSameBytes(encodeAST(js2exi, object), encodeStreaming(js2exi, object));
+	}
+
+	static byte[] encodeStreaming(JStoEXI js2exi, String jsonAST) throws IOException, EXIException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		js2exi.generate(new StringReader(jsonAST), baos);
+		return baos.toByteArray();
+	}
+
+	static JsonValue shuffle(JsonValue value, Random random) {
+		if (value instanceof JsonObject) {
+			List<Map.Entry<String, JsonValue>> properties = new ArrayList<Map.Entry<String, JsonValue>>(
+					((JsonObject) value).entrySet());
+			Collections.shuffle(properties, random);
+			JsonObjectBuilder ob = Json.createObjectBuilder();
+			for (Map.Entry<String, JsonValue> property : properties) {
+				ob.add(property.getKey(), shuffle(property.getValue(), random));
+			}
+			return ob.build();
+		} else if (value instanceof JsonArray) {
+			JsonArrayBuilder ab = Json.createArrayBuilder();
+			for (JsonValue item : (JsonArray) value) {
+				ab.add(shuffle(item, random));
+			}
+			return ab.build();
+		}
+		return value;
+	}
+}
@@ -0,0 +1,83 @@
+package com.siemens.ct.exi.javascript;
+
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.assertSameBytes;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.encode;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.read;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.FixMethodOrder;
+import org.junit.runners.MethodSorters;
+
+import com.siemens.ct.exi.core.exceptions.EXIException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for ByteBuffer and channel output
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class ByteBufferOutputTest extends TestCase {
+
+	/**
+	 * Create the test case
+	 *
+	 * @param testName
+	 *            name of the test case
+	 */
+	public ByteBufferOutputTest(String testName) {
+		super(testName);
+	}
+
+	/**
+	 * @return the suite of tests being tested
+	 */
+	public static Test suite() {
+		return new TestSuite(ByteBufferOutputTest.class);
+	}
+
+	public void testByteBufferOutput() throws IOException, EXIException {
+		String jsCode = read("jquery.min.js");
+		JStoEXI js2exi = new JStoEXI();
+		byte[] expected = encode(js2exi, jsCode);
+
+		Path exi = Files.createTempFile("exi", ".exi");
+		try {
+			for (int i = 0; i < 2; i++) {
+				FileChannel channel = FileChannel.open(exi, StandardOpenOption.WRITE,
+						StandardOpenOption.TRUNCATE_EXISTING);
+				try {
+					js2exi.generateFromSource(jsCode, channel);
+				} finally {
+					channel.close();
+				}
+				assertSameBytes(expected, Files.readAllBytes(exi));
+			}
+		} finally {
+			Files.delete(exi);
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect(expected.length + 10);
+		buffer.position(10);
+		assertEquals(expected.length, js2exi.generateFromSource(jsCode, buffer));
+		assertEquals(expected.length + 10, buffer.position());
+		byte[] bytes = new byte[expected.length];
+		buffer.position(10);
+		buffer.get(bytes);
+		assertSameBytes(expected, bytes);
+
+		try {
+			js2exi.generateFromSource(jsCode, ByteBuffer.allocate(expected.length - 1));
+			fail();
+		} catch (BufferOverflowException e) {
+		}
+	}
+}
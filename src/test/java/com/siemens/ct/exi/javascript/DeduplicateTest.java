@@ -0,0 +1,65 @@
+package com.siemens.ct.exi.javascript;
+
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.assertSameBytes;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.decode;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.encode;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.encodeAST;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.read;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.toJS;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import javax.json.JsonObject;
+
+import org.junit.FixMethodOrder;
+import org.junit.runners.MethodSorters;
+
+import com.siemens.ct.exi.core.exceptions.EXIException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for deduplicated subtrees
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class DeduplicateTest extends TestCase {
+
+	/**
+	 * Create the test case
+	 *
+	 * @param testName
+	 *            name of the test case
+	 */
+	public DeduplicateTest(String testName) {
+		super(testName);
+	}
+
+	/**
+	 * @return the suite of tests being tested
+	 */
+	public static Test suite() {
+		return new TestSuite(DeduplicateTest.class);
+	}
+
+	public void testDeduplicate() throws IOException, EXIException {
+		String jsCode = read("jquery.min.js");
+		byte[] plain = encode(new JStoEXI(), jsCode);
+		JStoEXI js2exi = new JStoEXI(JSConstants.EXI_FACTORY_DEDUP);
+		byte[] dedup = encode(js2exi, jsCode);
+		assertTrue(dedup.length < plain.length * 0.9);
+
+		// same references from the JSON AST
+		assertSameBytes(dedup, encodeAST(js2exi, JStoAST.getAST(jsCode)));
+
+		// references expanded
+		EXItoAST exi2ast = new EXItoAST(JSConstants.EXI_FACTORY_DEDUP);
+		JsonObject expected = decode(new EXItoAST(), plain);
+		assertEquals(expected, decode(exi2ast, dedup));
+		assertEquals(expected, exi2ast.decode(new ByteArrayInputStream(dedup), true));
+
+		assertEquals(toJS(new EXItoJS(), plain), toJS(new EXItoJS(JSConstants.EXI_FACTORY_DEDUP), dedup));
+	}
+}
@@ -0,0 +1,105 @@
+package com.siemens.ct.exi.javascript;
+
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.assertSameBytes;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.encode;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.encodeAST;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.path;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.read;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.toJS;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.toJSON;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.FixMethodOrder;
+import org.junit.runners.MethodSorters;
+
+import com.siemens.ct.exi.core.exceptions.EXIException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for the ES2015 parser
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class ES2015ParserTest extends TestCase {
+
+	/**
+	 * Create the test case
+	 *
+	 * @param testName
+	 *            name of the test case
+	 */
+	public ES2015ParserTest(String testName) {
+		super(testName);
+	}
+
+	/**
+	 * @return the suite of tests being tested
+	 */
+	public static Test suite() {
+		return new TestSuite(ES2015ParserTest.class);
+	}
+
+	public void testES2015Parser() throws IOException, EXIException {
+		// ES5 code yields the very same EXI as with Nashorn
+		String jsCode = read("jquery.min.js");
+		byte[] expected = encode(new JStoEXI(JSConstants.EXI_FACTORY, new NashornParser()), jsCode);
+		assertSameBytes(expected, encode(new JStoEXI(JSConstants.EXI_FACTORY, new ES2015Parser()), jsCode));
+
+		JStoEXI js2exi = new JStoEXI(JSConstants.EXI_FACTORY_ES2015);
+		String[] es2015 = { "let a = 1; const b = [...a], {c, d: [e = 2]} = f;",
+				"var g = (h, i = 1, ...j) => h ** i; ({k} = l);",
+				"class M extends N { constructor() { super(); new.target; } static *[Symbol.iterator]() { yield* o; } get p() { return `q${r}s`; } }",
+				"for (const t of u) { tag`v${t}`; }",
+				"import w, {x as y} from 'z'; export default class {} export * from 'z';", "with (a.b) { c = d; }" };
+		for (String code : es2015) {
+			byte[] exi = encode(js2exi, code);
+			assertSameBytes(code, exi, encode(js2exi, toJS(new EXItoJS(JSConstants.EXI_FACTORY_ES2015), exi)));
+		}
+		JStoEXI dedup = new JStoEXI(JSConstants.EXI_FACTORY_ES2015_DEDUP);
+		String code = "let f = () => a.b.c(1, 2); let g = () => a.b.c(1, 2);";
+		byte[] exi = encode(dedup, code);
+		assertSameBytes(code, exi, encode(dedup, toJS(new EXItoJS(JSConstants.EXI_FACTORY_ES2015_DEDUP), exi)));
+
+		for (String unsupported : new String[] { "var o = { ...p };", "var o = { [k]: v };" }) {
+			try {
+				encode(js2exi, unsupported);
+				fail(unsupported);
+			} catch (RuntimeException e) {
+				assertTrue(e.getMessage(), e.getMessage().startsWith("SyntaxError: <unknown>:1:"));
+			}
+		}
+	}
+
+	public void testSchemaId() throws IOException, EXIException {
+		// streams of exi4js.xsd as encoded before ES2015 decode to their very AST
+		byte[] old = Files.readAllBytes(path("browserDetection.exi"));
+		assertSameBytes(old, encodeAST(new JStoEXI(), toJSON(new EXItoAST(), old)));
+
+		byte[] es5 = encode(new JStoEXI(), read("browserDetection.js"));
+		byte[] es2015 = encode(new JStoEXI(JSConstants.EXI_FACTORY_ES2015), read("browserDetection.js"));
+		assertEquals(toJSON(new EXItoAST(), es5), toJSON(new EXItoAST(JSConstants.EXI_FACTORY_ES2015), es2015));
+
+		// and either is refused by the decoder of the other
+		try {
+			toJSON(new EXItoAST(JSConstants.EXI_FACTORY_ES2015), es5);
+			fail();
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Unsupported EXI4JS stream"));
+		}
+		try {
+			toJSON(new EXItoAST(), es2015);
+			fail();
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Unsupported EXI4JS stream"));
+		}
+		try {
+			encode(new JStoEXI(), "class A {}");
+			fail();
+		} catch (RuntimeException e) {
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package com.siemens.ct.exi.javascript;
+
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.decode;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.encode;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.path;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.read;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+
+import org.junit.FixMethodOrder;
+import org.junit.runners.MethodSorters;
+
+import com.siemens.ct.exi.core.exceptions.EXIException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for statement-wise random access
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class EXI4JSContainerTest extends TestCase {
+
+	/**
+	 * Create the test case
+	 *
+	 * @param testName
+	 *            name of the test case
+	 */
+	public EXI4JSContainerTest(String testName) {
+		super(testName);
+	}
+
+	/**
+	 * @return the suite of tests being tested
+	 */
+	public static Test suite() {
+		return new TestSuite(EXI4JSContainerTest.class);
+	}
+
+	public void testContainer() throws IOException, EXIException {
+		Path js = path("angular2.js");
+		File container = File.createTempFile("angular2", ".e4jc");
+		try {
+			for (JStoEXI js2exi : new JStoEXI[] { new JStoEXI(),
+					new JStoEXI(JSConstants.EXI_FACTORY, new NashornParser()) }) {
+				OutputStream os = new FileOutputStream(container);
+				try {
+					js2exi.generateContainer(js, os);
+				} finally {
+					os.close();
+				}
+				EXItoAST exi2ast = new EXItoAST();
+				JsonArray body = decode(exi2ast, encode(js2exi, read("angular2.js"))).getJsonArray("body");
+
+				EXI4JSContainer c = EXI4JSContainer.open(container.toPath());
+				try {
+					assertEquals(body.size(), c.getEntries().size());
+					int i = c.indexOf("angular2/src/core/di/metadata");
+					assertTrue(i > 0);
+					assertEquals("ExpressionStatement", c.getEntries().get(i).getType());
+					for (int k : new int[] { 0, i, body.size() - 1 }) {
+						JsonArray statement = exi2ast.decode(c.getStatement(k)).getJsonArray("body");
+						assertEquals(1, statement.size());
+						assertEquals(body.get(k), statement.get(0));
+					}
+				} finally {
+					c.close();
+				}
+			}
+		} finally {
+			container.delete();
+		}
+	}
+
+	public void testContainerES2015() throws IOException, EXIException {
+		Path container = Files.createTempFile("es2015", ".e4jc");
+		try {
+			OutputStream os = Files.newOutputStream(container);
+			try {
+				new JStoEXI(JSConstants.EXI_FACTORY_ES2015).generateContainer("let a = 1;\nclass B extends A {}\nexports.c = () => a;", os);
+			} finally {
+				os.close();
+			}
+			EXI4JSContainer c = EXI4JSContainer.open(container);
+			try {
+				assertEquals(3, c.getEntries().size());
+				assertEquals("VariableDeclaration", c.getEntries().get(0).getType());
+				assertEquals(0, c.indexOf("a"));
+				assertEquals(1, c.indexOf("B"));
+				assertEquals(2, c.indexOf("exports.c"));
+				JsonObject statement = new EXItoAST(JSConstants.EXI_FACTORY_ES2015).decode(c.getStatement(2)).getJsonArray("body").getJsonObject(0);
+				assertEquals("ArrowExpression",
+						statement.getJsonObject("expression").getJsonObject("right").getString("type"));
+			} finally {
+				c.close();
+			}
+		} finally {
+			Files.delete(container);
+		}
+	}
+}
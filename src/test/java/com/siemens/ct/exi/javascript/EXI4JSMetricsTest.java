@@ -0,0 +1,96 @@
+package com.siemens.ct.exi.javascript;
+
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.encode;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.read;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.toJSON;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.junit.FixMethodOrder;
+import org.junit.runners.MethodSorters;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for the JMX metrics
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class EXI4JSMetricsTest extends TestCase {
+
+	/**
+	 * Create the test case
+	 *
+	 * @param testName
+	 *            name of the test case
+	 */
+	public EXI4JSMetricsTest(String testName) {
+		super(testName);
+	}
+
+	/**
+	 * @return the suite of tests being tested
+	 */
+	public static Test suite() {
+		return new TestSuite(EXI4JSMetricsTest.class);
+	}
+
+	public void testMetrics() throws Exception {
+		String jsCode = read("animals.js");
+		EXI4JSMetrics metrics = EXI4JSMetrics.register();
+		try {
+			metrics.reset();
+			String mode = EXI4JSMetrics.codingMode(JSConstants.EXI_FACTORY);
+			byte[] exi = encode(new JStoEXI(), jsCode);
+			byte[] json = toJSON(new EXItoAST(), exi).getBytes("UTF-8");
+
+			assertEquals(1, metrics.getParse().getDocuments());
+			assertEquals(jsCode.length(), metrics.getParse().getBytesIn());
+
+			EXI4JSMetrics.PhaseMetrics encode = metrics.getEncode().get(mode);
+			assertEquals(1, encode.getDocuments());
+			assertEquals(jsCode.length(), encode.getBytesIn());
+			assertEquals(exi.length, encode.getBytesOut());
+			assertEquals((double) exi.length / jsCode.length(), encode.getCompressionRatio(), 1e-9);
+			long sum = 0;
+			for (long n : metrics.getNodeTypes().values()) {
+				sum += n;
+			}
+			assertEquals(encode.getNodes(), sum);
+			assertEquals(Long.valueOf(1), metrics.getNodeTypes().get("Program"));
+			long latencies = 0;
+			for (long n : encode.getLatencyHistogram()) {
+				latencies += n;
+			}
+			assertEquals(1, latencies);
+			assertTrue(encode.getP99Millis() >= encode.getP50Millis() && encode.getP50Millis() > 0);
+
+			EXI4JSMetrics.PhaseMetrics decode = metrics.getDecode().get(mode);
+			assertEquals(1, decode.getDocuments());
+			assertEquals(exi.length, decode.getBytesIn());
+			assertEquals(json.length, decode.getBytesOut());
+			assertEquals(encode.getNodes(), decode.getNodes());
+
+			// as seen by JMX clients
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(EXI4JSMetrics.OBJECT_NAME);
+			CompositeData parse = (CompositeData) server.getAttribute(name, "Parse");
+			assertEquals(1L, parse.get("documents"));
+			assertTrue(server.getAttribute(name, "Encode") instanceof TabularData);
+
+			// nothing is recorded while disabled
+			server.setAttribute(name, new Attribute("Enabled", false));
+			encode(new JStoEXI(), jsCode);
+			assertEquals(1, metrics.getEncode().get(mode).getDocuments());
+		} finally {
+			metrics.setEnabled(false);
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package com.siemens.ct.exi.javascript;
+
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.assertSameBytes;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.encode;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.read;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+
+import org.junit.FixMethodOrder;
+import org.junit.runners.MethodSorters;
+
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.exceptions.EXIException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for the bit attribution profiler
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class EXI4JSProfileTest extends TestCase {
+
+	/**
+	 * Create the test case
+	 *
+	 * @param testName
+	 *            name of the test case
+	 */
+	public EXI4JSProfileTest(String testName) {
+		super(testName);
+	}
+
+	/**
+	 * @return the suite of tests being tested
+	 */
+	public static Test suite() {
+		return new TestSuite(EXI4JSProfileTest.class);
+	}
+
+	public void testProfile() throws IOException, EXIException {
+		String jsCode = read("react.min.js");
+		for (EXIFactory ef : new EXIFactory[] { JSConstants.EXI_FACTORY, JSConstants.EXI_FACTORY_BYTE_PACKED,
+				JSConstants.EXI_FACTORY_DEDUP }) {
+			JStoEXI js2exi = new JStoEXI(ef);
+			byte[] expected = encode(js2exi, jsCode);
+
+			EXI4JSProfile profile = new EXI4JSProfile();
+			js2exi.setProfile(profile);
+			byte[] exi = encode(js2exi, jsCode);
+			js2exi.setProfile(null);
+			// profiling does not change a bit
+			assertSameBytes(expected, exi);
+
+			// every bit is attributed once
+			long bits = exi.length * 8L;
+			assertEquals(1, profile.getDocuments());
+			assertEquals(bits, profile.exiBits);
+			assertEquals(bits, profile.documentBits + sum(profile.getNodeBits().values()));
+			assertEquals(bits, profile.documentBits + sum(profile.getElementBits().values()));
+			long valueBits = 0;
+			for (EXI4JSProfile.Bits b : profile.elements.values()) {
+				valueBits += b.valueBits;
+			}
+			assertEquals(valueBits, sum(profile.getValueBits().values()));
+			assertTrue(profile.getValueBits().get(EXI4JSProfile.MISS) > 0);
+			assertEquals(profile.nodes.get("Identifier").count, profile.elements.get("Identifier").count);
+
+			ByteArrayOutputStream json = new ByteArrayOutputStream();
+			profile.writeJson(json);
+			JsonObject jo = Json.createReader(new ByteArrayInputStream(json.toByteArray())).readObject();
+			assertEquals(bits, jo.getJsonNumber("bits").longValue());
+			assertTrue(jo.getJsonObject("nodes").containsKey("Identifier"));
+		}
+		try {
+			new JStoEXI(JSConstants.EXI_FACTORY_COMPRESSION).setProfile(new EXI4JSProfile());
+			fail("Compression reorders the bits");
+		} catch (RuntimeException e) {
+			// expected
+		}
+	}
+
+	static long sum(Iterable<Long> values) {
+		long sum = 0;
+		for (long v : values) {
+			sum += v;
+		}
+		return sum;
+	}
+}
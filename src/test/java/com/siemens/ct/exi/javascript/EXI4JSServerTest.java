@@ -0,0 +1,107 @@
+package com.siemens.ct.exi.javascript;
+
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.assertSameBytes;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.decode;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.encode;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.path;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+
+import javax.json.Json;
+
+import org.junit.FixMethodOrder;
+import org.junit.runners.MethodSorters;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for the HTTP service
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class EXI4JSServerTest extends TestCase {
+
+	/**
+	 * Create the test case
+	 *
+	 * @param testName
+	 *            name of the test case
+	 */
+	public EXI4JSServerTest(String testName) {
+		super(testName);
+	}
+
+	/**
+	 * @return the suite of tests being tested
+	 */
+	public static Test suite() {
+		return new TestSuite(EXI4JSServerTest.class);
+	}
+
+	public void testServer() throws Exception {
+		byte[] jsCode = Files.readAllBytes(path("browserDetection.js"));
+		EXI4JSServer server = new EXI4JSServer(new InetSocketAddress("localhost", 0), 4);
+		server.start();
+		try {
+			String url = "http://localhost:" + server.getAddress().getPort();
+			byte[] expected = encode(new JStoEXI(JSConstants.EXI_FACTORY_COMPRESSION), new String(jsCode, "UTF-8"));
+			byte[] exi = EXI4JSLoadTest.post(new URL(url + "/encode?codingMode=compression"), jsCode);
+			assertSameBytes(expected, exi);
+
+			byte[] json = EXI4JSLoadTest.post(new URL(url + "/decode?codingMode=compression"), exi);
+			assertEquals(decode(new EXItoAST(JSConstants.EXI_FACTORY_COMPRESSION), exi),
+					Json.createReader(new ByteArrayInputStream(json)).readObject());
+
+			try {
+				EXI4JSLoadTest.post(new URL(url + "/encode"), "var x = ;".getBytes("UTF-8"));
+				fail();
+			} catch (IOException e) {
+				assertTrue(e.getMessage(), e.getMessage().startsWith("HTTP 400"));
+			}
+
+			EXI4JSLoadTest.Result result = EXI4JSLoadTest.run(url, "dedup", jsCode, 4, 40, true);
+			assertEquals(0, result.failures);
+		} finally {
+			server.stop(0);
+		}
+	}
+
+	public void testMaxBody() throws Exception {
+		byte[] jsCode = Files.readAllBytes(path("browserDetection.js"));
+		EXI4JSServer server = new EXI4JSServer(new InetSocketAddress("localhost", 0), 4);
+		server.setMaxBody(jsCode.length - 1);
+		server.start();
+		try {
+			URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/encode");
+			// by the Content-Length
+			HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+			connection.setRequestMethod("POST");
+			connection.setDoOutput(true);
+			connection.setFixedLengthStreamingMode(jsCode.length);
+			OutputStream os = connection.getOutputStream();
+			os.write(jsCode);
+			os.close();
+			assertEquals(413, connection.getResponseCode());
+
+			// as read, chunked
+			try {
+				EXI4JSLoadTest.post(url, jsCode);
+				fail();
+			} catch (IOException e) {
+				assertTrue(e.getMessage(), e.getMessage().startsWith("HTTP 413"));
+			}
+
+			server.setMaxBody(jsCode.length);
+			EXI4JSLoadTest.post(url, jsCode);
+		} finally {
+			server.stop(0);
+		}
+	}
+}
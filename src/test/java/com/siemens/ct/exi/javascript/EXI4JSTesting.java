@@ -0,0 +1,105 @@
+package com.siemens.ct.exi.javascript;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+
+import com.siemens.ct.exi.core.exceptions.EXIException;
+
+import junit.framework.Assert;
+
+/**
+ * Helpers shared by the tests: sample files, encode and decode in one call
+ * and byte-wise comparison of EXI streams.
+ */
+class EXI4JSTesting {
+
+	static final String RESOURCES = "./src/test/resources/";
+
+	static Path path(String name) {
+		return Paths.get(RESOURCES + name);
+	}
+
+	/* sample file of src/test/resources in UTF-8 */
+	static String read(String name) throws IOException {
+		return new String(Files.readAllBytes(path(name)), "UTF-8");
+	}
+
+	static byte[] encode(JStoEXI js2exi, String jsCode) throws IOException, EXIException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		js2exi.generateFromSource(jsCode, baos);
+		return baos.toByteArray();
+	}
+
+	static byte[] encodeAST(JStoEXI js2exi, String jsonAST) throws IOException, EXIException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		js2exi.generate(jsonAST, baos);
+		return baos.toByteArray();
+	}
+
+	/* the JSON AST as written by the decoder */
+	static String toJSON(EXItoAST exi2ast, byte[] exi) throws IOException, EXIException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		exi2ast.generate(new ByteArrayInputStream(exi), baos);
+		return baos.toString("UTF-8");
+	}
+
+	static JsonObject decode(EXItoAST exi2ast, byte[] exi) throws IOException, EXIException {
+		return exi2ast.decode(new ByteArrayInputStream(exi));
+	}
+
+	static JsonObject parseJSON(String json) {
+		return Json.createReader(new StringReader(json)).readObject();
+	}
+
+	static String toJS(EXItoJS exi2js, byte[] exi) throws IOException, EXIException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		exi2js.generate(new ByteArrayInputStream(exi), baos);
+		return baos.toString("UTF-8");
+	}
+
+	/* reports where the streams part */
+	static void assertSameBytes(String message, byte[] expected, byte[] actual) {
+		if (Arrays.equals(expected, actual)) {
+			return;
+		}
+		int i = 0;
+		while (i < expected.length && i < actual.length && expected[i] == actual[i]) {
+			i++;
+		}
+		Assert.fail((message == null ? "" : message + ": ") + "EXI differs at byte " + i + " (" + expected.length
+				+ " expected, " + actual.length + " actual)");
+	}
+
+	static void assertSameBytes(byte[] expected, byte[] actual) {
+		assertSameBytes(null, expected, actual);
+	}
+
+	static void deleteRecursively(Path directory) throws IOException {
+		Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+}
@@ -0,0 +1,100 @@
+package com.siemens.ct.exi.javascript;
+
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.assertSameBytes;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.deleteRecursively;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.encode;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.path;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.read;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.FixMethodOrder;
+import org.junit.runners.MethodSorters;
+
+import com.siemens.ct.exi.core.CodingMode;
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.FidelityOptions;
+import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.core.helpers.DefaultEXIFactory;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for the on-disk encoding cache
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class EncodingCacheTest extends TestCase {
+
+	/**
+	 * Create the test case
+	 *
+	 * @param testName
+	 *            name of the test case
+	 */
+	public EncodingCacheTest(String testName) {
+		super(testName);
+	}
+
+	/**
+	 * @return the suite of tests being tested
+	 */
+	public static Test suite() {
+		return new TestSuite(EncodingCacheTest.class);
+	}
+
+	public void testEncodingCache() throws IOException, EXIException {
+		Path browserDetection = path("browserDetection.js");
+		Path xCryptic = path("xCryptic.app.js");
+		Path directory = Files.createTempDirectory("cache");
+		try {
+			JStoEXI js2exi = new JStoEXI();
+			EncodingCache cache = new EncodingCache(directory, 1 << 20);
+			byte[] expected = encode(js2exi, read("xCryptic.app.js"));
+			for (int i = 0; i < 2; i++) {
+				ByteArrayOutputStream baos = new ByteArrayOutputStream();
+				cache.generateFromSource(js2exi, xCryptic, baos);
+				assertSameBytes(expected, baos.toByteArray());
+			}
+			assertEquals(1, cache.getHits());
+			assertEquals(1, cache.getMisses());
+
+			// other options, other entries
+			EXIFactory ef = DefaultEXIFactory.newInstance();
+			ef.setFidelityOptions(FidelityOptions.createStrict());
+			ef.setCodingMode(CodingMode.COMPRESSION);
+			cache.generateFromSource(new JStoEXI(ef), xCryptic, new ByteArrayOutputStream());
+			assertEquals(2, cache.getMisses());
+			// other parsers too, encoded by that parser
+			JStoEXI es2015 = new JStoEXI(JSConstants.EXI_FACTORY, new ES2015Parser());
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			cache.generateFromSource(es2015, xCryptic, baos);
+			assertEquals(3, cache.getMisses());
+			assertSameBytes(encode(es2015, read("xCryptic.app.js")), baos.toByteArray());
+
+			// the least recently used entries go once the cache is full
+			List<EncodingCache.Entry> entries = new ArrayList<EncodingCache.Entry>();
+			long size = cache.scan(entries);
+			assertEquals(3, entries.size());
+			for (EncodingCache.Entry entry : entries) {
+				Files.setLastModifiedTime(entry.path, FileTime.fromMillis(entry.lastModified - 60000));
+			}
+			cache = new EncodingCache(directory, size + 100);
+			cache.generateFromSource(js2exi, browserDetection, new ByteArrayOutputStream());
+			entries.clear();
+			assertTrue(cache.scan(entries) <= size + 100);
+			assertTrue(entries.size() < 4);
+			cache.generateFromSource(js2exi, browserDetection, new ByteArrayOutputStream());
+			assertEquals(1, cache.getHits());
+		} finally {
+			deleteRecursively(directory);
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package com.siemens.ct.exi.javascript;
+
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.assertSameBytes;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.read;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import javax.json.stream.JsonParser;
+
+import org.junit.FixMethodOrder;
+import org.junit.runners.MethodSorters;
+
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.exceptions.EXIException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for the allocation-free body encoder
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class InOrderBodyEncoderTest extends TestCase {
+
+	/**
+	 * Create the test case
+	 *
+	 * @param testName
+	 *            name of the test case
+	 */
+	public InOrderBodyEncoderTest(String testName) {
+		super(testName);
+	}
+
+	/**
+	 * @return the suite of tests being tested
+	 */
+	public static Test suite() {
+		return new TestSuite(InOrderBodyEncoderTest.class);
+	}
+
+	public void testInOrderBodyEncoder() throws IOException, EXIException {
+		char[] jsCode = read("jquery.min.js")
+				.toCharArray();
+		ES2015Parser parser = new ES2015Parser();
+		ESTree.Events parsed = (ESTree.Events) parser.parse(jsCode);
+		int nodes = 0;
+		while (parsed.hasNext()) {
+			if (parsed.next() == JsonParser.Event.START_OBJECT) {
+				nodes++;
+			}
+		}
+
+		for (EXIFactory ef : new EXIFactory[] { JSConstants.EXI_FACTORY, JSConstants.EXI_FACTORY_BYTE_PACKED }) {
+			assertTrue(InOrderBodyEncoder.supports(ef));
+			// same bits as the body encoder of EXIficient
+			ByteArrayOutputStream expected = new ByteArrayOutputStream();
+			new ASTStreamToEXI(new ESTree.Events(parsed.tree))
+					.encode(ef.createEXIStreamEncoder().encodeHeader(expected));
+			JStoEXI js2exi = new JStoEXI(ef);
+			ByteArrayOutputStream baos = new ByteArrayOutputStream(expected.size());
+			for (int i = 0; i < 2; i++) {
+				baos.reset();
+				js2exi.generate(new ESTree.Events(parsed.tree), baos);
+				assertSameBytes(expected.toByteArray(), baos.toByteArray());
+			}
+		}
+		assertFalse(InOrderBodyEncoder.supports(JSConstants.EXI_FACTORY_COMPRESSION));
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+			com.sun.management.ThreadMXBean tmx = (com.sun.management.ThreadMXBean) threads;
+			long id = Thread.currentThread().getId();
+			JStoEXI js2exi = new JStoEXI();
+			ByteArrayOutputStream baos = new ByteArrayOutputStream(1 << 20);
+			long bytes = 0;
+			for (int i = 0; i < 10; i++) {
+				ESTree.Events events = new ESTree.Events(parsed.tree);
+				baos.reset();
+				long before = tmx.getThreadAllocatedBytes(id);
+				js2exi.generate(events, baos);
+				bytes = tmx.getThreadAllocatedBytes(id) - before;
+			}
+			// was about 200 bytes per node, the string table remains
+			assertTrue(bytes / nodes + " bytes per node", bytes / nodes < 32);
+		}
+		parsed.close();
+	}
+}
@@ -0,0 +1,115 @@
+package com.siemens.ct.exi.javascript;
+
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.assertSameBytes;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.read;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.FixMethodOrder;
+import org.junit.runners.MethodSorters;
+
+import com.siemens.ct.exi.core.exceptions.EXIException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for incremental re-encoding of containers
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class IncrementalJStoEXITest extends TestCase {
+
+	/**
+	 * Create the test case
+	 *
+	 * @param testName
+	 *            name of the test case
+	 */
+	public IncrementalJStoEXITest(String testName) {
+		super(testName);
+	}
+
+	/**
+	 * @return the suite of tests being tested
+	 */
+	public static Test suite() {
+		return new TestSuite(IncrementalJStoEXITest.class);
+	}
+
+	public void testIncremental() throws IOException, EXIException {
+		String jsCode = read("angular2.js");
+		JStoEXI js2exi = new JStoEXI();
+		IncrementalJStoEXI incremental = new IncrementalJStoEXI(js2exi);
+		assertIncremental(js2exi, incremental, jsCode);
+		assertEquals(jsCode.length(), incremental.getParsedCharacters());
+
+		// a statement in the middle of a module of the bundle
+		int p = jsCode.indexOf(";\n", jsCode.length() / 2) + 2;
+		String edited = jsCode.substring(0, p) + "var incremental = 1;\n" + jsCode.substring(p);
+		assertIncremental(js2exi, incremental, edited);
+		assertTrue(incremental.getParsedCharacters() < jsCode.length() / 100);
+		assertEquals(1, incremental.getEncodedStatements());
+		edited = edited.replace("var incremental = 1;", "var incremental = 'a' + /;/g;");
+		assertIncremental(js2exi, incremental, edited);
+		assertTrue(incremental.getParsedCharacters() < jsCode.length() / 100);
+
+		// syntax errors are reported and do not spoil what follows
+		try {
+			incremental.generateContainer(edited.replace("var incremental", "var var"), new ByteArrayOutputStream());
+			fail();
+		} catch (RuntimeException e) {
+			// expected
+		}
+		assertIncremental(js2exi, incremental, jsCode);
+		assertIncremental(js2exi, incremental, "'use strict';\n" + jsCode);
+	}
+
+	public void testIncrementalStrict() throws IOException, EXIException {
+		StringBuilder sb = new StringBuilder("'use strict';\n");
+		for (int i = 0; i < 100; i++) {
+			sb.append("var v").append(i).append(" = ").append(i).append(";\n");
+		}
+		String jsCode = sb.toString();
+		JStoEXI js2exi = new JStoEXI();
+		IncrementalJStoEXI incremental = new IncrementalJStoEXI(js2exi);
+		assertIncremental(js2exi, incremental, jsCode);
+
+		String edited = jsCode.replace("var v50 = 50;", "var v50 = 'fifty';");
+		assertIncremental(js2exi, incremental, edited);
+		assertTrue(incremental.getParsedCharacters() < 20);
+
+		// octal literals are a syntax error in strict code only
+		edited = jsCode.replace("var v50 = 50;", "var v50 = 010;");
+		try {
+			incremental.generateContainer(edited, new ByteArrayOutputStream());
+			fail();
+		} catch (RuntimeException e) {
+			// expected
+		}
+		assertIncremental(js2exi, incremental, jsCode);
+	}
+
+	public void testIncrementalES2015() throws IOException, EXIException {
+		String jsCode = "let a = 1;\nclass B extends A {\n m() { return `${a}`; }\n}\nfunction c() {}\nexports.d = () => a;\n";
+		JStoEXI js2exi = new JStoEXI(JSConstants.EXI_FACTORY_ES2015);
+		IncrementalJStoEXI incremental = new IncrementalJStoEXI(js2exi);
+		assertIncremental(js2exi, incremental, jsCode);
+		assertEquals(4, incremental.getEncodedStatements());
+
+		// function declarations stay hoisted
+		String edited = jsCode.replace("let a = 1;", "let a = 2;\nfunction e() {}");
+		assertIncremental(js2exi, incremental, edited);
+		assertEquals(2, incremental.getEncodedStatements());
+	}
+
+	static void assertIncremental(JStoEXI js2exi, IncrementalJStoEXI incremental, String jsCode)
+			throws IOException, EXIException {
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		js2exi.generateContainer(jsCode, expected);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		incremental.generateContainer(jsCode, baos);
+		assertSameBytes(expected.toByteArray(), baos.toByteArray());
+	}
+}
@@ -5,8 +5,20 @@ import static net.javacrumbs.jsonunit.JsonAssert.assertJsonEquals;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map.Entry;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonString;
+import javax.json.JsonValue;
 
 import org.junit.FixMethodOrder;
 import org.junit.runners.MethodSorters;
@@ -43,65 +55,161 @@ public class JSRoundtripTest extends TestCase {
 		_test("./src/test/resources/animals.js");
 	}
 
-//	public void testBrowserDetection() throws IOException, EXIException {
-//		_test("./src/test/resources/browserDetection.js");
-//	}
-//
-//	public void testXCryptic() throws IOException, EXIException {
-//		_test("./src/test/resources/xCryptic.app.js");
-//	}
-//
-//	public void testJquery() throws IOException, EXIException {
-//		_test("./src/test/resources/jquery.js");
-//	}
-//
-//	public void testJqueryMin() throws IOException, EXIException {
-//		_test("./src/test/resources/jquery.min.js");
-//	}
-//
-//	public void testAngular2() throws IOException, EXIException {
-//		_test("./src/test/resources/angular2.js");
-//	}
-//
-//	public void testAngular2Min() throws IOException, EXIException {
-//		_test("./src/test/resources/angular2.min.js");
-//	}
-//
-//	public void testReact() throws IOException, EXIException {
-//		_test("./src/test/resources/react.js");
-//	}
-//
-//	public void testReactMin() throws IOException, EXIException {
-//		_test("./src/test/resources/react.min.js");
-//	}
+	public void testBrowserDetection() throws IOException, EXIException {
+		_test("./src/test/resources/browserDetection.js");
+	}
+
+	public void testXCryptic() throws IOException, EXIException {
+		_test("./src/test/resources/xCryptic.app.js");
+	}
+
+	public void testJquery() throws IOException, EXIException {
+		_test("./src/test/resources/jquery.js");
+	}
+
+	public void testJqueryMin() throws IOException, EXIException {
+		_test("./src/test/resources/jquery.min.js");
+	}
+
+	public void testAngular2() throws IOException, EXIException {
+		_test("./src/test/resources/angular2.js");
+	}
+
+	public void testAngular2Min() throws IOException, EXIException {
+		_test("./src/test/resources/angular2.min.js");
+	}
+
+	public void testReact() throws IOException, EXIException {
+		_test("./src/test/resources/react.js");
+	}
+
+	public void testReactMin() throws IOException, EXIException {
+		_test("./src/test/resources/react.min.js");
+	}
+
+	public void testConstructs() throws IOException, EXIException {
+		_testCode("constructs", "try { a = 's\\n\\\"' ? 1.5 : /x+/g; } catch (e) { L: for (;;) break L; } finally { ; }"
+				+ "switch (x) { case 1: debugger; default: }"
+				+ "var o = { get a() { return this.b; }, set a(v) {}, b: [1, , 12e3, 2e21, 123.456, 9007199254740993, 0x10, null, true, ,] };"
+				+ "do { delete o[a++]; } while (!o && typeof o != 'x');"
+				+ "for (var k in o) continue; new F(function f() { 'use strict'; throw k; }, -1e-7);"
+				+ "(function() {})(); ({}).x; 1..toString(); a = b ? c : d ? e : f; x = (a, b); w = a - -b + +c;"
+				+ "if (a) { if (b) c(); } else d(); new (f())(); new (a().b)(); for (var i = ('x' in o); i < 3; i++);"
+				+ "l: while (1) { continue l; } v = a / /re/g.exec(b); u = (a = 1) + (b || c) * (d && e);"
+				+ "q = !(a instanceof B); t = typeof typeof x; ++a.b; c--; (a || b)(); (a ? b : c).d;");
+	}
 
 	protected void _test(String js) throws IOException, EXIException {
-		String jsCode = new String(Files.readAllBytes(Paths.get(js)));
+		_testCode(js, new String(Files.readAllBytes(Paths.get(js))));
+	}
+
+	protected void _testCode(String js, String jsCode) throws IOException, EXIException {
 		JStoEXI js2exi = new JStoEXI();
 		ByteArrayOutputStream baos = new ByteArrayOutputStream();
 		String jsonAST = JStoAST.getAST(jsCode);
 		js2exi.generate(jsonAST, baos);
 
-		
 		// reconstruct JS AST
 		EXItoAST exi2ast = new EXItoAST();
 		ByteArrayOutputStream baosAST = new ByteArrayOutputStream();
 		exi2ast.generate(new ByteArrayInputStream(baos.toByteArray()), baosAST);
-		
-		System.out.println("from: " + jsonAST);
-		System.out.println("to: " + baosAST.toString());
-		
-//		import static net.javacrumbs.jsonunit.core.Option.*;
-//		assertJsonEquals("{\"test\":[1,2,3]}", 
-//			    "{\"test\":[3,2,1]}",
-//			    when(IGNORING_ARRAY_ORDER));
-		
-		assertJsonEquals(jsonAST, baosAST.toString());
-		
-//		assertJsonEquals("{\"test\":[1,2,3]}",
-//                "{\"test\":  [3,2,1]}"); // ,when(IGNORING_ARRAY_ORDER)
-		
-		// 	// TODO JSON comparison https://github.com/lukas-krecan/JsonUnit
-		// http://stackoverflow.com/questions/2253750/compare-two-json-objects-in-java
+		String decoded = baosAST.toString("UTF-8");
+
+		assertJsonEquals(normalize(Json.createReader(new StringReader(jsonAST)).read()).toString(), decoded);
+
+		// and back again
+		ByteArrayOutputStream baos2 = new ByteArrayOutputStream();
+		js2exi.generate(decoded, baos2);
+		assertTrue(js + " differs when encoded again", Arrays.equals(baos.toByteArray(), baos2.toByteArray()));
+
+		// reconstruct JavaScript, which must parse to the same AST
+		String expected = flattenBlocks(Json.createReader(new StringReader(jsonAST)).read()).toString();
+		for (boolean pretty : new boolean[] { false, true }) {
+			StringWriter code = new StringWriter();
+			new EXItoJS(JSConstants.EXI_FACTORY, pretty).generate(new ByteArrayInputStream(baos.toByteArray()), code);
+			String reparsed = JStoAST.getAST(code.toString());
+			assertEquals(js + " pretty=" + pretty, expected,
+					flattenBlocks(Json.createReader(new StringReader(reparsed)).read()).toString());
+		}
+	}
+
+	/*
+	 * Nashorn wraps some statements (e.g., try) into a block statement of its
+	 * own, which is printed as braces and wrapped once more when parsed again.
+	 */
+	static JsonValue flattenBlocks(JsonValue jv) {
+		switch (jv.getValueType()) {
+		case OBJECT:
+			JsonObjectBuilder job = Json.createObjectBuilder();
+			for (Entry<String, JsonValue> e : ((JsonObject) jv).entrySet()) {
+				job.add(e.getKey(), flattenBlocks(e.getValue()));
+			}
+			return job.build();
+		case ARRAY:
+			JsonArrayBuilder jab = Json.createArrayBuilder();
+			for (JsonValue item : (JsonArray) jv) {
+				if (item.getValueType() == JsonValue.ValueType.OBJECT && ((JsonObject) item).containsKey("block")
+						&& "BlockStatement".equals(((JsonObject) item).getString("type"))) {
+					JsonValue body = ((JsonObject) item).getJsonObject("block").get("body");
+					for (JsonValue statement : (JsonArray) flattenBlocks(body)) {
+						jab.add(statement);
+					}
+				} else {
+					jab.add(flattenBlocks(item));
+				}
+			}
+			return jab.build();
+		default:
+			return jv;
+		}
+	}
+
+	/*
+	 * The decoder produces plain ESTree: Nashorn's extra "block" wrapper is
+	 * gone, labels and non-computed member properties are Identifiers and
+	 * properties carry their type.
+	 */
+	static JsonValue normalize(JsonValue jv) {
+		switch (jv.getValueType()) {
+		case OBJECT:
+			JsonObject jo = (JsonObject) jv;
+			if (jo.containsKey("block") && "BlockStatement".equals(jo.getString("type"))) {
+				return normalize(jo.get("block"));
+			}
+			JsonObjectBuilder job = Json.createObjectBuilder();
+			for (Entry<String, JsonValue> e : jo.entrySet()) {
+				JsonValue value = e.getValue();
+				if (("label".equals(e.getKey()) || "property".equals(e.getKey()))
+						&& value.getValueType() == JsonValue.ValueType.STRING) {
+					job.add(e.getKey(), Json.createObjectBuilder().add("type", "Identifier").add("name",
+							((JsonString) value).getString()));
+				} else if ("properties".equals(e.getKey())) {
+					JsonArrayBuilder jab = Json.createArrayBuilder();
+					for (JsonValue p : (JsonArray) value) {
+						JsonObject po = (JsonObject) normalize(p);
+						if (!po.containsKey("type")) {
+							JsonObjectBuilder pob = Json.createObjectBuilder().add("type", "Property");
+							for (Entry<String, JsonValue> pe : po.entrySet()) {
+								pob.add(pe.getKey(), pe.getValue());
+							}
+							po = pob.build();
+						}
+						jab.add(po);
+					}
+					job.add(e.getKey(), jab);
+				} else {
+					job.add(e.getKey(), normalize(value));
+				}
+			}
+			return job.build();
+		case ARRAY:
+			JsonArrayBuilder jab = Json.createArrayBuilder();
+			for (JsonValue item : (JsonArray) jv) {
+				jab.add(normalize(item));
+			}
+			return jab.build();
+		default:
+			return jv;
+		}
 	}
 }
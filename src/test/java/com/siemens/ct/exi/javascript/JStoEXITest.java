@@ -1,10 +1,23 @@
 package com.siemens.ct.exi.javascript;
 
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.assertSameBytes;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.encode;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.encodeAST;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.read;
+
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.io.StringReader;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.FixMethodOrder;
 import org.junit.runners.MethodSorters;
@@ -87,12 +100,76 @@ public class JStoEXITest extends TestCase {
 		_test("./src/test/resources/react.min.js");
 	}
 
+	public void testConcurrentGetAST() throws Exception {
+		final String[] codes = { read("animals.js"), read("browserDetection.js"), read("xCryptic.app.js") };
+		final String[] expected = new String[codes.length];
+		for (int i = 0; i < codes.length; i++) {
+			expected[i] = JStoAST.getAST(codes[i]);
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			for (int n = 0; n < 60; n++) {
+				final int i = n % codes.length;
+				results.add(pool.submit(new Callable<Boolean>() {
+					public Boolean call() throws Exception {
+						return expected[i].equals(JStoAST.getAST(codes[i]));
+					}
+				}));
+			}
+			for (Future<Boolean> result : results) {
+				assertTrue(result.get());
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	public void testConcurrentGenerate() throws Exception {
+		final String[] codes = { read("animals.js"), read("browserDetection.js"), read("xCryptic.app.js") };
+		// one encoder for all threads
+		final JStoEXI js2exi = new JStoEXI();
+		final byte[][] expected = new byte[codes.length][];
+		for (int i = 0; i < codes.length; i++) {
+			expected[i] = encodeAST(js2exi, JStoAST.getAST(codes[i]));
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			for (int n = 0; n < 60; n++) {
+				final int i = n % codes.length;
+				final boolean direct = n % 2 == 0;
+				results.add(pool.submit(new Callable<Boolean>() {
+					public Boolean call() throws Exception {
+						byte[] exi = direct ? encode(js2exi, codes[i]) : encodeAST(js2exi, JStoAST.getAST(codes[i]));
+						return Arrays.equals(expected[i], exi);
+					}
+				}));
+			}
+			for (Future<Boolean> result : results) {
+				assertTrue(result.get());
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
 	protected void _test(String js) throws IOException, EXIException {
 		String jsCode = new String(Files.readAllBytes(Paths.get(js)));
 		JStoEXI js2exi = new JStoEXI();
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		js2exi.generate(JStoAST.getAST(jsCode), baos);
+		String jsonAST = JStoAST.getAST(jsCode);
+		byte[] exi = encodeAST(js2exi, jsonAST);
+
+		System.out.println(js + "; " + jsCode.length() + "; " + exi.length + ";");
+
+		// streaming JSON AST ingestion must not change the outcome
+		ByteArrayOutputStream baosStreaming = new ByteArrayOutputStream();
+		js2exi.generate(new StringReader(jsonAST), baosStreaming);
+		assertSameBytes(exi, baosStreaming.toByteArray());
 
-		System.out.println(js + "; " + jsCode.length() + "; " + baos.size() + ";");
+		// neither must skipping the JSON AST altogether
+		assertSameBytes(exi, encode(js2exi, jsCode));
 	}
 }
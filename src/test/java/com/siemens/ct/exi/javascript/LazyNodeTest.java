@@ -0,0 +1,80 @@
+package com.siemens.ct.exi.javascript;
+
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.decode;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.encode;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.parseJSON;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.read;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.toJSON;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import javax.json.JsonObject;
+
+import org.junit.FixMethodOrder;
+import org.junit.runners.MethodSorters;
+
+import com.siemens.ct.exi.core.exceptions.EXIException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for lazily decoded function bodies
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class LazyNodeTest extends TestCase {
+
+	/**
+	 * Create the test case
+	 *
+	 * @param testName
+	 *            name of the test case
+	 */
+	public LazyNodeTest(String testName) {
+		super(testName);
+	}
+
+	/**
+	 * @return the suite of tests being tested
+	 */
+	public static Test suite() {
+		return new TestSuite(LazyNodeTest.class);
+	}
+
+	public void testDecodeLazily() throws IOException, EXIException {
+		byte[] exi = encode(new JStoEXI(), read("react.js"));
+		EXItoAST exi2ast = new EXItoAST();
+		JsonObject eager = decode(exi2ast, exi);
+		JsonObject lazy = exi2ast.decode(new ByteArrayInputStream(exi), true);
+
+		// (function(f) { ... })(function() { ... })
+		JsonObject call = lazy.getJsonArray("body").getJsonObject(0).getJsonObject("expression");
+		JsonObject callee = call.getJsonObject("callee");
+		assertEquals("FunctionExpression", callee.getString("type"));
+		LazyNode body = (LazyNode) callee.get("body");
+		assertEquals("BlockStatement", body.getString("type"));
+		assertFalse(body.isDecoded());
+		assertEquals(eager.getJsonArray("body").getJsonObject(0).getJsonObject("expression").getJsonObject("callee")
+				.getJsonObject("body"), body);
+		assertTrue(body.isDecoded());
+
+		assertEquals(eager, lazy);
+		assertEquals(parseJSON(toJSON(exi2ast, exi)), lazy);
+	}
+
+	public void testDecodeLazilyArrowDedup() throws IOException, EXIException {
+		// the dedup grammars have QNameContexts of their own
+		byte[] exi = encode(new JStoEXI(JSConstants.EXI_FACTORY_ES2015_DEDUP),
+				"var f = (a) => { return a; }; var g = (a) => { return a; };");
+		EXItoAST exi2ast = new EXItoAST(JSConstants.EXI_FACTORY_ES2015_DEDUP);
+		JsonObject lazy = exi2ast.decode(new ByteArrayInputStream(exi), true);
+
+		JsonObject arrow = lazy.getJsonArray("body").getJsonObject(0).getJsonArray("declarations").getJsonObject(0)
+				.getJsonObject("init");
+		assertEquals("ArrowExpression", arrow.getString("type"));
+		assertFalse(((LazyNode) arrow.get("body")).isDecoded());
+		assertEquals(decode(exi2ast, exi), lazy);
+	}
+}
@@ -0,0 +1,81 @@
+package com.siemens.ct.exi.javascript;
+
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.assertSameBytes;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.decode;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.encode;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.encodeAST;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.toJS;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.toJSON;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+
+import org.junit.FixMethodOrder;
+import org.junit.runners.MethodSorters;
+
+import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.core.values.FloatValue;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for numeric literals
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class NumbersTest extends TestCase {
+
+	/**
+	 * Create the test case
+	 *
+	 * @param testName
+	 *            name of the test case
+	 */
+	public NumbersTest(String testName) {
+		super(testName);
+	}
+
+	/**
+	 * @return the suite of tests being tested
+	 */
+	public static Test suite() {
+		return new TestSuite(NumbersTest.class);
+	}
+
+	public void testOverflow() {
+		assertEquals(Numbers.INF, Numbers.floatValue(new BigDecimal("1.5e16402")));
+		assertEquals(Numbers.NEGATIVE_INF, Numbers.floatValue(new BigDecimal("-1e40000")));
+		assertEquals(Numbers.INF, Numbers.floatValue(Numbers.INFINITY));
+		// trailing zeros into the mantissa rather than INF
+		assertEquals(new FloatValue(50000000, Numbers.MAX_EXPONENT), Numbers.floatValue(new BigDecimal("5e16390")));
+		assertEquals(new BigDecimal("5e16390"),
+				Numbers.toBigDecimal(Numbers.floatValue(new BigDecimal("5e16390"))).stripTrailingZeros());
+
+		assertEquals(Numbers.INFINITY, Numbers.toBigDecimal(Numbers.INF));
+		assertEquals(Numbers.INFINITY.negate(), Numbers.toBigDecimal(Numbers.NEGATIVE_INF));
+	}
+
+	public void testUnderflow() {
+		assertEquals(new FloatValue(0, 0), Numbers.floatValue(new BigDecimal("1e-16384")));
+		assertEquals(new FloatValue(0, 0), Numbers.floatValue(new BigDecimal("-7e-40000")));
+		// least significant digits dropped rather than 0
+		assertEquals(new FloatValue(123, -Numbers.MAX_EXPONENT), Numbers.floatValue(new BigDecimal("12345e-16385")));
+	}
+
+	public void testLiteralsBeyondDouble() throws IOException, EXIException {
+		String[] codes = { "x = 1e400;", "x = -1e400, y = { 1e999: 1e-999 };", "x = 1e-400;" };
+		for (JSParser parser : new JSParser[] { new NashornParser(), new ES2015Parser() }) {
+			JStoEXI js2exi = new JStoEXI(JSConstants.EXI_FACTORY, parser);
+			for (String code : codes) {
+				byte[] exi = encode(js2exi, code);
+				// as JSON AST and as JavaScript again
+				assertSameBytes(code, exi, encodeAST(new JStoEXI(), toJSON(new EXItoAST(), exi)));
+				assertSameBytes(code, exi, encode(js2exi, toJS(new EXItoJS(), exi)));
+			}
+			assertEquals(Numbers.INFINITY, decode(new EXItoAST(), encode(js2exi, codes[0])).getJsonArray("body")
+					.getJsonObject(0).getJsonObject("expression").getJsonObject("right").getJsonNumber("value")
+					.bigDecimalValue());
+		}
+	}
+}
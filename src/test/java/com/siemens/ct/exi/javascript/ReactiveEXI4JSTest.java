@@ -0,0 +1,207 @@
+package com.siemens.ct.exi.javascript;
+
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.assertSameBytes;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.encode;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.path;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.toJSON;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.FixMethodOrder;
+import org.junit.runners.MethodSorters;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for the reactive API
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class ReactiveEXI4JSTest extends TestCase {
+
+	/**
+	 * Create the test case
+	 *
+	 * @param testName
+	 *            name of the test case
+	 */
+	public ReactiveEXI4JSTest(String testName) {
+		super(testName);
+	}
+
+	/**
+	 * @return the suite of tests being tested
+	 */
+	public static Test suite() {
+		return new TestSuite(ReactiveEXI4JSTest.class);
+	}
+
+	public void testReactive() throws Exception {
+		byte[] jsCode = Files.readAllBytes(path("jquery.min.js"));
+		byte[] expected = encode(new JStoEXI(), new String(jsCode, "UTF-8"));
+		byte[] expectedJSON = toJSON(new EXItoAST(), expected).getBytes("UTF-8");
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			ReactiveEXI4JS reactive = new ReactiveEXI4JS(executor);
+			// chunks split UTF-8 sequences
+			Collector exi = new Collector(1);
+			reactive.encode(publisher(jsCode, 1000)).subscribe(exi);
+			assertSameBytes(expected, exi.await());
+			Collector json = new Collector(3);
+			reactive.decode(publisher(expected, 4096)).subscribe(json);
+			assertSameBytes(expectedJSON, json.await());
+
+			// no more than requested, decoding parks rather than blocks
+			final Semaphore ran = new Semaphore(0);
+			final ExecutorService workers = executor;
+			ReactiveEXI4JS counting = new ReactiveEXI4JS(new Executor() {
+				public void execute(final Runnable task) {
+					workers.execute(new Runnable() {
+						public void run() {
+							task.run();
+							ran.release();
+						}
+					});
+				}
+			});
+			Collector two = new Collector(0);
+			counting.decode(publisher(expected, 4096)).subscribe(two);
+			two.subscription.request(2);
+			assertTrue(ran.tryAcquire(60, TimeUnit.SECONDS));
+			assertEquals(2, two.buffers);
+			assertTrue(((ReactiveEXI4JS.Job) two.subscription).parked.get());
+			assertFalse(two.completed.getCount() == 0);
+			two.subscription.request(1);
+			assertTrue(ran.tryAcquire(60, TimeUnit.SECONDS));
+			assertEquals(3, two.buffers);
+			assertFalse(two.completed.getCount() == 0);
+			two.subscription.cancel();
+			assertTrue(ran.tryAcquire(60, TimeUnit.SECONDS));
+			assertFalse(((ReactiveEXI4JS.Job) two.subscription).parked.get());
+
+			// encoding waits once the window is full
+			byte[] bundle = Files.readAllBytes(path("angular2.min.js"));
+			Collector three = new Collector(0);
+			counting.encode(publisher(bundle, 4096)).subscribe(three);
+			three.subscription.request(3);
+			ReactiveEXI4JS.Job job = (ReactiveEXI4JS.Job) three.subscription;
+			long deadline = System.currentTimeMillis() + 60000;
+			while (job.queued.get() < ReactiveEXI4JS.WINDOW) {
+				assertTrue(System.currentTimeMillis() < deadline);
+				Thread.sleep(10);
+			}
+			assertEquals(3, three.buffers);
+			assertFalse(ran.tryAcquire());
+			assertEquals(ReactiveEXI4JS.WINDOW, job.queued.get());
+			three.subscription.cancel();
+			assertTrue(ran.tryAcquire(60, TimeUnit.SECONDS));
+			assertFalse(three.completed.getCount() == 0);
+
+			Collector invalid = new Collector(0);
+			reactive.encode(publisher(jsCode, 1000)).subscribe(invalid);
+			invalid.subscription.request(0);
+			try {
+				invalid.await();
+				fail();
+			} catch (IllegalArgumentException e) {
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/* chunks as demanded, synchronously */
+	static Flow.Publisher<ByteBuffer> publisher(final byte[] bytes, final int chunkSize) {
+		return new Flow.Publisher<ByteBuffer>() {
+			public void subscribe(final Flow.Subscriber<? super ByteBuffer> subscriber) {
+				subscriber.onSubscribe(new Flow.Subscription() {
+					int position;
+					long demand;
+					boolean emitting;
+					boolean done;
+
+					public void request(long n) {
+						demand += n;
+						if (emitting) {
+							return;
+						}
+						emitting = true;
+						while (!done && (demand > 0 || position == bytes.length)) {
+							if (position == bytes.length) {
+								done = true;
+								subscriber.onComplete();
+							} else {
+								int length = Math.min(chunkSize, bytes.length - position);
+								demand--;
+								subscriber.onNext(ByteBuffer.wrap(bytes, position, length));
+								position += length;
+							}
+						}
+						emitting = false;
+					}
+
+					public void cancel() {
+						done = true;
+					}
+				});
+			}
+		};
+	}
+
+	/* requests batch buffers at a time, none at all if 0 */
+	static class Collector implements Flow.Subscriber<ByteBuffer> {
+		final int batch;
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final CountDownLatch completed = new CountDownLatch(1);
+		volatile Flow.Subscription subscription;
+		volatile int buffers;
+		volatile Throwable error;
+
+		Collector(int batch) {
+			this.batch = batch;
+		}
+
+		byte[] await() throws Exception {
+			assertTrue(completed.await(60, TimeUnit.SECONDS));
+			if (error instanceof Exception) {
+				throw (Exception) error;
+			}
+			return bytes.toByteArray();
+		}
+
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			if (batch > 0) {
+				subscription.request(batch);
+			}
+		}
+
+		public void onNext(ByteBuffer item) {
+			bytes.write(item.array(), item.arrayOffset() + item.position(), item.remaining());
+			if (batch > 0 && ++buffers % batch == 0) {
+				subscription.request(batch);
+			} else if (batch == 0) {
+				buffers++;
+			}
+		}
+
+		public void onError(Throwable throwable) {
+			error = throwable;
+			completed.countDown();
+		}
+
+		public void onComplete() {
+			completed.countDown();
+		}
+	}
+}
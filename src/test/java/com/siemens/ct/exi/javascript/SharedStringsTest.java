@@ -0,0 +1,71 @@
+package com.siemens.ct.exi.javascript;
+
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.encode;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.read;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.toJSON;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.FixMethodOrder;
+import org.junit.runners.MethodSorters;
+
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.FidelityOptions;
+import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.core.helpers.DefaultEXIFactory;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for the shared strings of the default factories
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class SharedStringsTest extends TestCase {
+
+	/**
+	 * Create the test case
+	 *
+	 * @param testName
+	 *            name of the test case
+	 */
+	public SharedStringsTest(String testName) {
+		super(testName);
+	}
+
+	/**
+	 * @return the suite of tests being tested
+	 */
+	public static Test suite() {
+		return new TestSuite(SharedStringsTest.class);
+	}
+
+	public void testSharedStrings() throws IOException, EXIException {
+		String jsCode = read("browserDetection.js");
+		EXIFactory sharedStrings = DefaultEXIFactory.newInstance();
+		sharedStrings.setFidelityOptions(FidelityOptions.createStrict());
+		sharedStrings.setGrammars(JSConstants.EXI_FOR_JS_GRAMMARS);
+		sharedStrings.setSharedStrings(JSConstants.SHARED_STRINGS);
+
+		// opt-in, the default wire format goes without
+		byte[] exi = encode(new JStoEXI(), jsCode);
+		assertNull(JSConstants.EXI_FACTORY.getSharedStrings());
+		byte[] exiShared = encode(new JStoEXI(sharedStrings), jsCode);
+		assertTrue(exiShared.length < exi.length);
+
+		// both decoders must agree on the dictionary in use
+		assertEquals(toJSON(new EXItoAST(), exi), toJSON(new EXItoAST(sharedStrings), exiShared));
+	}
+
+	public void testTraining() throws IOException, EXIException {
+		SharedStrings trainer = new SharedStrings(new ES2015Parser());
+		// as is and minified, one document
+		trainer.addDocument("let answer = 42;\nclass Question {}", "let a=42;class Question{}");
+		trainer.addDocument("const answer = 'a';");
+		assertEquals(2, trainer.getNumberOfDocuments());
+		assertEquals(Arrays.asList("answer"), trainer.getStrings(10, 2));
+		assertEquals(Arrays.asList("answer", "$a", "Question", "a"), trainer.getStrings(10, 1));
+	}
+}
@@ -0,0 +1,92 @@
+package com.siemens.ct.exi.javascript;
+
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.assertSameBytes;
+import static com.siemens.ct.exi.javascript.EXI4JSTesting.encode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.FixMethodOrder;
+import org.junit.runners.MethodSorters;
+
+import com.siemens.ct.exi.core.exceptions.EXIException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for UTF-8 file input
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class Utf8InputTest extends TestCase {
+
+	/**
+	 * Create the test case
+	 *
+	 * @param testName
+	 *            name of the test case
+	 */
+	public Utf8InputTest(String testName) {
+		super(testName);
+	}
+
+	/**
+	 * @return the suite of tests being tested
+	 */
+	public static Test suite() {
+		return new TestSuite(Utf8InputTest.class);
+	}
+
+	public void testUtf8Input() throws IOException, EXIException {
+		String jsCode = "var s = '\u00e4\u20ac\ud83d\ude00'; // \ud83d\ude00\n" + "x = s.length;";
+		File js = File.createTempFile("utf8", ".js");
+		File json = File.createTempFile("utf8", ".json");
+		try {
+			Path path = js.toPath();
+			Files.write(path, jsCode.getBytes(StandardCharsets.UTF_8));
+			JStoEXI js2exi = new JStoEXI();
+			byte[] expected = encode(js2exi, jsCode);
+
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			js2exi.generateFromSource(path, baos);
+			assertSameBytes(expected, baos.toByteArray());
+			baos.reset();
+			FileChannel channel = FileChannel.open(path);
+			try {
+				js2exi.generateFromSource(channel, baos);
+			} finally {
+				channel.close();
+			}
+			assertSameBytes(expected, baos.toByteArray());
+			baos.reset();
+			js2exi.generateFromSource(new StringReader(jsCode), baos);
+			assertSameBytes(expected, baos.toByteArray());
+
+			// one char at a time splits the surrogate pairs
+			Reader reader = Utf8Input.reader(path);
+			StringBuilder sb = new StringBuilder();
+			char[] c = new char[1];
+			while (reader.read(c, 0, 1) >= 0) {
+				sb.append(c[0]);
+			}
+			assertEquals(jsCode, sb.toString());
+
+			String jsonAST = JStoAST.getAST(jsCode);
+			Files.write(json.toPath(), jsonAST.getBytes(StandardCharsets.UTF_8));
+			baos.reset();
+			js2exi.generate(json.toPath(), baos);
+			assertSameBytes(expected, baos.toByteArray());
+		} finally {
+			js.delete();
+			json.delete();
+		}
+	}
+}